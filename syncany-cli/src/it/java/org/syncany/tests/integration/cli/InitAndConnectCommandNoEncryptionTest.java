@@ -17,6 +17,7 @@
  */
 package org.syncany.tests.integration.cli;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.contrib.java.lang.system.TextFromStandardInputStream.emptyStandardInputStream;
 
@@ -27,8 +28,12 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.TextFromStandardInputStream;
+import org.simpleframework.xml.core.Persister;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.cli.CommandLineClient;
 import org.syncany.cli.util.InitConsole;
+import org.syncany.config.to.RepoTO;
 import org.syncany.tests.util.TestCliUtil;
 import org.syncany.tests.util.TestFileUtil;
 import org.syncany.tests.util.TestConfigUtil;
@@ -76,6 +81,39 @@ public class InitAndConnectCommandNoEncryptionTest {
 		TestFileUtil.deleteDirectory(tempDir);
 	}
 
+	@Test
+	public void testCliInitCommandWithChunker() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		assertTrue(TestCliUtil.createDirectory(tempDir));
+
+		Map<String, String> connectionSettings = TestConfigUtil.createTestLocalConnectionSettings();
+		Map<String, String> clientA = TestCliUtil.createLocalTestEnv("A", connectionSettings);
+
+		// Run
+		String[] initArgs = new String[] {
+				"--localdir=" + tempDir.getAbsolutePath(),
+				"init",
+				"--plugin", "local",
+				"--plugin-option", "path=" + clientA.get("repopath"),
+				"--no-encryption",
+				"--no-compression",
+				"--chunker=" + FastCdcChunker.TYPE,
+				"--digest=SHA-256"
+		};
+
+		new CommandLineClient(initArgs).start();
+
+		// Test (repo file is not encrypted)
+		RepoTO repoTO = new Persister().read(RepoTO.class, new File(tempDir + "/.syncany/syncany"));
+		assertEquals(FastCdcChunker.TYPE, repoTO.getChunkerTO().getType());
+		assertEquals("SHA-256", repoTO.getChunkerTO().getSettings().get(Chunker.PROPERTY_DIGEST));
+
+		// Tear down
+		TestCliUtil.deleteTestLocalConfigAndData(clientA);
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
 	@Test
 	public void testCliInitCommandInteractive() throws Exception {
 		// Setup
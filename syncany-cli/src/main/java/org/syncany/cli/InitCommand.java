@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.FixedChunker;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.DefaultRepoTOFactory;
 import org.syncany.config.to.RepoTO;
@@ -30,6 +32,7 @@ import org.syncany.config.to.RepoTOFactory;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
 import org.syncany.crypto.CipherUtil;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
 import org.syncany.operations.OperationResult;
 import org.syncany.operations.init.GenlinkOperationOptions;
 import org.syncany.operations.init.InitOperation;
@@ -97,6 +100,10 @@ public class InitCommand extends AbstractInitCommand {
 		OptionSpec<Void> optionShortUrl = parser.acceptsAll(asList("s", "short"));
 		OptionSpec<Void> optionHeadlessMode = parser.acceptsAll(asList("l", "headless"));
 		OptionSpec<String> optionPassword = parser.acceptsAll(asList("password")).withRequiredArg();
+		OptionSpec<String> optionChunker = parser.acceptsAll(asList("chunker")).withRequiredArg().defaultsTo(FixedChunker.TYPE);
+		OptionSpec<String> optionDigest = parser.acceptsAll(asList("digest")).withRequiredArg().defaultsTo(FixedChunker.DEFAULT_DIGEST_ALG);
+		OptionSpec<String> optionFileChecksum = parser.acceptsAll(asList("file-checksum")).withRequiredArg().defaultsTo(Chunker.FILE_CHECKSUM_CONTENT);
+		OptionSpec<String> optionDatabaseFormat = parser.acceptsAll(asList("database-format")).withRequiredArg().defaultsTo("xml");
 
 		OptionSet options = parser.parse(operationArguments);
 
@@ -118,9 +125,12 @@ public class InitCommand extends AbstractInitCommand {
 		// Cipher specs: --no-encryption, --advanced
 		List<CipherSpec> cipherSpecs = getCipherSpecs(encryptionEnabled, advancedModeEnabled);
 
-		// Compression: --no-compression
+		// Compression: --no-compression, chunker: --chunker, --digest, --file-checksum
 		// DefaultRepoTOFactory also creates default chunkers
-		RepoTOFactory repoTOFactory = new DefaultRepoTOFactory(compressionEnabled, cipherSpecs);
+		String chunkerType = options.valueOf(optionChunker);
+		String digestAlgorithm = options.valueOf(optionDigest);
+		String fileChecksumMode = options.valueOf(optionFileChecksum);
+		RepoTOFactory repoTOFactory = new DefaultRepoTOFactory(compressionEnabled, cipherSpecs, chunkerType, digestAlgorithm, fileChecksumMode);
 
 		// Genlink options: --short
 		GenlinkOperationOptions genlinkOptions = new GenlinkOperationOptions();
@@ -134,6 +144,9 @@ public class InitCommand extends AbstractInitCommand {
 		ConfigTO configTO = createConfigTO(transferSettings);
 		RepoTO repoTO = repoTOFactory.createRepoTO();
 
+		// Database format: --database-format
+		repoTO.setDatabaseFormat(parseDatabaseFormat(options.valueOf(optionDatabaseFormat)));
+
 		operationOptions.setLocalDir(localDir);
 		operationOptions.setConfigTO(configTO);
 		operationOptions.setRepoTO(repoTO);
@@ -147,6 +160,15 @@ public class InitCommand extends AbstractInitCommand {
 		return operationOptions;
 	}
 
+	private DatabaseFormat parseDatabaseFormat(String databaseFormatStr) {
+		try {
+			return DatabaseFormat.valueOf(databaseFormatStr.toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid database format: " + databaseFormatStr + ". Valid values are 'xml' and 'binary'.");
+		}
+	}
+
 	private String validateAndGetPassword(OptionSet options, OptionSpec<Void> optionNoEncryption, OptionSpec<String> optionPassword) {
 		if (!isInteractive) {
 			if (options.has(optionPassword) && options.has(optionNoEncryption)) {
@@ -23,8 +23,10 @@ import org.junit.runners.Suite.SuiteClasses;
 import org.syncany.tests.integration.database.DatabaseReconciliatorTest;
 import org.syncany.tests.integration.database.FileVersionComparatorTest;
 import org.syncany.tests.integration.database.MemoryDatabaseCacheTest;
+import org.syncany.tests.integration.database.MemoryDatabasePerformanceTest;
 import org.syncany.tests.integration.database.PartialFileHistoryTest;
 import org.syncany.tests.integration.database.dao.ApplicationDaoTest;
+import org.syncany.tests.integration.database.dao.BinaryDatabaseDaoTest;
 import org.syncany.tests.integration.database.dao.ChunkDaoTest;
 import org.syncany.tests.integration.database.dao.DatabaseVersionDaoTest;
 import org.syncany.tests.integration.database.dao.FileContentDaoTest;
@@ -37,6 +39,7 @@ import org.syncany.database.VectorClockTest;
 @RunWith(Suite.class)
 @SuiteClasses({
 	ApplicationDaoTest.class,
+	BinaryDatabaseDaoTest.class,
 	ChunkDaoTest.class,
 	DatabaseReconciliatorTest.class,
 	DatabaseVersionDaoTest.class,
@@ -45,6 +48,7 @@ import org.syncany.database.VectorClockTest;
 	FileContentDaoTest.class,
 	MultiChunkDaoTest.class,
 	MemoryDatabaseCacheTest.class,
+	MemoryDatabasePerformanceTest.class,
 	ObjectIdTest.class,
 	PartialFileHistoryTest.class,
 	VectorClockTest.class,
@@ -26,12 +26,14 @@ import org.syncany.tests.integration.operations.CleanupOperationTest;
 import org.syncany.tests.integration.operations.ConnectOperationTest;
 import org.syncany.tests.integration.operations.FileSystemActionComparatorTest;
 import org.syncany.tests.integration.operations.FileSystemActionReconciliatorTest;
+import org.syncany.tests.integration.operations.FileSystemActionSchedulerTest;
 import org.syncany.tests.integration.operations.IndexerTest;
 import org.syncany.tests.integration.operations.InitOperationTest;
 import org.syncany.tests.integration.operations.LogOperationTest;
 import org.syncany.tests.integration.operations.NotificationListenerTest;
 import org.syncany.tests.integration.operations.OperationPerformanceTest;
 import org.syncany.tests.integration.operations.PluginOperationTest;
+import org.syncany.tests.integration.operations.RecursiveWatcherPerformanceTest;
 import org.syncany.tests.integration.operations.RecursiveWatcherTest;
 import org.syncany.tests.integration.operations.SplitSyncUpOperationTest;
 import org.syncany.tests.integration.operations.StatusOperationTest;
@@ -48,12 +50,14 @@ import org.syncany.operations.daemon.DaemonOperationTest;
 		DatabaseVersionHeaderComparatorTest.class,
 		FileSystemActionComparatorTest.class,
 		FileSystemActionReconciliatorTest.class,
+		FileSystemActionSchedulerTest.class,
 		IndexerTest.class,
 		InitOperationTest.class,
 		LogOperationTest.class,
 		NotificationListenerTest.class,
 		OperationPerformanceTest.class,
 		PluginOperationTest.class,
+		RecursiveWatcherPerformanceTest.class,
 		RecursiveWatcherTest.class,
 		SplitSyncUpOperationTest.class,
 		StatusOperationTest.class,
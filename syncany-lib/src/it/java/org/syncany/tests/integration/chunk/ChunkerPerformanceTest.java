@@ -0,0 +1,229 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.chunk;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.ChunkSource;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MappedChunkSource;
+import org.syncany.chunk.StreamChunkSource;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+/**
+ * Benchmarks the available {@link Chunker}s on an insertion-shifted corpus: A random
+ * file is chunked, then a few bytes are inserted at random positions, and the modified
+ * file is chunked again. The test reports the deduplication ratio (share of bytes in
+ * the modified file that are covered by already known chunks), the throughput and the
+ * number of bytes allocated per chunked megabyte.
+ *
+ * <p>Throughput and allocation rate are measured for both chunk sources, i.e. when reading
+ * the file via a {@link StreamChunkSource} and via a {@link MappedChunkSource}.
+ */
+public class ChunkerPerformanceTest {
+	private static final Logger logger = Logger.getLogger(ChunkerPerformanceTest.class.getSimpleName());
+
+	private static final int CORPUS_FILE_SIZE = 32 * 1024 * 1024;
+	private static final int CORPUS_INSERTIONS = 10;
+	private static final int AVG_CHUNK_SIZE = 16 * 1024;
+
+	private File tempDir;
+	private File originalFile;
+	private File shiftedFile;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		originalFile = new File(tempDir, "original");
+		shiftedFile = new File(tempDir, "shifted");
+
+		createInsertionShiftedCorpus(originalFile, shiftedFile);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testChunkerPerformance() throws Exception {
+		ChunkerResult fixedResult = benchmark(new FixedChunker(AVG_CHUNK_SIZE));
+		ChunkerResult tttdResult = benchmark(new TttdChunker(AVG_CHUNK_SIZE));
+		ChunkerResult fastCdcResult = benchmark(new FastCdcChunker(AVG_CHUNK_SIZE));
+
+		assertTrue("Content-defined chunking should deduplicate insertion-shifted files better than fixed-size chunking.",
+				tttdResult.dedupRatio > fixedResult.dedupRatio);
+		assertTrue("Content-defined chunking should deduplicate insertion-shifted files better than fixed-size chunking.",
+				fastCdcResult.dedupRatio > fixedResult.dedupRatio);
+	}
+
+	private ChunkerResult benchmark(Chunker chunker) throws IOException {
+		// Deduplication ratio
+		ChunkingStats originalStats = chunk(chunker, originalFile);
+		ChunkingStats shiftedStats = chunk(chunker, shiftedFile);
+
+		Set<String> originalChunks = new HashSet<String>(originalStats.chunkChecksums);
+		long dedupBytes = 0;
+
+		for (int i = 0; i < shiftedStats.chunkChecksums.size(); i++) {
+			if (originalChunks.contains(shiftedStats.chunkChecksums.get(i))) {
+				dedupBytes += shiftedStats.chunkSizes.get(i);
+			}
+		}
+
+		ChunkerResult result = new ChunkerResult();
+		result.dedupRatio = (double) dedupBytes / shiftedFile.length();
+
+		logger.log(Level.INFO, String.format("%s: dedup ratio %.2f%% (%d chunks)", chunker, result.dedupRatio * 100,
+				shiftedStats.chunkChecksums.size()));
+
+		// Throughput and allocation rate (without any bookkeeping)
+		for (boolean mapped : new boolean[] { false, true }) {
+			drain(createChunks(chunker, originalFile, mapped)); // Warm-up
+
+			long allocatedBytesBefore = getAllocatedBytes();
+			long timeStart = System.nanoTime();
+
+			drain(createChunks(chunker, originalFile, mapped));
+
+			long timeTotal = System.nanoTime() - timeStart;
+			long allocatedBytes = getAllocatedBytes() - allocatedBytesBefore;
+
+			double chunkedMegabytes = originalFile.length() / 1024.0 / 1024.0;
+			double throughput = chunkedMegabytes / (timeTotal / 1000000000.0);
+			double allocatedBytesPerMegabyte = (allocatedBytesBefore >= 0) ? allocatedBytes / chunkedMegabytes : -1;
+
+			logger.log(Level.INFO, String.format("%s (%s source): %.1f MB/s, %.0f bytes allocated per MB", chunker, (mapped) ? "mapped" : "stream",
+					throughput, allocatedBytesPerMegabyte));
+		}
+
+		return result;
+	}
+
+	private ChunkEnumeration createChunks(Chunker chunker, File file, boolean mapped) throws IOException {
+		ChunkSource source = (mapped) ? new MappedChunkSource(file) : new StreamChunkSource(new FileInputStream(file));
+
+		if (chunker instanceof FixedChunker) {
+			return ((FixedChunker) chunker).new FixedChunkEnumeration(source);
+		}
+		else if (chunker instanceof FastCdcChunker) {
+			return ((FastCdcChunker) chunker).new FastCdcEnumeration(source);
+		}
+		else {
+			return ((TttdChunker) chunker).new TTTDEnumeration(source);
+		}
+	}
+
+	private void drain(ChunkEnumeration chunkEnumeration) {
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkEnumeration.nextElement();
+		}
+
+		chunkEnumeration.close();
+	}
+
+	private ChunkingStats chunk(Chunker chunker, File file) throws IOException {
+		ChunkingStats stats = new ChunkingStats();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+
+			stats.chunkChecksums.add(StringUtil.toHex(chunk.getChecksum()));
+			stats.chunkSizes.add(chunk.getSize());
+		}
+
+		chunkEnumeration.close();
+		return stats;
+	}
+
+	private void createInsertionShiftedCorpus(File originalFile, File shiftedFile) throws IOException {
+		Random random = new Random(4711);
+
+		byte[] originalContent = TestFileUtil.createArray(CORPUS_FILE_SIZE, random);
+		byte[] shiftedContent = new byte[CORPUS_FILE_SIZE + CORPUS_INSERTIONS];
+
+		int[] insertPositions = new int[CORPUS_INSERTIONS];
+
+		for (int i = 0; i < CORPUS_INSERTIONS; i++) {
+			insertPositions[i] = random.nextInt(CORPUS_FILE_SIZE);
+		}
+
+		Arrays.sort(insertPositions);
+
+		int originalPos = 0;
+		int shiftedPos = 0;
+
+		for (int insertPosition : insertPositions) {
+			int length = insertPosition - originalPos;
+
+			System.arraycopy(originalContent, originalPos, shiftedContent, shiftedPos, length);
+			shiftedPos += length;
+			originalPos += length;
+
+			shiftedContent[shiftedPos++] = (byte) random.nextInt();
+		}
+
+		System.arraycopy(originalContent, originalPos, shiftedContent, shiftedPos, CORPUS_FILE_SIZE - originalPos);
+
+		TestFileUtil.writeByteArrayToFile(originalContent, originalFile);
+		TestFileUtil.writeByteArrayToFile(shiftedContent, shiftedFile);
+	}
+
+	private long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		else {
+			return -1;
+		}
+	}
+
+	private static class ChunkingStats {
+		private List<String> chunkChecksums = new ArrayList<String>();
+		private List<Integer> chunkSizes = new ArrayList<Integer>();
+	}
+
+	private static class ChunkerResult {
+		private double dedupRatio;
+	}
+}
@@ -232,6 +232,66 @@ public class MemoryDatabaseCacheTest {
 		assertEquals(fileHistory3, database.getFileHistory("file1.jpg"));
 	}
 
+	@Test
+	public void testFilenameCacheMoveOfOneOfTwoHistoriesAtSamePath() throws IOException {
+		MemoryDatabase database = new MemoryDatabase();
+
+		// Round 1: Add file history A
+		DatabaseVersion databaseVersion1 = TestDatabaseUtil.createDatabaseVersion();
+
+		FileVersion fileVersionA1 = TestDatabaseUtil.createFileVersion("file1.jpg");
+		FileHistoryId idFileA = FileHistoryId.parseFileId("1111111111111111");
+		PartialFileHistory fileHistoryA1 = new PartialFileHistory(idFileA);
+
+		fileHistoryA1.addFileVersion(fileVersionA1);
+		databaseVersion1.addFileHistory(fileHistoryA1);
+
+		database.addDatabaseVersion(databaseVersion1);
+
+		// Round 2: Add file history B, ending at the same path
+		DatabaseVersion databaseVersion2 = TestDatabaseUtil.createDatabaseVersion(databaseVersion1);
+
+		FileVersion fileVersionB1 = TestDatabaseUtil.createFileVersion("file1.jpg");
+		FileHistoryId idFileB = FileHistoryId.parseFileId("2222222222222222");
+		PartialFileHistory fileHistoryB1 = new PartialFileHistory(idFileB);
+
+		fileHistoryB1.addFileVersion(fileVersionB1);
+		databaseVersion2.addFileHistory(fileHistoryB1);
+
+		database.addDatabaseVersion(databaseVersion2);
+
+		assertEquals(idFileB, database.getFileHistory("file1.jpg").getFileHistoryId());
+
+		// Round 3: Move history B away; history A still ends at file1.jpg
+		DatabaseVersion databaseVersion3 = TestDatabaseUtil.createDatabaseVersion(databaseVersion2);
+
+		FileVersion fileVersionB2 = TestDatabaseUtil.createFileVersion("file2.jpg", fileVersionB1);
+		PartialFileHistory fileHistoryB2 = new PartialFileHistory(idFileB);
+
+		fileHistoryB2.addFileVersion(fileVersionB2);
+		databaseVersion3.addFileHistory(fileHistoryB2);
+
+		database.addDatabaseVersion(databaseVersion3);
+
+		assertNotNull(database.getFileHistory("file1.jpg"));
+		assertEquals(idFileA, database.getFileHistory("file1.jpg").getFileHistoryId());
+		assertEquals(idFileB, database.getFileHistory("file2.jpg").getFileHistoryId());
+
+		// Round 4: Move history A away as well
+		DatabaseVersion databaseVersion4 = TestDatabaseUtil.createDatabaseVersion(databaseVersion3);
+
+		FileVersion fileVersionA2 = TestDatabaseUtil.createFileVersion("file3.jpg", fileVersionA1);
+		PartialFileHistory fileHistoryA2 = new PartialFileHistory(idFileA);
+
+		fileHistoryA2.addFileVersion(fileVersionA2);
+		databaseVersion4.addFileHistory(fileHistoryA2);
+
+		database.addDatabaseVersion(databaseVersion4);
+
+		assertNull(database.getFileHistory("file1.jpg"));
+		assertEquals(idFileA, database.getFileHistory("file3.jpg").getFileHistoryId());
+	}
+
 	@Test
 	public void testContentChecksumCache() throws IOException {
 		MemoryDatabase database = new MemoryDatabase();
@@ -0,0 +1,147 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.MemoryDatabase;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.tests.util.TestDatabaseUtil;
+
+/**
+ * Measures how long it takes to add many database versions to a {@link MemoryDatabase},
+ * e.g. when a new client loads the entire history of a repository. Each database version
+ * adds new files, and changes, renames and deletes existing files.
+ *
+ * <p>Since the caches are updated incrementally, adding a database version should not get
+ * slower the more file histories the database already contains.
+ */
+public class MemoryDatabasePerformanceTest {
+	private static final Logger logger = Logger.getLogger(MemoryDatabasePerformanceTest.class.getSimpleName());
+
+	private static final int DATABASE_VERSION_COUNT = 10000;
+	private static final int NEW_FILES_PER_DATABASE_VERSION = 10;
+	private static final int CHANGED_FILES_PER_DATABASE_VERSION = 5;
+
+	static {
+		Logging.init();
+	}
+
+	@Test
+	public void testAddDatabaseVersionsTimeIndependentOfDatabaseSize() {
+		List<DatabaseVersion> databaseVersions = createDatabaseVersions();
+		MemoryDatabase database = new MemoryDatabase();
+
+		int half = DATABASE_VERSION_COUNT / 2;
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < half; i++) {
+			database.addDatabaseVersion(databaseVersions.get(i));
+		}
+
+		long firstHalfTime = (System.nanoTime() - startTime) / 1000000;
+		startTime = System.nanoTime();
+
+		for (int i = half; i < DATABASE_VERSION_COUNT; i++) {
+			database.addDatabaseVersion(databaseVersions.get(i));
+		}
+
+		long secondHalfTime = (System.nanoTime() - startTime) / 1000000;
+
+		logger.log(Level.INFO, String.format("Added %d database versions (%d file histories): first half in %d ms, second half in %d ms",
+				DATABASE_VERSION_COUNT, database.getFileHistories().size(), firstHalfTime, secondHalfTime));
+
+		assertEquals(DATABASE_VERSION_COUNT * NEW_FILES_PER_DATABASE_VERSION, database.getFileHistories().size());
+		assertTrue("Adding database versions should not get slower with the database size: " + firstHalfTime + " ms vs. " + secondHalfTime + " ms",
+				secondHalfTime <= Math.max(3 * firstHalfTime, firstHalfTime + 500));
+
+		// Caches must match the file histories
+		for (PartialFileHistory fileHistory : database.getFileHistories()) {
+			FileVersion lastVersion = fileHistory.getLastVersion();
+
+			if (lastVersion.getStatus() == FileStatus.DELETED) {
+				assertNull(database.getFileHistory(lastVersion.getPath()));
+			}
+			else {
+				assertEquals(fileHistory, database.getFileHistory(lastVersion.getPath()));
+				assertTrue(database.getFileHistories(lastVersion.getChecksum()).contains(fileHistory));
+			}
+		}
+	}
+
+	private List<DatabaseVersion> createDatabaseVersions() {
+		List<DatabaseVersion> databaseVersions = new ArrayList<DatabaseVersion>();
+		List<PartialFileHistory> lastFileHistories = new ArrayList<PartialFileHistory>();
+
+		Random random = new Random(1);
+		DatabaseVersion lastDatabaseVersion = null;
+
+		for (int i = 0; i < DATABASE_VERSION_COUNT; i++) {
+			DatabaseVersion databaseVersion = TestDatabaseUtil.createDatabaseVersion(lastDatabaseVersion);
+
+			// Change, rename or delete existing files (at most once per database version)
+			for (int j = 0; j < CHANGED_FILES_PER_DATABASE_VERSION && lastFileHistories.size() > 0; j++) {
+				int fileHistoryIndex = random.nextInt(lastFileHistories.size());
+				PartialFileHistory lastFileHistory = lastFileHistories.get(fileHistoryIndex);
+				FileVersion lastVersion = lastFileHistory.getLastVersion();
+
+				if (databaseVersion.getFileHistory(lastFileHistory.getFileHistoryId()) == null && lastVersion.getStatus() != FileStatus.DELETED) {
+					FileVersion fileVersion = TestDatabaseUtil.createFileVersion(lastVersion.getPath() + "-" + i, lastVersion);
+
+					if (j == 0) {
+						fileVersion.setStatus(FileStatus.DELETED);
+					}
+
+					PartialFileHistory fileHistory = new PartialFileHistory(lastFileHistory.getFileHistoryId());
+					fileHistory.addFileVersion(fileVersion);
+
+					databaseVersion.addFileHistory(fileHistory);
+					lastFileHistories.set(fileHistoryIndex, fileHistory);
+				}
+			}
+
+			// Add new files
+			for (int j = 0; j < NEW_FILES_PER_DATABASE_VERSION; j++) {
+				PartialFileHistory fileHistory = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+				fileHistory.addFileVersion(TestDatabaseUtil.createFileVersion("folder" + i + "/file" + j));
+
+				databaseVersion.addFileHistory(fileHistory);
+				lastFileHistories.add(fileHistory);
+			}
+
+			databaseVersions.add(databaseVersion);
+			lastDatabaseVersion = databaseVersion;
+		}
+
+		return databaseVersions;
+	}
+}
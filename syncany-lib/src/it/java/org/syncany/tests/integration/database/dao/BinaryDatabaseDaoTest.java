@@ -0,0 +1,343 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.database.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.syncany.tests.util.TestAssertUtil.assertDatabaseVersionEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.config.Logging;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MemoryDatabase;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseXmlSerializer;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseVersionListener;
+import org.syncany.tests.util.TestAssertUtil;
+import org.syncany.tests.util.TestFileUtil;
+
+public class BinaryDatabaseDaoTest {
+	private static final Logger logger = Logger.getLogger(BinaryDatabaseDaoTest.class.getSimpleName());
+
+	private File tempDir;
+
+	static {
+		Logging.init();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testWriteAndReadAllEntities() throws IOException {
+		MemoryDatabase writtenDatabase = createDatabase(3, 20);
+
+		File databaseFile = new File(tempDir, "db-binary");
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		MemoryDatabase readDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(readDatabase, databaseFile, null, null, DatabaseReadType.FULL);
+
+		TestAssertUtil.assertDatabaseEquals(writtenDatabase, readDatabase);
+
+		// Optional fields
+		for (DatabaseVersion writtenDatabaseVersion : writtenDatabase.getDatabaseVersions()) {
+			for (PartialFileHistory writtenFileHistory : writtenDatabaseVersion.getFileHistories()) {
+				PartialFileHistory readFileHistory = readDatabase.getFileHistory(writtenFileHistory.getFileHistoryId());
+
+				assertArrayEquals(writtenFileHistory.getFileVersions().values().toArray(), readFileHistory.getFileVersions().values().toArray());
+			}
+
+			for (MultiChunkEntry writtenMultiChunk : writtenDatabaseVersion.getMultiChunks()) {
+				MultiChunkEntry readMultiChunk = readDatabase.getMultiChunk(writtenMultiChunk.getId());
+				assertArrayEquals(writtenMultiChunk.getChunks().toArray(), readMultiChunk.getChunks().toArray());
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAndReadWithTransformer() throws IOException {
+		MemoryDatabase writtenDatabase = createDatabase(2, 10);
+
+		File databaseFile = new File(tempDir, "db-binary-gzip");
+		new DatabaseXmlSerializer(new GzipTransformer(), DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		MemoryDatabase readDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer(new GzipTransformer()).load(readDatabase, databaseFile, null, null, DatabaseReadType.FULL);
+
+		TestAssertUtil.assertDatabaseEquals(writtenDatabase, readDatabase);
+	}
+
+	@Test
+	public void testReadHeaderOnlyAndPartialRange() throws IOException {
+		MemoryDatabase writtenDatabase = createDatabase(10, 5);
+		List<DatabaseVersion> writtenDatabaseVersions = writtenDatabase.getDatabaseVersions();
+
+		File databaseFile = new File(tempDir, "db-binary-partial");
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).save(writtenDatabaseVersions, databaseFile);
+
+		// Headers only
+		MemoryDatabase headerDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(headerDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+
+		assertEquals(10, headerDatabase.getDatabaseVersions().size());
+
+		for (int i = 0; i < 10; i++) {
+			DatabaseVersion headerDatabaseVersion = headerDatabase.getDatabaseVersions().get(i);
+
+			assertEquals(writtenDatabaseVersions.get(i).getHeader(), headerDatabaseVersion.getHeader());
+			assertEquals(0, headerDatabaseVersion.getChunks().size());
+			assertEquals(0, headerDatabaseVersion.getFileHistories().size());
+		}
+
+		// Versions 3 to 6 only
+		MemoryDatabase partialDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(partialDatabase, databaseFile, writtenDatabaseVersions.get(2).getVectorClock(),
+				writtenDatabaseVersions.get(5).getVectorClock(), DatabaseReadType.FULL);
+
+		assertEquals(4, partialDatabase.getDatabaseVersions().size());
+
+		for (int i = 2; i <= 5; i++) {
+			DatabaseVersion writtenDatabaseVersion = writtenDatabaseVersions.get(i);
+			DatabaseVersion readDatabaseVersion = partialDatabase.getDatabaseVersion(writtenDatabaseVersion.getVectorClock());
+
+			assertNotNull(readDatabaseVersion);
+			assertDatabaseVersionEquals(writtenDatabaseVersion, readDatabaseVersion);
+		}
+	}
+
+	@Test
+	public void testReadHeaderOnlyDoesNotReadContents() throws Exception {
+		MemoryDatabase writtenDatabase = createDatabase(5, 100);
+
+		File databaseFile = new File(tempDir, "db-binary-truncated");
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		// Cut off the contents of all but the first database version
+		try (RandomAccessFile databaseRandomAccessFile = new RandomAccessFile(databaseFile, "rw")) {
+			databaseRandomAccessFile.setLength(databaseFile.length() / 4);
+		}
+
+		// Headers can still be read
+		MemoryDatabase headerDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer().load(headerDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+
+		assertEquals(5, headerDatabase.getDatabaseVersions().size());
+
+		// Full read fails
+		try {
+			new DatabaseXmlSerializer().load(new MemoryDatabase(), databaseFile, null, null, DatabaseReadType.FULL);
+			fail("Reading a truncated database file should fail.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testReadUnsupportedFormatVersionFails() throws Exception {
+		MemoryDatabase writtenDatabase = createDatabase(1, 10);
+
+		File databaseFile = new File(tempDir, "db-binary-unsupported");
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+		// Format version follows the magic number
+		try (RandomAccessFile databaseRandomAccessFile = new RandomAccessFile(databaseFile, "rw")) {
+			databaseRandomAccessFile.seek(4);
+			databaseRandomAccessFile.writeInt(2);
+		}
+
+		try {
+			new DatabaseXmlSerializer().load(new MemoryDatabase(), databaseFile, null, null, DatabaseReadType.HEADER_ONLY);
+			fail("Reading a database file with an unsupported format version should fail.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testBinaryFormatReadsXmlAndIsSmaller() throws IOException {
+		MemoryDatabase writtenDatabase = createDatabase(5, 200);
+
+		File xmlDatabaseFile = new File(tempDir, "db-xml");
+		File binaryDatabaseFile = new File(tempDir, "db-binary");
+
+		new DatabaseXmlSerializer(null, DatabaseFormat.XML).save(writtenDatabase.getDatabaseVersions(), xmlDatabaseFile);
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).save(writtenDatabase.getDatabaseVersions(), binaryDatabaseFile);
+
+		// A serializer configured for binary files must still read XML files
+		MemoryDatabase readXmlDatabase = new MemoryDatabase();
+		new DatabaseXmlSerializer(null, DatabaseFormat.BINARY).load(readXmlDatabase, xmlDatabaseFile, null, null, DatabaseReadType.FULL);
+
+		TestAssertUtil.assertDatabaseEquals(writtenDatabase, readXmlDatabase);
+
+		logger.log(Level.INFO, "XML database: " + xmlDatabaseFile.length() + " bytes, binary database: " + binaryDatabaseFile.length() + " bytes");
+		assertTrue("Binary database should be less than half the size of the XML database.", binaryDatabaseFile.length() * 2 < xmlDatabaseFile.length());
+	}
+
+	@Test
+	public void testReadDatabaseVersionInParts() throws IOException {
+		MemoryDatabase writtenDatabase = createDatabase(1, 100); // 100 chunks, 1 multichunk, 100 file contents, 100 file histories
+		DatabaseVersion writtenDatabaseVersion = writtenDatabase.getLastDatabaseVersion();
+
+		for (DatabaseFormat databaseFormat : DatabaseFormat.values()) {
+			File databaseFile = new File(tempDir, "db-parts-" + databaseFormat);
+			new DatabaseXmlSerializer(null, databaseFormat).save(writtenDatabase.getDatabaseVersions(), databaseFile);
+
+			final List<DatabaseVersion> readDatabaseVersionParts = new ArrayList<DatabaseVersion>();
+			final List<Boolean> readLastParts = new ArrayList<Boolean>();
+
+			new DatabaseXmlSerializer().load(new DatabaseVersionListener() {
+				@Override
+				public void onDatabaseVersionRead(DatabaseVersion databaseVersionPart, boolean lastPart) {
+					readDatabaseVersionParts.add(databaseVersionPart);
+					readLastParts.add(lastPart);
+				}
+			}, databaseFile, null, null, DatabaseReadType.FULL, 50);
+
+			// 301 entities in parts of 50 = 7 parts
+			assertEquals(7, readDatabaseVersionParts.size());
+			assertEquals(Boolean.TRUE, readLastParts.get(6));
+
+			// Put back together
+			DatabaseVersion readDatabaseVersion = new DatabaseVersion();
+			readDatabaseVersion.setHeader(writtenDatabaseVersion.getHeader());
+
+			for (int i = 0; i < readDatabaseVersionParts.size(); i++) {
+				DatabaseVersion readDatabaseVersionPart = readDatabaseVersionParts.get(i);
+
+				assertEquals(writtenDatabaseVersion.getHeader(), readDatabaseVersionPart.getHeader());
+				assertEquals(i == readDatabaseVersionParts.size() - 1, readLastParts.get(i));
+				assertTrue(readDatabaseVersionPart.getChunks().size() + readDatabaseVersionPart.getMultiChunks().size()
+						+ readDatabaseVersionPart.getFileContents().size() + readDatabaseVersionPart.getFileHistories().size() <= 50);
+
+				for (ChunkEntry chunk : readDatabaseVersionPart.getChunks()) {
+					readDatabaseVersion.addChunk(chunk);
+				}
+
+				for (MultiChunkEntry multiChunk : readDatabaseVersionPart.getMultiChunks()) {
+					readDatabaseVersion.addMultiChunk(multiChunk);
+				}
+
+				for (FileContent fileContent : readDatabaseVersionPart.getFileContents()) {
+					readDatabaseVersion.addFileContent(fileContent);
+				}
+
+				for (PartialFileHistory fileHistory : readDatabaseVersionPart.getFileHistories()) {
+					readDatabaseVersion.addFileHistory(fileHistory);
+				}
+			}
+
+			assertDatabaseVersionEquals(writtenDatabaseVersion, readDatabaseVersion);
+		}
+	}
+
+	private MemoryDatabase createDatabase(int databaseVersionCount, int fileCount) {
+		MemoryDatabase database = new MemoryDatabase();
+		DatabaseVersion lastDatabaseVersion = null;
+
+		for (int i = 0; i < databaseVersionCount; i++) {
+			DatabaseVersion databaseVersion = new DatabaseVersion();
+
+			databaseVersion.setClient("someclient");
+			databaseVersion.setTimestamp(new Date());
+			databaseVersion.setVectorClock((lastDatabaseVersion != null) ? lastDatabaseVersion.getVectorClock().clone() : new VectorClock());
+			databaseVersion.getVectorClock().incrementClock("someclient");
+
+			MultiChunkEntry multiChunk = new MultiChunkEntry(new MultiChunkId(TestFileUtil.createRandomArray(20)), 12345);
+
+			for (int j = 0; j < fileCount; j++) {
+				ChunkEntry chunk = new ChunkEntry(new ChunkChecksum(TestFileUtil.createRandomArray(20)), 1024 + j);
+
+				FileContent fileContent = new FileContent();
+				fileContent.setChecksum(new FileChecksum(TestFileUtil.createRandomArray(20)));
+				fileContent.setSize((long) chunk.getSize());
+				fileContent.addChunk(chunk.getChecksum());
+
+				FileVersion fileVersion = new FileVersion();
+				fileVersion.setVersion(1L);
+				fileVersion.setType((j % 3 == 0) ? FileType.SYMLINK : FileType.FILE);
+				fileVersion.setStatus(FileStatus.NEW);
+				fileVersion.setPath("folder" + i + "/file-ä-" + j);
+				fileVersion.setSize((long) chunk.getSize());
+				fileVersion.setLastModified(new Date(1400000000000L + j));
+
+				if (j % 3 == 0) {
+					fileVersion.setLinkTarget("/some/target/" + j);
+				}
+				else {
+					fileVersion.setChecksum(fileContent.getChecksum());
+					fileVersion.setUpdated(new Date(1400000001000L + j));
+					fileVersion.setPosixPermissions("rw-r--r--");
+				}
+
+				PartialFileHistory fileHistory = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+				fileHistory.addFileVersion(fileVersion);
+
+				multiChunk.addChunk(chunk.getChecksum());
+
+				databaseVersion.addChunk(chunk);
+				databaseVersion.addFileContent(fileContent);
+				databaseVersion.addFileHistory(fileHistory);
+			}
+
+			databaseVersion.addMultiChunk(multiChunk);
+			database.addDatabaseVersion(databaseVersion);
+
+			lastDatabaseVersion = databaseVersion;
+		}
+
+		return database;
+	}
+}
@@ -20,6 +20,7 @@ package org.syncany.tests.integration.database.dao;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
 import java.util.Map;
@@ -65,6 +66,72 @@ public class ChunkDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testGetChunkWithPersistedChunkIndex() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+		ChunkEntry chunk1 = chunkDao.getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"));
+
+		assertNotNull(chunk1);
+		assertEquals(8387, chunk1.getSize());
+		assertTrue(testConfig.getChunkIndexFile().exists());
+
+		// Re-use the persisted index (unchanged chunk table)
+		long chunkIndexLastModified = testConfig.getChunkIndexFile().lastModified();
+
+		ChunkSqlDao chunkDao2 = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+		ChunkEntry chunk2 = chunkDao2.getChunk(ChunkChecksum.parseChunkChecksum("ab85720d3f31bd08ca1cd25dcd8a490e5f00783b"));
+
+		assertNotNull(chunk2);
+		assertEquals(5176, chunk2.getSize());
+		assertEquals(chunkIndexLastModified, testConfig.getChunkIndexFile().lastModified());
+
+		// Changed chunk table, index must be rebuilt
+		databaseConnection.createStatement().executeUpdate("delete from multichunk_chunk where chunk_checksum='ab85720d3f31bd08ca1cd25dcd8a490e5f00783b'");
+		databaseConnection.createStatement().executeUpdate("delete from filecontent_chunk where chunk_checksum='ab85720d3f31bd08ca1cd25dcd8a490e5f00783b'");
+		databaseConnection.createStatement().executeUpdate("delete from chunk where checksum='ab85720d3f31bd08ca1cd25dcd8a490e5f00783b'");
+
+		ChunkSqlDao chunkDao3 = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+
+		assertNotNull(chunkDao3.getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457")));
+		assertNull(chunkDao3.getChunk(ChunkChecksum.parseChunkChecksum("ab85720d3f31bd08ca1cd25dcd8a490e5f00783b")));
+
+		// Chunk added in new database version, index must be updated
+		databaseConnection.createStatement().executeUpdate("insert into databaseversion values(100,'MASTER',TIMESTAMP_WITH_ZONE(1389977300),'A','(A100)')");
+		databaseConnection.createStatement().executeUpdate("insert into chunk values('beefbeefbeefbeefbeefbeefbeefbeefbeefbeef',100,1234)");
+
+		ChunkSqlDao chunkDao4 = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+
+		assertNotNull(chunkDao4.getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457")));
+		assertEquals(1234, chunkDao4.getChunk(ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef")).getSize());
+		assertNull(chunkDao4.getChunk(ChunkChecksum.parseChunkChecksum("ab85720d3f31bd08ca1cd25dcd8a490e5f00783b")));
+
+		// Read-only database, outdated index file must not be written
+		databaseConnection.createStatement().executeUpdate("insert into chunk values('cafecafecafecafecafecafecafecafecafecafe',100,4321)");
+		chunkIndexLastModified = testConfig.getChunkIndexFile().lastModified();
+
+		ChunkSqlDao readOnlyChunkDao = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile(), true);
+
+		assertEquals(4321, readOnlyChunkDao.getChunk(ChunkChecksum.parseChunkChecksum("cafecafecafecafecafecafecafecafecafecafe")).getSize());
+		assertEquals(chunkIndexLastModified, testConfig.getChunkIndexFile().lastModified());
+
+		// Tear down
+		chunkDao.clearCache();
+		chunkDao2.clearCache();
+		chunkDao3.clearCache();
+		chunkDao4.clearCache();
+		readOnlyChunkDao.clearCache();
+
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
 	@Test
 	public void testGetChunksForDatabaseVersion() throws Exception {
 		// Setup
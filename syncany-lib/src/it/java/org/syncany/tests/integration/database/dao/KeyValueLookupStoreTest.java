@@ -0,0 +1,163 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.database.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.dao.FileHistorySqlDao;
+import org.syncany.database.dao.FileVersionSqlDao;
+import org.syncany.database.dao.KeyValueLookupStore;
+import org.syncany.database.dao.MultiChunkSqlDao;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestSqlUtil;
+
+public class KeyValueLookupStoreTest {
+	@Test
+	public void testGetMultiChunkId() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+		File multiChunkManifestFile = new File(testConfig.getLookupStoreDir(), "multichunks/MANIFEST");
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+
+		KeyValueLookupStore lookupStore = createLookupStore(testConfig, databaseConnection);
+		MultiChunkId multiChunkId1 = lookupStore.getMultiChunkId(ChunkChecksum.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0"));
+
+		assertNotNull(multiChunkId1);
+		assertEquals("0d79eed3fd8ac866b5872ea3f3f079c46dd15ac9", multiChunkId1.toString());
+		assertNull(lookupStore.getMultiChunkId(ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef")));
+		assertTrue(multiChunkManifestFile.exists());
+
+		// Re-use the persisted store (unchanged multichunk tables)
+		long manifestLastModified = multiChunkManifestFile.lastModified();
+
+		KeyValueLookupStore lookupStore2 = createLookupStore(testConfig, databaseConnection);
+		MultiChunkId multiChunkId2 = lookupStore2.getMultiChunkId(ChunkChecksum.parseChunkChecksum("0fecbac8ac8a5f8b7aa12b2741a4ef5db88c5dea"));
+
+		assertEquals("51aaca5c1280b1cf95cff8a3266a6bb44b482ad4", multiChunkId2.toString());
+		assertEquals(manifestLastModified, multiChunkManifestFile.lastModified());
+
+		// Multichunk added in new database version, store must be updated
+		databaseConnection.createStatement().executeUpdate("insert into databaseversion values(100,'MASTER',TIMESTAMP_WITH_ZONE(1389977300),'A','(A100)')");
+		databaseConnection.createStatement().executeUpdate("insert into chunk values('beefbeefbeefbeefbeefbeefbeefbeefbeefbeef',100,1234)");
+		databaseConnection.createStatement().executeUpdate("insert into multichunk values('cafecafecafecafecafecafecafecafecafecafe',100,1234)");
+		databaseConnection.createStatement().executeUpdate("insert into multichunk_chunk values('cafecafecafecafecafecafecafecafecafecafe','beefbeefbeefbeefbeefbeefbeefbeefbeefbeef')");
+
+		lookupStore2.clearCache();
+		Map<ChunkChecksum, MultiChunkId> multiChunkIds = lookupStore2.getMultiChunkIdsByChecksums(Arrays.asList(
+				ChunkChecksum.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0"),
+				ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef")));
+
+		assertEquals(2, multiChunkIds.size());
+		assertEquals("0d79eed3fd8ac866b5872ea3f3f079c46dd15ac9", multiChunkIds.get(ChunkChecksum.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0")).toString());
+		assertEquals("cafecafecafecafecafecafecafecafecafecafe", multiChunkIds.get(ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef")).toString());
+
+		// Changed multichunk tables, store must be rebuilt
+		databaseConnection.createStatement().executeUpdate("delete from multichunk_chunk where chunk_checksum='eba69a8e359ce3258520138a50ed9860127ab6e0'");
+
+		KeyValueLookupStore lookupStore3 = createLookupStore(testConfig, databaseConnection);
+
+		assertNull(lookupStore3.getMultiChunkId(ChunkChecksum.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0")));
+		assertEquals("cafecafecafecafecafecafecafecafecafecafe", lookupStore3.getMultiChunkId(ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef")).toString());
+
+		// Tear down
+		lookupStore.clearCache();
+		lookupStore2.clearCache();
+		lookupStore3.clearCache();
+
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	@Test
+	public void testGetFileHistoryWithLastVersionByPath() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+		File pathManifestFile = new File(testConfig.getLookupStoreDir(), "paths/MANIFEST");
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		KeyValueLookupStore lookupStore = createLookupStore(testConfig, databaseConnection);
+
+		Set<String> currentPaths = fileVersionDao.getCurrentFileTree().keySet();
+		assertTrue(currentPaths.size() > 0);
+
+		// Test: Same results as the SQL query, for all current and unknown paths
+		for (String currentPath : currentPaths) {
+			assertFileHistoryEquals(fileHistoryDao.getFileHistoryWithLastVersionByPath(currentPath), lookupStore.getFileHistoryWithLastVersionByPath(currentPath));
+		}
+
+		assertNull(lookupStore.getFileHistoryWithLastVersionByPath("does/not/exist"));
+		assertTrue(pathManifestFile.exists());
+
+		// Re-use the persisted store (unchanged file tree)
+		long manifestLastModified = pathManifestFile.lastModified();
+
+		KeyValueLookupStore lookupStore2 = createLookupStore(testConfig, databaseConnection);
+		String firstPath = currentPaths.iterator().next();
+
+		assertFileHistoryEquals(fileHistoryDao.getFileHistoryWithLastVersionByPath(firstPath), lookupStore2.getFileHistoryWithLastVersionByPath(firstPath));
+		assertEquals(manifestLastModified, pathManifestFile.lastModified());
+
+		// Tear down
+		lookupStore.clearCache();
+		lookupStore2.clearCache();
+
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
+	private KeyValueLookupStore createLookupStore(Config testConfig, Connection databaseConnection) {
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+
+		return new KeyValueLookupStore(databaseConnection, testConfig.getLookupStoreDir(), multiChunkDao, fileHistoryDao, fileVersionDao);
+	}
+
+	private void assertFileHistoryEquals(PartialFileHistory expectedFileHistory, PartialFileHistory actualFileHistory) {
+		if (expectedFileHistory == null) {
+			assertNull(actualFileHistory);
+		}
+		else {
+			assertNotNull(actualFileHistory);
+			assertEquals(expectedFileHistory.getFileHistoryId(), actualFileHistory.getFileHistoryId());
+			assertEquals(expectedFileHistory.getLastVersion(), actualFileHistory.getLastVersion());
+		}
+	}
+}
@@ -27,9 +27,12 @@ import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.MultiChunk;
+import org.syncany.operations.status.StatusOperationOptions;
 import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.tests.util.TestAssertUtil;
 import org.syncany.tests.util.TestClient;
 import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestFileUtil;
 
 public class AssemblerTest {		
 	/**
@@ -80,5 +83,73 @@ public class AssemblerTest {
 		
 		clientA.deleteTestData();
 		clientB.deleteTestData();
-	}	
+	}
+
+	/**
+	 * Tests whether files are assembled and verified correctly if the file checksum 
+	 * is derived from the chunk checksums, and whether unchanged files are detected.
+	 */
+	@Test
+	public void testAssemblerWithFileChecksumFromChunks() throws Exception {
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.getConfig().getChunker().setFileChecksumFromChunks(true);
+		clientB.getConfig().getChunker().setFileChecksumFromChunks(true);
+
+		clientA.createNewFile("file1.jpg", 2 * 1024 * 1024 + 123); // multiple chunks
+		clientA.upWithForceChecksum();
+
+		clientB.down();
+		TestAssertUtil.assertFileEquals(clientA.getLocalFile("file1.jpg"), clientB.getLocalFile("file1.jpg"));
+
+		clientA.changeFile("file1.jpg");
+		clientA.upWithForceChecksum();
+
+		clientB.down();
+		TestAssertUtil.assertFileEquals(clientA.getLocalFile("file1.jpg"), clientB.getLocalFile("file1.jpg"));
+
+		StatusOperationOptions statusOptions = new StatusOperationOptions();
+		statusOptions.setForceChecksum(true);
+
+		assertFalse(clientB.status(statusOptions).getChangeSet().hasChanges());
+
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	/**
+	 * Tests whether a file whose (deduplicated) chunks alternate between multiple
+	 * multichunks is assembled correctly.
+	 */
+	@Test
+	public void testAssemblerWithChunksAlternatingBetweenMultiChunks() throws Exception {
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		// Two random blocks, each larger than half a multichunk, repeated: A B A B A
+		byte[] blockA = TestFileUtil.createRandomArray(2500 * 1024);
+		byte[] blockB = TestFileUtil.createRandomArray(2500 * 1024);
+
+		try (FileOutputStream fileOutputStream = new FileOutputStream(clientA.getLocalFile("file1.jpg"))) {
+			for (int i = 0; i < 5; i++) {
+				fileOutputStream.write((i % 2 == 0) ? blockA : blockB);
+			}
+		}
+
+		clientA.upWithForceChecksum();
+
+		File repoMultiChunksFolder = new File(testConnection.getPath(), "multichunks");
+		assertTrue(repoMultiChunksFolder.listFiles().length > 1);
+
+		clientB.down();
+		TestAssertUtil.assertFileEquals(clientA.getLocalFile("file1.jpg"), clientB.getLocalFile("file1.jpg"));
+
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
 }
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.nio.file.Files;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
@@ -481,6 +482,96 @@ public class CleanupOperationTest {
 		clientB.deleteTestData();
 	}
 
+	@Test
+	public void testCleanupWritesShardedMergeFiles() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		CleanupOperationOptions options = new CleanupOperationOptions();
+		options.setMinSecondsBetweenCleanups(0);
+		options.setPurgeFileVersionSettings(new TreeMap<Long, TimeUnit>());
+		options.setForce(true);
+		options.setMaxMergeFileEntities(20); // 2 database versions per file, see below
+		options.setMergeThreads(2);
+
+		// Run
+
+		// A: Create 6 database versions with 3 new files each (10 entities per database version)
+		for (int i = 1; i <= 6; i++) {
+			for (int j = 1; j <= 3; j++) {
+				clientA.createNewFile("file" + i + "-" + j + ".jpg", 1024);
+			}
+
+			clientA.upWithForceChecksum();
+		}
+
+		// A: Cleanup
+		CleanupOperationResult cleanupOperationResult = clientA.cleanup(options);
+		assertEquals(CleanupResultCode.OK, cleanupOperationResult.getResultCode());
+		assertEquals(6, cleanupOperationResult.getMergedDatabaseFilesCount());
+
+		assertEquals(3, new File(testConnection.getPath() + "/databases/").list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("database-");
+			}
+		}).length);
+
+		// B: Sync down all shards
+		clientB.down();
+		TestAssertUtil.assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testCleanupCapsShardsBelowMaxDatabaseFiles() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+
+		CleanupOperationOptions options = new CleanupOperationOptions();
+		options.setMinSecondsBetweenCleanups(0);
+		options.setPurgeFileVersionSettings(new TreeMap<Long, TimeUnit>());
+		options.setForce(true);
+		options.setMaxDatabaseFiles(4); // At most 2 shards per client
+		options.setMaxMergeFileEntities(20); // 2 database versions per file, see below
+
+		// Run
+
+		// A: Create 6 database versions with 3 new files each (10 entities per database version)
+		for (int i = 1; i <= 6; i++) {
+			for (int j = 1; j <= 3; j++) {
+				clientA.createNewFile("file" + i + "-" + j + ".jpg", 1024);
+			}
+
+			clientA.upWithForceChecksum();
+		}
+
+		// A: Cleanup, writes 2 instead of 3 shards
+		CleanupOperationResult cleanupOperationResult = clientA.cleanup(options);
+		assertEquals(CleanupResultCode.OK, cleanupOperationResult.getResultCode());
+		assertEquals(6, cleanupOperationResult.getMergedDatabaseFilesCount());
+
+		assertEquals(2, new File(testConnection.getPath() + "/databases/").list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("database-");
+			}
+		}).length);
+
+		// A: Cleanup again (not forced), the shards must not trigger another merge
+		options.setForce(false);
+
+		cleanupOperationResult = clientA.cleanup(options);
+		assertEquals(0, cleanupOperationResult.getMergedDatabaseFilesCount());
+
+		// Tear down
+		clientA.deleteTestData();
+	}
+
 	@Test
 	public void testQuickDoubleCleanup() throws Exception {
 		// Setup
@@ -743,4 +834,123 @@ public class CleanupOperationTest {
 		// Tear down
 		clientA.deleteTestData();
 	}
+
+	@Test
+	public void testCleanupRemovesOnlyUnreferencedEntitiesOfPurgedVersions() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+		java.sql.Connection databaseConnectionA = clientA.getConfig().createDatabaseConnection();
+
+		CleanupOperationOptions options = new CleanupOperationOptions();
+		options.setRemoveOldVersions(true);
+		options.setPurgeFileVersionSettings(new TreeMap<Long, TimeUnit>());
+		options.setMinKeepSeconds(0);
+		options.setMinSecondsBetweenCleanups(0);
+
+		// A: Create two files with the same content, then change one of them
+		clientA.createNewFile("file.jpg", 1024);
+		clientA.copyFile("file.jpg", "copy.jpg");
+		clientA.upWithForceChecksum();
+
+		for (int i = 1; i <= 3; i++) {
+			clientA.changeFile("file.jpg");
+			clientA.upWithForceChecksum();
+		}
+
+		// A: Cleanup; the first content of file.jpg is still used by copy.jpg
+		CleanupOperationResult cleanupOperationResult = clientA.cleanup(options);
+		assertEquals(CleanupResultCode.OK, cleanupOperationResult.getResultCode());
+		assertEquals(1, cleanupOperationResult.getRemovedOldVersionsCount());
+		assertEquals(2, cleanupOperationResult.getRemovedMultiChunksCount());
+
+		assertEquals("2", TestSqlUtil.runSqlSelect("select count(*) from fileversion", databaseConnectionA));
+		assertEquals("2", TestSqlUtil.runSqlSelect("select count(*) from filecontent", databaseConnectionA));
+		assertEquals("2", TestSqlUtil.runSqlSelect("select count(*) from multichunk", databaseConnectionA));
+
+		// A: Nothing unreferenced is left over (same checks as the full-table removal)
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from filecontent where checksum not in "
+				+ "(select filecontent_checksum from fileversion where filecontent_checksum is not null)", databaseConnectionA));
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from chunk where checksum not in "
+				+ "(select chunk_checksum from filecontent_chunk)", databaseConnectionA));
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from multichunk where id not in "
+				+ "(select multichunk_id from multichunk_chunk)", databaseConnectionA));
+
+		// B: Sync down and reassemble both files
+		clientB.down();
+		TestAssertUtil.assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testCleanupRemovesLeftoversOfDirtyDatabaseVersions() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+		java.sql.Connection databaseConnectionB = clientB.getConfig().createDatabaseConnection();
+
+		CleanupOperationOptions options = new CleanupOperationOptions();
+		options.setRemoveOldVersions(true);
+		options.setPurgeFileVersionSettings(new TreeMap<Long, TimeUnit>());
+		options.setMinKeepSeconds(0);
+		options.setMinSecondsBetweenCleanups(0);
+
+		StatusOperationOptions forceChecksumStatusOperationOptions = new StatusOperationOptions();
+		forceChecksumStatusOperationOptions.setForceChecksum(true);
+
+		UpOperationOptions forceUpOperationOptions = new UpOperationOptions();
+		forceUpOperationOptions.setForceUploadEnabled(true);
+		forceUpOperationOptions.setStatusOptions(forceChecksumStatusOperationOptions);
+
+		// A: Upload first
+		clientA.createNewFile("other.jpg", 1024);
+		clientA.up(forceUpOperationOptions);
+
+		// B: Upload two files in one multichunk, then sync down (B's database version becomes DIRTY)
+		clientB.createNewFile("file.jpg", 1024);
+		clientB.createNewFile("leftover.jpg", 1024);
+		clientB.up(forceUpOperationOptions);
+		clientB.down();
+
+		assertEquals("1", TestSqlUtil.runSqlSelect("select count(*) from databaseversion where status='DIRTY'", databaseConnectionB));
+
+		// B: Delete leftover.jpg and upload file.jpg again; the chunk of leftover.jpg is left over in the multichunk
+		byte[] leftoverFileContents = Files.readAllBytes(clientB.getLocalFile("leftover.jpg").toPath());
+
+		clientB.deleteFile("leftover.jpg");
+		clientB.upWithForceChecksum();
+
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from databaseversion where status='DIRTY'", databaseConnectionB));
+
+		// B: Change file.jpg, so that the multichunk is not needed anymore after cleanup
+		clientB.changeFile("file.jpg");
+		clientB.upWithForceChecksum();
+
+		CleanupOperationResult cleanupOperationResult = clientB.cleanup(options);
+		assertEquals(CleanupResultCode.OK, cleanupOperationResult.getResultCode());
+		assertEquals(1, cleanupOperationResult.getRemovedMultiChunksCount());
+
+		// B: No chunk may point to a multichunk that was deleted remotely
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from chunk where checksum not in "
+				+ "(select chunk_checksum from multichunk_chunk)", databaseConnectionB));
+		assertEquals("0", TestSqlUtil.runSqlSelect("select count(*) from multichunk_chunk where chunk_checksum not in "
+				+ "(select chunk_checksum from filecontent_chunk)", databaseConnectionB));
+
+		// B: Re-create leftover.jpg; its chunk must be uploaded again
+		Files.write(clientB.getLocalFile("leftover.jpg").toPath(), leftoverFileContents);
+		clientB.upWithForceChecksum();
+
+		// A: Sync down and reassemble all files
+		clientA.down();
+		TestAssertUtil.assertFileListEquals(clientB.getLocalFilesExcludeLockedAndNoRead(), clientA.getLocalFilesExcludeLockedAndNoRead());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
 }
@@ -0,0 +1,152 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.operations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.operations.down.DownOperationOptions;
+import org.syncany.operations.down.DownOperationResult;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.tests.util.TestAssertUtil;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestFileUtil;
+
+public class DownloaderTest {
+	@Test
+	public void testConcurrentDownloadEqualsSequentialDownload() throws Exception {
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+		TestClient clientC = new TestClient("C", testConnection);
+
+		for (int i = 0; i < 8; i++) {
+			clientA.createNewFile("file" + i, 1500 * 1024); // Several multichunks
+		}
+
+		clientA.upWithForceChecksum();
+
+		DownOperationResult concurrentDownResult = clientB.down(createDownOperationOptions(3, 2));
+		DownOperationResult sequentialDownResult = clientC.down(createDownOperationOptions(1, 1));
+
+		assertTrue(concurrentDownResult.getDownloadedMultiChunks().size() > 1);
+		assertEquals(sequentialDownResult.getDownloadedMultiChunks(), concurrentDownResult.getDownloadedMultiChunks());
+
+		TestAssertUtil.assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+		TestAssertUtil.assertFileListEquals(clientA.getLocalFiles(), clientC.getLocalFiles());
+
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+		clientC.deleteTestData();
+	}
+
+	/**
+	 * Alters an encrypted multichunk in the repository, and tests whether a concurrent
+	 * download fails and does not leave the (partially) decrypted multichunk in the cache.
+	 */
+	@Test
+	public void testConcurrentDownloadWithTamperedMultiChunk() throws Exception {
+		boolean previousCryptoEnabled = TestConfigUtil.getCrypto();
+		TestConfigUtil.setCrypto(true);
+
+		try {
+			LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+
+			TestClient clientA = new TestClient("A", testConnection);
+			TestClient clientB = new TestClient("B", testConnection);
+
+			for (int i = 0; i < 8; i++) {
+				clientA.createNewFile("file" + i, 1500 * 1024);
+			}
+
+			clientA.upWithForceChecksum();
+
+			// Flip one byte in the middle of an encrypted multichunk
+			File repoMultiChunksFolder = new File(testConnection.getPath(), "multichunks");
+			File[] multiChunkFiles = repoMultiChunksFolder.listFiles();
+			File tamperedMultiChunkFile = multiChunkFiles[multiChunkFiles.length / 2];
+
+			assertTrue(multiChunkFiles.length > 1);
+
+			try (RandomAccessFile tamperedMultiChunkRandomAccessFile = new RandomAccessFile(tamperedMultiChunkFile, "rw")) {
+				long tamperedPosition = tamperedMultiChunkRandomAccessFile.length() / 2;
+
+				tamperedMultiChunkRandomAccessFile.seek(tamperedPosition);
+				int tamperedByte = tamperedMultiChunkRandomAccessFile.read();
+
+				tamperedMultiChunkRandomAccessFile.seek(tamperedPosition);
+				tamperedMultiChunkRandomAccessFile.write(tamperedByte ^ 0x01);
+			}
+
+			boolean exceptionThrown = false;
+
+			try {
+				clientB.down(createDownOperationOptions(3, 2));
+			}
+			catch (Exception e) {
+				exceptionThrown = true;
+			}
+
+			assertTrue("Down with tampered multichunk should have failed.", exceptionThrown);
+
+			MultiChunkId tamperedMultiChunkId = new MultiChunkId(new MultichunkRemoteFile(tamperedMultiChunkFile.getName()).getMultiChunkId());
+
+			assertFalse(clientB.getConfig().getCache().getDecryptedMultiChunkFile(tamperedMultiChunkId).exists());
+			assertFalse(clientB.getConfig().getCache().getEncryptedMultiChunkFile(tamperedMultiChunkId).exists());
+
+			// Files may be applied while others are still downloading, but only complete ones
+			int existingFileCount = 0;
+
+			for (int i = 0; i < 8; i++) {
+				File fileAtB = clientB.getLocalFile("file" + i);
+
+				if (fileAtB.exists()) {
+					assertArrayEquals(TestFileUtil.createChecksum(clientA.getLocalFile("file" + i)), TestFileUtil.createChecksum(fileAtB));
+					existingFileCount++;
+				}
+			}
+
+			assertTrue("Files in tampered multichunk should not exist.", existingFileCount < 8);
+
+			clientA.deleteTestData();
+			clientB.deleteTestData();
+		}
+		finally {
+			TestConfigUtil.setCrypto(previousCryptoEnabled);
+		}
+	}
+
+	private DownOperationOptions createDownOperationOptions(int downloadThreads, int decryptionThreads) {
+		DownOperationOptions downOptions = new DownOperationOptions();
+
+		downOptions.setDownloadThreads(downloadThreads);
+		downOptions.setDecryptionThreads(decryptionThreads);
+
+		return downOptions;
+	}
+}
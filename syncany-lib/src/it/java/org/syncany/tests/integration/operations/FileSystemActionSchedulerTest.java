@@ -0,0 +1,140 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.operations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.operations.down.FileSystemActionComparator;
+import org.syncany.operations.down.FileSystemActionScheduler;
+import org.syncany.operations.down.actions.DeleteFileSystemAction;
+import org.syncany.operations.down.actions.FileSystemAction;
+import org.syncany.operations.down.actions.NewFileSystemAction;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class FileSystemActionSchedulerTest {
+	@Test
+	public void testIndependentActionsInSameLevel() throws Exception {
+		// Setup
+		List<FileSystemAction> actions = new ArrayList<FileSystemAction>();
+		
+		actions.add(createNewFileSystemAction("other.jpg", FileType.FILE));
+		actions.add(createNewFileSystemAction("folder/file2.jpg", FileType.FILE));
+		actions.add(createNewFileSystemAction("folder/file1.jpg", FileType.FILE));
+		actions.add(createNewFileSystemAction("same", FileType.FOLDER));
+		actions.add(createNewFileSystemAction("folder", FileType.FOLDER));
+		actions.add(createDeleteFileSystemAction("deleted.jpg", FileType.FILE));
+		actions.add(createDeleteFileSystemAction("same", FileType.FILE)); // << same as folder above!
+		
+		// Run
+		new FileSystemActionComparator().sort(actions);
+		List<List<FileSystemAction>> levels = new FileSystemActionScheduler().determineLevels(actions);
+		
+		// Test
+		assertEquals(2, levels.size());
+		
+		assertArrayEquals(new String[] {
+			"DeleteFileSystemAction,same,FILE",
+			"DeleteFileSystemAction,deleted.jpg,FILE",
+			"NewFileSystemAction,folder,FOLDER"
+		}, toArray(levels.get(0)));
+
+		assertArrayEquals(new String[] {
+			"NewFileSystemAction,same,FOLDER",
+			"NewFileSystemAction,folder/file1.jpg,FILE",
+			"NewFileSystemAction,folder/file2.jpg,FILE",
+			"NewFileSystemAction,other.jpg,FILE"
+		}, toArray(levels.get(1)));
+	}
+	
+	@Test
+	public void testDeleteFolderAfterContainedFiles() throws Exception {
+		// Setup
+		List<FileSystemAction> actions = new ArrayList<FileSystemAction>();
+		
+		actions.add(createDeleteFileSystemAction("folder", FileType.FOLDER));
+		actions.add(createDeleteFileSystemAction("folder/sub/file1.jpg", FileType.FILE));
+		actions.add(createDeleteFileSystemAction("folder/file2.jpg", FileType.FILE));
+		
+		// Run
+		new FileSystemActionComparator().sort(actions);
+		List<List<FileSystemAction>> levels = new FileSystemActionScheduler().determineLevels(actions);
+		
+		// Test
+		assertEquals(2, levels.size());
+		assertEquals(2, levels.get(0).size());
+		assertArrayEquals(new String[] { "DeleteFileSystemAction,folder,FOLDER" }, toArray(levels.get(1)));
+	}
+	
+	@Test
+	public void testPathsDifferingInCaseAreDependent() throws Exception {
+		// Setup
+		List<FileSystemAction> actions = new ArrayList<FileSystemAction>();
+		
+		actions.add(createNewFileSystemAction("File.jpg", FileType.FILE));
+		actions.add(createDeleteFileSystemAction("file.jpg", FileType.FILE));
+		
+		// Run
+		new FileSystemActionComparator().sort(actions);
+		List<List<FileSystemAction>> levels = new FileSystemActionScheduler().determineLevels(actions);
+		
+		// Test
+		assertEquals(2, levels.size());
+		assertArrayEquals(new String[] { "DeleteFileSystemAction,file.jpg,FILE" }, toArray(levels.get(0)));
+		assertArrayEquals(new String[] { "NewFileSystemAction,File.jpg,FILE" }, toArray(levels.get(1)));
+	}
+	
+	private DeleteFileSystemAction createDeleteFileSystemAction(String path, FileType type) throws Exception {
+		FileVersion firstFileVersion = createFileVersion(path, type, null);
+		FileVersion secondFileVersion = createFileVersion(path, type, firstFileVersion);
+		
+		return new DeleteFileSystemAction(TestConfigUtil.createDummyConfig(), firstFileVersion, secondFileVersion, null);
+	}	
+
+	private NewFileSystemAction createNewFileSystemAction(String path, FileType type) throws Exception {
+		FileVersion firstFileVersion = createFileVersion(path, type, null);
+		return new NewFileSystemAction(TestConfigUtil.createDummyConfig(), null, null, firstFileVersion);
+	}
+	
+	private FileVersion createFileVersion(String path, FileType type, FileVersion basedOnFileVersion) {
+		FileVersion fileVersion = (basedOnFileVersion != null) ? basedOnFileVersion.clone() : new FileVersion();
+		
+		fileVersion.setPath(path);
+		fileVersion.setType(type);
+		fileVersion.setVersion((basedOnFileVersion != null) ? basedOnFileVersion.getVersion() + 1 : 1L);
+		
+		return fileVersion;
+	}		
+	
+	private String[] toArray(List<FileSystemAction> actions) {
+		String[] actionStrArr = new String[actions.size()];
+		
+		for (int i = 0; i < actions.size(); i++) {
+			FileSystemAction action = actions.get(i);			
+			actionStrArr[i] = action.getClass().getSimpleName() + "," + action.getFile2().getPath() + "," + action.getType();
+		}
+		
+		return actionStrArr;
+	}
+}
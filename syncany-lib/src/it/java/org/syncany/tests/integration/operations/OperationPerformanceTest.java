@@ -17,6 +17,7 @@
  */
 package org.syncany.tests.integration.operations;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.logging.Level;
@@ -24,6 +25,8 @@ import java.util.logging.Logger;
 
 import org.junit.Test;
 import org.syncany.config.Config;
+import org.syncany.database.DatabaseSettings;
+import org.syncany.database.DatabaseSettings.Profile;
 import org.syncany.operations.down.DownOperation;
 import org.syncany.operations.up.UpOperation;
 import org.syncany.plugins.transfer.TransferSettings;
@@ -70,5 +73,50 @@ public class OperationPerformanceTest {
 		// Cleanup
 		TestConfigUtil.deleteTestLocalConfigAndData(configA);
 		TestConfigUtil.deleteTestLocalConfigAndData(configB);
-	}	
+	}
+
+	@Test
+	public void testDownPerformanceWithDatabaseProfiles() throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+
+		Config configA = TestConfigUtil.createTestLocalConfig("A", testConnection);
+		Config configB = TestConfigUtil.createTestLocalConfig("B", testConnection);
+		Config configC = TestConfigUtil.createTestLocalConfig("C", testConnection);
+
+		configB.setDatabaseSettings(new DatabaseSettings(Profile.DEFAULT));
+		configC.setDatabaseSettings(new DatabaseSettings(Profile.LARGE));
+
+		// Add many small files on A in many database versions
+		for (int i = 0; i < 20; i++) {
+			TestFileUtil.createRandomFilesInDirectory(configA.getLocalDir(), 1024, 100);
+			new UpOperation(configA).execute();
+		}
+
+		// Sync down B (default profile) and C (large profile)
+		long timeSyncDownDefaultTotal = timeDownOperation(configB);
+		long timeSyncDownLargeTotal = timeDownOperation(configC);
+
+		logger.log(Level.INFO, "Sync down performance (default profile): " + timeSyncDownDefaultTotal + " ms");
+		logger.log(Level.INFO, "Sync down performance (large profile): " + timeSyncDownLargeTotal + " ms");
+
+		assertEquals(configA.getLocalDir().list().length, configB.getLocalDir().list().length);
+		assertEquals(configA.getLocalDir().list().length, configC.getLocalDir().list().length);
+
+		if (timeSyncDownDefaultTotal > 30000 || timeSyncDownLargeTotal > 30000) {
+			fail("Sync down took: " + timeSyncDownDefaultTotal + " ms (default profile), " + timeSyncDownLargeTotal + " ms (large profile)");
+		}
+
+		// Cleanup
+		TestConfigUtil.deleteTestLocalConfigAndData(configA);
+		TestConfigUtil.deleteTestLocalConfigAndData(configB);
+		TestConfigUtil.deleteTestLocalConfigAndData(configC);
+	}
+
+	private long timeDownOperation(Config config) throws Exception {
+		long timeSyncDownStart = System.currentTimeMillis();
+		new DownOperation(config).execute();
+
+		return System.currentTimeMillis() - timeSyncDownStart;
+	}
 }
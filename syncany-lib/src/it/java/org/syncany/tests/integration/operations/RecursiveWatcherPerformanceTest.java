@@ -0,0 +1,189 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.operations.watch.DefaultRecursiveWatcher;
+import org.syncany.operations.watch.RecursiveWatcher.WatchListener;
+import org.syncany.tests.util.TestFileUtil;
+
+/**
+ * Checks the watch registration of the {@link DefaultRecursiveWatcher} for file trees with
+ * different numbers of folders: All folders must be watched after the start, new folders
+ * must be watched incrementally, and files created in random folders must be reported
+ * as dirty paths.
+ *
+ * <p>The event-to-notification latency (minus the settle delay) is logged for comparison,
+ * but not asserted, because it depends on the load of the machine.
+ */
+public class RecursiveWatcherPerformanceTest {
+	private static final Logger logger = Logger.getLogger(RecursiveWatcherPerformanceTest.class.getSimpleName());
+
+	private static final int[] DIRECTORY_COUNTS = new int[] { 100, 1000, 5000 };
+	private static final int DIRECTORIES_PER_LEVEL = 10;
+	private static final int EVENT_COUNT = 20;
+	private static final int SETTLE_DELAY = 50;
+	private static final int TIMEOUT_MILLIS = 10000;
+
+	static {
+		Logging.init();
+	}
+
+	@Test
+	public void testWatchesAndEventsForLargeDirectoryTrees() throws Exception {
+		long[] medianLatencies = new long[DIRECTORY_COUNTS.length];
+
+		for (int i = 0; i < DIRECTORY_COUNTS.length; i++) {
+			medianLatencies[i] = benchmark(DIRECTORY_COUNTS[i]);
+		}
+
+		logger.log(Level.INFO, "Median event latencies for " + Arrays.toString(DIRECTORY_COUNTS) + " folders: " + Arrays.toString(medianLatencies) + " ms");
+	}
+
+	private long benchmark(int directoryCount) throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		List<File> directories = createDirectoryTree(tempDir, directoryCount);
+
+		final AtomicReference<CountDownLatch> eventLatch = new AtomicReference<CountDownLatch>(new CountDownLatch(1));
+
+		DefaultRecursiveWatcher watcher = new DefaultRecursiveWatcher(Paths.get(tempDir.getAbsolutePath()), new ArrayList<Path>(), SETTLE_DELAY,
+				new WatchListener() {
+					@Override
+					public void watchEventsOccurred() {
+						eventLatch.get().countDown();
+					}
+				});
+
+		// Start watcher and wait for all watches to be registered
+		long registerStartTime = System.currentTimeMillis();
+		watcher.start();
+
+		waitForWatchCount(watcher, directoryCount + 1);
+		long registerTime = System.currentTimeMillis() - registerStartTime;
+
+		Thread.sleep(100); // Wait for watcher to finish its initial walk
+		watcher.takeDirtyPaths();
+
+		// Measure event-to-notification latency
+		Random random = new Random();
+		long[] latencies = new long[EVENT_COUNT];
+
+		for (int i = 0; i < EVENT_COUNT; i++) {
+			File parentDir = directories.get(random.nextInt(directories.size()));
+			File newFile = new File(parentDir, "file" + i);
+
+			if (i % 2 == 1) { // Every other event creates a new folder
+				File newDir = new File(parentDir, "newfolder" + i);
+				newDir.mkdir();
+
+				directories.add(newDir);
+			}
+
+			eventLatch.set(new CountDownLatch(1));
+			long eventTime = System.nanoTime();
+
+			TestFileUtil.createRandomFile(newFile, 10);
+			assertTrue("Watch listener not notified.", eventLatch.get().await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+			latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - eventTime) - SETTLE_DELAY;
+
+			// The notification might have been caused by the folder creation
+			waitForDirtyPath(watcher, newFile.toPath());
+		}
+
+		// New folders must be watched
+		waitForWatchCount(watcher, directories.size() + 1);
+		assertEquals(directories.size() + 1, watcher.getWatchCount());
+
+		watcher.stop();
+		TestFileUtil.deleteDirectory(tempDir);
+
+		Arrays.sort(latencies);
+		long medianLatency = latencies[EVENT_COUNT / 2];
+
+		logger.log(Level.INFO, String.format("%d folders: registered in %d ms, event latency median %d ms, max %d ms", directoryCount,
+				registerTime, medianLatency, latencies[EVENT_COUNT - 1]));
+
+		return medianLatency;
+	}
+
+	private void waitForWatchCount(DefaultRecursiveWatcher watcher, int expectedWatchCount) throws InterruptedException {
+		long timeoutTime = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while (watcher.getWatchCount() < expectedWatchCount) {
+			assertTrue("Expected " + expectedWatchCount + " watches, but only " + watcher.getWatchCount() + " registered.",
+					System.currentTimeMillis() < timeoutTime);
+
+			Thread.sleep(10);
+		}
+	}
+
+	private void waitForDirtyPath(DefaultRecursiveWatcher watcher, Path expectedDirtyPath) throws InterruptedException {
+		long timeoutTime = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while (true) {
+			Set<Path> dirtyPaths = watcher.takeDirtyPaths();
+			assertNotNull("Watcher unexpectedly requested a full rescan.", dirtyPaths);
+
+			if (dirtyPaths.contains(expectedDirtyPath)) {
+				return;
+			}
+
+			assertTrue("Path not reported as dirty: " + expectedDirtyPath, System.currentTimeMillis() < timeoutTime);
+			Thread.sleep(10);
+		}
+	}
+
+	private List<File> createDirectoryTree(File rootDir, int directoryCount) {
+		List<File> directories = new ArrayList<File>();
+		List<File> parentDirs = new ArrayList<File>();
+
+		parentDirs.add(rootDir);
+
+		for (int i = 0; directories.size() < directoryCount; i++) {
+			File parentDir = parentDirs.get(i / DIRECTORIES_PER_LEVEL);
+			File directory = new File(parentDir, "folder" + i);
+
+			directory.mkdir();
+
+			directories.add(directory);
+			parentDirs.add(directory);
+		}
+
+		return directories;
+	}
+}
@@ -20,12 +20,15 @@ package org.syncany.tests.integration.operations;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -274,4 +277,85 @@ public class RecursiveWatcherTest {
 		// Tear down	
 		TestFileUtil.deleteDirectory(tempDir);
 	}	
+
+	@Test
+	public void testWatchDirtyPaths() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File subDir1 = new File(tempDir+"/subdir1");
+		File existingFile = TestFileUtil.createRandomFileInDirectory(tempDir, 10);
+
+		subDir1.mkdir();
+
+		DefaultRecursiveWatcher watcher = new DefaultRecursiveWatcher(Paths.get(tempDir.getAbsolutePath()), new ArrayList<Path>(), 300, null);
+
+		// Start watcher and wait for watch service to set watch on all folders
+		watcher.start();
+		Thread.sleep(200);
+
+		// Test: Initially, a full rescan is required; afterwards nothing changed
+		assertNull(watcher.takeDirtyPaths());
+		assertEquals(0, watcher.takeDirtyPaths().size());
+
+		// Change files in root and sub folder
+		File newFile = TestFileUtil.createRandomFileInDirectory(subDir1, 10);
+		TestFileUtil.changeRandomPartOfBinaryFile(existingFile);
+		TestFileUtil.changeRandomPartOfBinaryFile(existingFile);
+
+		Thread.sleep(200);
+
+		Set<Path> expectedDirtyPaths = new HashSet<Path>();
+		expectedDirtyPaths.add(newFile.toPath());
+		expectedDirtyPaths.add(existingFile.toPath());
+
+		assertEquals(expectedDirtyPaths, watcher.takeDirtyPaths());
+		assertEquals(0, watcher.takeDirtyPaths().size());
+
+		// Stop watcher (close watches)
+		watcher.stop();
+
+		// Tear down
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testWatchMovedFolderDirtyPaths() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File folderA = new File(tempDir+"/folderA");
+		File folderB = new File(tempDir+"/folderB");
+
+		new File(folderA, "subfolder").mkdirs();
+
+		DefaultRecursiveWatcher watcher = new DefaultRecursiveWatcher(Paths.get(tempDir.getAbsolutePath()), new ArrayList<Path>(), 300, null);
+
+		// Start watcher and wait for watch service to set watch on all folders
+		watcher.start();
+		Thread.sleep(200);
+
+		assertEquals(3, watcher.getWatchCount());
+		watcher.takeDirtyPaths();
+
+		// Rename folder, then change file in moved sub folder
+		folderA.renameTo(folderB);
+		Thread.sleep(200);
+
+		File newFile = TestFileUtil.createRandomFileInDirectory(new File(folderB, "subfolder"), 10);
+		Thread.sleep(200);
+
+		// Test: Events must be reported for the new path
+		Set<Path> dirtyPaths = watcher.takeDirtyPaths();
+
+		assertTrue(dirtyPaths.contains(folderA.toPath()));
+		assertTrue(dirtyPaths.contains(folderB.toPath()));
+		assertTrue(dirtyPaths.contains(newFile.toPath()));
+		assertEquals(3, dirtyPaths.size());
+		assertEquals(3, watcher.getWatchCount());
+
+		// Stop watcher (close watches)
+		watcher.stop();
+
+		// Tear down
+		TestFileUtil.deleteDirectory(tempDir);
+	}
 }
@@ -18,12 +18,19 @@
 package org.syncany.tests.integration.operations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 import org.syncany.config.Config;
+import org.syncany.database.ScanStateIndex;
 import org.syncany.operations.ChangeSet;
 import org.syncany.operations.status.StatusOperation;
 import org.syncany.operations.status.StatusOperationOptions;
@@ -161,4 +168,183 @@ public class StatusOperationTest {
 		// Cleanup 
 		TestConfigUtil.deleteTestLocalConfigAndData(config);
 	}
+
+	@Test
+	public void testConcurrentScanEqualsSequentialScan() throws Exception {
+		// Setup
+		Config config = TestConfigUtil.createTestLocalConfig();
+		List<File> originalFiles = TestFileUtil.createRandomFileTreeInDirectory(config.getLocalDir(), 60);
+
+		assertStatusEqualsForAllScanThreads(config, originalFiles.size());
+
+		// Up, then change, delete and add files in the tree
+		new UpOperation(config).execute();
+		Thread.sleep(2000);
+
+		int changedFileCount = 0;
+
+		for (int i = 0; i < originalFiles.size(); i += 7) {
+			if (originalFiles.get(i).isFile()) {
+				TestFileUtil.changeRandomPartOfBinaryFile(originalFiles.get(i));
+				changedFileCount++;
+			}
+		}
+
+		for (int i = 3; i < originalFiles.size(); i += 11) {
+			if (i % 7 != 0 && originalFiles.get(i).isFile() && TestFileUtil.deleteFile(originalFiles.get(i))) {
+				changedFileCount++;
+			}
+		}
+
+		TestFileUtil.createRandomFilesInDirectory(config.getLocalDir(), 10 * 1024, 5);
+
+		assertStatusEqualsForAllScanThreads(config, changedFileCount + 5);
+
+		// Cleanup
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	private void assertStatusEqualsForAllScanThreads(Config config, int minExpectedChanges) throws Exception {
+		ChangeSet sequentialChangeSet = runStatusWithScanThreads(config, 1);
+		ChangeSet concurrentChangeSet = runStatusWithScanThreads(config, 4);
+
+		int actualChanges = sequentialChangeSet.getNewFiles().size() + sequentialChangeSet.getChangedFiles().size()
+				+ sequentialChangeSet.getDeletedFiles().size();
+
+		assertTrue(actualChanges >= minExpectedChanges);
+
+		assertEquals(sequentialChangeSet.getNewFiles(), concurrentChangeSet.getNewFiles());
+		assertEquals(sequentialChangeSet.getChangedFiles(), concurrentChangeSet.getChangedFiles());
+		assertEquals(sequentialChangeSet.getDeletedFiles(), concurrentChangeSet.getDeletedFiles());
+		assertEquals(sequentialChangeSet.getUnchangedFiles(), concurrentChangeSet.getUnchangedFiles());
+	}
+
+	private ChangeSet runStatusWithScanThreads(Config config, int scanThreads) throws Exception {
+		StatusOperationOptions statusOptions = new StatusOperationOptions();
+		statusOptions.setScanThreads(scanThreads);
+
+		return new StatusOperation(config, statusOptions).execute().getChangeSet();
+	}
+
+	@Test
+	public void testStatusWithScanStateIndex() throws Exception {
+		// Setup
+		Config config = TestConfigUtil.createTestLocalConfig();
+		List<File> originalFiles = TestFileUtil.createRandomFilesInDirectory(config.getLocalDir(), 10 * 1024, 10);
+
+		new UpOperation(config).execute();
+		Thread.sleep(2500); // Files must be old enough to be marked as verified
+
+		// First run writes index, second run only uses index
+		assertStatusEqualsWithoutScanStateIndex(config);
+		assertStatusEqualsWithoutScanStateIndex(config);
+
+		ScanStateIndex scanStateIndex = ScanStateIndex.open(config.getScanStateIndexFile());
+
+		assertNotNull(scanStateIndex);
+		assertEquals(originalFiles.size(), scanStateIndex.size());
+		assertTrue(scanStateIndex.isVerified(scanStateIndex.find(originalFiles.get(0).getName())));
+
+		// Change, delete and move files
+		TestFileUtil.changeRandomPartOfBinaryFile(originalFiles.get(0));
+		TestFileUtil.deleteFile(originalFiles.get(1));
+		originalFiles.get(2).renameTo(new File(config.getLocalDir(), "moved-file"));
+
+		ChangeSet changeSet = assertStatusEqualsWithoutScanStateIndex(config);
+
+		assertEquals(1, changeSet.getChangedFiles().size());
+		assertEquals(2, changeSet.getDeletedFiles().size());
+		assertEquals(1, changeSet.getNewFiles().size());
+
+		// After 'up', the index is updated with the changed paths only
+		new UpOperation(config).execute();
+
+		changeSet = assertStatusEqualsWithoutScanStateIndex(config);
+		assertFalse(changeSet.hasChanges());
+
+		// Cleanup
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	@Test
+	public void testStatusWithScopePaths() throws Exception {
+		// Setup
+		Config config = TestConfigUtil.createTestLocalConfig();
+		File localDir = config.getLocalDir();
+
+		File folder1 = new File(localDir, "folder1");
+		File folder10 = new File(localDir, "folder10");
+
+		folder1.mkdir();
+		folder10.mkdir();
+
+		TestFileUtil.createRandomFile(new File(localDir, "file1"), 1024);
+		TestFileUtil.createRandomFile(new File(localDir, "file2"), 1024);
+		TestFileUtil.createRandomFile(new File(localDir, "file3"), 1024);
+		TestFileUtil.createRandomFile(new File(folder1, "file4"), 1024);
+		TestFileUtil.createRandomFile(new File(folder1, "file5"), 1024);
+		TestFileUtil.createRandomFile(new File(folder10, "file6"), 1024);
+
+		new UpOperation(config).execute();
+		Thread.sleep(2000); // Status relies on modified time and size
+
+		// Change files inside and outside of the scope
+		TestFileUtil.changeRandomPartOfBinaryFile(new File(localDir, "file1"));
+		TestFileUtil.deleteFile(new File(localDir, "file2"));
+		TestFileUtil.changeRandomPartOfBinaryFile(new File(localDir, "file3")); // Not in scope
+		TestFileUtil.deleteFile(new File(folder1, "file4"));
+		TestFileUtil.deleteFile(new File(folder10, "file6")); // Not in scope, but same prefix as 'folder1'
+
+		new File(localDir, "folder2/subfolder").mkdirs();
+		TestFileUtil.createRandomFile(new File(localDir, "folder2/subfolder/file7"), 1024);
+
+		// Run (scope paths overlap, and some do not exist)
+		StatusOperationOptions statusOptions = new StatusOperationOptions();
+		statusOptions.setScopePaths(new HashSet<String>(Arrays.asList("file1", "file2", "folder1", "folder1/file4", "folder2",
+				"folder2/subfolder/file7", "does-not-exist", ".syncany/db")));
+
+		ChangeSet changeSet = new StatusOperation(config, statusOptions).execute().getChangeSet();
+
+		// Test
+		assertEquals(toSet("file1"), changeSet.getChangedFiles());
+		assertEquals(toSet("file2", "folder1/file4"), changeSet.getDeletedFiles());
+		assertEquals(toSet("folder2", "folder2/subfolder", "folder2/subfolder/file7"), changeSet.getNewFiles());
+		assertEquals(toSet("folder1", "folder1/file5"), changeSet.getUnchangedFiles());
+
+		// Full status also finds the changes outside of the scope
+		ChangeSet fullChangeSet = new StatusOperation(config).execute().getChangeSet();
+
+		assertEquals(toSet("file1", "file3"), fullChangeSet.getChangedFiles());
+		assertEquals(toSet("file2", "folder1/file4", "folder10/file6"), fullChangeSet.getDeletedFiles());
+
+		// Cleanup
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	private Set<String> toSet(String... paths) {
+		return new HashSet<String>(Arrays.asList(paths));
+	}
+
+	private ChangeSet assertStatusEqualsWithoutScanStateIndex(Config config) throws Exception {
+		ChangeSet changeSet = new StatusOperation(config).execute().getChangeSet();
+
+		// Compare to status without index (and restore index)
+		File scanStateIndexFile = config.getScanStateIndexFile();
+		File scanStateIndexBackupFile = new File(scanStateIndexFile + ".backup");
+
+		TestFileUtil.copyFile(scanStateIndexFile, scanStateIndexBackupFile);
+		TestFileUtil.deleteFile(scanStateIndexFile);
+
+		ChangeSet changeSetWithoutIndex = new StatusOperation(config).execute().getChangeSet();
+
+		TestFileUtil.copyFile(scanStateIndexBackupFile, scanStateIndexFile);
+		TestFileUtil.deleteFile(scanStateIndexBackupFile);
+
+		assertEquals(changeSetWithoutIndex.getNewFiles(), changeSet.getNewFiles());
+		assertEquals(changeSetWithoutIndex.getChangedFiles(), changeSet.getChangedFiles());
+		assertEquals(changeSetWithoutIndex.getDeletedFiles(), changeSet.getDeletedFiles());
+		assertEquals(changeSetWithoutIndex.getUnchangedFiles(), changeSet.getUnchangedFiles());
+
+		return changeSet;
+	}
 }
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.logging.Level;
@@ -39,6 +40,7 @@ import org.syncany.plugins.transfer.features.TransactionAware;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 import org.syncany.plugins.transfer.to.TransactionTO;
 import org.syncany.plugins.unreliable_local.UnreliableLocalTransferSettings;
+import org.syncany.tests.util.TestAssertUtil;
 import org.syncany.tests.util.TestClient;
 import org.syncany.tests.util.TestConfigUtil;
 
@@ -602,4 +604,72 @@ public class UploadInterruptedTest {
 		clientA.deleteTestData();
 		clientB.deleteTestData();
 	}
+
+	@Test
+	public void testUnreliableUpload_ConcurrentCommitFailsThenResume() throws Exception {
+		/*
+		 * This test commits the transaction with multiple threads. All multichunk uploads
+		 * except for the first upload in the transaction fail, so the commit fails after some of the
+		 * files have been uploaded to the temporary location. The resumed transaction must
+		 * upload the remaining files and move all of them to their final location.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						// 1st and 2nd upload are action and transaction file, 3rd is the first temp. file
+						"rel=([4-9]|[1-9][0-9]+) .+upload.+multichunk"
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+
+		for (int i = 0; i < 8; i++) {
+			clientA.createNewFile("file" + i, 1500 * 1024); // Several multichunks
+		}
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setTransactionThreads(4);
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up(upOptions);
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(0, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/multichunks/").listFiles().length);
+		assertEquals(1, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+		assertTrue(new File(testConnection.getPath() + "/temporary/").listFiles().length >= 1);
+
+		// Resume concurrently without failures
+		testConnection.setFailingOperationPatterns(new ArrayList<String>());
+
+		upOptions.setResume(true);
+		upOptions.setForceUploadEnabled(true);
+
+		clientA.up(upOptions);
+
+		assertEquals(1, new File(testConnection.getPath() + "/databases/").listFiles().length);
+		assertTrue(new File(testConnection.getPath() + "/multichunks/").listFiles().length > 1);
+		assertEquals(0, new File(testConnection.getPath() + "/transactions/").listFiles().length);
+		assertEquals(0, new File(testConnection.getPath() + "/temporary/").listFiles().length);
+
+		TestClient clientB = new TestClient("B", testConnection);
+		clientB.down();
+
+		TestAssertUtil.assertFileListEquals(clientA.getLocalFiles(), clientB.getLocalFiles());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
 }
@@ -0,0 +1,90 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.operations.daemon.LocalEventBus;
+import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
+import org.syncany.operations.down.DownOperationOptions;
+import org.syncany.operations.down.DownOperationResult;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+import com.google.common.eventbus.Subscribe;
+
+public class SharedMultiChunkAcrossBatchesScenarioTest {
+	private AtomicInteger downloadedMultiChunkCount = new AtomicInteger(0);
+
+	@Test
+	public void testSharedMultiChunkIsDownloadedOnce() throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		LocalEventBus localEventBus = LocalEventBus.getInstance();
+		localEventBus.register(this);
+
+		// Run
+
+		// Two database versions with one file each; both files are identical, so they share the same multichunk
+		clientA.createNewFile("A-file1", 100 * 1024);
+		clientA.up();
+
+		clientA.copyFile("A-file1", "A-file2");
+		clientA.up();
+
+		// Apply winner's branch in batches of one file history, i.e. in two batches
+		DownOperationOptions downOptions = new DownOperationOptions();
+		downOptions.setMaxBatchFiles(1);
+
+		DownOperationResult downOperationResult = clientB.down(downOptions);
+		localEventBus.unregister(this);
+
+		assertEquals("Shared multichunk should have been used by both batches.", 1, downOperationResult.getDownloadedMultiChunks().size());
+		assertEquals("Shared multichunk should have been downloaded only once.", 1, downloadedMultiChunkCount.get());
+
+		for (MultiChunkId multiChunkId : downOperationResult.getDownloadedMultiChunks()) {
+			assertFalse("Decrypted multichunk should have been deleted after the last batch.",
+					clientB.getConfig().getCache().getDecryptedMultiChunkFile(multiChunkId).exists());
+		}
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Subscribe
+	public void onDownloadFile(DownDownloadFileSyncExternalEvent downloadFileEvent) {
+		if ("multichunk".equals(downloadFileEvent.getFileDescription())) {
+			downloadedMultiChunkCount.incrementAndGet();
+		}
+	}
+}
@@ -17,6 +17,8 @@
  */
 package org.syncany.chunk;
 
+import java.nio.ByteBuffer;
+
 /**
  * A simple 32-bit "rolling" checksum. This checksum algorithm is based
  * upon the algorithm outlined in the paper "The rsync algorithm" by
@@ -131,8 +133,28 @@ public class Adler32Fingerprinter extends Fingerprinter {
 
 	@Override
 	public void check(byte[] buf, int off, int len) {
-		block = new byte[len];
+		if (block == null || block.length != len) {
+			block = new byte[len];
+		}
+
 		System.arraycopy(buf, off, block, 0, len);
+		checkBlock();
+	}
+
+	@Override
+	public void check(ByteBuffer buf, int off, int len) {
+		if (block == null || block.length != len) {
+			block = new byte[len];
+		}
+
+		for (int i = 0; i < len; i++) {
+			block[i] = buf.get(off + i);
+		}
+
+		checkBlock();
+	}
+
+	private void checkBlock() {
 		reset();
 		this.len = block.length;
 		int i;
@@ -17,15 +17,25 @@
  */
 package org.syncany.chunk;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * A chunk represents a certain part of a file. It is created during the
  * deduplication process by a {@link Chunker}. 
  * 
+ * <p>The contents of a chunk can either be backed by a byte array, or by a
+ * view of a {@link ChunkSource} window (e.g. a memory-mapped region of the file).
+ * In the latter case, the contents are only copied to a byte array if they are 
+ * actually requested via {@link #getContent()} -- i.e. typically only for chunks 
+ * that are new and have to be written to a multichunk.
+ * 
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class Chunk {
     private byte[] checksum;
     private byte[] contents;
+    private ByteBuffer contentBuffer;
     private int size;
     private byte[] fileChecksum;
 
@@ -36,11 +46,48 @@ public class Chunk {
         this.fileChecksum = fileChecksum;
     }
 
+    /*package*/ Chunk(byte[] checksum, ByteBuffer contents, int size, byte[] fileChecksum) {
+        this.checksum = checksum;
+        this.size = size;
+        this.fileChecksum = fileChecksum;
+
+        // Refer to the backing array directly if the chunk starts at its beginning
+        if (contents.hasArray() && contents.arrayOffset() + contents.position() == 0) {
+            this.contents = contents.array();
+        }
+        else {
+            ByteBuffer contentView = contents.duplicate();
+            contentView.limit(contentView.position() + size);
+
+            this.contentBuffer = contentView.slice();
+        }
+    }
+
+    /**
+     * Returns a chunk whose contents remain valid after the chunk enumeration that created
+     * this chunk has moved on to the next chunk. Chunks backed by a (re-used) byte array
+     * are copied. Chunks backed by a view of a memory mapping are copied as well, because
+     * the view would keep the mapping alive, and reading it fails once the file is truncated.
+     */
+    /*package*/ Chunk detach() {
+        if (contentBuffer != null) {
+            return new Chunk(checksum, getContent(), size, fileChecksum);
+        }
+        else {
+            return new Chunk(checksum, Arrays.copyOf(contents, size), size, fileChecksum);
+        }
+    }
+
     public byte[] getChecksum() {
         return checksum;
     }
 
     public byte[] getContent() {
+        if (contents == null && contentBuffer != null) {
+            contents = new byte[size];
+            contentBuffer.duplicate().get(contents);
+        }
+
         return contents;
     }
 
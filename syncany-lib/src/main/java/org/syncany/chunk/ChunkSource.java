@@ -0,0 +1,120 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.syncany.util.EnvironmentUtil;
+
+/**
+ * A chunk source provides the content of a file to a {@link Chunker}'s enumeration. Instead
+ * of reading from an input stream into its own buffer, a chunker requests a window of the
+ * next bytes from the chunk source, calculates fingerprints and checksums directly on this
+ * window, and then marks the bytes of the emitted chunk as consumed.
+ *
+ * <p>There are two implementations: The {@link StreamChunkSource} reads the file into a
+ * re-used heap buffer, and the {@link MappedChunkSource} maps the file into memory and
+ * hands out views of the mapping, so that the file content is scanned in place without
+ * any copies in user space. The {@link #open(File) open()} method chooses the source
+ * depending on the file size: Mapping a file is only worth its setup cost for large files.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public abstract class ChunkSource {
+	/**
+	 * Minimum size of a file to be read via a {@link MappedChunkSource}.
+	 * Smaller files are read via a {@link StreamChunkSource}.
+	 */
+	public static final long MAPPED_MIN_FILE_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Opens the given file as chunk source. Files that are at least {@link #MAPPED_MIN_FILE_SIZE}
+	 * bytes large are memory-mapped, all other files are read as a stream.
+	 *
+	 * <p>On Windows, files are never memory-mapped, because a mapped file cannot be modified,
+	 * renamed or deleted until the mapping is garbage collected -- which would interfere with
+	 * the user (and with the sync down process) long after the file has been indexed.
+	 *
+	 * @param file File to be chunked
+	 * @return A new chunk source for the given file, must be closed after processing
+	 * @throws IOException If the file cannot be opened
+	 */
+	public static ChunkSource open(File file) throws IOException {
+		if (!EnvironmentUtil.isWindows() && file.length() >= MAPPED_MIN_FILE_SIZE) {
+			return new MappedChunkSource(file);
+		}
+		else {
+			return new StreamChunkSource(new FileInputStream(file));
+		}
+	}
+
+	/**
+	 * Returns a buffer containing the next unconsumed bytes of the file, from the buffer's
+	 * position to its limit. The buffer contains exactly the given number of bytes, unless
+	 * the end of the file is reached, in which case it contains all remaining bytes. An empty
+	 * buffer hence indicates the end of the file.
+	 *
+	 * <p>The returned buffer (and its content) is only valid until the next call to this method.
+	 * Callers may change the buffer's position and limit, but must not modify its content.
+	 *
+	 * @param length Number of bytes requested
+	 * @return Buffer with the next bytes of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	public abstract ByteBuffer read(int length) throws IOException;
+
+	/**
+	 * Marks the given number of bytes as consumed, i.e. the next call to
+	 * {@link #read(int) read()} returns the bytes following these bytes.
+	 *
+	 * @param length Number of bytes to skip, must not exceed the bytes returned by the last read
+	 */
+	public abstract void consume(int length);
+
+	/**
+	 * Returns whether all bytes of the file have been consumed. Calling this method
+	 * does not invalidate the buffer returned by the last {@link #read(int) read()}.
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	public abstract boolean isEndOfFile() throws IOException;
+
+	/**
+	 * Returns whether the given error has been thrown while accessing a window of this
+	 * source because the underlying file has been truncated in the mean time. Only
+	 * memory-mapped windows fail this way; the error is not an {@link IOException},
+	 * but an {@link InternalError} raised by the JVM when the mapped page is gone.
+	 *
+	 * <p>Chunkers treat such a file like a file that has changed during indexing,
+	 * i.e. they stop enumerating its chunks.
+	 *
+	 * @param error Error thrown while accessing a window returned by {@link #read(int) read()}
+	 * @return True if the error was caused by a truncated file, false otherwise
+	 */
+	public boolean isTruncationError(InternalError error) {
+		return false;
+	}
+
+	/**
+	 * Closes the underlying file.
+	 */
+	public abstract void close() throws IOException;
+}
@@ -19,7 +19,16 @@ package org.syncany.chunk;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
 
 /**
  * The chunker implements a core part of the deduplication process by breaking
@@ -29,14 +38,194 @@ import java.util.Enumeration;
  * <p>Note: Implementations should never read the entire file into memory at once,
  *          but instead use an input stream for processing.
  * 
+ * <p>A chunker can be instantiated using its implementation-specific constructor, or by calling
+ * its default constructor and initializing it using the {@link #init(Map) init()} method. The latter
+ * is used to create the chunker defined in the repository's chunker settings. 
+ * 
+ * <p>By default, the file checksum of a chunked file is the checksum of its entire content.
+ * If the chunker is configured to derive the file checksum from the chunks (see
+ * {@link #PROPERTY_FILE_CHECKSUM}), the file checksum is instead calculated over the ordered 
+ * list of chunk checksums. This avoids hashing each byte twice, but the checksum can then only 
+ * be reproduced by chunking the file with the same chunker (see {@link #createFileChecksum(File)}).
+ * 
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public abstract class Chunker {	
+	private static final Logger logger = Logger.getLogger(Chunker.class.getSimpleName());
+
 	/**
 	 * Property used by the config to indicate the exact or 
 	 * approximate size of a chunk. In bytes. 
 	 */
 	public static final String PROPERTY_SIZE = "size";
+
+	/**
+	 * Optional property used by the config to select the checksum algorithm
+	 * used to calculate the chunk and file checksums, e.g. SHA1 or SHA-256. 
+	 */
+	public static final String PROPERTY_DIGEST = "digest";
+
+	/**
+	 * Optional property used by the config to define how file checksums are
+	 * calculated: either over the file content ({@link #FILE_CHECKSUM_CONTENT}, default),
+	 * or over the ordered list of chunk checksums ({@link #FILE_CHECKSUM_CHUNKS}).
+	 */
+	public static final String PROPERTY_FILE_CHECKSUM = "file-checksum";
+	public static final String FILE_CHECKSUM_CONTENT = "content";
+	public static final String FILE_CHECKSUM_CHUNKS = "chunks";
+
+	private boolean fileChecksumFromChunks = false;
+	
+	/**
+	 * If a chunker is instantiated via the default constructor (e.g. via the repository
+	 * config), it must be initialized using this method. The settings passed to the method
+	 * depend on the implementation of the chunker.
+	 * 
+	 * @param settings Implementation-specific setting map
+	 * @throws IllegalArgumentException If the given settings are invalid or insufficient for instantiation
+	 */
+	public abstract void init(Map<String, String> settings);
+	
+	/**
+	 * Parses a mandatory integer property from the given settings map. This 
+	 * method can be used by implementations in the {@link #init(Map) init()} method.
+	 * 
+	 * @throws IllegalArgumentException If the property does not exist or cannot be parsed
+	 */
+	protected static int getIntegerProperty(Map<String, String> settings, String property) {
+		String value = (settings != null) ? settings.get(property) : null;
+
+		if (value == null) {
+			logger.log(Level.SEVERE, String.format("Property %s must not be null.", property));
+			throw new IllegalArgumentException(String.format("Property %s must not be null.", property));
+		}
+
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException nfe) {
+			logger.log(Level.SEVERE, String.format("Property %s could not be parsed as Integer.", property));
+			throw new IllegalArgumentException(String.format("Property %s could not be parsed as Integer.", property));
+		}
+	}
+	
+	/**
+	 * Parses the optional checksum algorithm property ({@link #PROPERTY_DIGEST}) from the 
+	 * given settings map, and verifies that the algorithm is available. This method can be
+	 * used by implementations in the {@link #init(Map) init()} method.
+	 * 
+	 * @return The checksum algorithm from the settings, or the given default algorithm if the property does not exist
+	 * @throws IllegalArgumentException If the algorithm is not supported
+	 */
+	protected static String getDigestProperty(Map<String, String> settings, String defaultDigestAlgorithm) {
+		String digestAlgorithm = (settings != null) ? settings.get(PROPERTY_DIGEST) : null;
+
+		if (digestAlgorithm == null) {
+			return defaultDigestAlgorithm;
+		}
+
+		try {
+			MessageDigest.getInstance(digestAlgorithm);
+			return digestAlgorithm;
+		}
+		catch (NoSuchAlgorithmException e) {
+			logger.log(Level.SEVERE, String.format("Property %s: Unsupported checksum algorithm %s.", PROPERTY_DIGEST, digestAlgorithm));
+			throw new IllegalArgumentException(String.format("Property %s: Unsupported checksum algorithm %s.", PROPERTY_DIGEST, digestAlgorithm), e);
+		}
+	}
+	
+	/**
+	 * Parses the optional file checksum property ({@link #PROPERTY_FILE_CHECKSUM}) from the 
+	 * given settings map. This method can be used by implementations in the {@link #init(Map) init()} 
+	 * method.
+	 * 
+	 * @return True if file checksums are derived from the chunk checksums, false otherwise (default)
+	 * @throws IllegalArgumentException If the property has an unknown value
+	 */
+	protected static boolean getFileChecksumProperty(Map<String, String> settings) {
+		String fileChecksumMode = (settings != null) ? settings.get(PROPERTY_FILE_CHECKSUM) : null;
+
+		if (fileChecksumMode == null || FILE_CHECKSUM_CONTENT.equals(fileChecksumMode)) {
+			return false;
+		}
+		else if (FILE_CHECKSUM_CHUNKS.equals(fileChecksumMode)) {
+			return true;
+		}
+		else {
+			logger.log(Level.SEVERE, String.format("Property %s: Invalid value %s.", PROPERTY_FILE_CHECKSUM, fileChecksumMode));
+			throw new IllegalArgumentException(String.format("Property %s: Invalid value %s.", PROPERTY_FILE_CHECKSUM, fileChecksumMode));
+		}
+	}
+
+	/**
+	 * Returns whether the file checksums are calculated over the ordered list of 
+	 * chunk checksums (true), or over the file content (false). 
+	 */
+	public boolean isFileChecksumFromChunks() {
+		return fileChecksumFromChunks;
+	}
+
+	/**
+	 * Defines whether the file checksums are calculated over the ordered list of 
+	 * chunk checksums (true), or over the file content (false). 
+	 */
+	public void setFileChecksumFromChunks(boolean fileChecksumFromChunks) {
+		this.fileChecksumFromChunks = fileChecksumFromChunks;
+	}
+
+	/**
+	 * Updates the file digest of a chunk enumeration with the given chunk. Depending
+	 * on the file checksum mode, either the chunk checksum or the chunk content is 
+	 * added to the digest. Implementations must call this method for every chunk, in order.
+	 * 
+	 * @param fileDigest The file digest of the chunk enumeration
+	 * @param chunkChecksum The checksum of the current chunk
+	 * @param chunkContent The content of the current chunk; the buffer's position is advanced to its limit
+	 */
+	protected void updateFileDigest(MessageDigest fileDigest, byte[] chunkChecksum, ByteBuffer chunkContent) {
+		if (fileChecksumFromChunks) {
+			fileDigest.update(chunkChecksum);
+		}
+		else {
+			fileDigest.update(chunkContent);
+		}
+	}
+
+	/**
+	 * Calculates the file checksum of the given file, exactly like it would be calculated
+	 * when chunking the file. If the file checksum is derived from the chunks, the file is 
+	 * chunked; otherwise only its content is hashed.
+	 * 
+	 * @param file The file for which the checksum is calculated
+	 * @return The file checksum, or <code>null</code> if the file is empty and the checksum is derived from the chunks
+	 * @throws IOException If the file cannot be read
+	 * @throws NoSuchAlgorithmException If the checksum algorithm is not supported 
+	 */
+	public byte[] createFileChecksum(File file) throws IOException, NoSuchAlgorithmException {
+		if (!fileChecksumFromChunks) {
+			return FileUtil.createChecksum(file, getChecksumAlgorithm());
+		}
+
+		ChunkEnumeration chunksEnum = createChunks(file);
+		byte[] fileChecksum = null;
+
+		try {
+			while (chunksEnum.hasMoreElements()) {
+				Chunk chunk = chunksEnum.nextElement();
+
+				if (chunk == null) {
+					throw new IOException("Unable to read chunks from file " + file);
+				}
+
+				fileChecksum = chunk.getFileChecksum();
+			}
+		}
+		finally {
+			chunksEnum.close();
+		}
+
+		return fileChecksum;
+	}
 	
     /**
      * Opens the given file and creates enumeration of {@link Chunk}s. This method 
@@ -64,6 +253,33 @@ public abstract class Chunker {
      */
     public abstract String getChecksumAlgorithm();
     
+	/**
+	 * Instantiates a chunker by its name using the default constructor. 
+	 * <br>
+	 * After creating a new chunker, it must be initialized using the 
+	 * {@link #init(Map) init()} method. The given type attribute is mapped to fully 
+	 * qualified class name (FQCN) of the form <code>org.syncany.chunk.XChunker</code>,
+	 * where <code>X</code> is the camel-cased type attribute.
+	 * 
+	 * @param type Type/name of the chunker (corresponds to its camel case class name)
+	 * @return a new chunker, or <code>null</code> if no chunker of this type exists
+	 */
+	public static Chunker getInstance(String type) {
+		String thisPackage = Chunker.class.getPackage().getName();
+		String camelCaseName = StringUtil.toCamelCase(type);
+		String fqClassName = thisPackage + "." + camelCaseName + Chunker.class.getSimpleName();
+
+		// Try to load!
+		try {
+			Class<?> clazz = Class.forName(fqClassName);
+			return (Chunker) clazz.newInstance();
+		}
+		catch (Exception ex) {
+			logger.log(Level.INFO, "Could not find chunker FQCN " + fqClassName, ex);
+			return null;
+		}
+	}
+    
     /**
      * The chunk enumeration is implemented by the actual chunkers and emits a new
      * chunk when {@link ChunkEnumeration#nextElement() nextElement()} is called. When no more 
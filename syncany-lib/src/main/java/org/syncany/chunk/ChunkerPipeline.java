@@ -0,0 +1,438 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+
+/**
+ * The chunker pipeline runs a {@link Chunker} for multiple files in parallel, and
+ * hands the resulting chunks to the {@link Deduper} in the original file order.
+ *
+ * <p>For each file in a sliding window at the head of the file list, a worker thread
+ * opens the file, and reads and checksums its chunks ahead of time. The chunks are buffered
+ * in a small bounded queue per file, so that the memory usage is limited by the window
+ * size, the queue size and the maximum chunk size. The deduper then consumes the files
+ * one after the other via {@link #createChunks(File)}, just like it would with the
+ * chunker itself. Chunking a file is a deterministic operation, so the result is identical
+ * to the result of the single-threaded deduplication.
+ *
+ * <p>If a file has been modified (size or last modified date) since its worker started
+ * reading it, or if the worker failed to open it, the prefetched chunks are discarded and
+ * the file is chunked in the calling thread instead. This makes sure that the change
+ * detection of the {@link DeduperListener} still covers the entire time the file is read.
+ *
+ * <p>If the worker fails after some of its chunks have already been consumed, the file is
+ * re-chunked from the start in the calling thread. The chunks that were already consumed are
+ * only skipped if the file is unchanged and if they are identical to the re-read chunks.
+ * Otherwise, the file is reported as truncated (a <code>null</code> chunk), so that the
+ * listener does not add it.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+/*package*/ class ChunkerPipeline {
+	private static final Logger logger = Logger.getLogger(ChunkerPipeline.class.getSimpleName());
+
+	private static final int CHUNK_QUEUE_SIZE = 4;
+	private static final int OFFER_TIMEOUT_MILLIS = 100;
+	private static final Chunk END_OF_FILE = new Chunk(null, (byte[]) null, 0, null);
+	private static final String CONSUMED_CHUNKS_DIGEST_ALGORITHM = "SHA-256";
+
+	private Chunker chunker;
+	private int windowSize;
+	private ExecutorService executor;
+	private Deque<PrefetchTask> prefetchTasks;
+
+	public ChunkerPipeline(final Chunker chunker, int workerCount) {
+		this.chunker = chunker;
+		this.windowSize = 2 * workerCount;
+		this.executor = Executors.newFixedThreadPool(workerCount, new ChunkerThreadFactory());
+		this.prefetchTasks = new ArrayDeque<PrefetchTask>();
+	}
+
+	/**
+	 * Makes sure that the first few files of the given list are being chunked by
+	 * the worker threads. This method must be called before the head of the list is
+	 * removed and processed by the deduper.
+	 *
+	 * <p>The list must only be modified by removing its first element. Prefetched files
+	 * that were removed without being passed to {@link #createChunks(File)} are cancelled.
+	 *
+	 * @param files List of files that are about to be deduplicated
+	 */
+	public void prefetch(List<File> files) {
+		File headFile = files.isEmpty() ? null : files.get(0);
+
+		while (!prefetchTasks.isEmpty() && prefetchTasks.peekFirst().file != headFile) {
+			prefetchTasks.pollFirst().cancel();
+		}
+
+		int maxPrefetchCount = Math.min(windowSize, files.size());
+
+		for (int i = prefetchTasks.size(); i < maxPrefetchCount; i++) {
+			PrefetchTask prefetchTask = new PrefetchTask(files.get(i));
+
+			prefetchTasks.offerLast(prefetchTask);
+			executor.execute(prefetchTask);
+		}
+	}
+
+	/**
+	 * Returns the chunks of the given file, either from the worker thread that prefetched
+	 * the file, or -- if the file was not prefetched, or if it changed in the mean time --
+	 * directly from the chunker.
+	 *
+	 * @see Chunker#createChunks(File)
+	 */
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		PrefetchTask prefetchTask = prefetchTasks.peekFirst();
+
+		if (prefetchTask != null && prefetchTask.file == file) {
+			prefetchTasks.pollFirst();
+
+			if (prefetchTask.isValid()) {
+				return new PrefetchedChunkEnumeration(prefetchTask);
+			}
+			else {
+				logger.log(Level.FINE, "Prefetched chunks for {0} are unusable; chunking file in the calling thread.", file);
+				prefetchTask.cancel();
+			}
+		}
+
+		return chunker.createChunks(file);
+	}
+
+	/**
+	 * Cancels all remaining prefetch tasks and shuts down the worker threads.
+	 * Must be called when the deduplication process is finished or interrupted.
+	 */
+	public void close() {
+		while (!prefetchTasks.isEmpty()) {
+			prefetchTasks.pollFirst().cancel();
+		}
+
+		executor.shutdownNow();
+	}
+
+	private static class ChunkerThreadFactory implements ThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Chunker/" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+
+	private class PrefetchTask implements Runnable {
+		private File file;
+		private BlockingQueue<Chunk> chunks;
+
+		private volatile boolean cancelled;
+		private volatile boolean started;
+		private volatile boolean failed;
+		private volatile long startSize;
+		private volatile long startLastModified;
+
+		public PrefetchTask(File file) {
+			this.file = file;
+			this.chunks = new ArrayBlockingQueue<Chunk>(CHUNK_QUEUE_SIZE);
+
+			this.cancelled = false;
+			this.started = false;
+			this.failed = false;
+		}
+
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+
+			ChunkEnumeration chunksEnum = null;
+
+			try {
+				BasicFileAttributes fileAttributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+				if (!fileAttributes.isRegularFile()) {
+					failed = true; // Folders and symlinks are not chunked
+					return;
+				}
+
+				startSize = fileAttributes.size();
+				startLastModified = fileAttributes.lastModifiedTime().toMillis();
+				started = true;
+
+				chunksEnum = chunker.createChunks(file);
+
+				while (!cancelled && chunksEnum.hasMoreElements()) {
+					Chunk chunk = chunksEnum.nextElement();
+
+					if (chunk == null) {
+						logger.log(Level.WARNING, "Chunker returned no chunk for file " + file + "; aborting prefetch.");
+						failed = true;
+						break;
+					}
+
+					// Chunkers may re-use their buffers, so the content must be detached
+					offer(chunk.detach());
+				}
+			}
+			catch (Exception e) {
+				logger.log(Level.FINE, "Cannot prefetch chunks for file " + file + ".", e);
+				failed = true;
+			}
+			catch (InternalError e) {
+				logger.log(Level.FINE, "Cannot copy chunks of file " + file + "; file was probably truncated while mapped.", e);
+				failed = true;
+			}
+			finally {
+				if (chunksEnum != null) {
+					chunksEnum.close();
+				}
+
+				offer(END_OF_FILE);
+			}
+		}
+
+		private void offer(Chunk chunk) {
+			try {
+				while (!cancelled && !chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					// Wait until consumed or cancelled
+				}
+			}
+			catch (InterruptedException e) {
+				cancelled = true;
+			}
+		}
+
+		/**
+		 * Checks whether the prefetched chunks can be used. This is the case if the worker
+		 * has been able to open the file (or has not started yet), and if the file has not
+		 * changed since it was opened.
+		 */
+		public boolean isValid() {
+			if (failed) {
+				return false;
+			}
+			else if (!started) {
+				return true; // Worker will capture attributes when it starts
+			}
+
+			return isUnchanged();
+		}
+
+		/**
+		 * Checks whether the size and last modified date of the file are still the same
+		 * as when the worker opened it.
+		 */
+		public boolean isUnchanged() {
+			if (!started) {
+				return false;
+			}
+
+			try {
+				BasicFileAttributes fileAttributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				return fileAttributes.size() == startSize && fileAttributes.lastModifiedTime().toMillis() == startLastModified;
+			}
+			catch (IOException e) {
+				return false;
+			}
+		}
+
+		public Chunk take() throws InterruptedException {
+			return chunks.take();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			chunks.clear();
+		}
+	}
+
+	/**
+	 * Enumeration over the chunks prefetched by a {@link PrefetchTask}. If the worker fails
+	 * after the enumeration has been handed out, the file is re-chunked from the start in the
+	 * calling thread. The chunks that have already been consumed are skipped, if the file
+	 * is unchanged and the re-read chunks match them; otherwise, a <code>null</code> chunk is
+	 * returned to signal that the file could not be read consistently.
+	 */
+	private class PrefetchedChunkEnumeration implements ChunkEnumeration {
+		private PrefetchTask prefetchTask;
+		private ChunkEnumeration fallbackChunksEnum;
+		private Chunk nextChunk;
+		private long consumedChunkCount;
+		private MessageDigest consumedChunksDigest;
+		private boolean endReached;
+		private boolean truncated;
+
+		public PrefetchedChunkEnumeration(PrefetchTask prefetchTask) {
+			this.prefetchTask = prefetchTask;
+			this.fallbackChunksEnum = null;
+			this.nextChunk = null;
+			this.consumedChunkCount = 0;
+			this.consumedChunksDigest = createConsumedChunksDigest();
+			this.endReached = false;
+			this.truncated = false;
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			if (fallbackChunksEnum != null) {
+				return fallbackChunksEnum.hasMoreElements();
+			}
+			else if (truncated) {
+				return true; // nextElement() returns null
+			}
+
+			if (nextChunk == null && !endReached) {
+				try {
+					nextChunk = prefetchTask.take();
+				}
+				catch (InterruptedException e) {
+					logger.log(Level.SEVERE, "Interrupted while waiting for chunks of file " + prefetchTask.file + ".", e);
+					nextChunk = END_OF_FILE;
+				}
+
+				if (nextChunk == END_OF_FILE) {
+					nextChunk = null;
+					endReached = true;
+
+					if (prefetchTask.failed) {
+						return openFallbackEnumeration();
+					}
+				}
+			}
+
+			return nextChunk != null;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (!hasMoreElements()) {
+				return null;
+			}
+			else if (fallbackChunksEnum != null) {
+				return fallbackChunksEnum.nextElement();
+			}
+			else if (truncated) {
+				truncated = false;
+				return null;
+			}
+
+			Chunk chunk = nextChunk;
+
+			nextChunk = null;
+			consumedChunkCount++;
+			consumedChunksDigest.update(chunk.getChecksum());
+
+			return chunk;
+		}
+
+		private boolean openFallbackEnumeration() {
+			logger.log(Level.WARNING, "Prefetching chunks for file " + prefetchTask.file + " failed; re-reading file in the calling thread.");
+
+			try {
+				fallbackChunksEnum = chunker.createChunks(prefetchTask.file);
+
+				if (consumedChunkCount > 0 && !skipConsumedChunks()) {
+					logger.log(Level.WARNING, "File " + prefetchTask.file + " changed after " + consumedChunkCount
+							+ " chunk(s) were consumed; reporting file as truncated.");
+
+					fallbackChunksEnum.close();
+					fallbackChunksEnum = null;
+					truncated = true;
+
+					return true;
+				}
+
+				return fallbackChunksEnum.hasMoreElements();
+			}
+			catch (IOException e) {
+				logger.log(Level.SEVERE, "Error while re-reading file " + prefetchTask.file + ".", e);
+
+				truncated = true;
+				return true;
+			}
+		}
+
+		/**
+		 * Skips the chunks that have already been consumed in the fallback enumeration.
+		 * Returns <code>false</code> if the file has changed since the worker opened it, or
+		 * if the re-read chunks differ from the consumed chunks.
+		 */
+		private boolean skipConsumedChunks() {
+			if (!prefetchTask.isUnchanged()) {
+				return false;
+			}
+
+			MessageDigest skippedChunksDigest = createConsumedChunksDigest();
+
+			for (long i = 0; i < consumedChunkCount; i++) {
+				Chunk skippedChunk = (fallbackChunksEnum.hasMoreElements()) ? fallbackChunksEnum.nextElement() : null;
+
+				if (skippedChunk == null) {
+					return false;
+				}
+
+				skippedChunksDigest.update(skippedChunk.getChecksum());
+			}
+
+			return MessageDigest.isEqual(consumedChunksDigest.digest(), skippedChunksDigest.digest());
+		}
+
+		@Override
+		public void close() {
+			prefetchTask.cancel();
+
+			if (fallbackChunksEnum != null) {
+				fallbackChunksEnum.close();
+			}
+		}
+	}
+
+	private static MessageDigest createConsumedChunksDigest() {
+		try {
+			return MessageDigest.getInstance(CONSUMED_CHUNKS_DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Digest algorithm " + CONSUMED_CHUNKS_DIGEST_ALGORITHM + " not supported.", e);
+		}
+	}
+}
@@ -40,6 +40,11 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
  * <i>"Minimizing remote storage usage and synchronization time using deduplication and
  * multichunking: Syncany as an example"</i>
  * 
+ * <p>If more than one chunker thread is configured, the files are read and chunked by a
+ * {@link ChunkerPipeline} ahead of time. Chunks are still written to the multichunks
+ * in the order of the given file list, and all listener methods are called from the
+ * calling thread, in the same order as in the single-threaded mode.
+ * 
  * @see <a href="http://blog.philippheckel.com/2013/05/20/minimizing-remote-storage-usage-and-synchronization-time-using-deduplication-and-multichunking-syncany-as-an-example/">Blog post: Minimizing remote storage usage and synchronization time using deduplication and multichunking: Syncany as an example</a>
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
@@ -49,13 +54,19 @@ public class Deduper {
 	private Transformer transformer;
 	private long maxTotalSize;
 	private long maxNumberOfFiles;
+	private int chunkerThreads;
 
 	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, long maxTotalSize, long maxNumberOfFiles) {
+		this(chunker, multiChunker, transformer, maxTotalSize, maxNumberOfFiles, 1);
+	}
+
+	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, long maxTotalSize, long maxNumberOfFiles, int chunkerThreads) {
 		this.chunker = chunker;
 		this.multiChunker = multiChunker;
 		this.transformer = transformer;
 		this.maxTotalSize = maxTotalSize;
 		this.maxNumberOfFiles = maxNumberOfFiles;
+		this.chunkerThreads = chunkerThreads;
 	}
 	
 	/**
@@ -69,12 +80,29 @@ public class Deduper {
 	 * @throws IOException If a file cannot be read or an unexpected exception occurs
 	 */
 	public void deduplicate(List<File> files, DeduperListener listener) throws IOException {
+		ChunkerPipeline chunkerPipeline = (chunkerThreads > 1) ? new ChunkerPipeline(chunker, chunkerThreads) : null;
+
+		try {
+			deduplicate(files, listener, chunkerPipeline);
+		}
+		finally {
+			if (chunkerPipeline != null) {
+				chunkerPipeline.close();
+			}
+		}
+	}
+
+	private void deduplicate(List<File> files, DeduperListener listener, ChunkerPipeline chunkerPipeline) throws IOException {
 		Chunk chunk = null;
 		MultiChunk multiChunk = null;
 		long totalMultiChunkSize = 0L;
 		long totalNumFiles = 0L;
 		
 		while (!files.isEmpty()) {
+			if (chunkerPipeline != null) {
+				chunkerPipeline.prefetch(files);
+			}
+
 			File file = files.remove(0);
 			totalNumFiles++;
 			
@@ -90,11 +118,16 @@ public class Deduper {
 
 			if (dedupContents) {
 				// Create chunks from file
-				ChunkEnumeration chunksEnum = chunker.createChunks(file);
+				ChunkEnumeration chunksEnum = (chunkerPipeline != null) ? chunkerPipeline.createChunks(file) : chunker.createChunks(file);
 
 				while (chunksEnum.hasMoreElements()) {
 					chunk = chunksEnum.nextElement();
 
+					// File could not be read to the end (e.g. truncated); listener detects this in onFileEnd()
+					if (chunk == null) {
+						break;
+					}
+
 					// old chunk
 					if (!listener.onChunk(chunk)) {
 						listener.onFileAddChunk(file, chunk);
@@ -124,7 +157,13 @@ public class Deduper {
 						}
 
 						// - Add chunk data
-						multiChunk.write(chunk);						
+						try {
+							multiChunk.write(chunk);
+						}
+						catch (InternalError e) {
+							throw new IOException("File " + file + " was truncated while writing its chunks to a multichunk.", e);
+						}
+
 						listener.onMultiChunkWrite(multiChunk, chunk);						
 					}
 
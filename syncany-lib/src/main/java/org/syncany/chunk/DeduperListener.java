@@ -72,6 +72,9 @@ public interface DeduperListener {
 	 * 
 	 * <p>The method is called for every file that was not excluded by {@link #onFileFilter(File) onFileFilter()}.
 	 * 
+	 * <p>If the file could not be read to the end (e.g. because it was truncated while it was read),
+	 * the checksum is <code>null</code>, just like for directories and empty files.
+	 * 
 	 * @param file File for which the deduplication process is finished
 	 * @param checksum File checksum for the entire file content (using the checksum algorithm of the chunker)
 	 */
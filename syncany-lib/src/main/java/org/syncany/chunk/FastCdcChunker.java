@@ -0,0 +1,339 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FastCDC chunker is a content-based {@link Chunker} based on the Gear rolling hash,
+ * as described in the FastCDC paper of Wen Xia et al., 2016.
+ *
+ * <p>Like the {@link TttdChunker}, it determines breakpoints on the content rather than
+ * on the offset, so that inserting or removing bytes only affects the chunks around the
+ * modification. Unlike TTTD, it does not need a modulo operation and a separate fingerprint
+ * window: The Gear hash is updated with a single shift, add and table lookup per byte, and
+ * a breakpoint is found if the masked hash is zero. Because each byte is shifted out of the
+ * 64-bit hash after 64 steps, the hash implicitly covers a window of the last 64 bytes.
+ *
+ * <p>The chunker uses three techniques to speed up chunking and to control the chunk size:
+ * <ul>
+ *  <li><b>Cut-point skipping:</b> No hash is calculated for the first <i>min</i> bytes
+ *      (a quarter of the average chunk size) of a chunk.</li>
+ *  <li><b>Normalized chunking:</b> Before the average chunk size is reached, a stricter mask
+ *      (two more bits) is used; after it, a looser mask (two fewer bits) is used. This
+ *      concentrates the chunk sizes around the average chunk size.</li>
+ *  <li><b>Maximum chunk size:</b> Chunks are cut at <i>max</i> bytes (eight times the
+ *      average chunk size) if no breakpoint is found.</li>
+ * </ul>
+ *
+ * <p>The Gear table is derived from a fixed seed. Changing the table (or the masks) changes
+ * all chunk boundaries, and hence breaks deduplication against existing repositories.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC: a Fast and Efficient Content-Defined Chunking Approach for Data Deduplication (2016, Wen Xia et al.)</a>
+ */
+public class FastCdcChunker extends Chunker {
+	private static final Logger logger = Logger.getLogger(FastCdcChunker.class.getSimpleName());
+
+	public static final String TYPE = "fast-cdc";
+	public static final int DEFAULT_AVG_CHUNK_SIZE = 512 * 1024;
+	public static final int MIN_AVG_CHUNK_SIZE = 256;
+	public static final String DEFAULT_DIGEST_ALG = "SHA1";
+
+	private static final int NORMALIZATION_LEVEL = 2;
+	private static final long GEAR_SEED = 0x53796E63616E7921L;
+	private static final long[] GEAR = createGearTable(GEAR_SEED);
+
+	private int avgChunkSize;
+	private int minChunkSize;
+	private int maxChunkSize;
+	private long maskSmall;
+	private long maskLarge;
+	private String checksumAlgorithm;
+
+	/**
+	 * Creates a new FastCDC chunker with the default average chunk size and the default
+	 * checksum algorithm SHA1. The chunker can be initialized with a different average chunk
+	 * size using the {@link #init(Map) init()} method.
+	 */
+	public FastCdcChunker() {
+		this(DEFAULT_AVG_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker with the default checksum algorithm SHA1.
+	 *
+	 * @param avgChunkSize Average (normal) chunk size in bytes
+	 */
+	public FastCdcChunker(int avgChunkSize) {
+		this(avgChunkSize, DEFAULT_DIGEST_ALG);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker. The minimum and maximum chunk size, as well as the
+	 * masks used to determine the breakpoints are derived from the average chunk size.
+	 *
+	 * @param avgChunkSize Average (normal) chunk size in bytes
+	 * @param checksumAlgorithm Algorithm to calculate the chunk and file checksums (e.g. SHA1, MD5)
+	 */
+	public FastCdcChunker(int avgChunkSize, String checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+		setAvgChunkSize(avgChunkSize);
+	}
+
+	/**
+	 * Initializes the FastCDC chunker using a settings map.
+	 * <br>
+	 * Required settings are:
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SIZE}, value: average chunk size in bytes, integer encoded as String
+	 * </ul>
+	 *
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_DIGEST}, value: chunk/file checksum algorithm, defaults to {@link #DEFAULT_DIGEST_ALG}
+	 *  <li> key: {@link #PROPERTY_FILE_CHECKSUM}, value: {@link #FILE_CHECKSUM_CONTENT} (default) or {@link #FILE_CHECKSUM_CHUNKS}
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		setAvgChunkSize(getIntegerProperty(settings, PROPERTY_SIZE));
+		this.checksumAlgorithm = getDigestProperty(settings, DEFAULT_DIGEST_ALG);
+		setFileChecksumFromChunks(getFileChecksumProperty(settings));
+	}
+
+	private void setAvgChunkSize(int avgChunkSize) {
+		if (avgChunkSize < MIN_AVG_CHUNK_SIZE) {
+			throw new IllegalArgumentException(String.format("Property %s must be at least %d.", PROPERTY_SIZE, MIN_AVG_CHUNK_SIZE));
+		}
+
+		int bits = 31 - Integer.numberOfLeadingZeros(avgChunkSize); // floor(log2(avg))
+
+		this.avgChunkSize = avgChunkSize;
+		this.minChunkSize = avgChunkSize / 4;
+		this.maxChunkSize = avgChunkSize * 8;
+		this.maskSmall = createMask(bits + NORMALIZATION_LEVEL);
+		this.maskLarge = createMask(bits - NORMALIZATION_LEVEL);
+	}
+
+	@Override
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		return new FastCdcEnumeration(ChunkSource.open(file));
+	}
+
+	@Override
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	@Override
+	public String toString() {
+		return "FastCDC-" + avgChunkSize + "-" + checksumAlgorithm;
+	}
+
+	/**
+	 * Creates a mask with the given number of (most significant) bits set. The most
+	 * significant bits of the Gear hash depend on the most bytes, i.e. they cover the
+	 * largest window.
+	 */
+	private static long createMask(int bits) {
+		return -1L << (64 - bits);
+	}
+
+	/**
+	 * Creates the Gear table from the given seed, using the SplitMix64 generator.
+	 * The generator is implemented here (instead of using {@link java.util.Random}) to
+	 * make sure that the table never changes.
+	 */
+	private static long[] createGearTable(long seed) {
+		long[] gear = new long[256];
+		long state = seed;
+
+		for (int i = 0; i < gear.length; i++) {
+			state += 0x9E3779B97F4A7C15L;
+
+			long value = state;
+			value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+			value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+
+			gear[i] = value ^ (value >>> 31);
+		}
+
+		return gear;
+	}
+
+	public class FastCdcEnumeration implements ChunkEnumeration {
+		private ChunkSource source;
+		private ByteBuffer window;
+		private boolean closed;
+
+		private MessageDigest chunkDigest;
+		private MessageDigest fileDigest;
+
+		public FastCdcEnumeration(InputStream in) {
+			this(new StreamChunkSource(in));
+		}
+
+		public FastCdcEnumeration(ChunkSource source) {
+			this.source = source;
+			this.window = null;
+			this.closed = false;
+
+			try {
+				chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+				fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+
+				fileDigest.reset();
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			if (closed) {
+				return false;
+			}
+
+			// Before the first chunk, nothing has been read; check for empty files
+			if (window == null) {
+				try {
+					window = source.read(maxChunkSize);
+				}
+				catch (IOException ex) {
+					logger.log(Level.WARNING, "Error while reading from file.", ex);
+					return false;
+				}
+
+				if (!window.hasRemaining()) {
+					close();
+					closed = true;
+				}
+			}
+
+			return !closed;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (!hasMoreElements()) {
+				return null;
+			}
+
+			try {
+				window = source.read(maxChunkSize);
+
+				int chunkStart = window.position();
+				int chunkSize = findBreakpoint(chunkStart, window.remaining());
+
+				// Chunk checksum
+				window.limit(chunkStart + chunkSize);
+
+				chunkDigest.reset();
+				chunkDigest.update(window);
+
+				byte[] chunkChecksum = chunkDigest.digest();
+
+				// File checksum
+				window.position(chunkStart);
+				updateFileDigest(fileDigest, chunkChecksum, window);
+
+				window.position(chunkStart);
+				source.consume(chunkSize);
+
+				// Close if this was the last bytes
+				if (source.isEndOfFile()) {
+					source.close();
+					closed = true;
+				}
+
+				byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
+
+				return new Chunk(chunkChecksum, window, chunkSize, fileChecksum);
+			}
+			catch (IOException ex) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+				return null;
+			}
+			catch (InternalError ex) {
+				if (!source.isTruncationError(ex)) {
+					throw ex;
+				}
+
+				logger.log(Level.WARNING, "File has been truncated while reading it; treating it as changed.", ex);
+
+				close();
+				closed = true;
+
+				return null;
+			}
+		}
+
+		/**
+		 * Determines the size of the next chunk, i.e. the position of the breakpoint
+		 * relative to the start of the chunk in the window. Up to the average chunk size,
+		 * the stricter mask is used, after that the looser mask.
+		 */
+		private int findBreakpoint(int chunkStart, int available) {
+			if (available <= minChunkSize) {
+				return available;
+			}
+
+			int normalSize = Math.min(avgChunkSize, available);
+			long hash = 0;
+			int pos = minChunkSize;
+
+			for (; pos < normalSize; pos++) {
+				hash = (hash << 1) + GEAR[window.get(chunkStart + pos) & 0xff];
+
+				if ((hash & maskSmall) == 0) {
+					return pos + 1;
+				}
+			}
+
+			for (; pos < available; pos++) {
+				hash = (hash << 1) + GEAR[window.get(chunkStart + pos) & 0xff];
+
+				if ((hash & maskLarge) == 0) {
+					return pos + 1;
+				}
+			}
+
+			// EOF or max. chunk size as breakpoint
+			return available;
+		}
+
+		@Override
+		public void close() {
+			try {
+				source.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "Error while closing", e);
+			}
+		}
+	}
+}
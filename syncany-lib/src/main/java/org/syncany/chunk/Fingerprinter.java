@@ -17,6 +17,7 @@
  */
 package org.syncany.chunk;
 
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 
 /**
@@ -71,6 +72,29 @@ public abstract class Fingerprinter {
      */    
     public abstract void check(byte[] buf, int off, int len);
     
+    /**
+     * Update the checksum with an entirely different block, read from the 
+     * given buffer (e.g. a memory-mapped region of a file). The position and
+     * limit of the buffer are not changed.
+     * 
+     * <p>The default implementation copies the block to a byte array and calls 
+     * {@link #check(byte[], int, int)}. Implementations may override this method 
+     * to avoid the copy.
+     *
+     * @param buf The buffer that holds the new block.
+     * @param off Absolute index in the buffer from whence to begin reading.
+     * @param len The length of the block to read.
+     */
+    public void check(ByteBuffer buf, int off, int len) {
+    	byte[] block = new byte[len];
+    	
+    	for (int i = 0; i < len; i++) {
+    		block[i] = buf.get(off + i);
+    	}
+    	
+    	check(block, 0, len);
+    }
+    
     /**
 	 * Returns a string representation of the fingerprinter
 	 * implementation.
@@ -18,10 +18,11 @@
 package org.syncany.chunk;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +34,11 @@ import java.util.logging.Logger;
  * <p>While it is very fast due to its offset-based approach (and not content-based), it
  * performs very badly when bytes are added or removed from the beginning of a file.
  *
+ * <p>The enumeration reads the file via a {@link ChunkSource}, i.e. either from a single 
+ * re-used buffer, or -- for large files -- directly from a memory mapping of the file. It 
+ * always requests a full chunk, so the chunk boundaries only depend on the file size -- and 
+ * not on how many bytes the underlying stream happens to return in a single read.
+ *
  * <p>Details can be found in chapter 3.4 of the thesis at <a href="http://blog.philippheckel.com/2013/05/20/minimizing-remote-storage-usage-and-synchronization-time-using-deduplication-and-multichunking-syncany-as-an-example/3/#Fixed-Size%20Chunking">blog.philippheckel.com</a>.
  * The <code>FixedChunker</code> implements the chunker described in chapter 3.4.2.
  *
@@ -43,10 +49,20 @@ public class FixedChunker extends Chunker {
 
 	public static final String DEFAULT_DIGEST_ALG = "SHA1";
 	public static final String TYPE = "fixed";
+	public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
 
 	private int chunkSize;
 	private String checksumAlgorithm;
 
+	/**
+	 * Creates a new fixed offset chunker with the default chunk size and the 
+	 * default file/chunk checksum algorithm SHA1. The chunker can be initialized
+	 * with different settings using the {@link #init(Map) init()} method.
+	 */
+	public FixedChunker() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
 	/**
 	 * Creates a new fixed offset chunker with the default file/chunk 
 	 * checksum algorithm SHA1.
@@ -68,9 +84,36 @@ public class FixedChunker extends Chunker {
 		this.checksumAlgorithm = checksumAlgorithm;
 	}
 
+	/**
+	 * Initializes the fixed chunker using a settings map. 
+	 * <br>
+	 * Required settings are: 
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SIZE}, value: chunk size in bytes, integer encoded as String 
+	 * </ul>
+	 * 
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_DIGEST}, value: chunk/file checksum algorithm, defaults to {@link #DEFAULT_DIGEST_ALG}
+	 *  <li> key: {@link #PROPERTY_FILE_CHECKSUM}, value: {@link #FILE_CHECKSUM_CONTENT} (default) or {@link #FILE_CHECKSUM_CHUNKS}
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		int chunkSize = getIntegerProperty(settings, PROPERTY_SIZE);
+
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(String.format("Property %s must be a positive integer.", PROPERTY_SIZE));
+		}
+
+		this.chunkSize = chunkSize;
+		this.checksumAlgorithm = getDigestProperty(settings, DEFAULT_DIGEST_ALG);
+		setFileChecksumFromChunks(getFileChecksumProperty(settings));
+	}
+
 	@Override
 	public ChunkEnumeration createChunks(File file) throws IOException {
-		return new FixedChunkEnumeration(new FileInputStream(file));
+		return new FixedChunkEnumeration(ChunkSource.open(file));
 	}
 
 	@Override
@@ -87,13 +130,17 @@ public class FixedChunker extends Chunker {
 		private MessageDigest digest;
 		private MessageDigest fileDigest;
 
-		private InputStream in;
-		private byte[] buffer;
+		private ChunkSource source;
+		private ByteBuffer window;
 		private boolean closed;
 
 		public FixedChunkEnumeration(InputStream in) {
-			this.in = in;
-			this.buffer = new byte[chunkSize];
+			this(new StreamChunkSource(in));
+		}
+
+		public FixedChunkEnumeration(ChunkSource source) {
+			this.source = source;
+			this.window = null;
 			this.closed = false;
 
 			try {
@@ -113,54 +160,96 @@ public class FixedChunker extends Chunker {
 				return false;
 			}
 
-			try {
-				return in.available() > 0;
-			}
-			catch (IOException ex) {
-				if (logger.isLoggable(Level.WARNING)) {
-					logger.log(Level.WARNING, "Error while reading from file input stream.", ex);
+			// Before the first chunk, nothing has been read; check for empty files
+			if (window == null) {
+				try {
+					window = readWindow();
 				}
+				catch (IOException ex) {
+					if (logger.isLoggable(Level.WARNING)) {
+						logger.log(Level.WARNING, "Error while reading from file.", ex);
+					}
 
-				return false;
+					return false;
+				}
+
+				if (!window.hasRemaining()) {
+					close();
+					closed = true;
+				}
 			}
+
+			return !closed;
 		}
 
 		@Override
 		public Chunk nextElement() {
+			if (!hasMoreElements()) {
+				return null;
+			}
+
 			try {
-				int read = in.read(buffer);
+				window = readWindow();
 
-				if (read == -1) {
-					return null;
-				}
-
-				// Close if this was the last bytes
-				if (in.available() == 0) {
-					in.close();
-					closed = true;
-				}
+				int chunkStart = window.position();
+				int read = window.remaining();
 
 				// Chunk checksum
+				window.limit(chunkStart + read);
+
 				digest.reset();
-				digest.update(buffer, 0, read);
+				digest.update(window);
+
+				byte[] chunkChecksum = digest.digest();
 
 				// File checksum
-				fileDigest.update(buffer, 0, read);
+				window.position(chunkStart);
+				updateFileDigest(fileDigest, chunkChecksum, window);
+
+				window.position(chunkStart);
+				source.consume(read);
+
+				// Close if this was the last bytes
+				if (source.isEndOfFile()) {
+					source.close();
+					closed = true;
+				}
+
 				byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
 
 				// Create chunk
-				return new Chunk(digest.digest(), buffer, read, fileChecksum);
+				return new Chunk(chunkChecksum, window, read, fileChecksum);
 			}
 			catch (IOException ex) {
 				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
 				return null;
 			}
+			catch (InternalError ex) {
+				if (!source.isTruncationError(ex)) {
+					throw ex;
+				}
+
+				logger.log(Level.WARNING, "File has been truncated while reading it; treating it as changed.", ex);
+
+				close();
+				closed = true;
+
+				return null;
+			}
+		}
+
+		/**
+		 * Requests the next window from the chunk source. The window contains 
+		 * exactly one chunk, or less at the end of the file.
+		 */
+		private ByteBuffer readWindow() throws IOException {
+			return source.read(chunkSize);
 		}
 
 		@Override
 		public void close() {
 			try {
-				in.close();
+				source.close();
 			}
 			catch (IOException e) {
 				logger.log(Level.INFO, "Error while closing", e);
@@ -0,0 +1,137 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Chunk source that maps the file into memory using a {@link FileChannel}. The returned
+ * windows are views of the mapping, so fingerprints and checksums are calculated directly
+ * on the page cache, without copying the file content into a separate buffer first.
+ *
+ * <p>Files are not mapped at once, but in regions of {@link #MAPPING_SIZE} bytes (by default). This limits
+ * the address space used for very large files (and works around the 2 GB limit of a single
+ * mapping). A new region is mapped whenever a requested window crosses the end of the
+ * current region; the new region starts at the first unconsumed byte.
+ *
+ * <p>Unlike the windows of the {@link StreamChunkSource}, views of a mapping are never
+ * overwritten by this class. {@link Chunk}s created from a window hence stay valid
+ * after the next window has been requested. Chunks that are handed to other threads
+ * are still copied (see {@link Chunk#detach()}), so that they neither keep the mapping
+ * alive nor fault when the file is truncated later on.
+ *
+ * <p>If the file is truncated while it is mapped, accessing the missing pages raises an
+ * {@link InternalError} instead of an {@link IOException}. Chunkers catch this error
+ * and ask {@link #isTruncationError(InternalError)} whether the file has really
+ * shrunk; if it has, the file is treated as changed during indexing.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class MappedChunkSource extends ChunkSource {
+	public static final int MAPPING_SIZE = 64 * 1024 * 1024;
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private int mappingSize;
+
+	private MappedByteBuffer mapping;
+	private long mappingOffset;
+	private long position;
+
+	public MappedChunkSource(File file) throws IOException {
+		this(file, MAPPING_SIZE);
+	}
+
+	public MappedChunkSource(File file, int mappingSize) throws IOException {
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		this.mappingSize = mappingSize;
+
+		this.mapping = null;
+		this.mappingOffset = 0;
+		this.position = 0;
+	}
+
+	@Override
+	public ByteBuffer read(int length) throws IOException {
+		boolean windowInMapping = mapping != null && position + length <= mappingOffset + mapping.capacity();
+
+		if (!windowInMapping) {
+			map(length);
+		}
+
+		int windowOffset = (int) (position - mappingOffset);
+
+		mapping.clear();
+		mapping.limit(Math.min(mapping.capacity(), windowOffset + length));
+		mapping.position(windowOffset);
+
+		return mapping;
+	}
+
+	private void map(int minLength) throws IOException {
+		// The file size is re-read for every region, in case the file has been truncated
+		long fileSize = channel.size();
+
+		// Keep the current mapping if it already reaches the end of the file
+		boolean mappingReachesEnd = mapping != null && mappingOffset + mapping.capacity() >= fileSize;
+
+		if (!mappingReachesEnd) {
+			long mappingLength = Math.min(Math.max(0, fileSize - position), Math.max(mappingSize, minLength));
+
+			mapping = channel.map(MapMode.READ_ONLY, position, mappingLength);
+			mappingOffset = position;
+		}
+	}
+
+	@Override
+	public void consume(int length) {
+		position += length;
+	}
+
+	@Override
+	public boolean isEndOfFile() throws IOException {
+		return position >= channel.size();
+	}
+
+	@Override
+	public boolean isTruncationError(InternalError error) {
+		if (mapping == null) {
+			return false;
+		}
+
+		try {
+			return channel.size() < mappingOffset + mapping.capacity();
+		}
+		catch (IOException e) {
+			return true; // File cannot be accessed anymore
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		mapping = null;
+		randomAccessFile.close();
+	}
+}
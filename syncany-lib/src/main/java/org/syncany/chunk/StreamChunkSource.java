@@ -0,0 +1,121 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Chunk source that reads the file from an input stream into a single heap buffer. The
+ * buffer is re-used for the entire file: When new bytes are requested, the unconsumed bytes
+ * are moved to the beginning of the buffer, and the rest of the buffer is filled with
+ * large reads from the stream.
+ *
+ * <p>To detect the end of the file without overwriting the current window, a single byte
+ * is read ahead into a separate field when all buffered bytes have been consumed.
+ *
+ * <p>Because the returned window always starts at the beginning of the backing array,
+ * {@link Chunk}s can refer to this array directly, without copying their contents.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class StreamChunkSource extends ChunkSource {
+	private static final int NONE = -1;
+
+	private InputStream in;
+	private boolean endOfStream;
+	private int lookAheadByte;
+
+	private byte[] buffer;
+	private ByteBuffer window;
+	private int bufferOffset;
+	private int bufferLength;
+
+	public StreamChunkSource(InputStream in) {
+		this.in = in;
+		this.endOfStream = false;
+		this.lookAheadByte = NONE;
+
+		this.buffer = new byte[0];
+		this.window = ByteBuffer.wrap(buffer);
+		this.bufferOffset = 0;
+		this.bufferLength = 0;
+	}
+
+	@Override
+	public ByteBuffer read(int length) throws IOException {
+		if (length > buffer.length) {
+			byte[] newBuffer = new byte[length];
+			System.arraycopy(buffer, bufferOffset, newBuffer, 0, bufferLength - bufferOffset);
+
+			buffer = newBuffer;
+			window = ByteBuffer.wrap(buffer);
+		}
+		else if (bufferOffset > 0) {
+			System.arraycopy(buffer, bufferOffset, buffer, 0, bufferLength - bufferOffset);
+		}
+
+		bufferLength -= bufferOffset;
+		bufferOffset = 0;
+
+		if (lookAheadByte != NONE) {
+			buffer[bufferLength++] = (byte) lookAheadByte;
+			lookAheadByte = NONE;
+		}
+
+		while (!endOfStream && bufferLength < length) {
+			int read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+
+			if (read == -1) {
+				endOfStream = true;
+			}
+			else {
+				bufferLength += read;
+			}
+		}
+
+		window.clear();
+		window.limit(Math.min(length, bufferLength));
+
+		return window;
+	}
+
+	@Override
+	public void consume(int length) {
+		bufferOffset += length;
+	}
+
+	@Override
+	public boolean isEndOfFile() throws IOException {
+		if (bufferOffset < bufferLength || lookAheadByte != NONE) {
+			return false;
+		}
+		else if (!endOfStream) {
+			lookAheadByte = in.read();
+			endOfStream = lookAheadByte == -1;
+		}
+
+		return endOfStream;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
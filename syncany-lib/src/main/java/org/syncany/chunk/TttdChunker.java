@@ -18,10 +18,11 @@
 package org.syncany.chunk;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,12 +51,20 @@ import java.util.logging.Logger;
  * breakpoints, TTTD simply cuts the chunk at the maximum chunk size. TTTD hence guarantees
  * to emit chunks with a minimum and maximum size.
  *
+ * <p>The enumeration requests windows of <i>Tmax</i> bytes from a {@link ChunkSource},
+ * i.e. either from a single re-used buffer, or -- for large files -- directly from a memory
+ * mapping of the file. Fingerprint, chunk checksum and file checksum are calculated directly
+ * on this window. The contents of an emitted chunk are hence only guaranteed to be valid
+ * until the next chunk is requested.
+ *
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  * @see <a href="http://www.hpl.hp.com/techreports/2005/HPL-2005-30R1.html">Original TTTD paper: A framework for analyzing and improving content-based chunking algorithms (2005, Kave Eshghi and Hsiu Khuern Tang)</a>
  */
 public class TttdChunker extends Chunker {
 	private static final Logger logger = Logger.getLogger(TttdChunker.class.getSimpleName());
 
+	public static final String TYPE = "tttd";
+	public static final int DEFAULT_AVG_CHUNK_SIZE = 512 * 1024;
 	public static final int DEFAULT_WINDOW_SIZE = 48; // like LBFS
 	public static final String DEFAULT_DIGEST_ALG = "SHA1";
 	public static final String DEFAULT_FINGERPRINT_ALG = "Adler32";
@@ -69,6 +78,15 @@ public class TttdChunker extends Chunker {
 	private String fingerprintAlgorithm;
 	private String name;
 
+	/**
+	 * Creates a new TTTD chunker with the default average chunk size, and the default
+	 * window size, checksum and fingerprinting algorithm. The chunker can be initialized
+	 * with a different average chunk size using the {@link #init(Map) init()} method.
+	 */
+	public TttdChunker() {
+		this(DEFAULT_AVG_CHUNK_SIZE);
+	}
+
 	public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize) {
 		this(Tmin, Tmax, D, Ddash, windowSize, DEFAULT_DIGEST_ALG, DEFAULT_FINGERPRINT_ALG);
 	}
@@ -114,9 +132,39 @@ public class TttdChunker extends Chunker {
 		}
 	}
 
+	/**
+	 * Initializes the TTTD chunker using a settings map. The thresholds and divisors are 
+	 * inferred from the average chunk size, like in {@link #TttdChunker(int, int, String, String)}.
+	 * <br>
+	 * Required settings are: 
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SIZE}, value: average chunk size in bytes, integer encoded as String 
+	 * </ul>
+	 * 
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_DIGEST}, value: chunk/file checksum algorithm, defaults to {@link #DEFAULT_DIGEST_ALG}
+	 *  <li> key: {@link #PROPERTY_FILE_CHECKSUM}, value: {@link #FILE_CHECKSUM_CONTENT} (default) or {@link #FILE_CHECKSUM_CHUNKS}
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		int avgChunkSize = getIntegerProperty(settings, PROPERTY_SIZE);
+		String checksumAlgorithm = getDigestProperty(settings, DEFAULT_DIGEST_ALG);
+		TttdChunker inferredChunker = new TttdChunker(avgChunkSize, windowSize, checksumAlgorithm, fingerprintAlgorithm);
+
+		this.Tmin = inferredChunker.Tmin;
+		this.Tmax = inferredChunker.Tmax;
+		this.D = inferredChunker.D;
+		this.Ddash = inferredChunker.Ddash;
+		this.checksumAlgorithm = inferredChunker.checksumAlgorithm;
+		this.name = inferredChunker.name;
+		setFileChecksumFromChunks(getFileChecksumProperty(settings));
+	}
+
 	@Override
 	public ChunkEnumeration createChunks(File file) throws IOException {
-		return new TTTDEnumeration(new FileInputStream(file));
+		return new TTTDEnumeration(ChunkSource.open(file));
 	}
 
 	@Override
@@ -130,22 +178,22 @@ public class TttdChunker extends Chunker {
 	}
 
 	public class TTTDEnumeration implements ChunkEnumeration {
-		private InputStream in;
+		private ChunkSource source;
+		private ByteBuffer window;
 		private boolean closed;
-		private byte[] c;
-		private int clen;
-		private int cpos;
 
 		private MessageDigest chunkDigest;
 		private MessageDigest fileDigest;
 		private Fingerprinter fingerprinter;
 
 		public TTTDEnumeration(InputStream in) throws IOException {
-			this.in = in;
+			this(new StreamChunkSource(in));
+		}
+
+		public TTTDEnumeration(ChunkSource source) throws IOException {
+			this.source = source;
+			this.window = null;
 			this.closed = false;
-			this.c = new byte[8192];
-			this.clen = -1;
-			this.cpos = -1;
 
 			try {
 				fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);
@@ -161,136 +209,141 @@ public class TttdChunker extends Chunker {
 
 		@Override
 		public boolean hasMoreElements() {
+			if (closed) {
+				return false;
+			}
+
+			// Before the first chunk, nothing has been read; check for empty files
+			if (window == null) {
+				try {
+					window = readWindow();
+				}
+				catch (IOException ex) {
+					logger.log(Level.WARNING, "Error while reading from file.", ex);
+					return false;
+				}
+
+				if (!window.hasRemaining()) {
+					close();
+					closed = true;
+				}
+			}
+
 			return !closed;
 		}
 
 		@Override
 		public Chunk nextElement() {
-			if (closed) {
+			if (!hasMoreElements()) {
 				return null;
 			}
 
-			chunkDigest.reset();
-			fingerprinter.reset();
-
 			try {
-				int backupBreak = 0;
-				int breakpoint = -1;
-
-				byte[] buf = new byte[Tmax];
-				int bufpos = -1;
-
-				while (bufpos < buf.length - 1) {
-					if (cpos == -1 || cpos == clen - 1) {
-						cpos = -1;
-						clen = readFromInputStreamFixed(c, in);//in.read(c);
-
-						if (clen == -1) {
-							break;
-						}
-
-						fileDigest.update(c, 0, clen);
-					}
-
-					bufpos++;
-					cpos++;
-					buf[bufpos] = c[cpos];
-
-					if (bufpos < Tmin) {
-						continue;
-					}
-					else if (bufpos == Tmin) {
-						fingerprinter.check(buf, bufpos - windowSize, windowSize);
-					}
-					else {
-						fingerprinter.roll(buf[bufpos]);
-					}
-
-					int hash = fingerprinter.getValue();
-
-					// The value of r (right side) plays no role! #39  
-					if ((hash % Ddash) == Ddash - 1) {
-						backupBreak = bufpos;
-					}
-
-					if ((hash % D) == D - 1) {
-						breakpoint = bufpos;
-						break;
-					}
-
-					if (bufpos < Tmax) {
-						continue;
-					}
-
-					if (backupBreak != 0) {
-						breakpoint = backupBreak;
-						break;
-					}
-					else {
-						breakpoint = bufpos;
-						break;
-					}
-				}
+				window = readWindow();
 
-				// Close if this was the last bytes
-				if (clen == -1) {
-					in.close();
-					closed = true;
-				}
-
-				// EOF as breakpoint
-				if (breakpoint == -1) {
-					breakpoint = bufpos;
-				}
+				int chunkStart = window.position();
+				int chunkSize = findBreakpoint(chunkStart, window.remaining()) + 1;
 
-				// Increase breakpoint
-				breakpoint++;
+				// Chunk checksum
+				window.limit(chunkStart + chunkSize);
 
-				// Create chunk
-				chunkDigest.update(buf, 0, breakpoint);
+				chunkDigest.reset();
+				chunkDigest.update(window);
 
 				byte[] chunkChecksum = chunkDigest.digest();
-				byte[] chunkContents = buf;
-				int chunkSize = breakpoint;
-				byte[] fileChecksum = (clen == -1) ? fileDigest.digest() : null;
 
-				return new Chunk(chunkChecksum, chunkContents, chunkSize, fileChecksum);
+				// File checksum
+				window.position(chunkStart);
+				updateFileDigest(fileDigest, chunkChecksum, window);
+
+				window.position(chunkStart);
+				source.consume(chunkSize);
+
+				// Close if this was the last bytes
+				if (source.isEndOfFile()) {
+					source.close();
+					closed = true;
+				}
+
+				byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
+
+				return new Chunk(chunkChecksum, window, chunkSize, fileChecksum);
 			}
 			catch (IOException ex) {
 				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
 				return null;
 			}
-		}
+			catch (InternalError ex) {
+				if (!source.isTruncationError(ex)) {
+					throw ex;
+				}
 
-		@Override
-		public void close() {
-			try {
-				in.close();
-			}
-			catch (IOException e) {
-				logger.log(Level.INFO, "Error while closing", e);
+				logger.log(Level.WARNING, "File has been truncated while reading it; treating it as changed.", ex);
+
+				close();
+				closed = true;
+
+				return null;
 			}
 		}
 
 		/**
-		 * Fixes the read errors occurring with Cipher streams in the standard
-		 * Java read implementation.
+		 * Requests the next window from the chunk source. The window contains 
+		 * <i>Tmax</i> bytes, or less at the end of the file.
 		 */
-		private int readFromInputStreamFixed(byte[] readToBuffer, InputStream inputStream) throws IOException {
-			int bytesRead = 0;
+		private ByteBuffer readWindow() throws IOException {
+			return source.read(Tmax);
+		}
 
-			while (bytesRead < readToBuffer.length) {
-				int byteRead = inputStream.read();
+		/**
+		 * Determines the position of the last byte of the next chunk, relative to the
+		 * start of the chunk in the window, according to the TTTD algorithm: The regular
+		 * divisor <i>D</i> determines the breakpoint; if no breakpoint is found until
+		 * <i>Tmax</i>, the last breakpoint of the backup divisor <i>D'</i> is used, or
+		 * <i>Tmax</i> if there is none.
+		 */
+		private int findBreakpoint(int chunkStart, int available) {
+			if (available <= Tmin) {
+				return available - 1;
+			}
+
+			int backupBreak = -1;
+			fingerprinter.check(window, chunkStart + Tmin - windowSize, windowSize);
+
+			for (int pos = Tmin; pos < available; pos++) {
+				fingerprinter.roll(window.get(chunkStart + pos));
+				int hash = fingerprinter.getValue();
+
+				// The value of r (right side) plays no role! #39
+				if ((hash % Ddash) == Ddash - 1) {
+					backupBreak = pos;
+				}
 
-				if (byteRead == -1) {
-					return (bytesRead != 0) ? bytesRead : -1;
+				if ((hash % D) == D - 1) {
+					return pos;
 				}
+			}
 
-				readToBuffer[bytesRead] = (byte) byteRead;
-				bytesRead++;
+			// EOF as breakpoint
+			if (available < Tmax) {
+				return available - 1;
+			}
+			else if (backupBreak != -1) {
+				return backupBreak;
+			}
+			else {
+				return Tmax - 1;
 			}
+		}
 
-			return (bytesRead != 0) ? bytesRead : -1;
+		@Override
+		public void close() {
+			try {
+				source.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "Error while closing", e);
+			}
 		}
 	}
 }
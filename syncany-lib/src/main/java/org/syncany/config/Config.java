@@ -28,12 +28,17 @@ import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.to.ConfigTO;
+import org.syncany.config.to.DatabaseTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.DatabaseSettings;
+import org.syncany.database.DatabaseSettings.Profile;
 import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseFormat;
 import org.syncany.plugins.Plugins;
 import org.syncany.plugins.transfer.TransferPlugin;
 import org.syncany.plugins.transfer.TransferSettings;
@@ -67,6 +72,9 @@ public class Config {
 
 	// File in .syncany/db
 	public static final String FILE_DATABASE = "local.db";
+	public static final String FILE_CHUNK_INDEX = "chunks.idx";
+	public static final String FILE_SCAN_STATE_INDEX = "scanstate.idx";
+	public static final String DIR_LOOKUP_STORE = "lookup.kv";
 
 	// Files in .syncany/state
 	public static final String FILE_PORT = "port.xml";
@@ -76,6 +84,10 @@ public class Config {
 	public static final String FILE_TRANSACTION_DATABASE_PATTERN = "transaction-database.%010d.xml";
 	public static final String FILE_TRANSACTION_LIST = "transaction-list.txt";
 
+	// Chunker settings of repositories created before the chunker was configurable
+	private static final String LEGACY_FIXED_CHUNK_SETTING = "16";
+	private static final int LEGACY_FIXED_CHUNK_SIZE = 512 * 1024;
+
 	private byte[] repoId;
 	private String machineName;
 	private String displayName;
@@ -94,6 +106,8 @@ public class Config {
 	private Chunker chunker;
 	private MultiChunker multiChunker;
 	private Transformer transformer;
+	private DatabaseFormat databaseFormat;
+	private DatabaseSettings databaseSettings;
 	private IgnoredFiles ignoredFiles;
 
 	static {
@@ -110,6 +124,7 @@ public class Config {
 		initMasterKey(configTO);
 		initDirectories(aLocalDir);
 		initCache(configTO);
+		initDatabaseSettings(configTO);
 		initIgnoredFile();
 		initRepo(repoTO);
 		initConnection(configTO);
@@ -141,6 +156,41 @@ public class Config {
 		}
 	}
 
+	private void initDatabaseSettings(ConfigTO configTO) {
+		DatabaseTO databaseTO = configTO.getDatabase();
+
+		if (databaseTO == null) {
+			databaseSettings = new DatabaseSettings();
+		}
+		else {
+			databaseSettings = new DatabaseSettings((databaseTO.getProfile() != null) ? databaseTO.getProfile() : Profile.DEFAULT);
+
+			if (databaseTO.getCacheRows() != null) {
+				databaseSettings.setCacheRows(databaseTO.getCacheRows());
+			}
+
+			if (databaseTO.getCacheSize() != null) {
+				databaseSettings.setCacheSize(databaseTO.getCacheSize());
+			}
+
+			if (databaseTO.getNioDataFile() != null) {
+				databaseSettings.setNioDataFile(databaseTO.getNioDataFile());
+			}
+
+			if (databaseTO.getLogSize() != null) {
+				databaseSettings.setLogSize(databaseTO.getLogSize());
+			}
+
+			if (databaseTO.getBulkLoad() != null) {
+				databaseSettings.setBulkLoad(databaseTO.getBulkLoad());
+			}
+
+			if (databaseTO.getIndexBackend() != null) {
+				databaseSettings.setIndexBackend(databaseTO.getIndexBackend());
+			}
+		}
+	}
+
 	private void initIgnoredFile() throws ConfigException {
 		File ignoreFile = new File(localDir, FILE_IGNORE);
 		ignoredFiles = new IgnoredFiles(ignoreFile);
@@ -152,6 +202,7 @@ public class Config {
 			initChunker(repoTO);
 			initMultiChunker(repoTO);
 			initTransformers(repoTO);
+			initDatabaseFormat(repoTO);
 		}
 		catch (Exception e) {
 			throw new ConfigException("Unable to initialize repository information from config.", e);
@@ -162,11 +213,35 @@ public class Config {
 		repoId = repoTO.getRepoId();
 	}
 
-	private void initChunker(RepoTO repoTO) throws Exception {
-		// TODO [feature request] make chunking options configurable, something like described in #29
-		// See: https://github.com/syncany/syncany/issues/29#issuecomment-43425647
+	private void initChunker(RepoTO repoTO) throws ConfigException {
+		ChunkerTO chunkerTO = repoTO.getChunkerTO();
+
+		if (chunkerTO == null) {
+			throw new ConfigException("No chunker in repository config.");
+		}
+
+		if (isLegacyChunkerTO(chunkerTO)) {
+			chunker = new FixedChunker(LEGACY_FIXED_CHUNK_SIZE, FixedChunker.DEFAULT_DIGEST_ALG);
+			return;
+		}
+
+		chunker = Chunker.getInstance(chunkerTO.getType());
 
-		chunker = new FixedChunker(512 * 1024, "SHA1");
+		if (chunker == null) {
+			throw new ConfigException("Invalid chunker type or settings: " + chunkerTO.getType());
+		}
+
+		chunker.init(chunkerTO.getSettings());
+	}
+
+	/**
+	 * Repositories created before the chunker settings were honored store a fixed
+	 * chunker with a size of {@value #LEGACY_FIXED_CHUNK_SETTING}. This setting was never applied;
+	 * these repositories have always been chunked with 512 KB fixed-size chunks. 
+	 */
+	private boolean isLegacyChunkerTO(ChunkerTO chunkerTO) {
+		return FixedChunker.TYPE.equals(chunkerTO.getType()) && chunkerTO.getSettings() != null
+				&& LEGACY_FIXED_CHUNK_SETTING.equals(chunkerTO.getSettings().get(Chunker.PROPERTY_SIZE));
 	}
 
 	private void initMultiChunker(RepoTO repoTO) throws ConfigException {
@@ -219,6 +294,10 @@ public class Config {
 		}
 	}
 
+	private void initDatabaseFormat(RepoTO repoTO) {
+		databaseFormat = (repoTO.getDatabaseFormat() != null) ? repoTO.getDatabaseFormat() : DatabaseFormat.XML;
+	}
+
 	private void initConnection(ConfigTO configTO) throws ConfigException {
 		if (configTO.getTransferSettings() != null) {
 			plugin = Plugins.get(configTO.getTransferSettings().getType(), TransferPlugin.class);
@@ -237,11 +316,11 @@ public class Config {
 	}
 
 	public java.sql.Connection createDatabaseConnection() {
-		return DatabaseConnectionFactory.createConnection(getDatabaseFile(), false);
+		return DatabaseConnectionFactory.createConnection(getDatabaseFile(), databaseSettings, false);
 	}
 
 	public java.sql.Connection createDatabaseConnection(boolean readOnly) {
-		return DatabaseConnectionFactory.createConnection(getDatabaseFile(), readOnly);
+		return DatabaseConnectionFactory.createConnection(getDatabaseFile(), databaseSettings, readOnly);
 	}
 
 	public File getCacheDir() {
@@ -308,6 +387,18 @@ public class Config {
 		return transformer;
 	}
 
+	public DatabaseFormat getDatabaseFormat() {
+		return databaseFormat;
+	}
+
+	public DatabaseSettings getDatabaseSettings() {
+		return databaseSettings;
+	}
+
+	public void setDatabaseSettings(DatabaseSettings databaseSettings) {
+		this.databaseSettings = databaseSettings;
+	}
+
 	public void setCache(Cache cache) {
 		this.cache = cache;
 	}
@@ -336,6 +427,18 @@ public class Config {
 		return new File(databaseDir, FILE_DATABASE);
 	}
 
+	public File getChunkIndexFile() {
+		return new File(databaseDir, FILE_CHUNK_INDEX);
+	}
+
+	public File getScanStateIndexFile() {
+		return new File(databaseDir, FILE_SCAN_STATE_INDEX);
+	}
+
+	public File getLookupStoreDir() {
+		return new File(databaseDir, DIR_LOOKUP_STORE);
+	}
+
 	public File getPortFile() {
 		return new File(stateDir, FILE_PORT);
 	}
@@ -63,6 +63,9 @@ public class ConfigTO {
 	@Element(name = "cacheKeepBytes", required = false)
 	private Long cacheKeepBytes;
 
+	@Element(name = "database", required = false)
+	private DatabaseTO database;
+
 	public static ConfigTO load(File file) throws ConfigException {
 		try {
 			Registry registry = new Registry();
@@ -144,4 +147,12 @@ public class ConfigTO {
 		this.cacheKeepBytes = cacheKeepBytes;
 	}
 
+	public DatabaseTO getDatabase() {
+		return database;
+	}
+
+	public void setDatabase(DatabaseTO database) {
+		this.database = database;
+	}
+
 }
@@ -0,0 +1,124 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.config.to;
+
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.Root;
+import org.syncany.database.DatabaseSettings.IndexBackend;
+import org.syncany.database.DatabaseSettings.Profile;
+
+/**
+ * The database transfer object is part of the {@link ConfigTO} and defines how the
+ * local database engine is tuned. All fields are optional: The profile selects a set
+ * of predefined settings, and the other fields override individual settings.
+ *
+ * <p>Example:
+ * <pre>
+ *   &lt;database&gt;
+ *     &lt;profile&gt;LARGE&lt;/profile&gt;
+ *     &lt;cacheSize&gt;50000&lt;/cacheSize&gt;
+ *     &lt;indexBackend&gt;KEY_VALUE&lt;/indexBackend&gt;
+ *   &lt;/database&gt;
+ * </pre>
+ *
+ * <p>It uses the Simple framework for XML serialization, and its corresponding
+ * annotation-based configuration.
+ *
+ * @see <a href="http://simple.sourceforge.net/">Simple framework</a>
+ * @see org.syncany.database.DatabaseSettings
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+@Root(name = "database", strict = false)
+public class DatabaseTO {
+	@Element(name = "profile", required = false)
+	private Profile profile;
+
+	@Element(name = "cacheRows", required = false)
+	private Integer cacheRows;
+
+	@Element(name = "cacheSize", required = false)
+	private Integer cacheSize;
+
+	@Element(name = "nioDataFile", required = false)
+	private Boolean nioDataFile;
+
+	@Element(name = "logSize", required = false)
+	private Integer logSize;
+
+	@Element(name = "bulkLoad", required = false)
+	private Boolean bulkLoad;
+
+	@Element(name = "indexBackend", required = false)
+	private IndexBackend indexBackend;
+
+	public Profile getProfile() {
+		return profile;
+	}
+
+	public void setProfile(Profile profile) {
+		this.profile = profile;
+	}
+
+	public Integer getCacheRows() {
+		return cacheRows;
+	}
+
+	public void setCacheRows(Integer cacheRows) {
+		this.cacheRows = cacheRows;
+	}
+
+	public Integer getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(Integer cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public Boolean getNioDataFile() {
+		return nioDataFile;
+	}
+
+	public void setNioDataFile(Boolean nioDataFile) {
+		this.nioDataFile = nioDataFile;
+	}
+
+	public Integer getLogSize() {
+		return logSize;
+	}
+
+	public void setLogSize(Integer logSize) {
+		this.logSize = logSize;
+	}
+
+	public Boolean getBulkLoad() {
+		return bulkLoad;
+	}
+
+	public void setBulkLoad(Boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+
+	public IndexBackend getIndexBackend() {
+		return indexBackend;
+	}
+
+	public void setIndexBackend(IndexBackend indexBackend) {
+		this.indexBackend = indexBackend;
+	}
+}
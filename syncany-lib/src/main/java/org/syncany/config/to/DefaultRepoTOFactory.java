@@ -25,9 +25,11 @@ import java.util.Map;
 
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.chunk.FixedChunker;
 import org.syncany.chunk.GzipTransformer;
 import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.TttdChunker;
 import org.syncany.chunk.ZipMultiChunker;
 import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
@@ -39,7 +41,8 @@ import org.syncany.util.StringUtil.StringJoinListener;
 /**
  * This class produces {@link RepoTO}s with some sensible defaults for the Chunkers and
  * MultiChunkers. The transformers are configurable, namely whether or not compression is used
- * and how it is encrypted.
+ * and how it is encrypted. The chunker type, its checksum algorithm and file checksum mode can be
+ * chosen, its chunk size is always the default.
  * 
  * @author Pim Otte (otte.pim@gmail.com)
  */
@@ -49,7 +52,19 @@ public class DefaultRepoTOFactory implements RepoTOFactory {
 	private List<TransformerTO> transformersTO;
 
 	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs) {
-		chunkerTO = getDefaultChunkerTO();
+		this(gzipEnabled, cipherSpecs, FixedChunker.TYPE);
+	}
+
+	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs, String chunkerType) {
+		this(gzipEnabled, cipherSpecs, chunkerType, null);
+	}
+
+	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs, String chunkerType, String digestAlgorithm) {
+		this(gzipEnabled, cipherSpecs, chunkerType, digestAlgorithm, null);
+	}
+
+	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs, String chunkerType, String digestAlgorithm, String fileChecksumMode) {
+		chunkerTO = getChunkerTO(chunkerType, digestAlgorithm, fileChecksumMode);
 		multiChunkerTO = getDefaultMultiChunkerTO();
 		transformersTO = getTransformersTO(gzipEnabled, cipherSpecs);
 	}
@@ -92,11 +107,48 @@ public class DefaultRepoTOFactory implements RepoTOFactory {
 	}
 
 	protected ChunkerTO getDefaultChunkerTO() {
+		return getChunkerTO(FixedChunker.TYPE, null, null);
+	}
+
+	/**
+	 * Creates a chunker transfer object for the given chunker type, using the default
+	 * (average) chunk size of the respective chunker. If a checksum algorithm or file checksum
+	 * mode is given, it is stored in the chunker settings; otherwise the chunker's defaults are used.
+	 * 
+	 * @throws IllegalArgumentException If the chunker type, the checksum algorithm or file checksum mode is unknown
+	 */
+	protected ChunkerTO getChunkerTO(String chunkerType, String digestAlgorithm, String fileChecksumMode) {
+		int chunkSize;
+
+		if (FixedChunker.TYPE.equals(chunkerType)) {
+			chunkSize = FixedChunker.DEFAULT_CHUNK_SIZE;
+		}
+		else if (TttdChunker.TYPE.equals(chunkerType)) {
+			chunkSize = TttdChunker.DEFAULT_AVG_CHUNK_SIZE;
+		}
+		else if (FastCdcChunker.TYPE.equals(chunkerType)) {
+			chunkSize = FastCdcChunker.DEFAULT_AVG_CHUNK_SIZE;
+		}
+		else {
+			throw new IllegalArgumentException("Invalid chunker type: " + chunkerType);
+		}
+
 		ChunkerTO chunkerTO = new ChunkerTO();
 
-		chunkerTO.setType(FixedChunker.TYPE);
+		chunkerTO.setType(chunkerType);
 		chunkerTO.setSettings(new HashMap<String, String>());
-		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, "16");
+		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, Integer.toString(chunkSize));
+
+		if (digestAlgorithm != null) {
+			chunkerTO.getSettings().put(Chunker.PROPERTY_DIGEST, digestAlgorithm);
+		}
+
+		if (fileChecksumMode != null) {
+			chunkerTO.getSettings().put(Chunker.PROPERTY_FILE_CHECKSUM, fileChecksumMode);
+		}
+
+		// Fail early if the settings are invalid (e.g. unsupported algorithm)
+		Chunker.getInstance(chunkerType).init(chunkerTO.getSettings());
 
 		return chunkerTO;
 	}
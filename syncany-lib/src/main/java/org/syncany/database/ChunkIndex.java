@@ -0,0 +1,515 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.util.FileUtil;
+
+/**
+ * The chunk index is a compact, read-mostly lookup table from chunk checksums to
+ * chunk sizes. It replaces a <code>HashMap&lt;ChunkChecksum, ChunkEntry&gt;</code> for
+ * repositories with many chunks: Instead of ~150 bytes of heap per chunk, every
+ * chunk occupies a single fixed-width slot outside of the Java heap.
+ *
+ * <p>The index is an open-addressing hash table with linear probing. Each slot
+ * consists of the checksum length (1 byte, 0 for an empty slot), the checksum bytes
+ * (padded to the maximum checksum length) and the chunk size (4 bytes). Since chunk
+ * checksums are cryptographic digests, their first bytes are used as hash value.
+ *
+ * <p>The slots are stored either in direct byte buffers (see {@link #createInMemory(int, long) createInMemory()})
+ * or in a memory-mapped file (see {@link #create(File, int, long) create()}). A file-based
+ * index is marked as complete by {@link #commit(String) commit()}, which stores the given
+ * state key in the header. {@link #open(File, String) open()} only accepts a complete index
+ * with a matching state key, so a stale or partially written index is never used. An index
+ * that was opened writable can be updated in place, see {@link #beginUpdate()}.
+ *
+ * <p>If more chunks are added than the index was sized for, the index grows (and a file-based
+ * index is rewritten in its file). The direct or mapped memory is only released by {@link #close()};
+ * the index must not be used after it has been closed.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class ChunkIndex {
+	private static final Logger logger = Logger.getLogger(ChunkIndex.class.getSimpleName());
+
+	private static final int MAGIC = 0x53594349; // "SYCI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 256;
+	private static final int MAX_STATE_KEY_LENGTH = 200;
+	private static final double MAX_LOAD_FACTOR = 0.7;
+
+	private static final int HEADER_OFFSET_MAGIC = 0;
+	private static final int HEADER_OFFSET_VERSION = 4;
+	private static final int HEADER_OFFSET_CHECKSUM_LENGTH = 8;
+	private static final int HEADER_OFFSET_SLOT_COUNT = 12;
+	private static final int HEADER_OFFSET_ENTRY_COUNT = 20;
+	private static final int HEADER_OFFSET_COMPLETE = 28;
+	private static final int HEADER_OFFSET_STATE_KEY_LENGTH = 32;
+	private static final int HEADER_OFFSET_STATE_KEY = 36;
+
+	private int maxChecksumLength;
+	private int slotSize;
+	private long slotCount;
+	private long entryCount;
+
+	private int slotsPerSegment;
+	private File indexFile;
+	private ByteBuffer header;
+	private ByteBuffer[] segments;
+
+	private ChunkIndex(int maxChecksumLength, long slotCount) {
+		if (maxChecksumLength <= 0 || maxChecksumLength > 255) {
+			throw new IllegalArgumentException("Invalid maximum checksum length: " + maxChecksumLength);
+		}
+
+		this.maxChecksumLength = maxChecksumLength;
+		this.slotSize = 1 + maxChecksumLength + 4;
+		this.slotCount = Math.max(1, slotCount);
+		this.entryCount = 0;
+
+		this.slotsPerSegment = Integer.MAX_VALUE / slotSize;
+		this.indexFile = null;
+		this.header = null;
+		this.segments = new ByteBuffer[(int) ((this.slotCount + slotsPerSegment - 1) / slotsPerSegment)];
+	}
+
+	/**
+	 * Creates an empty index in direct (off-heap) memory, sized for the
+	 * expected number of chunks.
+	 */
+	public static ChunkIndex createInMemory(int maxChecksumLength, long expectedChunkCount) {
+		ChunkIndex chunkIndex = new ChunkIndex(maxChecksumLength, getSlotCount(expectedChunkCount));
+
+		for (int i = 0; i < chunkIndex.segments.length; i++) {
+			chunkIndex.segments[i] = ByteBuffer.allocateDirect(chunkIndex.getSegmentSize(i));
+		}
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Creates an empty index in the given file (overwriting it), sized for the expected
+	 * number of chunks. The index is only valid on disk after {@link #commit(String) commit()}
+	 * has been called.
+	 */
+	public static ChunkIndex create(File indexFile, int maxChecksumLength, long expectedChunkCount) throws IOException {
+		ChunkIndex chunkIndex = new ChunkIndex(maxChecksumLength, getSlotCount(expectedChunkCount));
+
+		try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+			indexRandomAccessFile.setLength(0);
+			indexRandomAccessFile.setLength(HEADER_SIZE + chunkIndex.slotCount * chunkIndex.slotSize);
+
+			chunkIndex.map(indexRandomAccessFile.getChannel(), MapMode.READ_WRITE);
+		}
+
+		chunkIndex.indexFile = indexFile;
+		chunkIndex.header.putInt(HEADER_OFFSET_MAGIC, MAGIC);
+		chunkIndex.header.putInt(HEADER_OFFSET_VERSION, VERSION);
+		chunkIndex.header.putInt(HEADER_OFFSET_CHECKSUM_LENGTH, chunkIndex.maxChecksumLength);
+		chunkIndex.header.putLong(HEADER_OFFSET_SLOT_COUNT, chunkIndex.slotCount);
+		chunkIndex.header.put(HEADER_OFFSET_COMPLETE, (byte) 0);
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Opens an existing, complete index file if its state key matches the given
+	 * state key. Returns <code>null</code> if the file does not exist, is incomplete or
+	 * corrupt, or if it was written for a different state.
+	 */
+	public static ChunkIndex open(File indexFile, String expectedStateKey) {
+		ChunkIndex chunkIndex = open(indexFile, false);
+
+		if (chunkIndex != null && !chunkIndex.getStateKey().equals(expectedStateKey)) {
+			logger.log(Level.INFO, "Chunk index " + indexFile + " is outdated (" + chunkIndex.getStateKey() + " != " + expectedStateKey + ").");
+			chunkIndex.close();
+
+			return null;
+		}
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Opens an existing, complete index file, regardless of its state key. If the index is
+	 * opened <code>writable</code>, new chunks can be added after calling {@link #beginUpdate()}.
+	 * Returns <code>null</code> if the file does not exist, or if it is incomplete or corrupt.
+	 */
+	public static ChunkIndex open(File indexFile, boolean writable) {
+		if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+			return null;
+		}
+
+		ChunkIndex chunkIndex = null;
+
+		try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, (writable) ? "rw" : "r")) {
+			ByteBuffer header = indexRandomAccessFile.getChannel().map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+			try {
+				if (header.getInt(HEADER_OFFSET_MAGIC) != MAGIC || header.getInt(HEADER_OFFSET_VERSION) != VERSION
+						|| header.get(HEADER_OFFSET_COMPLETE) != 1) {
+
+					logger.log(Level.INFO, "Chunk index " + indexFile + " is incomplete or has an unknown format. Ignoring it.");
+					return null;
+				}
+
+				chunkIndex = new ChunkIndex(header.getInt(HEADER_OFFSET_CHECKSUM_LENGTH), header.getLong(HEADER_OFFSET_SLOT_COUNT));
+			}
+			finally {
+				FileUtil.unmap(header);
+			}
+
+			if (indexRandomAccessFile.length() != HEADER_SIZE + chunkIndex.slotCount * chunkIndex.slotSize) {
+				logger.log(Level.INFO, "Chunk index " + indexFile + " has an invalid size. Ignoring it.");
+				return null;
+			}
+
+			chunkIndex.map(indexRandomAccessFile.getChannel(), (writable) ? MapMode.READ_WRITE : MapMode.READ_ONLY);
+			chunkIndex.indexFile = indexFile;
+			chunkIndex.entryCount = chunkIndex.header.getLong(HEADER_OFFSET_ENTRY_COUNT);
+
+			return chunkIndex;
+		}
+		catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Cannot open chunk index " + indexFile + ". Ignoring it.", e);
+
+			if (chunkIndex != null) {
+				chunkIndex.close();
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Marks a writable, file-based index as incomplete before new chunks are added to it.
+	 * If the update is interrupted before {@link #commit(String) commit()} is called, the
+	 * index will not be used again.
+	 */
+	public void beginUpdate() {
+		if (header == null || header.isReadOnly()) {
+			throw new IllegalStateException("Chunk index is not a writable file-based index.");
+		}
+
+		header.put(HEADER_OFFSET_COMPLETE, (byte) 0);
+		((MappedByteBuffer) header).force();
+	}
+
+	/**
+	 * Returns the state key stored by {@link #commit(String) commit()}, or an
+	 * empty string if the index has not been committed.
+	 */
+	public String getStateKey() {
+		return (header != null) ? readStateKey(header) : "";
+	}
+
+	/**
+	 * Returns the number of chunks that can be added to the index before
+	 * it exceeds its maximum load factor.
+	 */
+	public long getRemainingCapacity() {
+		return Math.max(0, (long) (slotCount * MAX_LOAD_FACTOR) - entryCount);
+	}
+
+	/**
+	 * Adds a chunk to the index. If the checksum is already present, its size
+	 * is overwritten. If the index has no remaining capacity, it is grown to twice
+	 * its number of chunks before the chunk is added.
+	 */
+	public void put(byte[] checksum, int size) {
+		checkOpen();
+		checkChecksumLength(checksum);
+
+		long slot = findSlot(checksum);
+		ByteBuffer segment = segments[(int) (slot / slotsPerSegment)];
+		int position = (int) (slot % slotsPerSegment) * slotSize;
+
+		if (segment.get(position) == 0) {
+			if (getRemainingCapacity() == 0) {
+				grow();
+
+				slot = findSlot(checksum);
+				segment = segments[(int) (slot / slotsPerSegment)];
+				position = (int) (slot % slotsPerSegment) * slotSize;
+			}
+
+			segment.put(position, (byte) checksum.length);
+
+			for (int i = 0; i < checksum.length; i++) {
+				segment.put(position + 1 + i, checksum[i]);
+			}
+
+			entryCount++;
+		}
+
+		segment.putInt(position + 1 + maxChecksumLength, size);
+	}
+
+	/**
+	 * Returns the chunk entry for the given checksum, or <code>null</code>
+	 * if the chunk is not in the index.
+	 */
+	public ChunkEntry get(ChunkChecksum chunkChecksum) {
+		checkOpen();
+
+		byte[] checksum = chunkChecksum.getBytes();
+
+		if (checksum.length == 0 || checksum.length > maxChecksumLength) {
+			return null;
+		}
+
+		long slot = findSlot(checksum);
+		ByteBuffer segment = segments[(int) (slot / slotsPerSegment)];
+		int position = (int) (slot % slotsPerSegment) * slotSize;
+
+		if (segment.get(position) == 0) {
+			return null;
+		}
+
+		return new ChunkEntry(chunkChecksum, segment.getInt(position + 1 + maxChecksumLength));
+	}
+
+	public long size() {
+		return entryCount;
+	}
+
+	/**
+	 * Marks a file-based index as complete and stores the given state key. After this method,
+	 * the index can be re-opened with {@link #open(File, String) open()} using the same state key.
+	 */
+	public void commit(String stateKey) {
+		checkOpen();
+
+		if (header == null) {
+			throw new IllegalStateException("Cannot commit an in-memory chunk index.");
+		}
+
+		byte[] stateKeyBytes = stateKey.getBytes(StandardCharsets.UTF_8);
+
+		if (stateKeyBytes.length > MAX_STATE_KEY_LENGTH) {
+			throw new IllegalArgumentException("State key too long: " + stateKey);
+		}
+
+		for (ByteBuffer segment : segments) {
+			((MappedByteBuffer) segment).force();
+		}
+
+		header.putLong(HEADER_OFFSET_ENTRY_COUNT, entryCount);
+		header.putInt(HEADER_OFFSET_STATE_KEY_LENGTH, stateKeyBytes.length);
+
+		for (int i = 0; i < stateKeyBytes.length; i++) {
+			header.put(HEADER_OFFSET_STATE_KEY + i, stateKeyBytes[i]);
+		}
+
+		header.put(HEADER_OFFSET_COMPLETE, (byte) 1);
+		((MappedByteBuffer) header).force();
+	}
+
+	/**
+	 * Releases the direct memory or unmaps the index file. Uncommitted changes
+	 * to a file-based index are not marked as complete.
+	 */
+	public void close() {
+		if (segments == null) {
+			return;
+		}
+
+		FileUtil.unmap(header);
+
+		for (ByteBuffer segment : segments) {
+			FileUtil.unmap(segment);
+		}
+
+		header = null;
+		segments = null;
+	}
+
+	/**
+	 * Rehashes all chunks into a table with room for twice as many chunks. A file-based
+	 * index is rewritten in its file and stays incomplete until it is committed again.
+	 */
+	private void grow() {
+		if (header != null && header.isReadOnly()) {
+			throw new IllegalStateException("Chunk index is full and cannot grow, because it is read-only.");
+		}
+
+		ChunkIndex grownChunkIndex = createInMemory(maxChecksumLength, Math.max(1, entryCount * 2));
+
+		logger.log(Level.FINE, "Growing chunk index from " + slotCount + " to " + grownChunkIndex.slotCount + " slots ...");
+
+		for (int segmentIndex = 0; segmentIndex < segments.length; segmentIndex++) {
+			ByteBuffer segment = segments[segmentIndex];
+
+			for (int position = 0; position < segment.capacity(); position += slotSize) {
+				int slotChecksumLength = segment.get(position) & 0xff;
+
+				if (slotChecksumLength > 0) {
+					byte[] checksum = new byte[slotChecksumLength];
+
+					for (int i = 0; i < slotChecksumLength; i++) {
+						checksum[i] = segment.get(position + 1 + i);
+					}
+
+					grownChunkIndex.put(checksum, segment.getInt(position + 1 + maxChecksumLength));
+				}
+			}
+		}
+
+		if (indexFile == null) {
+			close();
+
+			slotCount = grownChunkIndex.slotCount;
+			segments = grownChunkIndex.segments;
+
+			return;
+		}
+
+		close();
+
+		slotCount = grownChunkIndex.slotCount;
+		segments = new ByteBuffer[grownChunkIndex.segments.length];
+
+		try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+			indexRandomAccessFile.setLength(HEADER_SIZE + slotCount * slotSize);
+			map(indexRandomAccessFile.getChannel(), MapMode.READ_WRITE);
+		}
+		catch (IOException e) {
+			grownChunkIndex.close();
+			close();
+
+			throw new RuntimeException("Cannot grow chunk index " + indexFile, e);
+		}
+
+		for (int i = 0; i < segments.length; i++) {
+			ByteBuffer sourceSegment = grownChunkIndex.segments[i].duplicate();
+			ByteBuffer targetSegment = segments[i].duplicate();
+
+			sourceSegment.clear();
+			targetSegment.clear();
+			targetSegment.put(sourceSegment);
+		}
+
+		header.putLong(HEADER_OFFSET_SLOT_COUNT, slotCount);
+		header.put(HEADER_OFFSET_COMPLETE, (byte) 0);
+
+		grownChunkIndex.close();
+	}
+
+	/**
+	 * Returns the slot that either contains the given checksum, or the empty
+	 * slot at which the checksum would have to be inserted.
+	 */
+	private long findSlot(byte[] checksum) {
+		long slot = (hash(checksum) & Long.MAX_VALUE) % slotCount;
+
+		while (true) {
+			ByteBuffer segment = segments[(int) (slot / slotsPerSegment)];
+			int position = (int) (slot % slotsPerSegment) * slotSize;
+			int slotChecksumLength = segment.get(position) & 0xff;
+
+			if (slotChecksumLength == 0 || (slotChecksumLength == checksum.length && checksumEquals(segment, position + 1, checksum))) {
+				return slot;
+			}
+
+			slot = (slot + 1 == slotCount) ? 0 : slot + 1;
+		}
+	}
+
+	private void map(FileChannel indexFileChannel, MapMode mapMode) throws IOException {
+		header = indexFileChannel.map(mapMode, 0, HEADER_SIZE);
+
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = indexFileChannel.map(mapMode, HEADER_SIZE + (long) i * slotsPerSegment * slotSize, getSegmentSize(i));
+		}
+	}
+
+	private int getSegmentSize(int segmentIndex) {
+		long slotsInSegment = Math.min(slotsPerSegment, slotCount - (long) segmentIndex * slotsPerSegment);
+		return (int) (slotsInSegment * slotSize);
+	}
+
+	private void checkOpen() {
+		if (segments == null) {
+			throw new IllegalStateException("Chunk index is closed.");
+		}
+	}
+
+	private void checkChecksumLength(byte[] checksum) {
+		if (checksum.length == 0 || checksum.length > maxChecksumLength) {
+			throw new IllegalArgumentException("Invalid checksum length " + checksum.length + ", expected 1-" + maxChecksumLength + " bytes.");
+		}
+	}
+
+	private static boolean checksumEquals(ByteBuffer segment, int position, byte[] checksum) {
+		for (int i = 0; i < checksum.length; i++) {
+			if (segment.get(position + i) != checksum[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static long hash(byte[] checksum) {
+		long hash = 0;
+
+		// Checksums are digests, so their first bytes are uniformly distributed already
+		for (int i = 0; i < Math.min(8, checksum.length); i++) {
+			hash = (hash << 8) | (checksum[i] & 0xff);
+		}
+
+		return (checksum.length >= 8) ? hash : hash * 0x9E3779B97F4A7C15L;
+	}
+
+	private static long getSlotCount(long expectedChunkCount) {
+		return (long) (Math.max(1, expectedChunkCount) / MAX_LOAD_FACTOR) + 2;
+	}
+
+	private static String readStateKey(ByteBuffer header) {
+		int stateKeyLength = header.getInt(HEADER_OFFSET_STATE_KEY_LENGTH);
+
+		if (stateKeyLength < 0 || stateKeyLength > MAX_STATE_KEY_LENGTH) {
+			return "";
+		}
+
+		byte[] stateKeyBytes = new byte[stateKeyLength];
+
+		for (int i = 0; i < stateKeyLength; i++) {
+			stateKeyBytes[i] = header.get(HEADER_OFFSET_STATE_KEY + i);
+		}
+
+		return new String(stateKeyBytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkIndex [entries=" + entryCount + ", slots=" + slotCount + ", slotSize=" + slotSize + ", segments="
+				+ ((segments != null) ? segments.length : 0) + "]";
+	}
+}
@@ -27,8 +27,11 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +57,7 @@ public class DatabaseConnectionFactory {
 	public static final String DATABASE_RESOURCE_CREATE_ALL = "script.create.all.sql";
 
 	public static final Map<String, String> DATABASE_STATEMENTS = new HashMap<String, String>();
+	private static final Set<String> DATABASE_SETTINGS_APPLIED = new HashSet<String>();
 
 	static {
 		try {
@@ -65,24 +69,40 @@ public class DatabaseConnectionFactory {
 		}
 	}
 
+	/**
+	 * Creates a database connection using the given database file and the default
+	 * {@link DatabaseSettings}.
+	 *
+	 * @see #createConnection(File, DatabaseSettings, boolean)
+	 */
+	public static Connection createConnection(File databaseFile, boolean readOnly) {
+		return createConnection(databaseFile, new DatabaseSettings(), readOnly);
+	}
+
 	/**
 	 * Creates a database connection using the given database file. If the database exists and the
 	 * application tables are present, a valid connection is returned. If not, the database is created
 	 * and the application tables are created.
 	 *
+	 * <p>The given database settings are passed to HSQLDB in the connection string (used when the
+	 * database is created), and applied to the database when it is first opened in this process.
+	 *
 	 * @param databaseFile File at which to create/load the database
+	 * @param databaseSettings Engine settings (cache, log size, etc.) for the database
 	 * @param readOnly True if this connection is only used for reading.
 	 * @return Returns a valid database connection
 	 */
-	public static Connection createConnection(File databaseFile, boolean readOnly) {
+	public static Connection createConnection(File databaseFile, DatabaseSettings databaseSettings, boolean readOnly) {
 		String databaseFilePath = FileUtil.getDatabasePath(databaseFile.toString());
 		String connectionString = DATABASE_CONNECTION_FILE_STRING.replaceAll("%DATABASEFILE%", databaseFilePath);
 
+		connectionString += databaseSettings.toConnectionProperties();
+
 		if (logger.isLoggable(Level.FINEST)) {
 			connectionString += ";hsqldb.sqllog=3";
 		}
 
-		return createConnection(connectionString, readOnly);
+		return createConnection(connectionString, databaseFilePath, databaseSettings, readOnly);
 	}
 
 	/**
@@ -123,9 +143,15 @@ public class DatabaseConnectionFactory {
 		return statementInputStream;
 	}
 
-	private static Connection createConnection(String connectionString, boolean readOnly) {
+	private static Connection createConnection(String connectionString, String databaseFilePath, DatabaseSettings databaseSettings,
+			boolean readOnly) {
+
 		try {
 			Connection connection = DriverManager.getConnection(connectionString);
+
+			// Apply settings before any transaction is started
+			applyDatabaseSettings(connection, databaseFilePath, databaseSettings);
+
 			connection.setAutoCommit(false);
 			connection.setReadOnly(readOnly);
 
@@ -150,6 +176,27 @@ public class DatabaseConnectionFactory {
 		}
 	}
 
+	/**
+	 * Applies the database settings to an existing database. Since settings statements
+	 * affect the entire database (and not only the current session), they are only executed
+	 * once per database and process, i.e. when the first connection to the database is
+	 * created and no other session can hold uncommitted changes.
+	 */
+	private static synchronized void applyDatabaseSettings(Connection connection, String databaseFilePath, DatabaseSettings databaseSettings) {
+		if (DATABASE_SETTINGS_APPLIED.add(databaseFilePath)) {
+			logger.log(Level.INFO, "Applying database settings: " + databaseSettings);
+
+			try (Statement statement = connection.createStatement()) {
+				for (String settingsStatement : databaseSettings.toSettingsStatements()) {
+					statement.execute(settingsStatement);
+				}
+			}
+			catch (SQLException e) {
+				logger.log(Level.WARNING, "Cannot apply database settings. Continuing with current settings.", e);
+			}
+		}
+	}
+
 	private static boolean tablesExist(Connection connection) throws SQLException {
 		try (ResultSet resultSet = connection.prepareStatement(
 				"SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE TABLE_TYPE='TABLE'")
@@ -0,0 +1,187 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+/**
+ * The database settings define how the embedded HSQLDB database engine is tuned,
+ * i.e. the size of the row cache, the use of NIO for the data file, the maximum size
+ * of the transaction log, and whether the bulk load mode is used when many database
+ * versions are written at once (e.g. during the 'down' operation). They also define
+ * whether point lookups are answered by SQL queries or by an embedded key-value store
+ * (see {@link IndexBackend}).
+ *
+ * <p>Settings are based on a {@link Profile}, and can be overridden individually. The
+ * {@link Profile#DEFAULT DEFAULT} profile corresponds to the HSQLDB defaults. The
+ * {@link Profile#LARGE LARGE} profile is meant for repositories with many files and
+ * database versions, and trades memory for speed.
+ *
+ * @see DatabaseConnectionFactory
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class DatabaseSettings {
+	/**
+	 * Predefined sets of database engine settings.
+	 */
+	public enum Profile {
+		DEFAULT, LARGE
+	}
+
+	/**
+	 * Storage used to answer point lookups, e.g. the multichunk of a chunk (see
+	 * {@link LookupStore}). The {@link #KEY_VALUE} backend keeps {@link SortedKeyValueStore}s
+	 * next to the local database, which is faster and more compact for very large repositories.
+	 */
+	public enum IndexBackend {
+		SQL, KEY_VALUE
+	}
+
+	private Profile profile;
+	private int cacheRows;
+	private int cacheSize;
+	private boolean nioDataFile;
+	private int logSize;
+	private boolean bulkLoad;
+	private IndexBackend indexBackend;
+
+	public DatabaseSettings() {
+		this(Profile.DEFAULT);
+	}
+
+	public DatabaseSettings(Profile profile) {
+		this.profile = profile;
+		this.indexBackend = IndexBackend.SQL;
+
+		switch (profile) {
+		case LARGE:
+			this.cacheRows = 500000;
+			this.cacheSize = 100000; // 100 MB
+			this.nioDataFile = true;
+			this.logSize = 200; // 200 MB
+			this.bulkLoad = true;
+			break;
+
+		case DEFAULT:
+		default:
+			this.cacheRows = 50000;
+			this.cacheSize = 10000; // 10 MB
+			this.nioDataFile = true;
+			this.logSize = 50; // 50 MB
+			this.bulkLoad = false;
+			break;
+		}
+	}
+
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns the maximum number of rows held in the row cache ('hsqldb.cache_rows').
+	 */
+	public int getCacheRows() {
+		return cacheRows;
+	}
+
+	public void setCacheRows(int cacheRows) {
+		this.cacheRows = cacheRows;
+	}
+
+	/**
+	 * Returns the maximum size of the row cache in KB ('hsqldb.cache_size').
+	 */
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Returns whether the data file is accessed via NIO ('hsqldb.nio_data_file').
+	 */
+	public boolean isNioDataFile() {
+		return nioDataFile;
+	}
+
+	public void setNioDataFile(boolean nioDataFile) {
+		this.nioDataFile = nioDataFile;
+	}
+
+	/**
+	 * Returns the size of the transaction log in MB after which an automatic
+	 * checkpoint is performed ('hsqldb.log_size').
+	 */
+	public int getLogSize() {
+		return logSize;
+	}
+
+	public void setLogSize(int logSize) {
+		this.logSize = logSize;
+	}
+
+	/**
+	 * Returns whether automatic checkpoints are deferred while database versions are
+	 * bulk-written. If enabled, a single checkpoint is performed after the bulk load.
+	 */
+	public boolean isBulkLoad() {
+		return bulkLoad;
+	}
+
+	public void setBulkLoad(boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+
+	/**
+	 * Returns the storage used to answer point lookups.
+	 */
+	public IndexBackend getIndexBackend() {
+		return indexBackend;
+	}
+
+	public void setIndexBackend(IndexBackend indexBackend) {
+		this.indexBackend = indexBackend;
+	}
+
+	/**
+	 * Returns the properties to append to the HSQLDB connection string. These are
+	 * only used by HSQLDB when a new database is created.
+	 */
+	public String toConnectionProperties() {
+		return ";hsqldb.cache_rows=" + cacheRows + ";hsqldb.cache_size=" + cacheSize + ";hsqldb.nio_data_file=" + nioDataFile
+				+ ";hsqldb.log_size=" + logSize;
+	}
+
+	/**
+	 * Returns the SQL statements to apply the settings to an existing database.
+	 */
+	public String[] toSettingsStatements() {
+		return new String[] {
+				"SET FILES CACHE ROWS " + cacheRows,
+				"SET FILES CACHE SIZE " + cacheSize,
+				"SET FILES NIO " + (nioDataFile ? "TRUE" : "FALSE"),
+				"SET FILES LOG SIZE " + logSize
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "DatabaseSettings [profile=" + profile + ", cacheRows=" + cacheRows + ", cacheSize=" + cacheSize + ", nioDataFile=" + nioDataFile
+				+ ", logSize=" + logSize + ", bulkLoad=" + bulkLoad + ", indexBackend=" + indexBackend + "]";
+	}
+}
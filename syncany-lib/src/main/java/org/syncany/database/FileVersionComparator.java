@@ -35,6 +35,7 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.syncany.chunk.Chunker;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion.FileStatus;
 import org.syncany.database.FileVersion.FileType;
@@ -62,6 +63,7 @@ public class FileVersionComparator {
 	private static final Logger logger = Logger.getLogger(FileVersionComparator.class.getSimpleName());
 	private File rootFolder;
 	private String checksumAlgorithm;
+	private Chunker chunker;
 
 	/**
 	 * Creates a new file version comparator helper class.
@@ -76,6 +78,21 @@ public class FileVersionComparator {
 	public FileVersionComparator(File rootFolder, String checksumAlgorithm) {
 		this.rootFolder = rootFolder;
 		this.checksumAlgorithm = checksumAlgorithm;
+		this.chunker = null;
+	}
+
+	/**
+	 * Creates a new file version comparator helper class that calculates file checksums
+	 * exactly like the given chunker, i.e. with its checksum algorithm and file checksum 
+	 * mode (see {@link Chunker#createFileChecksum(File)}).
+	 *
+	 * @param rootFolder Base folder to determine a relative path to
+	 * @param chunker Chunker of the repository, used for checksum calculation
+	 */
+	public FileVersionComparator(File rootFolder, Chunker chunker) {
+		this.rootFolder = rootFolder;
+		this.checksumAlgorithm = chunker.getChecksumAlgorithm();
+		this.chunker = chunker;
 	}
 
 	/**
@@ -134,6 +151,23 @@ public class FileVersionComparator {
 		return compare(expectedLocalFileVersionProperties, actualFileProperties, actualFileForceChecksum);
 	}
 
+	/**
+	 * Compares a {@link FileVersion} with a local {@link File}, using file attributes that have
+	 * already been read by the caller. The lock state of the actual file is not probed.
+	 *
+	 * @see #compare(FileVersion, File, FileChecksum, boolean)
+	 * @see #captureFileProperties(File, BasicFileAttributes, FileChecksum, boolean)
+	 */
+	public FileVersionComparison compare(FileVersion expectedLocalFileVersion, File actualLocalFile, BasicFileAttributes actualFileAttributes,
+			FileChecksum actualFileKnownChecksum, boolean actualFileForceChecksum) {
+
+		FileProperties expectedLocalFileVersionProperties = captureFileProperties(expectedLocalFileVersion);
+		FileProperties actualFileProperties = captureFileProperties(actualLocalFile, actualFileAttributes, actualFileKnownChecksum,
+				actualFileForceChecksum);
+
+		return compare(expectedLocalFileVersionProperties, actualFileProperties, actualFileForceChecksum);
+	}
+
 	public FileVersionComparison compare(FileProperties expectedFileProperties, FileProperties actualFileProperties, boolean compareChecksums) {
 		FileVersionComparison fileComparison = new FileVersionComparison();
 
@@ -418,66 +452,8 @@ public class FileVersionComparator {
 		}
 
 		try {
-			// Read operating system dependent file attributes
-			BasicFileAttributes fileAttributes = null;
-
-			if (EnvironmentUtil.isWindows()) {
-				DosFileAttributes dosAttrs = Files.readAttributes(filePath, DosFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-				fileProperties.dosAttributes = FileUtil.dosAttrsToString(dosAttrs);
-
-				fileAttributes = dosAttrs;
-			}
-			else if (EnvironmentUtil.isUnixLikeOperatingSystem()) {
-				PosixFileAttributes posixAttrs = Files.readAttributes(filePath, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-				fileProperties.posixPermissions = PosixFilePermissions.toString(posixAttrs.permissions());
-
-				fileAttributes = posixAttrs;
-			}
-			else {
-				fileAttributes = Files.readAttributes(filePath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-			}
-
-			fileProperties.lastModified = fileAttributes.lastModifiedTime().toMillis();
-			fileProperties.size = fileAttributes.size();
-
-			// Type
-			if (fileAttributes.isSymbolicLink()) {
-				fileProperties.type = FileType.SYMLINK;
-				fileProperties.linkTarget = FileUtil.readSymlinkTarget(file);
-			}
-			else if (fileAttributes.isDirectory()) {
-				fileProperties.type = FileType.FOLDER;
-				fileProperties.linkTarget = null;
-			}
-			else {
-				fileProperties.type = FileType.FILE;
-				fileProperties.linkTarget = null;
-			}
-
-			// Checksum
-			if (knownChecksum != null) {
-				fileProperties.checksum = knownChecksum;
-			}
-			else {
-				if (fileProperties.type == FileType.FILE && forceChecksum) {
-					try {
-						if (fileProperties.size > 0) {
-							fileProperties.checksum = new FileChecksum(FileUtil.createChecksum(file, checksumAlgorithm));
-						}
-						else {
-							fileProperties.checksum = null;
-						}
-					}
-					catch (NoSuchAlgorithmException | IOException e) {
-						logger.log(Level.FINE, "Failed create checksum", e);
-						logger.log(Level.SEVERE, "SEVERE: Unable to create checksum for file {0}", file);
-						fileProperties.checksum = null;
-					}
-				}
-				else {
-					fileProperties.checksum = null;
-				}
-			}
+			BasicFileAttributes fileAttributes = readFileAttributes(filePath);
+			fillFileProperties(fileProperties, file, fileAttributes, knownChecksum, forceChecksum);
 
 			// Must be last (!), used for vanish-test later
 			fileProperties.exists = Files.exists(filePath, LinkOption.NOFOLLOW_LINKS);
@@ -496,6 +472,98 @@ public class FileVersionComparator {
 		}
 	}
 
+	/**
+	 * Captures the {@link FileProperties} of a local file from file attributes that have
+	 * already been read by the caller (e.g. while walking a directory tree), instead of
+	 * reading them again. The attributes must have been read using {@link #readFileAttributes(Path)}.
+	 *
+	 * <p>Unlike {@link #captureFileProperties(File, FileChecksum, boolean)}, this method does not
+	 * probe whether the file is locked; the returned properties are never marked as locked. It is
+	 * up to the caller to check for locks if necessary.
+	 */
+	public FileProperties captureFileProperties(File file, BasicFileAttributes fileAttributes, FileChecksum knownChecksum, boolean forceChecksum) {
+		FileProperties fileProperties = new FileProperties();
+
+		fileProperties.relativePath = FileUtil.getRelativeDatabasePath(rootFolder, file);
+		fileProperties.exists = true;
+		fileProperties.locked = false;
+
+		fillFileProperties(fileProperties, file, fileAttributes, knownChecksum, forceChecksum);
+
+		return fileProperties;
+	}
+
+	/**
+	 * Reads the operating system dependent file attributes of the given path without following
+	 * symbolic links, i.e. {@link DosFileAttributes} on Windows, {@link PosixFileAttributes} on
+	 * Unix-like systems, and {@link BasicFileAttributes} otherwise.
+	 */
+	public static BasicFileAttributes readFileAttributes(Path filePath) throws IOException {
+		if (EnvironmentUtil.isWindows()) {
+			return Files.readAttributes(filePath, DosFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		else if (EnvironmentUtil.isUnixLikeOperatingSystem()) {
+			return Files.readAttributes(filePath, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		else {
+			return Files.readAttributes(filePath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+	}
+
+	private void fillFileProperties(FileProperties fileProperties, File file, BasicFileAttributes fileAttributes, FileChecksum knownChecksum,
+			boolean forceChecksum) {
+
+		// Operating system dependent file attributes
+		if (fileAttributes instanceof DosFileAttributes) {
+			fileProperties.dosAttributes = FileUtil.dosAttrsToString((DosFileAttributes) fileAttributes);
+		}
+		else if (fileAttributes instanceof PosixFileAttributes) {
+			fileProperties.posixPermissions = PosixFilePermissions.toString(((PosixFileAttributes) fileAttributes).permissions());
+		}
+
+		fileProperties.lastModified = fileAttributes.lastModifiedTime().toMillis();
+		fileProperties.size = fileAttributes.size();
+
+		// Type
+		if (fileAttributes.isSymbolicLink()) {
+			fileProperties.type = FileType.SYMLINK;
+			fileProperties.linkTarget = FileUtil.readSymlinkTarget(file);
+		}
+		else if (fileAttributes.isDirectory()) {
+			fileProperties.type = FileType.FOLDER;
+			fileProperties.linkTarget = null;
+		}
+		else {
+			fileProperties.type = FileType.FILE;
+			fileProperties.linkTarget = null;
+		}
+
+		// Checksum
+		if (knownChecksum != null) {
+			fileProperties.checksum = knownChecksum;
+		}
+		else {
+			if (fileProperties.type == FileType.FILE && forceChecksum) {
+				try {
+					if (fileProperties.size > 0) {
+						fileProperties.checksum = new FileChecksum(createChecksum(file));
+					}
+					else {
+						fileProperties.checksum = null;
+					}
+				}
+				catch (NoSuchAlgorithmException | IOException e) {
+					logger.log(Level.FINE, "Failed create checksum", e);
+					logger.log(Level.SEVERE, "SEVERE: Unable to create checksum for file {0}", file);
+					fileProperties.checksum = null;
+				}
+			}
+			else {
+				fileProperties.checksum = null;
+			}
+		}
+	}
+
 	public FileProperties captureFileProperties(FileVersion fileVersion) {
 		if (fileVersion == null) {
 			return null;
@@ -517,6 +585,15 @@ public class FileVersionComparator {
 		return fileProperties;
 	}
 
+	private byte[] createChecksum(File file) throws NoSuchAlgorithmException, IOException {
+		if (chunker != null) {
+			return chunker.createFileChecksum(file);
+		}
+		else {
+			return FileUtil.createChecksum(file, checksumAlgorithm);
+		}
+	}
+
 	public static class FileVersionComparison {
 		private Set<FileChange> fileChanges = new HashSet<FileChange>();
 		private FileProperties actualFileProperties;
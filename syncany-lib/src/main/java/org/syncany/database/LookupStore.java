@@ -0,0 +1,67 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.util.List;
+import java.util.Map;
+
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * The lookup store answers the point lookups of the {@link SqlDatabase}, i.e. the queries
+ * that look up a single key in a potentially very large table. The {@link SqlDatabase}
+ * delegates these lookups to the store selected by {@link DatabaseSettings#getIndexBackend()}:
+ * Either directly to the SQL database, or to an embedded key-value store that is kept in
+ * sync with the SQL database.
+ * 
+ * <p>Implementations may cache data between lookups. {@link #clearCache()} must be called
+ * whenever the underlying tables are changed.
+ * 
+ * @see org.syncany.database.dao.SqlLookupStore
+ * @see org.syncany.database.dao.KeyValueLookupStore
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public interface LookupStore {
+	/**
+	 * Returns the multichunk that contains the given chunk, or <code>null</code>
+	 * if the chunk is unknown. Also considers {@link DatabaseVersion.DatabaseVersionStatus#DIRTY DIRTY}
+	 * database versions.
+	 */
+	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum);
+
+	/**
+	 * Returns the multichunks that contain the given chunks. Unknown chunks are
+	 * not contained in the returned map. Also considers {@link DatabaseVersion.DatabaseVersionStatus#DIRTY DIRTY}
+	 * database versions.
+	 */
+	public Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsByChecksums(List<ChunkChecksum> chunkChecksums);
+
+	/**
+	 * Returns the file history whose last version is the newest (non-deleted) file version
+	 * at the given path, or <code>null</code> if there is no such file history. Only
+	 * {@link DatabaseVersion.DatabaseVersionStatus#MASTER MASTER} database versions are considered.
+	 */
+	public PartialFileHistory getFileHistoryWithLastVersionByPath(String path);
+
+	/**
+	 * Releases cached data (and open files), so that the next lookup reflects the
+	 * current state of the SQL database.
+	 */
+	public void clearCache();
+}
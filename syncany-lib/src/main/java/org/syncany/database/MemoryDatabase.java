@@ -53,7 +53,7 @@ public class MemoryDatabase {
 
 	// Caches
 	private DatabaseVersion fullDatabaseVersionCache;
-	private Map<String, PartialFileHistory> filenameHistoryCache;
+	private Map<String, List<PartialFileHistory>> filenameHistoryCache;
 	private Map<VectorClock, DatabaseVersion> databaseVersionIdCache;
 	private Map<FileChecksum, List<PartialFileHistory>> contentChecksumFileHistoriesCache;
 
@@ -62,7 +62,7 @@ public class MemoryDatabase {
 
 		// Caches
 		fullDatabaseVersionCache = new DatabaseVersion();
-		filenameHistoryCache = new HashMap<String, PartialFileHistory>();
+		filenameHistoryCache = new HashMap<String, List<PartialFileHistory>>();
 		databaseVersionIdCache = new HashMap<VectorClock, DatabaseVersion>();
 		contentChecksumFileHistoriesCache = new HashMap<FileChecksum, List<PartialFileHistory>>();
 	}
@@ -102,8 +102,13 @@ public class MemoryDatabase {
 		return fullDatabaseVersionCache.getMultiChunkId(chunk);
 	}
 
+	/**
+	 * Returns the file history whose last version is at the given path (and not deleted).
+	 * If several file histories end at the same path, the most recently changed one is returned.
+	 */
 	public PartialFileHistory getFileHistory(String relativeFilePath) {
-		return filenameHistoryCache.get(relativeFilePath);
+		List<PartialFileHistory> historiesWithLastVersionAtPath = filenameHistoryCache.get(relativeFilePath);
+		return (historiesWithLastVersionAtPath != null) ? historiesWithLastVersionAtPath.get(historiesWithLastVersionAtPath.size() - 1) : null;
 	}
 
 	public List<PartialFileHistory> getFileHistories(FileChecksum fileContentChecksum) {
@@ -128,9 +133,9 @@ public class MemoryDatabase {
 		// Populate caches
 		// WARNING: Do NOT reorder, order important!!
 		updateDatabaseVersionIdCache(databaseVersion);
+		removeFromFileHistoryCaches(databaseVersion);
 		updateFullDatabaseVersionCache(databaseVersion);
-		updateFilenameHistoryCache();
-		updateContentChecksumCache();
+		addToFileHistoryCaches(databaseVersion);
 	}
 
 	public void removeDatabaseVersion(DatabaseVersion databaseVersion) {
@@ -144,39 +149,113 @@ public class MemoryDatabase {
 		updateContentChecksumCache();
 	}
 
-	// TODO [medium] Very inefficient. Always updates whole cache
+	/**
+	 * Removes the cache entries of all file histories that are changed by the given
+	 * (new) database version. Their last version is about to change, so the entries
+	 * for the old path and checksum are outdated. Must be called before the full
+	 * database version cache is updated.
+	 */
+	private void removeFromFileHistoryCaches(DatabaseVersion newDatabaseVersion) {
+		for (PartialFileHistory newFileHistory : newDatabaseVersion.getFileHistories()) {
+			PartialFileHistory fullFileHistory = fullDatabaseVersionCache.getFileHistory(newFileHistory.getFileHistoryId());
+
+			if (fullFileHistory != null) {
+				removeFromFilenameHistoryCache(fullFileHistory);
+				removeFromContentChecksumCache(fullFileHistory);
+			}
+		}
+	}
+
+	/**
+	 * Adds cache entries for all file histories that are changed by the given (new)
+	 * database version, using their new last version. Must be called after the full
+	 * database version cache is updated.
+	 */
+	private void addToFileHistoryCaches(DatabaseVersion newDatabaseVersion) {
+		for (PartialFileHistory newFileHistory : newDatabaseVersion.getFileHistories()) {
+			PartialFileHistory fullFileHistory = fullDatabaseVersionCache.getFileHistory(newFileHistory.getFileHistoryId());
+
+			addToFilenameHistoryCache(fullFileHistory);
+			addToContentChecksumCache(fullFileHistory);
+		}
+	}
+
 	private void updateContentChecksumCache() {
 		contentChecksumFileHistoriesCache.clear();
 
 		for (PartialFileHistory fullFileHistory : fullDatabaseVersionCache.getFileHistories()) {
-			FileChecksum lastVersionChecksum = fullFileHistory.getLastVersion().getChecksum();
+			addToContentChecksumCache(fullFileHistory);
+		}
+	}
 
-			if (lastVersionChecksum != null) {
-				List<PartialFileHistory> historiesWithVersionsWithSameChecksum = contentChecksumFileHistoriesCache.get(lastVersionChecksum);
+	private void addToContentChecksumCache(PartialFileHistory fullFileHistory) {
+		FileChecksum lastVersionChecksum = fullFileHistory.getLastVersion().getChecksum();
 
-				// Create if it does not exist
-				if (historiesWithVersionsWithSameChecksum == null) {
-					historiesWithVersionsWithSameChecksum = new ArrayList<PartialFileHistory>();
-				}
+		if (lastVersionChecksum != null) {
+			List<PartialFileHistory> historiesWithVersionsWithSameChecksum = contentChecksumFileHistoriesCache.get(lastVersionChecksum);
 
-				// Add to cache
-				historiesWithVersionsWithSameChecksum.add(fullFileHistory);
+			// Create if it does not exist
+			if (historiesWithVersionsWithSameChecksum == null) {
+				historiesWithVersionsWithSameChecksum = new ArrayList<PartialFileHistory>();
 				contentChecksumFileHistoriesCache.put(lastVersionChecksum, historiesWithVersionsWithSameChecksum);
 			}
+
+			// Add to cache
+			historiesWithVersionsWithSameChecksum.add(fullFileHistory);
 		}
+	}
+
+	private void removeFromContentChecksumCache(PartialFileHistory fullFileHistory) {
+		FileChecksum lastVersionChecksum = fullFileHistory.getLastVersion().getChecksum();
+
+		if (lastVersionChecksum != null) {
+			List<PartialFileHistory> historiesWithVersionsWithSameChecksum = contentChecksumFileHistoriesCache.get(lastVersionChecksum);
+
+			if (historiesWithVersionsWithSameChecksum != null) {
+				historiesWithVersionsWithSameChecksum.remove(fullFileHistory);
 
+				if (historiesWithVersionsWithSameChecksum.isEmpty()) {
+					contentChecksumFileHistoriesCache.remove(lastVersionChecksum);
+				}
+			}
+		}
 	}
 
 	private void updateFilenameHistoryCache() {
-		// TODO [medium] Performance: This throws away the unchanged entries. It should only update new database version
 		filenameHistoryCache.clear();
 
-		for (PartialFileHistory cacheFileHistory : fullDatabaseVersionCache.getFileHistories()) {
-			FileVersion lastVersion = cacheFileHistory.getLastVersion();
-			String fileName = lastVersion.getPath();
+		for (PartialFileHistory fullFileHistory : fullDatabaseVersionCache.getFileHistories()) {
+			addToFilenameHistoryCache(fullFileHistory);
+		}
+	}
+
+	private void addToFilenameHistoryCache(PartialFileHistory fullFileHistory) {
+		FileVersion lastVersion = fullFileHistory.getLastVersion();
+
+		if (lastVersion.getStatus() != FileStatus.DELETED) {
+			List<PartialFileHistory> historiesWithLastVersionAtPath = filenameHistoryCache.get(lastVersion.getPath());
+
+			// Create if it does not exist
+			if (historiesWithLastVersionAtPath == null) {
+				historiesWithLastVersionAtPath = new ArrayList<PartialFileHistory>();
+				filenameHistoryCache.put(lastVersion.getPath(), historiesWithLastVersionAtPath);
+			}
+
+			// Add to cache (last one wins, see getFileHistory())
+			historiesWithLastVersionAtPath.add(fullFileHistory);
+		}
+	}
+
+	private void removeFromFilenameHistoryCache(PartialFileHistory fullFileHistory) {
+		String lastVersionPath = fullFileHistory.getLastVersion().getPath();
+		List<PartialFileHistory> historiesWithLastVersionAtPath = filenameHistoryCache.get(lastVersionPath);
+
+		// Other histories may still end at this path; keep them
+		if (historiesWithLastVersionAtPath != null) {
+			historiesWithLastVersionAtPath.remove(fullFileHistory);
 
-			if (lastVersion.getStatus() != FileStatus.DELETED) {
-				filenameHistoryCache.put(fileName, cacheFileHistory);
+			if (historiesWithLastVersionAtPath.isEmpty()) {
+				filenameHistoryCache.remove(lastVersionPath);
 			}
 		}
 	}
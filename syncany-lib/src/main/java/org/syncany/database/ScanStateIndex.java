@@ -0,0 +1,457 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.FileUtil;
+
+/**
+ * The scan state index is a compact, memory-mapped snapshot of the current file tree
+ * in the local database, used by the status operation to avoid materializing a
+ * {@link FileVersion} for every file in the tree.
+ *
+ * <p>The index contains one entry per path of the current file tree. An entry is either
+ * <i>verified</i> or only <i>known</i>: A verified entry additionally stores the device and
+ * inode, size, last modified date and permissions/attributes of the local file at the time it
+ * was last found to be equal to its file version in the database. As long as these attributes
+ * do not change (and the database entry for this path does not change), the file can be
+ * considered unchanged without looking at the database.
+ *
+ * <p>Device and inode are only available on Unix-like systems. On Windows, the JVM does not
+ * provide a file key, so both are stored as zero and an entry only matches by size, last
+ * modified date and attributes -- just like the comparison against the database.
+ *
+ * <p>The file consists of a fixed-size header, the variable-length entry records, a table of
+ * record offsets (one per entry) and an open-addressing hash table (with linear probing) of
+ * entry numbers, keyed by the path's hash code. The header contains a state key identifying
+ * the database state the index was written for. Index files are written by a {@link Writer}
+ * and never modified in place. An opened index must be {@link #close() closed} before its
+ * file is replaced.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class ScanStateIndex {
+	private static final Logger logger = Logger.getLogger(ScanStateIndex.class.getSimpleName());
+
+	private static final int MAGIC = 0x53595349; // "SYSI"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 256;
+	private static final int MAX_STATE_KEY_LENGTH = 200;
+
+	private static final int HEADER_OFFSET_MAGIC = 0;
+	private static final int HEADER_OFFSET_VERSION = 4;
+	private static final int HEADER_OFFSET_ENTRY_COUNT = 8;
+	private static final int HEADER_OFFSET_SLOT_COUNT = 12;
+	private static final int HEADER_OFFSET_RECORDS_LENGTH = 16;
+	private static final int HEADER_OFFSET_STATE_KEY_LENGTH = 24;
+	private static final int HEADER_OFFSET_STATE_KEY = 28;
+
+	private static final byte FLAG_VERIFIED = 1;
+	private static final int RECORD_ATTRIBUTES_LENGTH = 1 + 8 + 8 + 8 + 8 + 4; // flags, device, inode, size, last modified, attributes
+
+	private static final int RECORD_OFFSET_DEVICE = 1;
+	private static final int RECORD_OFFSET_INODE = 9;
+	private static final int RECORD_OFFSET_SIZE = 17;
+	private static final int RECORD_OFFSET_LAST_MODIFIED = 25;
+	private static final int RECORD_OFFSET_ATTRIBUTES = 33;
+
+	private String stateKey;
+	private int entryCount;
+	private int slotCount;
+	private int offsetsPosition;
+	private int slotsPosition;
+	private ByteBuffer buffer;
+
+	private ScanStateIndex() {
+		// Use open() or Writer
+	}
+
+	/**
+	 * Opens an existing index file. Returns <code>null</code> if the file does not exist,
+	 * or if it is corrupt or has an unknown format.
+	 */
+	public static ScanStateIndex open(File indexFile) {
+		if (!indexFile.exists() || indexFile.length() < HEADER_SIZE || indexFile.length() > Integer.MAX_VALUE) {
+			return null;
+		}
+
+		ByteBuffer buffer = null;
+
+		try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, "r")) {
+			ScanStateIndex scanStateIndex = new ScanStateIndex();
+			buffer = indexRandomAccessFile.getChannel().map(MapMode.READ_ONLY, 0, indexRandomAccessFile.length());
+
+			if (buffer.getInt(HEADER_OFFSET_MAGIC) != MAGIC || buffer.getInt(HEADER_OFFSET_VERSION) != VERSION) {
+				logger.log(Level.INFO, "Scan state index " + indexFile + " has an unknown format. Ignoring it.");
+
+				FileUtil.unmap(buffer);
+				return null;
+			}
+
+			scanStateIndex.buffer = buffer;
+			scanStateIndex.entryCount = buffer.getInt(HEADER_OFFSET_ENTRY_COUNT);
+			scanStateIndex.slotCount = buffer.getInt(HEADER_OFFSET_SLOT_COUNT);
+			scanStateIndex.offsetsPosition = (int) (HEADER_SIZE + buffer.getLong(HEADER_OFFSET_RECORDS_LENGTH));
+			scanStateIndex.slotsPosition = scanStateIndex.offsetsPosition + scanStateIndex.entryCount * 4;
+
+			int stateKeyLength = buffer.getInt(HEADER_OFFSET_STATE_KEY_LENGTH);
+			long expectedLength = scanStateIndex.slotsPosition + (long) scanStateIndex.slotCount * 4;
+
+			if (stateKeyLength < 0 || stateKeyLength > MAX_STATE_KEY_LENGTH || scanStateIndex.entryCount < 0 || scanStateIndex.slotCount <= 0
+					|| expectedLength != indexRandomAccessFile.length()) {
+
+				logger.log(Level.INFO, "Scan state index " + indexFile + " is corrupt. Ignoring it.");
+
+				FileUtil.unmap(buffer);
+				return null;
+			}
+
+			byte[] stateKeyBytes = new byte[stateKeyLength];
+
+			for (int i = 0; i < stateKeyLength; i++) {
+				stateKeyBytes[i] = buffer.get(HEADER_OFFSET_STATE_KEY + i);
+			}
+
+			scanStateIndex.stateKey = new String(stateKeyBytes, StandardCharsets.UTF_8);
+
+			return scanStateIndex;
+		}
+		catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Cannot open scan state index " + indexFile + ". Ignoring it.", e);
+
+			FileUtil.unmap(buffer);
+			return null;
+		}
+	}
+
+	/**
+	 * Unmaps the index file, so that it can be replaced (which fails on Windows
+	 * while the file is mapped). The index must not be used afterwards.
+	 */
+	public void close() {
+		FileUtil.unmap(buffer);
+		buffer = null;
+	}
+
+	public String getStateKey() {
+		return stateKey;
+	}
+
+	public int size() {
+		return entryCount;
+	}
+
+	/**
+	 * Returns the entry number of the given path, or -1 if the path is not
+	 * contained in the index. This method is thread-safe.
+	 */
+	public int find(String path) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		int slot = getSlot(path);
+
+		while (true) {
+			int entryNumber = buffer.getInt(slotsPosition + slot * 4) - 1;
+
+			if (entryNumber < 0) {
+				return -1;
+			}
+			else if (pathEquals(entryNumber, pathBytes)) {
+				return entryNumber;
+			}
+
+			slot = (slot + 1) % slotCount;
+		}
+	}
+
+	public String getPath(int entryNumber) {
+		int recordPosition = getRecordPosition(entryNumber);
+		byte[] pathBytes = new byte[buffer.getShort(recordPosition) & 0xffff];
+
+		for (int i = 0; i < pathBytes.length; i++) {
+			pathBytes[i] = buffer.get(recordPosition + 2 + i);
+		}
+
+		return new String(pathBytes, StandardCharsets.UTF_8);
+	}
+
+	public boolean isVerified(int entryNumber) {
+		return (buffer.get(getAttributesPosition(entryNumber)) & FLAG_VERIFIED) != 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given entry is verified and its stored attributes
+	 * match the given (current) file attributes exactly. This method is thread-safe.
+	 */
+	public boolean matches(int entryNumber, BasicFileAttributes fileAttributes) {
+		int attributesPosition = getAttributesPosition(entryNumber);
+		long[] deviceAndInode = getDeviceAndInode(fileAttributes);
+
+		return (buffer.get(attributesPosition) & FLAG_VERIFIED) != 0
+				&& buffer.getLong(attributesPosition + RECORD_OFFSET_DEVICE) == deviceAndInode[0]
+				&& buffer.getLong(attributesPosition + RECORD_OFFSET_INODE) == deviceAndInode[1]
+				&& buffer.getLong(attributesPosition + RECORD_OFFSET_SIZE) == fileAttributes.size()
+				&& buffer.getLong(attributesPosition + RECORD_OFFSET_LAST_MODIFIED) == fileAttributes.lastModifiedTime().toMillis()
+				&& buffer.getInt(attributesPosition + RECORD_OFFSET_ATTRIBUTES) == getAttributesHash(fileAttributes);
+	}
+
+	private int getSlot(String path) {
+		return (path.hashCode() & 0x7fffffff) % slotCount;
+	}
+
+	private int getRecordPosition(int entryNumber) {
+		return HEADER_SIZE + buffer.getInt(offsetsPosition + entryNumber * 4);
+	}
+
+	private int getAttributesPosition(int entryNumber) {
+		int recordPosition = getRecordPosition(entryNumber);
+		return recordPosition + 2 + (buffer.getShort(recordPosition) & 0xffff);
+	}
+
+	private boolean pathEquals(int entryNumber, byte[] pathBytes) {
+		int recordPosition = getRecordPosition(entryNumber);
+
+		if ((buffer.getShort(recordPosition) & 0xffff) != pathBytes.length) {
+			return false;
+		}
+
+		for (int i = 0; i < pathBytes.length; i++) {
+			if (buffer.get(recordPosition + 2 + i) != pathBytes[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the device and inode of the given file attributes, or zeros if they are not
+	 * available. The JVM does not expose them directly; on Unix-like systems, the file key's
+	 * string representation is <tt>(dev=&lt;hex&gt;,ino=&lt;decimal&gt;)</tt>. Unknown file keys
+	 * are stored as their hash code, so they can at least detect most replaced files.
+	 */
+	private static long[] getDeviceAndInode(BasicFileAttributes fileAttributes) {
+		Object fileKey = fileAttributes.fileKey();
+
+		if (fileKey == null) {
+			return new long[] { 0, 0 };
+		}
+
+		String fileKeyStr = fileKey.toString();
+		int inodeIndex = fileKeyStr.indexOf(",ino=");
+
+		if (fileKeyStr.startsWith("(dev=") && inodeIndex > 0 && fileKeyStr.endsWith(")")) {
+			try {
+				long device = Long.parseUnsignedLong(fileKeyStr.substring(5, inodeIndex), 16);
+				long inode = Long.parseLong(fileKeyStr.substring(inodeIndex + 5, fileKeyStr.length() - 1));
+
+				return new long[] { device, inode };
+			}
+			catch (NumberFormatException e) {
+				// Fall through
+			}
+		}
+
+		return new long[] { 0, fileKey.hashCode() };
+	}
+
+	private static int getAttributesHash(BasicFileAttributes fileAttributes) {
+		if (fileAttributes instanceof DosFileAttributes) {
+			return FileUtil.dosAttrsToString((DosFileAttributes) fileAttributes).hashCode();
+		}
+		else if (fileAttributes instanceof PosixFileAttributes) {
+			return PosixFilePermissions.toString(((PosixFileAttributes) fileAttributes).permissions()).hashCode();
+		}
+		else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes a new scan state index file. Entries are appended one after the other,
+	 * and the hash table is written by {@link #commit(String) commit()}.
+	 */
+	public static class Writer {
+		private File indexFile;
+		private DataOutputStream outputStream;
+
+		private long recordsLength;
+		private int entryCount;
+		private int[] recordOffsets;
+		private int[] pathHashCodes;
+
+		public Writer(File indexFile) throws IOException {
+			this.indexFile = indexFile;
+			this.outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+			this.recordsLength = 0;
+			this.entryCount = 0;
+			this.recordOffsets = new int[1024];
+			this.pathHashCodes = new int[1024];
+
+			outputStream.write(new byte[HEADER_SIZE]);
+		}
+
+		/**
+		 * Adds a path that is part of the current file tree, but whose
+		 * local file has not been verified.
+		 */
+		public void addKnown(String path) throws IOException {
+			writeRecord(path, (byte) 0, 0, 0, 0, 0, 0);
+		}
+
+		/**
+		 * Adds a path whose local file has been found equal to its file version
+		 * in the database, along with its current file attributes.
+		 */
+		public void addVerified(String path, BasicFileAttributes fileAttributes) throws IOException {
+			long[] deviceAndInode = getDeviceAndInode(fileAttributes);
+
+			writeRecord(path, FLAG_VERIFIED, deviceAndInode[0], deviceAndInode[1], fileAttributes.size(), fileAttributes.lastModifiedTime()
+					.toMillis(), getAttributesHash(fileAttributes));
+		}
+
+		/**
+		 * Copies an entry (including its verified attributes) from an existing index.
+		 */
+		public void addCopy(ScanStateIndex scanStateIndex, int entryNumber) throws IOException {
+			int attributesPosition = scanStateIndex.getAttributesPosition(entryNumber);
+			ByteBuffer buffer = scanStateIndex.buffer;
+
+			writeRecord(scanStateIndex.getPath(entryNumber), buffer.get(attributesPosition), buffer.getLong(attributesPosition + RECORD_OFFSET_DEVICE),
+					buffer.getLong(attributesPosition + RECORD_OFFSET_INODE), buffer.getLong(attributesPosition + RECORD_OFFSET_SIZE),
+					buffer.getLong(attributesPosition + RECORD_OFFSET_LAST_MODIFIED), buffer.getInt(attributesPosition + RECORD_OFFSET_ATTRIBUTES));
+		}
+
+		/**
+		 * Writes the offset and hash tables, as well as the header (including the given
+		 * state key) and closes the file.
+		 */
+		public void commit(String stateKey) throws IOException {
+			byte[] stateKeyBytes = stateKey.getBytes(StandardCharsets.UTF_8);
+			int slotCount = Math.max(16, entryCount * 2);
+
+			if (stateKeyBytes.length > MAX_STATE_KEY_LENGTH) {
+				throw new IllegalArgumentException("State key too long: " + stateKey);
+			}
+
+			if (HEADER_SIZE + recordsLength + (long) entryCount * 4 + (long) slotCount * 4 > Integer.MAX_VALUE) {
+				throw new IOException("Scan state index too large: " + entryCount + " entries.");
+			}
+
+			int[] slots = new int[slotCount];
+
+			for (int entryNumber = 0; entryNumber < entryCount; entryNumber++) {
+				int slot = (pathHashCodes[entryNumber] & 0x7fffffff) % slotCount;
+
+				while (slots[slot] != 0) {
+					slot = (slot + 1) % slotCount;
+				}
+
+				slots[slot] = entryNumber + 1;
+			}
+
+			for (int entryNumber = 0; entryNumber < entryCount; entryNumber++) {
+				outputStream.writeInt(recordOffsets[entryNumber]);
+			}
+
+			for (int slot : slots) {
+				outputStream.writeInt(slot);
+			}
+
+			outputStream.close();
+
+			try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+				header.putInt(HEADER_OFFSET_MAGIC, MAGIC);
+				header.putInt(HEADER_OFFSET_VERSION, VERSION);
+				header.putInt(HEADER_OFFSET_ENTRY_COUNT, entryCount);
+				header.putInt(HEADER_OFFSET_SLOT_COUNT, slotCount);
+				header.putLong(HEADER_OFFSET_RECORDS_LENGTH, recordsLength);
+				header.putInt(HEADER_OFFSET_STATE_KEY_LENGTH, stateKeyBytes.length);
+
+				header.position(HEADER_OFFSET_STATE_KEY);
+				header.put(stateKeyBytes);
+
+				indexRandomAccessFile.write(header.array());
+			}
+		}
+
+		/**
+		 * Closes the file without committing it, e.g. if writing fails. An index file
+		 * that was not committed cannot be opened.
+		 */
+		public void close() {
+			try {
+				outputStream.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.FINE, "Cannot close scan state index " + indexFile, e);
+			}
+		}
+
+		private void writeRecord(String path, byte flags, long device, long inode, long size, long lastModified, int attributesHash)
+				throws IOException {
+			byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+
+			if (pathBytes.length > 0xffff) {
+				throw new IOException("Path too long for scan state index: " + path);
+			}
+
+			if (entryCount == recordOffsets.length) {
+				recordOffsets = Arrays.copyOf(recordOffsets, entryCount * 2);
+				pathHashCodes = Arrays.copyOf(pathHashCodes, entryCount * 2);
+			}
+
+			if (recordsLength > Integer.MAX_VALUE - HEADER_SIZE) {
+				throw new IOException("Scan state index too large: " + entryCount + " entries.");
+			}
+
+			recordOffsets[entryCount] = (int) recordsLength;
+			pathHashCodes[entryCount] = path.hashCode();
+			entryCount++;
+
+			outputStream.writeShort(pathBytes.length);
+			outputStream.write(pathBytes);
+			outputStream.writeByte(flags);
+			outputStream.writeLong(device);
+			outputStream.writeLong(inode);
+			outputStream.writeLong(size);
+			outputStream.writeLong(lastModified);
+			outputStream.writeInt(attributesHash);
+
+			recordsLength += 2 + pathBytes.length + RECORD_ATTRIBUTES_LENGTH;
+		}
+	}
+}
@@ -0,0 +1,778 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The sorted key-value store is a small embedded, log-structured store for byte array
+ * keys and values. It is used as an alternative to SQL queries for point lookups in large
+ * local databases, e.g. to find the multichunk of a chunk.
+ *
+ * <p>Writes go to an in-memory table sorted by key. When the table becomes too large, or
+ * when the store is committed, it is written to a new immutable <b>segment file</b>, in which
+ * the entries are sorted by key. Every segment file has a sparse index (the key and offset of
+ * every {@value #INDEX_INTERVAL}th entry), so a lookup reads a single small block per segment.
+ * Lookups check the in-memory table first, and then the segments from newest to oldest.
+ * If there are more than {@value #MAX_SEGMENTS} segments when the store is committed,
+ * all segments are merged (compacted) into one.
+ *
+ * <p>The list of segments belonging to the store is kept in a manifest file, which is
+ * replaced atomically by {@link #commit(String) commit()}, together with the given state key.
+ * Like the {@link ChunkIndex}, {@link #open(File, String) open()} only accepts a store with
+ * a matching state key, so a stale or partially written store is never used. Segment files
+ * written after the last commit are ignored, and removed by the next commit.
+ *
+ * <p>The store may be read by many, but only be modified by one instance at a time.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class SortedKeyValueStore {
+	private static final Logger logger = Logger.getLogger(SortedKeyValueStore.class.getSimpleName());
+
+	private static final int MANIFEST_MAGIC = 0x53594b4d; // "SYKM"
+	private static final int SEGMENT_MAGIC = 0x53594b53; // "SYKS"
+	private static final int VERSION = 1;
+
+	private static final String MANIFEST_FILENAME = "MANIFEST";
+	private static final String SEGMENT_FILENAME_PREFIX = "segment-";
+	private static final String SEGMENT_FILENAME_SUFFIX = ".sst";
+
+	private static final int SEGMENT_HEADER_SIZE = 8; // Magic and version
+	private static final int SEGMENT_FOOTER_SIZE = 20; // Index offset, entry count and magic
+
+	private static final int INDEX_INTERVAL = 64;
+	private static final int MAX_MEMTABLE_ENTRIES = 250000;
+	private static final int MAX_SEGMENTS = 8;
+
+	private static final Comparator<byte[]> KEY_COMPARATOR = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] key1, byte[] key2) {
+			int minLength = Math.min(key1.length, key2.length);
+
+			for (int i = 0; i < minLength; i++) {
+				int compareResult = (key1[i] & 0xff) - (key2[i] & 0xff);
+
+				if (compareResult != 0) {
+					return compareResult;
+				}
+			}
+
+			return key1.length - key2.length;
+		}
+	};
+
+	// Marks a deleted entry in the memtable and in segments
+	private static final byte[] DELETED = new byte[0];
+
+	private File storeDir;
+	private String stateKey;
+	private TreeMap<byte[], byte[]> memtable;
+	private List<Segment> segments; // Oldest first
+
+	private SortedKeyValueStore(File storeDir, String stateKey) {
+		this.storeDir = storeDir;
+		this.stateKey = stateKey;
+		this.memtable = new TreeMap<byte[], byte[]>(KEY_COMPARATOR);
+		this.segments = new ArrayList<Segment>();
+	}
+
+	/**
+	 * Creates an empty store in the given directory, removing an existing store in this
+	 * directory. The store is only valid on disk after {@link #commit(String) commit()}
+	 * has been called.
+	 */
+	public static SortedKeyValueStore create(File storeDir) throws IOException {
+		if (!storeDir.isDirectory() && !storeDir.mkdirs()) {
+			throw new IOException("Cannot create key-value store directory " + storeDir);
+		}
+
+		Files.deleteIfExists(new File(storeDir, MANIFEST_FILENAME).toPath());
+
+		for (File segmentFile : listSegmentFiles(storeDir)) {
+			Files.deleteIfExists(segmentFile.toPath());
+		}
+
+		return new SortedKeyValueStore(storeDir, null);
+	}
+
+	/**
+	 * Opens an existing, committed store if its state key matches the given state key.
+	 * Returns <code>null</code> if the store does not exist, is corrupt, or if it was
+	 * committed for a different state.
+	 */
+	public static SortedKeyValueStore open(File storeDir, String expectedStateKey) {
+		SortedKeyValueStore store = open(storeDir);
+
+		if (store != null && !store.getStateKey().equals(expectedStateKey)) {
+			logger.log(Level.INFO, "Key-value store " + storeDir + " is outdated (" + store.getStateKey() + " != " + expectedStateKey + ").");
+
+			store.close();
+			return null;
+		}
+
+		return store;
+	}
+
+	/**
+	 * Opens an existing, committed store, regardless of its state key. Returns
+	 * <code>null</code> if the store does not exist or if it is corrupt.
+	 */
+	public static SortedKeyValueStore open(File storeDir) {
+		File manifestFile = new File(storeDir, MANIFEST_FILENAME);
+
+		if (!manifestFile.exists()) {
+			return null;
+		}
+
+		SortedKeyValueStore store = null;
+
+		try (DataInputStream manifestIn = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+			if (manifestIn.readInt() != MANIFEST_MAGIC || manifestIn.readInt() != VERSION) {
+				logger.log(Level.INFO, "Key-value store " + storeDir + " has an unknown format. Ignoring it.");
+				return null;
+			}
+
+			store = new SortedKeyValueStore(storeDir, manifestIn.readUTF());
+			int segmentCount = manifestIn.readInt();
+
+			for (int i = 0; i < segmentCount; i++) {
+				store.segments.add(Segment.open(new File(storeDir, manifestIn.readUTF())));
+			}
+
+			return store;
+		}
+		catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Cannot open key-value store " + storeDir + ". Ignoring it.", e);
+
+			if (store != null) {
+				store.close();
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the state key given to the last {@link #commit(String) commit()}, or
+	 * <code>null</code> if the store has never been committed.
+	 */
+	public String getStateKey() {
+		return stateKey;
+	}
+
+	/**
+	 * Returns the value of the given key, or <code>null</code> if the key does not exist.
+	 */
+	public synchronized byte[] get(byte[] key) throws IOException {
+		byte[] value = memtable.get(key);
+
+		for (int i = segments.size() - 1; value == null && i >= 0; i--) {
+			value = segments.get(i).get(key);
+		}
+
+		return (value == DELETED) ? null : value;
+	}
+
+	/**
+	 * Sets the value of the given key. If the in-memory table is full, it
+	 * is written to a new segment.
+	 */
+	public synchronized void put(byte[] key, byte[] value) throws IOException {
+		if (value == null) {
+			throw new IllegalArgumentException("Value cannot be null; use remove() to remove keys.");
+		}
+
+		memtable.put(key, value);
+		flushIfFull();
+	}
+
+	/**
+	 * Removes the given key. Since segments are immutable, the key is marked as deleted,
+	 * and only removed from disk when the segments are compacted.
+	 */
+	public synchronized void remove(byte[] key) throws IOException {
+		memtable.put(key, DELETED);
+		flushIfFull();
+	}
+
+	/**
+	 * Returns the number of segment files of this store, including
+	 * segments that have not been committed yet.
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Writes all pending changes to a new segment, compacts the segments if there are too
+	 * many, and atomically replaces the manifest, thereby marking the store as complete for
+	 * the given state key. Segment files that are not used anymore are deleted.
+	 */
+	public synchronized void commit(String newStateKey) throws IOException {
+		flush();
+
+		if (segments.size() > MAX_SEGMENTS) {
+			compact();
+		}
+
+		writeManifest(newStateKey);
+		stateKey = newStateKey;
+
+		removeUnusedSegmentFiles();
+	}
+
+	/**
+	 * Merges the in-memory table and all segments into a single segment. Deleted
+	 * entries are dropped. The merged segment is only used by other instances after
+	 * {@link #commit(String) commit()} has been called.
+	 */
+	public synchronized void compact() throws IOException {
+		flush();
+
+		if (segments.size() > 1) {
+			logger.log(Level.INFO, "Compacting " + segments.size() + " segment(s) of key-value store " + storeDir + " ...");
+
+			List<Iterator<Map.Entry<byte[], byte[]>>> segmentIterators = new ArrayList<Iterator<Map.Entry<byte[], byte[]>>>();
+
+			for (Segment segment : segments) {
+				segmentIterators.add(segment.iterator());
+			}
+
+			Segment compactedSegment = writeSegment(new MergingIterator(segmentIterators), true);
+
+			close();
+			segments.add(compactedSegment);
+		}
+	}
+
+	/**
+	 * Closes all segment files. The store must not be used afterwards.
+	 */
+	public synchronized void close() {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+
+		segments.clear();
+	}
+
+	private void flushIfFull() throws IOException {
+		if (memtable.size() >= MAX_MEMTABLE_ENTRIES) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (memtable.size() > 0) {
+			segments.add(writeSegment(memtable.entrySet().iterator(), false));
+			memtable.clear();
+		}
+	}
+
+	private Segment writeSegment(Iterator<Map.Entry<byte[], byte[]>> sortedEntries, boolean dropDeleted) throws IOException {
+		File segmentFile = File.createTempFile(SEGMENT_FILENAME_PREFIX, SEGMENT_FILENAME_SUFFIX, storeDir);
+
+		try (FileOutputStream segmentFileOut = new FileOutputStream(segmentFile)) {
+			DataOutputStream segmentOut = new DataOutputStream(new BufferedOutputStream(segmentFileOut));
+
+			List<byte[]> indexKeys = new ArrayList<byte[]>();
+			List<Long> indexOffsets = new ArrayList<Long>();
+
+			long offset = SEGMENT_HEADER_SIZE;
+			long entryCount = 0;
+			byte[] lastKey = null;
+
+			segmentOut.writeInt(SEGMENT_MAGIC);
+			segmentOut.writeInt(VERSION);
+
+			// Entries: key length, key, value length + 1 (0 if deleted), value
+			while (sortedEntries.hasNext()) {
+				Map.Entry<byte[], byte[]> entry = sortedEntries.next();
+				byte[] value = entry.getValue();
+
+				if (dropDeleted && value == DELETED) {
+					continue;
+				}
+
+				if (entryCount % INDEX_INTERVAL == 0) {
+					indexKeys.add(entry.getKey());
+					indexOffsets.add(offset);
+				}
+
+				offset += writeVarLong(segmentOut, entry.getKey().length);
+				segmentOut.write(entry.getKey());
+				offset += entry.getKey().length;
+
+				if (value == DELETED) {
+					offset += writeVarLong(segmentOut, 0);
+				}
+				else {
+					offset += writeVarLong(segmentOut, value.length + 1);
+					segmentOut.write(value);
+					offset += value.length;
+				}
+
+				lastKey = entry.getKey();
+				entryCount++;
+			}
+
+			// Sparse index: number of index entries, (key length, key, offset), last key
+			long indexOffset = offset;
+			writeVarLong(segmentOut, indexKeys.size());
+
+			for (int i = 0; i < indexKeys.size(); i++) {
+				writeVarLong(segmentOut, indexKeys.get(i).length);
+				segmentOut.write(indexKeys.get(i));
+				writeVarLong(segmentOut, indexOffsets.get(i));
+			}
+
+			byte[] lastKeyBytes = (lastKey != null) ? lastKey : new byte[0];
+			writeVarLong(segmentOut, lastKeyBytes.length);
+			segmentOut.write(lastKeyBytes);
+
+			// Footer
+			segmentOut.writeLong(indexOffset);
+			segmentOut.writeLong(entryCount);
+			segmentOut.writeInt(SEGMENT_MAGIC);
+
+			segmentOut.flush();
+			segmentFileOut.getFD().sync();
+		}
+		catch (IOException e) {
+			segmentFile.delete();
+			throw e;
+		}
+
+		return Segment.open(segmentFile);
+	}
+
+	private void writeManifest(String newStateKey) throws IOException {
+		File tempManifestFile = File.createTempFile(MANIFEST_FILENAME + "-", ".tmp", storeDir);
+
+		try {
+			try (FileOutputStream manifestFileOut = new FileOutputStream(tempManifestFile)) {
+				DataOutputStream manifestOut = new DataOutputStream(new BufferedOutputStream(manifestFileOut));
+
+				manifestOut.writeInt(MANIFEST_MAGIC);
+				manifestOut.writeInt(VERSION);
+				manifestOut.writeUTF(newStateKey);
+				manifestOut.writeInt(segments.size());
+
+				for (Segment segment : segments) {
+					manifestOut.writeUTF(segment.file.getName());
+				}
+
+				manifestOut.flush();
+				manifestFileOut.getFD().sync();
+			}
+
+			Files.move(tempManifestFile.toPath(), new File(storeDir, MANIFEST_FILENAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tempManifestFile.toPath());
+		}
+	}
+
+	private void removeUnusedSegmentFiles() {
+		Set<String> usedSegmentFilenames = new HashSet<String>();
+
+		for (Segment segment : segments) {
+			usedSegmentFilenames.add(segment.file.getName());
+		}
+
+		for (File segmentFile : listSegmentFiles(storeDir)) {
+			if (!usedSegmentFilenames.contains(segmentFile.getName()) && !segmentFile.delete()) {
+				logger.log(Level.FINE, "Cannot delete unused segment " + segmentFile + "; will retry with next commit.");
+			}
+		}
+	}
+
+	private static List<File> listSegmentFiles(File storeDir) {
+		List<File> segmentFiles = new ArrayList<File>();
+		File[] files = storeDir.listFiles();
+
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(SEGMENT_FILENAME_PREFIX) && file.getName().endsWith(SEGMENT_FILENAME_SUFFIX)) {
+					segmentFiles.add(file);
+				}
+			}
+		}
+
+		return segmentFiles;
+	}
+
+	private static int writeVarLong(DataOutputStream out, long value) throws IOException {
+		int length = 1;
+
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+			length++;
+		}
+
+		out.write((int) value);
+		return length;
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IllegalStateException("Invalid variable-length integer.");
+	}
+
+	private static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+
+			if (b < 0) {
+				throw new EOFException();
+			}
+
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Invalid variable-length integer.");
+	}
+
+	private static byte[] readBytes(ByteBuffer in, long length) {
+		byte[] bytes = new byte[(int) length];
+		in.get(bytes);
+
+		return bytes;
+	}
+
+	/**
+	 * An immutable segment file. Only the sparse index is held in memory; entries are
+	 * read block by block using positional reads, so concurrent lookups are possible.
+	 */
+	private static class Segment {
+		private File file;
+		private FileChannel fileChannel;
+		private long dataEndOffset;
+		private long entryCount;
+		private byte[][] indexKeys;
+		private long[] indexOffsets;
+		private byte[] lastKey;
+
+		public static Segment open(File segmentFile) throws IOException {
+			Segment segment = new Segment();
+
+			segment.file = segmentFile;
+			segment.fileChannel = new RandomAccessFile(segmentFile, "r").getChannel();
+
+			try {
+				long fileSize = segment.fileChannel.size();
+
+				if (fileSize < SEGMENT_HEADER_SIZE + SEGMENT_FOOTER_SIZE) {
+					throw new IOException("Segment file too small: " + segmentFile);
+				}
+
+				ByteBuffer footer = segment.read(fileSize - SEGMENT_FOOTER_SIZE, SEGMENT_FOOTER_SIZE);
+
+				segment.dataEndOffset = footer.getLong();
+				segment.entryCount = footer.getLong();
+
+				if (footer.getInt() != SEGMENT_MAGIC || segment.dataEndOffset < SEGMENT_HEADER_SIZE
+						|| segment.dataEndOffset > fileSize - SEGMENT_FOOTER_SIZE) {
+
+					throw new IOException("Segment file is incomplete or corrupt: " + segmentFile);
+				}
+
+				ByteBuffer index = segment.read(segment.dataEndOffset, (int) (fileSize - SEGMENT_FOOTER_SIZE - segment.dataEndOffset));
+				int indexEntryCount = (int) readVarLong(index);
+
+				segment.indexKeys = new byte[indexEntryCount][];
+				segment.indexOffsets = new long[indexEntryCount];
+
+				for (int i = 0; i < indexEntryCount; i++) {
+					segment.indexKeys[i] = readBytes(index, readVarLong(index));
+					segment.indexOffsets[i] = readVarLong(index);
+				}
+
+				segment.lastKey = readBytes(index, readVarLong(index));
+
+				return segment;
+			}
+			catch (IOException | RuntimeException e) {
+				segment.close();
+				throw new IOException("Cannot read segment file " + segmentFile, e);
+			}
+		}
+
+		public byte[] get(byte[] key) throws IOException {
+			if (entryCount == 0 || KEY_COMPARATOR.compare(key, indexKeys[0]) < 0 || KEY_COMPARATOR.compare(key, lastKey) > 0) {
+				return null;
+			}
+
+			// Find the last block starting with a key smaller than or equal to the given key
+			int low = 0;
+			int high = indexKeys.length - 1;
+
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+
+				if (KEY_COMPARATOR.compare(indexKeys[middle], key) <= 0) {
+					low = middle;
+				}
+				else {
+					high = middle - 1;
+				}
+			}
+
+			long blockStartOffset = indexOffsets[low];
+			long blockEndOffset = (low + 1 < indexOffsets.length) ? indexOffsets[low + 1] : dataEndOffset;
+
+			ByteBuffer block = read(blockStartOffset, (int) (blockEndOffset - blockStartOffset));
+
+			while (block.hasRemaining()) {
+				byte[] entryKey = readBytes(block, readVarLong(block));
+				long valueLength = readVarLong(block);
+				int compareResult = KEY_COMPARATOR.compare(entryKey, key);
+
+				if (compareResult == 0) {
+					return (valueLength == 0) ? DELETED : readBytes(block, valueLength - 1);
+				}
+				else if (compareResult > 0) {
+					return null;
+				}
+				else if (valueLength > 0) {
+					block.position(block.position() + (int) (valueLength - 1));
+				}
+			}
+
+			return null;
+		}
+
+		public Iterator<Map.Entry<byte[], byte[]>> iterator() throws IOException {
+			final DataInputStream segmentIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			final long[] offset = new long[] { SEGMENT_HEADER_SIZE };
+
+			segmentIn.readFully(new byte[SEGMENT_HEADER_SIZE]);
+
+			return new Iterator<Map.Entry<byte[], byte[]>>() {
+				@Override
+				public boolean hasNext() {
+					if (offset[0] < dataEndOffset) {
+						return true;
+					}
+					else {
+						closeQuietly();
+						return false;
+					}
+				}
+
+				@Override
+				public Map.Entry<byte[], byte[]> next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+
+					try {
+						byte[] key = readEntryBytes(readEntryLength());
+						long valueLength = readEntryLength();
+						byte[] value = (valueLength == 0) ? DELETED : readEntryBytes(valueLength - 1);
+
+						return new AbstractMap.SimpleImmutableEntry<byte[], byte[]>(key, value);
+					}
+					catch (IOException e) {
+						closeQuietly();
+						throw new RuntimeException("Cannot read segment file " + file, e);
+					}
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				private long readEntryLength() throws IOException {
+					long length = readVarLong(segmentIn);
+					offset[0] += getVarLongLength(length);
+
+					return length;
+				}
+
+				private byte[] readEntryBytes(long length) throws IOException {
+					byte[] bytes = new byte[(int) length];
+					segmentIn.readFully(bytes);
+					offset[0] += length;
+
+					return bytes;
+				}
+
+				private void closeQuietly() {
+					try {
+						segmentIn.close();
+					}
+					catch (IOException e) {
+						// Ignore
+					}
+				}
+			};
+		}
+
+		public void close() {
+			try {
+				fileChannel.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.FINE, "Cannot close segment file " + file, e);
+			}
+		}
+
+		private ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+
+			while (buffer.hasRemaining()) {
+				if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException("Unexpected end of segment file " + file);
+				}
+			}
+
+			buffer.flip();
+			return buffer;
+		}
+
+		private static int getVarLongLength(long value) {
+			int length = 1;
+
+			while ((value & ~0x7FL) != 0) {
+				value >>>= 7;
+				length++;
+			}
+
+			return length;
+		}
+	}
+
+	/**
+	 * Merges sorted iterators into one sorted iterator. If a key occurs in multiple
+	 * iterators, the entry of the iterator with the highest index (i.e. of the newest
+	 * segment) is used.
+	 */
+	private static class MergingIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+		private List<Iterator<Map.Entry<byte[], byte[]>>> iterators;
+		private PriorityQueue<MergeHead> heads;
+
+		public MergingIterator(List<Iterator<Map.Entry<byte[], byte[]>>> iterators) {
+			this.iterators = iterators;
+			this.heads = new PriorityQueue<MergeHead>(Math.max(1, iterators.size()), new Comparator<MergeHead>() {
+				@Override
+				public int compare(MergeHead head1, MergeHead head2) {
+					int compareResult = KEY_COMPARATOR.compare(head1.entry.getKey(), head2.entry.getKey());
+					return (compareResult != 0) ? compareResult : head2.iteratorIndex - head1.iteratorIndex; // Newest first
+				}
+			});
+
+			for (int i = 0; i < iterators.size(); i++) {
+				advance(i);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Map.Entry<byte[], byte[]> next() {
+			if (heads.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+
+			MergeHead newestHead = heads.poll();
+			advance(newestHead.iteratorIndex);
+
+			// Skip older entries with the same key
+			while (!heads.isEmpty() && Arrays.equals(heads.peek().entry.getKey(), newestHead.entry.getKey())) {
+				advance(heads.poll().iteratorIndex);
+			}
+
+			return newestHead.entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void advance(int iteratorIndex) {
+			Iterator<Map.Entry<byte[], byte[]>> iterator = iterators.get(iteratorIndex);
+
+			if (iterator.hasNext()) {
+				heads.add(new MergeHead(iteratorIndex, iterator.next()));
+			}
+		}
+	}
+
+	private static class MergeHead {
+		private int iteratorIndex;
+		private Map.Entry<byte[], byte[]> entry;
+
+		public MergeHead(int iteratorIndex, Map.Entry<byte[], byte[]> entry) {
+			this.iteratorIndex = iteratorIndex;
+			this.entry = entry;
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import java.util.logging.Logger;
 
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseSettings.IndexBackend;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion.FileType;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
@@ -40,7 +42,9 @@ import org.syncany.database.dao.DatabaseVersionSqlDao;
 import org.syncany.database.dao.FileContentSqlDao;
 import org.syncany.database.dao.FileHistorySqlDao;
 import org.syncany.database.dao.FileVersionSqlDao;
+import org.syncany.database.dao.KeyValueLookupStore;
 import org.syncany.database.dao.MultiChunkSqlDao;
+import org.syncany.database.dao.SqlLookupStore;
 import org.syncany.operations.cleanup.CleanupOperationOptions.TimeUnit;
 import org.syncany.operations.down.DatabaseBranch;
 import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
@@ -49,7 +53,10 @@ import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
  * Represents the single entry point for all SQL database queries.
  * 
  * <p>This class combines all specific SQL database data access objects (DAOs) into
- * a single class, and forwards all method calls to the responsible DAO.  
+ * a single class, and forwards all method calls to the responsible DAO. Point lookups
+ * (e.g. {@link #getMultiChunkId(ChunkChecksum) getMultiChunkId()}) are forwarded to the
+ * {@link LookupStore} selected in the {@link DatabaseSettings}, which is notified whenever
+ * the database is changed.
  * 
  * @see ApplicationSqlDao
  * @see ChunkSqlDao
@@ -58,12 +65,14 @@ import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
  * @see FileHistorySqlDao
  * @see MultiChunkSqlDao
  * @see DatabaseVersionSqlDao
+ * @see LookupStore
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class SqlDatabase {
 	protected static final Logger logger = Logger.getLogger(SqlDatabase.class.getSimpleName());
 
 	protected Connection connection;
+	protected DatabaseSettings databaseSettings;
 	protected ApplicationSqlDao applicationDao;
 	protected ChunkSqlDao chunkDao;
 	protected FileContentSqlDao fileContentDao;
@@ -71,6 +80,7 @@ public class SqlDatabase {
 	protected FileHistorySqlDao fileHistoryDao;
 	protected MultiChunkSqlDao multiChunkDao;
 	protected DatabaseVersionSqlDao databaseVersionDao;
+	protected LookupStore lookupStore;
 
 	public SqlDatabase(Config config) {
 		this(config, false);
@@ -78,14 +88,31 @@ public class SqlDatabase {
 
 	public SqlDatabase(Config config, boolean readOnly) {
 		this.connection = config.createDatabaseConnection(readOnly);
+		this.databaseSettings = config.getDatabaseSettings();
 		this.applicationDao = new ApplicationSqlDao(connection);
-		this.chunkDao = new ChunkSqlDao(connection);
+		this.chunkDao = new ChunkSqlDao(connection, config.getChunkIndexFile(), readOnly);
 		this.fileContentDao = new FileContentSqlDao(connection);
 		this.fileVersionDao = new FileVersionSqlDao(connection);
 		this.fileHistoryDao = new FileHistorySqlDao(connection, fileVersionDao);
 		this.multiChunkDao = new MultiChunkSqlDao(connection);
 		this.databaseVersionDao = new DatabaseVersionSqlDao(connection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+		this.lookupStore = createLookupStore(config, readOnly);
+	}
+
+	/**
+	 * Creates the {@link LookupStore} selected in the {@link DatabaseSettings}. Since the
+	 * key-value store has to be written whenever it is outdated, read-only databases always
+	 * use the SQL lookups.
+	 */
+	private LookupStore createLookupStore(Config config, boolean readOnly) {
+		boolean keyValueIndexBackend = databaseSettings != null && databaseSettings.getIndexBackend() == IndexBackend.KEY_VALUE;
 
+		if (keyValueIndexBackend && !readOnly) {
+			return new KeyValueLookupStore(connection, config.getLookupStoreDir(), multiChunkDao, fileHistoryDao, fileVersionDao);
+		}
+		else {
+			return new SqlLookupStore(multiChunkDao, fileHistoryDao);
+		}
 	}
 
 	// General
@@ -109,6 +136,60 @@ public class SqlDatabase {
 
 	public void rollback() throws SQLException {
 		connection.rollback();
+		lookupStore.clearCache();
+	}
+
+	/**
+	 * Starts the bulk load mode if it is enabled in the {@link DatabaseSettings}: Automatic
+	 * checkpoints are deferred until {@link #endBulkLoad()} is called, so that writing many
+	 * database versions does not repeatedly rewrite the data file.
+	 *
+	 * <p><b>Note:</b> This method commits the current transaction, and must only be
+	 * called in between transactions.
+	 */
+	public void beginBulkLoad() throws SQLException {
+		if (databaseSettings != null && databaseSettings.isBulkLoad()) {
+			logger.log(Level.INFO, "Starting database bulk load; deferring checkpoints ...");
+			applicationDao.setLogSize(0);
+		}
+	}
+
+	/**
+	 * Ends the bulk load mode started by {@link #beginBulkLoad()}, performs the
+	 * deferred checkpoint and restores the configured log size.
+	 *
+	 * <p><b>Note:</b> This method commits the current transaction, and must only be
+	 * called in between transactions.
+	 */
+	public void endBulkLoad() throws SQLException {
+		if (databaseSettings != null && databaseSettings.isBulkLoad()) {
+			logger.log(Level.INFO, "Ending database bulk load; performing checkpoint ...");
+
+			applicationDao.checkpoint();
+			applicationDao.setLogSize(databaseSettings.getLogSize());
+		}
+	}
+
+	/**
+	 * Ends the bulk load mode started by {@link #beginBulkLoad()} after a failure. Unlike
+	 * {@link #endBulkLoad()}, this method does not perform a checkpoint: It only restores
+	 * the configured log size, so that the next automatic checkpoint happens as usual.
+	 * Errors are logged, not thrown, so that they do not hide the original failure.
+	 *
+	 * <p><b>Note:</b> This method commits the current transaction, and must only be
+	 * called in between transactions (e.g. after a {@link #rollback()}).
+	 */
+	public void abortBulkLoad() {
+		if (databaseSettings != null && databaseSettings.isBulkLoad()) {
+			logger.log(Level.INFO, "Aborting database bulk load; restoring log size ...");
+
+			try {
+				applicationDao.setLogSize(databaseSettings.getLogSize());
+			}
+			catch (SQLException e) {
+				logger.log(Level.WARNING, "Cannot restore database log size after failed bulk load.", e);
+			}
+		}
 	}
 
 	public void removeUnreferencedDatabaseEntities() {
@@ -119,12 +200,71 @@ public class SqlDatabase {
 			removeUnreferencedChunks();
 
 			removeEmptyDatabaseVersionHeaders();
+			lookupStore.clearCache();
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Removes the database entities that are not referenced anymore after the file
+	 * versions of the given file histories and file contents have been removed. Unlike
+	 * {@link #removeUnreferencedDatabaseEntities()}, this method only checks these entities
+	 * (and the chunks and multichunks of the file contents), so its cost depends on the
+	 * number of removed file versions rather than on the size of the database.
+	 *
+	 * <p>The given unused multichunks (as returned by {@link #getUnusedMultiChunks(Collection)})
+	 * are removed with all of their chunk references, so that the local database matches the
+	 * remote repository after these multichunks have been deleted remotely.
+	 *
+	 * <p>This method expects that there are no other unreferenced entities in the database,
+	 * i.e. that all entities other than the given ones were referenced before the file
+	 * versions were removed. If this is not guaranteed (see {@link #isFullGarbageCollectionRequired()}),
+	 * {@link #removeUnreferencedDatabaseEntities()} must be used instead.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
+	 *
+	 * @param fileHistoryIds File histories whose file versions have been (partially) removed
+	 * @param fileChecksums File contents of the removed file versions
+	 * @param unusedMultiChunkIds Multichunks that are deleted remotely
+	 */
+	public void removeUnreferencedDatabaseEntities(Collection<FileHistoryId> fileHistoryIds, Collection<FileChecksum> fileChecksums,
+			Collection<MultiChunkId> unusedMultiChunkIds) {
+
+		try {
+			// Note: The chunks have to be determined before the file content references are removed
+			Set<ChunkChecksum> chunkChecksums = new HashSet<ChunkChecksum>(fileContentDao.getChunkChecksums(fileChecksums));
+
+			fileHistoryDao.removeUnreferencedFileHistories(fileHistoryIds);
+			fileContentDao.removeUnreferencedFileContents(fileChecksums);
+
+			chunkChecksums.addAll(multiChunkDao.removeMultiChunks(unusedMultiChunkIds));
+			multiChunkDao.removeUnreferencedMultiChunkChunkRefs(chunkChecksums);
+			chunkDao.removeUnreferencedChunks(chunkChecksums);
+
+			removeEmptyDatabaseVersionHeaders();
+			lookupStore.clearCache();
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns whether the database might contain unreferenced entities other than those
+	 * left over by removed file versions, e.g. because dirty database versions were removed.
+	 * If so, the next cleanup must use {@link #getUnusedMultiChunks()} and
+	 * {@link #removeUnreferencedDatabaseEntities()} to check the entire database.
+	 */
+	public boolean isFullGarbageCollectionRequired() {
+		return applicationDao.isFullGarbageCollectionRequired();
+	}
+
+	public void writeFullGarbageCollectionRequired(boolean fullGarbageCollectionRequired) {
+		applicationDao.writeFullGarbageCollectionRequired(fullGarbageCollectionRequired);
+	}
+
 	// Application
 
 	public void writeKnownRemoteDatabases(List<DatabaseRemoteFile> remoteDatabases) throws SQLException {
@@ -161,9 +301,11 @@ public class SqlDatabase {
 
 	public void deleteAll() {
 		applicationDao.deleteAll();
+		lookupStore.clearCache();
 	}
 
 	public void shutdown() {
+		lookupStore.clearCache();
 		applicationDao.shutdown();
 	}
 
@@ -194,15 +336,32 @@ public class SqlDatabase {
 	}
 
 	public long writeDatabaseVersion(DatabaseVersion databaseVersion) {
-		return databaseVersionDao.writeDatabaseVersion(databaseVersion);
+		long databaseVersionId = databaseVersionDao.writeDatabaseVersion(databaseVersion);
+		lookupStore.clearCache();
+
+		return databaseVersionId;
+	}
+
+	public void writeDatabaseVersionPart(long databaseVersionId, DatabaseVersion databaseVersionPart) {
+		databaseVersionDao.writeDatabaseVersionPart(databaseVersionId, databaseVersionPart);
+		lookupStore.clearCache();
 	}
 
 	public void markDatabaseVersionDirty(VectorClock vectorClock) {
 		databaseVersionDao.markDatabaseVersionDirty(vectorClock);
+		lookupStore.clearCache();
 	}
 
+	/**
+	 * Removes the dirty database versions (see {@link DatabaseVersionSqlDao#removeDirtyDatabaseVersions(long)}).
+	 * Since the chunks and multichunks of the dirty database versions are kept, they might leave
+	 * unreferenced entities behind. This method therefore also marks the database for a full garbage 
+	 * collection in the next cleanup (see {@link #isFullGarbageCollectionRequired()}).
+	 */
 	public void removeDirtyDatabaseVersions(long newDatabaseVersionId) {
+		applicationDao.writeFullGarbageCollectionRequired(true);
 		databaseVersionDao.removeDirtyDatabaseVersions(newDatabaseVersionId);
+		lookupStore.clearCache();
 	}
 
 	public void removeEmptyDatabaseVersionHeaders() {
@@ -229,12 +388,16 @@ public class SqlDatabase {
 		return fileHistoryDao.getFileHistoriesWithLastVersion();
 	}
 
+	public List<PartialFileHistory> getFileHistoriesWithLastVersion(List<FileHistoryId> fileHistoryIds) {
+		return fileHistoryDao.getFileHistoriesWithLastVersion(fileHistoryIds);
+	}
+
 	public Collection<PartialFileHistory> getFileHistoriesWithLastVersionByChecksumSizeAndModifiedDate(String checksum, long size, Date modifiedDate) {
 		return fileHistoryDao.getFileHistoriesByChecksumSizeAndModifiedDate(checksum, size, modifiedDate);
 	}
 
 	public PartialFileHistory getFileHistoriesWithLastVersionByPath(String path) {
-		return fileHistoryDao.getFileHistoryWithLastVersionByPath(path);
+		return lookupStore.getFileHistoryWithLastVersionByPath(path);
 	}
 
 	private void removeUnreferencedFileHistories() throws SQLException {
@@ -251,12 +414,34 @@ public class SqlDatabase {
 		return fileVersionDao.getCurrentFileTree();
 	}
 
+	public Map<String, FileVersion> getCurrentFileTree(Collection<String> paths) {
+		return fileVersionDao.getCurrentFileTree(paths);
+	}
+
+	public Map<String, FileVersion> getCurrentFileSubtree(String path) {
+		return fileVersionDao.getCurrentFileSubtree(path);
+	}
+
+	public String getFileTreeStateKey() {
+		return fileVersionDao.getFileTreeStateKey();
+	}
+
+	public Set<String> getPathsChangedSince(String oldFileTreeStateKey) {
+		return fileVersionDao.getPathsChangedSince(oldFileTreeStateKey);
+	}
+
 	public void removeSmallerOrEqualFileVersions(Map<FileHistoryId, FileVersion> purgeFileVersions) throws SQLException {
 		fileVersionDao.removeFileVersions(purgeFileVersions);
+		lookupStore.clearCache();
 	}
 
 	public void removeFileVersions(Map<FileHistoryId, List<FileVersion>> purgeFileVersions) throws SQLException {
 		fileVersionDao.removeSpecificFileVersions(purgeFileVersions);
+		lookupStore.clearCache();
+	}
+
+	public Set<FileChecksum> getFileContentChecksumsUpToVersion(Map<FileHistoryId, FileVersion> fileVersions) {
+		return fileVersionDao.getFileContentChecksumsUpToVersion(fileVersions);
 	}
 	
 	public List<FileVersion> getFileList(String pathExpression, Date date, boolean fileHistoryId, boolean recursive, boolean deleted,
@@ -292,11 +477,11 @@ public class SqlDatabase {
 	}
 
 	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum) {
-		return multiChunkDao.getMultiChunkId(chunkChecksum);
+		return lookupStore.getMultiChunkId(chunkChecksum);
 	}
 
 	public Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsByChecksums(List<ChunkChecksum> chunkChecksums) {
-		return multiChunkDao.getMultiChunkIdsByChecksums(chunkChecksums);
+		return lookupStore.getMultiChunkIdsByChecksums(chunkChecksums);
 	}
 
 	public List<MultiChunkId> getDirtyMultiChunkIds() {
@@ -307,6 +492,10 @@ public class SqlDatabase {
 		return multiChunkDao.getUnusedMultiChunks();
 	}
 
+	public Map<MultiChunkId, MultiChunkEntry> getUnusedMultiChunks(Collection<FileChecksum> fileChecksums) {
+		return multiChunkDao.getUnusedMultiChunks(fileChecksums);
+	}
+
 	private void removeUnreferencedMultiChunks() throws SQLException {
 		multiChunkDao.removeUnreferencedMultiChunks();
 	}
@@ -156,6 +156,31 @@ public class ApplicationSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Sets the maximum size of the HSQLDB transaction log (in MB), after which an automatic
+	 * checkpoint is performed. A size of 0 disables automatic checkpoints.
+	 *
+	 * <p><b>Note:</b> The command sends the <b><code>SET FILES LOG SIZE</code></b> SQL command,
+	 * which commits the current transaction. It should only be called in between transactions.
+	 */
+	public void setLogSize(int logSize) throws SQLException {
+		try (PreparedStatement preparedStatement = connection.prepareStatement("SET FILES LOG SIZE " + logSize)) {
+			preparedStatement.execute();
+		}
+	}
+
+	/**
+	 * Persists all data to the HSQLDB data file and clears the transaction log.
+	 *
+	 * <p><b>Note:</b> The command sends the <b><code>CHECKPOINT</code></b> SQL command,
+	 * which commits the current transaction. It should only be called in between transactions.
+	 */
+	public void checkpoint() throws SQLException {
+		try (PreparedStatement preparedStatement = connection.prepareStatement("CHECKPOINT")) {
+			preparedStatement.execute();
+		}
+	}
+
 	public Long getCleanupNumber() {
 		return readSettingAsLong("cleanupNumber");
 	}
@@ -172,6 +197,21 @@ public class ApplicationSqlDao extends AbstractSqlDao {
 		writeSetting("cleanupTime", "" + cleanupTime);
 	}
 
+	/**
+	 * Returns whether the next cleanup has to check the entire database for unreferenced
+	 * entities (see {@link #writeFullGarbageCollectionRequired(boolean)}). If the flag has never
+	 * been written, <code>true</code> is returned, because it is unknown whether the database
+	 * contains left-over entities.
+	 */
+	public boolean isFullGarbageCollectionRequired() {
+		String strValue = readSetting("fullGarbageCollectionRequired");
+		return strValue == null || Boolean.parseBoolean(strValue);
+	}
+
+	public void writeFullGarbageCollectionRequired(boolean fullGarbageCollectionRequired) {
+		writeSetting("fullGarbageCollectionRequired", "" + fullGarbageCollectionRequired);
+	}
+
 	public Long readSettingAsLong(String key) {
 		try {
 			String strValue = readSetting(key);
@@ -17,6 +17,10 @@
  */
 package org.syncany.database.dao;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -24,9 +28,12 @@ import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
 import org.syncany.database.VectorClock;
 
 /**
@@ -34,14 +41,41 @@ import org.syncany.database.VectorClock;
  * on {@link ChunkEntry}s. It translates the relational data in the "chunk" table to
  * Java objects.
  * 
+ * <p>Chunk lookups via {@link #getChunk(ChunkChecksum) getChunk()} are answered by a 
+ * {@link ChunkIndex}. If an index file is given, the index is persisted in this file
+ * (next to the local database) and reused as long as the chunk table has not changed.
+ * If the database is opened read-only, an existing up-to-date index file is used, but the
+ * index file is never written.
+ * 
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class ChunkSqlDao extends AbstractSqlDao {
-	private Map<ChunkChecksum, ChunkEntry> chunkCache;
+	private static final Logger logger = Logger.getLogger(ChunkSqlDao.class.getSimpleName());
+
+	// A persisted chunk index is built with free slots for this many (or half its size) additional chunks, so
+	// that chunks of new database versions can be added to it without rebuilding it.
+	private static final long CHUNK_INDEX_MIN_HEADROOM = 100000;
+
+	private File chunkIndexFile;
+	private boolean readOnly;
+	private ChunkIndex chunkIndex;
+	private File temporaryChunkIndexFile;
 
 	public ChunkSqlDao(Connection connection) {
+		this(connection, null);
+	}
+
+	public ChunkSqlDao(Connection connection, File chunkIndexFile) {
+		this(connection, chunkIndexFile, false);
+	}
+
+	public ChunkSqlDao(Connection connection, File chunkIndexFile, boolean readOnly) {
 		super(connection);
-		this.chunkCache = null;
+
+		this.chunkIndexFile = chunkIndexFile;
+		this.readOnly = readOnly;
+		this.chunkIndex = null;
+		this.temporaryChunkIndexFile = null;
 	}
 
 	/**
@@ -90,35 +124,72 @@ public class ChunkSqlDao extends AbstractSqlDao {
 		}
 	}
 	
+	/**
+	 * Removes the given chunks from the database, if they are not referenced by any 
+	 * file content or multichunk anymore. Unlike {@link #removeUnreferencedChunks()}, this
+	 * method only checks the given chunks instead of the entire table.
+	 * 
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query. 
+	 * 
+	 * @param chunkChecksums Checksums of the chunks that might be unreferenced
+	 */
+	public void removeUnreferencedChunks(Collection<ChunkChecksum> chunkChecksums) {
+		if (chunkChecksums.size() > 0) {
+			String[] chunkChecksumsStr = new String[chunkChecksums.size()];
+			int i = 0;
+			
+			for (ChunkChecksum chunkChecksum : chunkChecksums) {
+				chunkChecksumsStr[i++] = chunkChecksum.toString();
+			}
+			
+			try (PreparedStatement preparedStatement = getStatement("chunk.delete.all.removeUnreferencedChunksByChecksums.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", chunkChecksumsStr));
+				preparedStatement.executeUpdate();
+			}
+			catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
 	/**
 	 * Queries the database of a chunk with the given checksum. 
 	 * 
-	 * <p>Note: When first called, this method loads the <b>chunk cache</b> and keeps
-	 * this cache until it is cleared explicitly with {@link #clearCache()}. 
+	 * <p>Note: When first called, this method loads the <b>chunk index</b> (or builds it,
+	 * if there is no up-to-date index file) and keeps this index until it is cleared explicitly
+	 * with {@link #clearCache()}. 
 	 * 
 	 * <p>Also note that this method will return <code>null</code> if the chunk has been
-	 * added after the cache has been filled. 
+	 * added after the index has been loaded. 
 	 * 
 	 * @param chunkChecksum Chunk checksum of the chunk to be selected
 	 * @return Returns the chunk entry, or <code>null</code> if the chunk does not exist.
 	 */	
 	public synchronized ChunkEntry getChunk(ChunkChecksum chunkChecksum) {
-		if (chunkCache == null) {
+		if (chunkIndex == null) {
 			loadChunkCache();
 		}
 
-		return chunkCache.get(chunkChecksum);
+		return chunkIndex.get(chunkChecksum);
 	}
 	
 	/**
 	 * Clears the chunk cache loaded by {@link #getChunk(ChunkChecksum) getChunk()}
 	 * and resets the cache. If {@link #getChunk(ChunkChecksum) getChunk()} is called
 	 * after the cache is cleared, it is re-populated.
+	 * 
+	 * <p>The index memory (or file mapping) is released immediately. If the index was
+	 * read from a temporary index file, this file is deleted.
 	 */
 	public synchronized void clearCache() {
-		if (chunkCache != null) {
-			chunkCache.clear();
-			chunkCache = null;
+		if (chunkIndex != null) {
+			chunkIndex.close();
+			chunkIndex = null;
+		}
+
+		if (temporaryChunkIndexFile != null) {
+			temporaryChunkIndexFile.delete();
+			temporaryChunkIndexFile = null;
 		}
 	}
 
@@ -162,17 +233,204 @@ public class ChunkSqlDao extends AbstractSqlDao {
 		return new ChunkEntry(chunkChecksum, resultSet.getInt("size"));
 	}
 	
+	/**
+	 * Loads the chunk index from the index file, if it exists and matches the current
+	 * state of the chunk table. If the index file only lacks chunks of newer database versions,
+	 * these chunks are added to it. Otherwise, the index is rebuilt from the chunk table (and
+	 * written to the index file, if there is one and the database is not read-only).
+	 * 
+	 * <p>The state of the chunk table is identified by the number of chunks, their total size,
+	 * and the highest database version ID. Chunks are only ever added with a new (higher)
+	 * database version ID, so every insert and delete changes this state key.
+	 */
 	protected void loadChunkCache() {
-		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.loadChunkCache.sql")) {
-			try (ResultSet resultSet = preparedStatement.executeQuery()) {
-				chunkCache = createChunkEntries(resultSet);
+		try {
+			ChunkIndexState chunkIndexState = getChunkIndexState();
+
+			if (chunkIndexFile != null) {
+				chunkIndex = ChunkIndex.open(chunkIndexFile, chunkIndexState.getStateKey());
+
+				if (chunkIndex == null && !readOnly) {
+					chunkIndex = updateChunkIndex(chunkIndexState);
+				}
+
+				if (chunkIndex == null && !readOnly) {
+					chunkIndex = buildAndPersistChunkIndex(chunkIndexState);
+				}
+			}
+
+			if (chunkIndex == null) {
+				chunkIndex = ChunkIndex.createInMemory(chunkIndexState.maxChecksumLength, chunkIndexState.chunkCount);
+				fillChunkIndex(chunkIndex, "chunk.select.all.loadChunkCache.sql", null);
 			}
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
-	
+
+	/**
+	 * Adds the chunks of newer database versions to the existing index file, if all
+	 * chunks of the older database versions are unchanged (same count and size as when the
+	 * index was written), and if the index has enough free slots. Returns <code>null</code>
+	 * if the index cannot be updated.
+	 */
+	private ChunkIndex updateChunkIndex(ChunkIndexState chunkIndexState) throws SQLException {
+		ChunkIndex existingChunkIndex = ChunkIndex.open(chunkIndexFile, true);
+
+		if (existingChunkIndex == null) {
+			return null;
+		}
+
+		boolean chunkIndexUpdated = false;
+
+		try {
+			ChunkIndexState existingChunkIndexState = ChunkIndexState.parseStateKey(existingChunkIndex.getStateKey());
+
+			if (existingChunkIndexState == null || existingChunkIndexState.maxChecksumLength != chunkIndexState.maxChecksumLength
+					|| existingChunkIndexState.maxDatabaseVersionId >= chunkIndexState.maxDatabaseVersionId) {
+
+				return null;
+			}
+
+			try (PreparedStatement preparedStatement = getStatement("chunk.select.all.getChunkIndexStateUpToDatabaseVersion.sql")) {
+				preparedStatement.setLong(1, existingChunkIndexState.maxDatabaseVersionId);
+
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					resultSet.next();
+
+					if (resultSet.getLong("chunkcount") != existingChunkIndexState.chunkCount
+							|| resultSet.getLong("totalsize") != existingChunkIndexState.totalSize) {
+
+						return null;
+					}
+				}
+			}
+
+			long newChunkCount = chunkIndexState.chunkCount - existingChunkIndexState.chunkCount;
+
+			if (newChunkCount > existingChunkIndex.getRemainingCapacity()) {
+				return null;
+			}
+
+			logger.log(Level.INFO, "Adding " + newChunkCount + " chunk(s) to chunk index " + chunkIndexFile + " ...");
+
+			existingChunkIndex.beginUpdate();
+			fillChunkIndex(existingChunkIndex, "chunk.select.all.getChunksAfterDatabaseVersion.sql", existingChunkIndexState.maxDatabaseVersionId);
+			existingChunkIndex.commit(chunkIndexState.getStateKey());
+
+			chunkIndexUpdated = true;
+			return existingChunkIndex;
+		}
+		finally {
+			if (!chunkIndexUpdated) {
+				existingChunkIndex.close();
+			}
+		}
+	}
+
+	private ChunkIndex buildAndPersistChunkIndex(ChunkIndexState chunkIndexState) throws SQLException {
+		File tempChunkIndexFile = null;
+		ChunkIndex newChunkIndex = null;
+		boolean chunkIndexBuilt = false;
+
+		deleteStaleTemporaryChunkIndexFiles();
+
+		try {
+			logger.log(Level.INFO, "Building chunk index for " + chunkIndexState.chunkCount + " chunk(s) in " + chunkIndexFile + " ...");
+
+			tempChunkIndexFile = File.createTempFile(getTemporaryChunkIndexFilePrefix(), ".tmp", chunkIndexFile.getAbsoluteFile().getParentFile());
+			newChunkIndex = ChunkIndex.create(tempChunkIndexFile, chunkIndexState.maxChecksumLength, chunkIndexState.chunkCount
+					+ Math.max(CHUNK_INDEX_MIN_HEADROOM, chunkIndexState.chunkCount / 2));
+
+			fillChunkIndex(newChunkIndex, "chunk.select.all.loadChunkCache.sql", null);
+			newChunkIndex.commit(chunkIndexState.getStateKey());
+
+			chunkIndexBuilt = true;
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot write chunk index to " + chunkIndexFile + "; using in-memory chunk index.", e);
+			return null;
+		}
+		finally {
+			if (!chunkIndexBuilt) {
+				if (newChunkIndex != null) {
+					newChunkIndex.close();
+				}
+
+				if (tempChunkIndexFile != null) {
+					tempChunkIndexFile.delete();
+				}
+			}
+		}
+
+		try {
+			Files.move(tempChunkIndexFile.toPath(), chunkIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			// The new index is valid anyway, e.g. if the old index file is still mapped by another process;
+			// the temporary file is deleted when the cache is cleared, or by the next rebuild
+			logger.log(Level.WARNING, "Cannot replace chunk index " + chunkIndexFile + "; using temporary index file.", e);
+			temporaryChunkIndexFile = tempChunkIndexFile;
+		}
+
+		return newChunkIndex;
+	}
+
+	/**
+	 * Deletes temporary index files left behind by an earlier rebuild, e.g. if the
+	 * application was killed while building the index, or before the cache was cleared.
+	 */
+	private void deleteStaleTemporaryChunkIndexFiles() {
+		File[] staleChunkIndexFiles = chunkIndexFile.getAbsoluteFile().getParentFile().listFiles();
+
+		if (staleChunkIndexFiles != null) {
+			for (File staleChunkIndexFile : staleChunkIndexFiles) {
+				String fileName = staleChunkIndexFile.getName();
+
+				if (fileName.startsWith(getTemporaryChunkIndexFilePrefix()) && fileName.endsWith(".tmp")) {
+					logger.log(Level.INFO, "Deleting stale temporary chunk index " + staleChunkIndexFile + " ...");
+					staleChunkIndexFile.delete();
+				}
+			}
+		}
+	}
+
+	private String getTemporaryChunkIndexFilePrefix() {
+		return chunkIndexFile.getName() + "-";
+	}
+
+	private void fillChunkIndex(ChunkIndex targetChunkIndex, String resourceId, Long afterDatabaseVersionId) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement(resourceId)) {
+			if (afterDatabaseVersionId != null) {
+				preparedStatement.setLong(1, afterDatabaseVersionId);
+			}
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					targetChunkIndex.put(ChunkChecksum.parseChunkChecksum(resultSet.getString("checksum")).getBytes(), resultSet.getInt("size"));
+				}
+			}
+		}
+	}
+
+	private ChunkIndexState getChunkIndexState() throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.getChunkIndexState.sql")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+
+				ChunkIndexState chunkIndexState = new ChunkIndexState();
+
+				chunkIndexState.chunkCount = resultSet.getLong("chunkcount");
+				chunkIndexState.maxDatabaseVersionId = resultSet.getLong("maxdatabaseversionid");
+				chunkIndexState.totalSize = resultSet.getLong("totalsize");
+				chunkIndexState.maxChecksumLength = Math.max(1, resultSet.getInt("maxchecksumlength") / 2); // Hex!
+
+				return chunkIndexState;
+			}
+		}
+	}
+
 	/**
 	 * no commit
 	 */
@@ -185,4 +443,37 @@ public class ChunkSqlDao extends AbstractSqlDao {
 			throw new RuntimeException(e);
 		}		
 	}
+
+	private static class ChunkIndexState {
+		private long chunkCount;
+		private long maxDatabaseVersionId;
+		private long totalSize;
+		private int maxChecksumLength;
+
+		public String getStateKey() {
+			return chunkCount + "/" + maxDatabaseVersionId + "/" + totalSize + "/" + maxChecksumLength;
+		}
+
+		public static ChunkIndexState parseStateKey(String stateKey) {
+			String[] stateKeyParts = stateKey.split("/");
+
+			if (stateKeyParts.length != 4) {
+				return null;
+			}
+
+			try {
+				ChunkIndexState chunkIndexState = new ChunkIndexState();
+
+				chunkIndexState.chunkCount = Long.parseLong(stateKeyParts[0]);
+				chunkIndexState.maxDatabaseVersionId = Long.parseLong(stateKeyParts[1]);
+				chunkIndexState.totalSize = Long.parseLong(stateKeyParts[2]);
+				chunkIndexState.maxChecksumLength = Integer.parseInt(stateKeyParts[3]);
+
+				return chunkIndexState;
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
 }
@@ -0,0 +1,348 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import static org.syncany.database.dao.DatabaseBinaryWriter.BINARY_FORMAT_VERSION;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FLAG_CHECKSUM;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FLAG_DOS_ATTRIBUTES;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FLAG_LINK_TARGET;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FLAG_POSIX_PERMISSIONS;
+import static org.syncany.database.dao.DatabaseBinaryWriter.FLAG_UPDATED;
+import static org.syncany.database.dao.DatabaseBinaryWriter.MAGIC;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseVersionListener;
+
+/**
+ * This class is used by the {@link DatabaseXmlSerializer} to read a database file
+ * written by the {@link DatabaseBinaryWriter}. Database versions are read one by one
+ * from the stream and passed to the given {@link DatabaseVersionListener} -- large
+ * database versions optionally in several parts.
+ *
+ * <p>Like the {@link DatabaseXmlParseHandler}, the class can read either an entire file,
+ * or only the headers, and only selects database versions within the given vector clock
+ * range. The contents of database versions that are not needed are skipped without
+ * being parsed. Since all headers are stored in front of the contents, reading only the
+ * headers does not read (i.e. download-decrypt-decompress) the rest of the file.
+ *
+ * @see DatabaseBinaryWriter
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class DatabaseBinaryReader {
+	private static final Logger logger = Logger.getLogger(DatabaseBinaryReader.class.getSimpleName());
+
+	private DatabaseVersionListener listener;
+	private VectorClock versionFrom;
+	private VectorClock versionTo;
+	private DatabaseReadType readType;
+	private int maxPartSize;
+
+	private DatabaseVersion databaseVersionPart;
+	private int partSize;
+
+	public DatabaseBinaryReader(DatabaseVersionListener listener, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType,
+			int maxPartSize) {
+
+		this.listener = listener;
+		this.versionFrom = fromVersion;
+		this.versionTo = toVersion;
+		this.readType = readType;
+		this.maxPartSize = maxPartSize;
+	}
+
+	public void read(InputStream inputStream) throws IOException {
+		DataInputStream in = new DataInputStream(inputStream);
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Invalid binary database file: Magic number mismatch.");
+		}
+
+		int formatVersion = in.readInt();
+
+		if (formatVersion != BINARY_FORMAT_VERSION) {
+			throw new IOException("Unsupported binary database format version " + formatVersion + ", expected " + BINARY_FORMAT_VERSION);
+		}
+
+		readHeaderSectionAndContents(in);
+
+		// Reaching the end of the stream makes authenticated ciphers verify the file
+		if (readType == DatabaseReadType.FULL && in.read() != -1) {
+			throw new IOException("Invalid binary database file: Unexpected data after the last database version.");
+		}
+	}
+
+	/**
+	 * Reads the header section and, unless only headers are requested, the contents of
+	 * the database versions within the load range. For {@link DatabaseReadType#HEADER_ONLY},
+	 * the stream is not read beyond the header section.
+	 */
+	private void readHeaderSectionAndContents(DataInputStream in) throws IOException {
+		long databaseVersionCount = readVarLong(in);
+
+		List<DatabaseVersion> databaseVersions = new ArrayList<DatabaseVersion>();
+		List<Long> contentLengths = new ArrayList<Long>();
+
+		for (long i = 0; i < databaseVersionCount; i++) {
+			readVarLong(in); // Header length, not needed; headers are always read
+
+			databaseVersions.add(readDatabaseVersionHeader(in));
+			contentLengths.add(readVarLong(in));
+		}
+
+		for (int i = 0; i < databaseVersions.size(); i++) {
+			DatabaseVersion databaseVersion = databaseVersions.get(i);
+			boolean vectorClockInLoadRange = DatabaseXmlParseHandler.vectorClockInRange(databaseVersion.getVectorClock(), versionFrom, versionTo);
+
+			if (vectorClockInLoadRange) {
+				readContentsAndNotifyListener(in, databaseVersion);
+			}
+			else if (readType == DatabaseReadType.FULL) {
+				skipFully(in, contentLengths.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Reads the contents of the given database version (unless only headers are requested)
+	 * and passes it to the listener. If a maximum part size is set, the contents are passed
+	 * on in several parts while they are read.
+	 */
+	private void readContentsAndNotifyListener(DataInputStream in, DatabaseVersion databaseVersion) throws IOException {
+		databaseVersionPart = databaseVersion;
+		partSize = 0;
+
+		if (readType == DatabaseReadType.FULL) {
+			readChunks(in);
+			readMultiChunks(in);
+			readFileContents(in);
+			readFileHistories(in);
+		}
+
+		listener.onDatabaseVersionRead(databaseVersionPart, true);
+		logger.log(Level.INFO, "   + Added database version " + databaseVersion.getHeader());
+	}
+
+	private void entityAddedToPart() throws IOException {
+		if (maxPartSize > 0 && ++partSize >= maxPartSize) {
+			listener.onDatabaseVersionRead(databaseVersionPart, false);
+
+			DatabaseVersion nextDatabaseVersionPart = new DatabaseVersion();
+			nextDatabaseVersionPart.setHeader(databaseVersionPart.getHeader());
+
+			databaseVersionPart = nextDatabaseVersionPart;
+			partSize = 0;
+		}
+	}
+
+	private DatabaseVersion readDatabaseVersionHeader(DataInputStream in) throws IOException {
+		DatabaseVersion databaseVersion = new DatabaseVersion();
+
+		databaseVersion.setTimestamp(new Date(readVarLong(in)));
+		databaseVersion.setClient(readString(in));
+
+		VectorClock vectorClock = new VectorClock();
+		long vectorClockSize = readVarLong(in);
+
+		for (long i = 0; i < vectorClockSize; i++) {
+			String clientName = readString(in);
+			long clientValue = readVarLong(in);
+
+			vectorClock.setClock(clientName, clientValue);
+		}
+
+		databaseVersion.setVectorClock(vectorClock);
+
+		return databaseVersion;
+	}
+
+	private void readChunks(DataInputStream in) throws IOException {
+		long chunkCount = readVarLong(in);
+
+		for (long i = 0; i < chunkCount; i++) {
+			ChunkChecksum chunkChecksum = new ChunkChecksum(readBytes(in));
+			int chunkSize = (int) readVarLong(in);
+
+			databaseVersionPart.addChunk(new ChunkEntry(chunkChecksum, chunkSize));
+			entityAddedToPart();
+		}
+	}
+
+	private void readMultiChunks(DataInputStream in) throws IOException {
+		long multiChunkCount = readVarLong(in);
+
+		for (long i = 0; i < multiChunkCount; i++) {
+			MultiChunkId multiChunkId = new MultiChunkId(readBytes(in));
+			MultiChunkEntry multiChunk = new MultiChunkEntry(multiChunkId, readVarLong(in));
+
+			long chunkRefCount = readVarLong(in);
+
+			for (long j = 0; j < chunkRefCount; j++) {
+				multiChunk.addChunk(new ChunkChecksum(readBytes(in)));
+			}
+
+			databaseVersionPart.addMultiChunk(multiChunk);
+			entityAddedToPart();
+		}
+	}
+
+	private void readFileContents(DataInputStream in) throws IOException {
+		long fileContentCount = readVarLong(in);
+
+		for (long i = 0; i < fileContentCount; i++) {
+			FileContent fileContent = new FileContent();
+
+			fileContent.setChecksum(new FileChecksum(readBytes(in)));
+			fileContent.setSize(readVarLong(in));
+
+			long chunkRefCount = readVarLong(in);
+
+			for (long j = 0; j < chunkRefCount; j++) {
+				fileContent.addChunk(new ChunkChecksum(readBytes(in)));
+			}
+
+			databaseVersionPart.addFileContent(fileContent);
+			entityAddedToPart();
+		}
+	}
+
+	private void readFileHistories(DataInputStream in) throws IOException {
+		long fileHistoryCount = readVarLong(in);
+
+		for (long i = 0; i < fileHistoryCount; i++) {
+			PartialFileHistory fileHistory = new PartialFileHistory(new FileHistoryId(readBytes(in)));
+			long fileVersionCount = readVarLong(in);
+
+			for (long j = 0; j < fileVersionCount; j++) {
+				fileHistory.addFileVersion(readFileVersion(in));
+			}
+
+			// File history might be empty if file versions are ignored!
+			if (fileHistory.getFileVersions().size() > 0) {
+				databaseVersionPart.addFileHistory(fileHistory);
+				entityAddedToPart();
+			}
+		}
+	}
+
+	private FileVersion readFileVersion(DataInputStream in) throws IOException {
+		FileVersion fileVersion = new FileVersion();
+
+		fileVersion.setVersion(readVarLong(in));
+		fileVersion.setType(FileType.valueOf(readString(in)));
+		fileVersion.setStatus(FileStatus.valueOf(readString(in)));
+		fileVersion.setPath(readString(in));
+		fileVersion.setSize(readVarLong(in));
+		fileVersion.setLastModified(new Date(readVarLong(in)));
+
+		int flags = in.readUnsignedByte();
+
+		if ((flags & FLAG_LINK_TARGET) != 0) {
+			fileVersion.setLinkTarget(readString(in));
+		}
+
+		if ((flags & FLAG_UPDATED) != 0) {
+			fileVersion.setUpdated(new Date(readVarLong(in)));
+		}
+
+		if ((flags & FLAG_CHECKSUM) != 0) {
+			fileVersion.setChecksum(new FileChecksum(readBytes(in)));
+		}
+
+		if ((flags & FLAG_DOS_ATTRIBUTES) != 0) {
+			fileVersion.setDosAttributes(readString(in));
+		}
+
+		if ((flags & FLAG_POSIX_PERMISSIONS) != 0) {
+			fileVersion.setPosixPermissions(readString(in));
+		}
+
+		return fileVersion;
+	}
+
+	private byte[] readBytes(DataInputStream in) throws IOException {
+		long length = readVarLong(in);
+
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			throw new IOException("Invalid binary database file: Illegal field length " + length);
+		}
+
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+
+	private String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Invalid binary database file: Variable-length integer too long.");
+	}
+
+	private void skipFully(DataInputStream in, long length) throws IOException {
+		while (length > 0) {
+			long skipped = in.skip(length);
+
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException("Invalid binary database file: Unexpected end of file.");
+				}
+
+				skipped = 1;
+			}
+
+			length -= skipped;
+		}
+	}
+}
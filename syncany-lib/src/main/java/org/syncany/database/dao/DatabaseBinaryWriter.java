@@ -0,0 +1,300 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.ObjectId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.VectorClock;
+
+/**
+ * This class writes the given {@link DatabaseVersion}s to an {@link OutputStream} in
+ * a compact binary format. It is the binary counterpart of the {@link DatabaseXmlWriter},
+ * and files written by it are read by the {@link DatabaseBinaryReader}.
+ *
+ * <p>A file starts with a magic number and a format version, followed by a header section
+ * and a content section. The header section contains the number of database versions and,
+ * for each database version, the length-prefixed header (time, client, vector clock) and
+ * the length of its contents. The content section contains the contents (chunks, multichunks,
+ * file contents and file histories) of all database versions in the same order. Readers only
+ * interested in the headers can stop reading after the header section, and readers only
+ * interested in some database versions can skip the contents of the others.
+ *
+ * <p>Checksums and identifiers are stored as raw bytes, numbers as variable-length integers,
+ * and strings as length-prefixed UTF-8. Since the headers are written before the contents, the
+ * contents are buffered in a temporary file while the database versions are serialized.
+ *
+ * @see DatabaseXmlSerializer
+ * @see DatabaseBinaryReader
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class DatabaseBinaryWriter {
+	private static final Logger logger = Logger.getLogger(DatabaseBinaryWriter.class.getSimpleName());
+
+	static final int MAGIC = 0x53594442; // "SYDB"
+	static final int BINARY_FORMAT_VERSION = 1;
+
+	static final int FLAG_LINK_TARGET = 1;
+	static final int FLAG_UPDATED = 2;
+	static final int FLAG_CHECKSUM = 4;
+	static final int FLAG_DOS_ATTRIBUTES = 8;
+	static final int FLAG_POSIX_PERMISSIONS = 16;
+
+	private Iterator<DatabaseVersion> databaseVersions;
+	private DataOutputStream out;
+	private File tempDir;
+
+	public DatabaseBinaryWriter(Iterator<DatabaseVersion> databaseVersions, OutputStream out, File tempDir) {
+		this.databaseVersions = databaseVersions;
+		this.out = new DataOutputStream(out);
+		this.tempDir = tempDir;
+	}
+
+	public void write() throws IOException {
+		List<byte[]> headers = new ArrayList<byte[]>();
+		List<Long> contentLengths = new ArrayList<Long>();
+
+		File contentFile = File.createTempFile("database-contents-", ".tmp", tempDir);
+
+		try {
+			writeContentsAndCollectHeaders(contentFile, headers, contentLengths);
+
+			out.writeInt(MAGIC);
+			out.writeInt(BINARY_FORMAT_VERSION);
+
+			// Header section
+			writeVarLong(out, headers.size());
+
+			for (int i = 0; i < headers.size(); i++) {
+				writeVarLong(out, headers.get(i).length);
+				out.write(headers.get(i));
+				writeVarLong(out, contentLengths.get(i));
+			}
+
+			// Content section
+			Files.copy(contentFile.toPath(), out);
+
+			out.flush();
+			out.close();
+		}
+		finally {
+			contentFile.delete();
+		}
+	}
+
+	private void writeContentsAndCollectHeaders(File contentFile, List<byte[]> headers, List<Long> contentLengths) throws IOException {
+		// Buffers are re-used for all database versions
+		ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+		ByteArrayOutputStream contentBuffer = new ByteArrayOutputStream();
+
+		DataOutputStream headerOut = new DataOutputStream(headerBuffer);
+		DataOutputStream contentOut = new DataOutputStream(contentBuffer);
+
+		try (OutputStream contentFileOut = new BufferedOutputStream(new FileOutputStream(contentFile))) {
+			while (databaseVersions.hasNext()) {
+				DatabaseVersion databaseVersion = databaseVersions.next();
+
+				headerBuffer.reset();
+				contentBuffer.reset();
+
+				// Header, chunks, multichunks, file contents, and file histories
+				writeDatabaseVersionHeader(headerOut, databaseVersion);
+				writeChunks(contentOut, databaseVersion.getChunks());
+				writeMultiChunks(contentOut, databaseVersion.getMultiChunks());
+				writeFileContents(contentOut, databaseVersion.getFileContents());
+				writeFileHistories(contentOut, databaseVersion.getFileHistories());
+
+				headers.add(headerBuffer.toByteArray());
+				contentLengths.add((long) contentBuffer.size());
+
+				contentBuffer.writeTo(contentFileOut);
+			}
+		}
+	}
+
+	private void writeDatabaseVersionHeader(DataOutputStream out, DatabaseVersion databaseVersion) throws IOException {
+		if (databaseVersion.getTimestamp() == null || databaseVersion.getClient() == null
+				|| databaseVersion.getVectorClock() == null || databaseVersion.getVectorClock().isEmpty()) {
+
+			logger.log(Level.SEVERE, "Cannot write database version. Header fields must be filled: " + databaseVersion.getHeader());
+			throw new IOException("Cannot write database version. Header fields must be filled: " + databaseVersion.getHeader());
+		}
+
+		writeVarLong(out, databaseVersion.getTimestamp().getTime());
+		writeString(out, databaseVersion.getClient());
+
+		VectorClock vectorClock = databaseVersion.getVectorClock();
+		writeVarLong(out, vectorClock.size());
+
+		for (Map.Entry<String, Long> vectorClockEntry : vectorClock.entrySet()) {
+			writeString(out, vectorClockEntry.getKey());
+			writeVarLong(out, vectorClockEntry.getValue());
+		}
+	}
+
+	private void writeChunks(DataOutputStream out, Collection<ChunkEntry> chunks) throws IOException {
+		writeVarLong(out, chunks.size());
+
+		for (ChunkEntry chunk : chunks) {
+			writeObjectId(out, chunk.getChecksum());
+			writeVarLong(out, chunk.getSize());
+		}
+	}
+
+	private void writeMultiChunks(DataOutputStream out, Collection<MultiChunkEntry> multiChunks) throws IOException {
+		writeVarLong(out, multiChunks.size());
+
+		for (MultiChunkEntry multiChunk : multiChunks) {
+			writeObjectId(out, multiChunk.getId());
+			writeVarLong(out, multiChunk.getSize());
+			writeChunkRefs(out, multiChunk.getChunks());
+		}
+	}
+
+	private void writeFileContents(DataOutputStream out, Collection<FileContent> fileContents) throws IOException {
+		writeVarLong(out, fileContents.size());
+
+		for (FileContent fileContent : fileContents) {
+			writeObjectId(out, fileContent.getChecksum());
+			writeVarLong(out, fileContent.getSize());
+			writeChunkRefs(out, fileContent.getChunks());
+		}
+	}
+
+	private void writeChunkRefs(DataOutputStream out, Collection<ChunkChecksum> chunkChecksums) throws IOException {
+		writeVarLong(out, chunkChecksums.size());
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			writeObjectId(out, chunkChecksum);
+		}
+	}
+
+	private void writeFileHistories(DataOutputStream out, Collection<PartialFileHistory> fileHistories) throws IOException {
+		writeVarLong(out, fileHistories.size());
+
+		for (PartialFileHistory fileHistory : fileHistories) {
+			writeObjectId(out, fileHistory.getFileHistoryId());
+
+			Collection<FileVersion> fileVersions = fileHistory.getFileVersions().values();
+			writeVarLong(out, fileVersions.size());
+
+			for (FileVersion fileVersion : fileVersions) {
+				writeFileVersion(out, fileVersion);
+			}
+		}
+	}
+
+	private void writeFileVersion(DataOutputStream out, FileVersion fileVersion) throws IOException {
+		if (fileVersion.getVersion() == null || fileVersion.getType() == null || fileVersion.getPath() == null
+				|| fileVersion.getStatus() == null || fileVersion.getSize() == null || fileVersion.getLastModified() == null) {
+
+			throw new IOException("Unable to write file version, because one or many mandatory fields are null (version, type, path, name, status, size, last modified): " + fileVersion);
+		}
+
+		if (fileVersion.getType() == FileType.SYMLINK && fileVersion.getLinkTarget() == null) {
+			throw new IOException("Unable to write file version: All symlinks must have a target.");
+		}
+
+		int flags = 0;
+
+		flags |= (fileVersion.getLinkTarget() != null) ? FLAG_LINK_TARGET : 0;
+		flags |= (fileVersion.getUpdated() != null) ? FLAG_UPDATED : 0;
+		flags |= (fileVersion.getChecksum() != null) ? FLAG_CHECKSUM : 0;
+		flags |= (fileVersion.getDosAttributes() != null) ? FLAG_DOS_ATTRIBUTES : 0;
+		flags |= (fileVersion.getPosixPermissions() != null) ? FLAG_POSIX_PERMISSIONS : 0;
+
+		writeVarLong(out, fileVersion.getVersion());
+		writeString(out, fileVersion.getType().toString());
+		writeString(out, fileVersion.getStatus().toString());
+		writeString(out, fileVersion.getPath());
+		writeVarLong(out, fileVersion.getSize());
+		writeVarLong(out, fileVersion.getLastModified().getTime());
+		out.write(flags);
+
+		if (fileVersion.getLinkTarget() != null) {
+			writeString(out, fileVersion.getLinkTarget());
+		}
+
+		if (fileVersion.getUpdated() != null) {
+			writeVarLong(out, fileVersion.getUpdated().getTime());
+		}
+
+		if (fileVersion.getChecksum() != null) {
+			writeObjectId(out, fileVersion.getChecksum());
+		}
+
+		if (fileVersion.getDosAttributes() != null) {
+			writeString(out, fileVersion.getDosAttributes());
+		}
+
+		if (fileVersion.getPosixPermissions() != null) {
+			writeString(out, fileVersion.getPosixPermissions());
+		}
+	}
+
+	private void writeObjectId(DataOutputStream out, ObjectId objectId) throws IOException {
+		byte[] objectIdBytes = objectId.getBytes();
+
+		writeVarLong(out, objectIdBytes.length);
+		out.write(objectIdBytes);
+	}
+
+	private void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
+
+		writeVarLong(out, strBytes.length);
+		out.write(strBytes);
+	}
+
+	/**
+	 * Writes a long as variable-length integer: 7 bits per byte, least significant
+	 * group first, with the high bit set on all but the last byte. Small non-negative
+	 * numbers (sizes, counts, version numbers) take only one or two bytes.
+	 */
+	private void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		out.write((int) value);
+	}
+}
@@ -119,16 +119,39 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Writes the chunks, multichunks, file contents and file histories of the given part of a
+	 * database version, and attaches them to the already written database version with the given
+	 * identifier. This is used to persist a very large database version piece by piece, after
+	 * its first part has been written using {@link #writeDatabaseVersion(DatabaseVersion)}.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the queries.
+	 */
+	public void writeDatabaseVersionPart(long databaseVersionId, DatabaseVersion databaseVersionPart) {
+		try {
+			writeDatabaseVersionContents(connection, databaseVersionId, databaseVersionPart);
+			clearCaches();
+		}
+		catch (Exception e) {
+			logger.log(Level.SEVERE, "SQL Error: ", e);
+
+			throw new RuntimeException("Cannot persist database.", e);
+		}
+	}
+
 	private long writeDatabaseVersion(Connection connection, DatabaseVersion databaseVersion) throws SQLException {
 		long databaseVersionId = writeDatabaseVersionHeaderInternal(connection, databaseVersion.getHeader()); // TODO [low] Use writeDatabaseVersion()?
 		writeVectorClock(connection, databaseVersionId, databaseVersion.getHeader().getVectorClock());
+		writeDatabaseVersionContents(connection, databaseVersionId, databaseVersion);
+
+		return databaseVersionId;
+	}
 
+	private void writeDatabaseVersionContents(Connection connection, long databaseVersionId, DatabaseVersion databaseVersion) throws SQLException {
 		chunkDao.writeChunks(connection, databaseVersionId, databaseVersion.getChunks());
 		multiChunkDao.writeMultiChunks(connection, databaseVersionId, databaseVersion.getMultiChunks());
 		fileContentDao.writeFileContents(connection, databaseVersionId, databaseVersion.getFileContents());
 		fileHistoryDao.writeFileHistories(connection, databaseVersionId, databaseVersion.getFileHistories());
-
-		return databaseVersionId;
 	}
 
 	private long writeDatabaseVersionHeaderInternal(Connection connection, DatabaseVersionHeader databaseVersionHeader) throws SQLException {
@@ -17,6 +17,7 @@
  */
 package org.syncany.database.dao;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
 import java.util.logging.Level;
@@ -31,7 +32,6 @@ import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion;
 import org.syncany.database.FileVersion.FileStatus;
 import org.syncany.database.FileVersion.FileType;
-import org.syncany.database.MemoryDatabase;
 import org.syncany.database.MultiChunkEntry;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.PartialFileHistory;
@@ -39,6 +39,7 @@ import org.syncany.database.PartialFileHistory.FileHistoryId;
 import org.syncany.database.VectorClock;
 import org.syncany.database.VectorClock.VectorClockComparison;
 import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseVersionListener;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -50,7 +51,8 @@ import org.xml.sax.helpers.DefaultHandler;
  * 
  * <p>The class can read either an entire file into memory, or only parts of it --
  * excluding contents (headers only) or only selecting certain database version 
- * types (DEFAULT or PURGE).
+ * types (DEFAULT or PURGE). Database versions are passed to a {@link DatabaseVersionListener}
+ * when they have been read -- large database versions optionally in several parts.
  *  
  * @see DatabaseXmlSerializer
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
@@ -58,10 +60,11 @@ import org.xml.sax.helpers.DefaultHandler;
 public class DatabaseXmlParseHandler extends DefaultHandler {
 	private static final Logger logger = Logger.getLogger(DatabaseXmlParseHandler.class.getSimpleName());
 
-	private MemoryDatabase database;
+	private DatabaseVersionListener listener;
 	private VectorClock versionFrom;
 	private VectorClock versionTo;
 	private DatabaseReadType readType;
+	private int maxPartSize;
 
 	private String elementPath;
 	private DatabaseVersion databaseVersion;
@@ -70,13 +73,17 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 	private FileContent fileContent;
 	private MultiChunkEntry multiChunk;
 	private PartialFileHistory fileHistory;
+	private int partSize;
+
+	public DatabaseXmlParseHandler(DatabaseVersionListener listener, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType,
+			int maxPartSize) {
 
-	public DatabaseXmlParseHandler(MemoryDatabase database, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType) {
 		this.elementPath = "";
-		this.database = database;
+		this.listener = listener;
 		this.versionFrom = fromVersion;
 		this.versionTo = toVersion;
 		this.readType = readType;
+		this.maxPartSize = maxPartSize;
 	}
 
 	@Override
@@ -111,6 +118,8 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 
 				ChunkEntry chunkEntry = new ChunkEntry(chunkChecksum, chunkSize);
 				databaseVersion.addChunk(chunkEntry);
+
+				entityAddedToPart();
 			}
 			else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/fileContents/fileContent")) {
 				String checksumStr = attributes.getValue("checksum");
@@ -221,7 +230,7 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 	public void endElement(String uri, String localName, String qName) throws SAXException {
 		if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion")) {
 			if (vectorClockInLoadRange) {
-				database.addDatabaseVersion(databaseVersion);
+				notifyListener(databaseVersion, true);
 				logger.log(Level.INFO, "   + Added database version " + databaseVersion.getHeader());
 			}
 			else {
@@ -231,6 +240,7 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 
 			databaseVersion = null;
 			vectorClockInLoadRange = true;
+			partSize = 0;
 		}
 		else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/header/vectorClock")) {
 			vectorClockInLoadRange = vectorClockInRange(vectorClock, versionFrom, versionTo);
@@ -242,15 +252,20 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 			if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/fileContents/fileContent")) {
 				databaseVersion.addFileContent(fileContent);
 				fileContent = null;
+
+				entityAddedToPart();
 			}
 			else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/multiChunks/multiChunk")) {
 				databaseVersion.addMultiChunk(multiChunk);
 				multiChunk = null;
+
+				entityAddedToPart();
 			}
 			else if (elementPath.equalsIgnoreCase("/database/databaseVersions/databaseVersion/fileHistories/fileHistory")) {
 				// File history might be empty if file versions are ignored!
 				if (fileHistory.getFileVersions().size() > 0) {
 					databaseVersion.addFileHistory(fileHistory);
+					entityAddedToPart();
 				}
 
 				fileHistory = null;
@@ -268,7 +283,33 @@ public class DatabaseXmlParseHandler extends DefaultHandler {
 		// Nothing
 	}
 
-	private boolean vectorClockInRange(VectorClock vectorClock, VectorClock vectorClockRangeFrom, VectorClock vectorClockRangeTo) {
+	/**
+	 * Passes the current part of the database version to the listener if it has reached
+	 * the maximum part size, and continues with an empty part with the same header. Database
+	 * versions outside the load range are never passed to the listener, so they are not split.
+	 */
+	private void entityAddedToPart() throws SAXException {
+		if (maxPartSize > 0 && vectorClockInLoadRange && ++partSize >= maxPartSize) {
+			notifyListener(databaseVersion, false);
+
+			DatabaseVersion nextDatabaseVersionPart = new DatabaseVersion();
+			nextDatabaseVersionPart.setHeader(databaseVersion.getHeader());
+
+			databaseVersion = nextDatabaseVersionPart;
+			partSize = 0;
+		}
+	}
+
+	private void notifyListener(DatabaseVersion databaseVersionPart, boolean lastPart) throws SAXException {
+		try {
+			listener.onDatabaseVersionRead(databaseVersionPart, lastPart);
+		}
+		catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	static boolean vectorClockInRange(VectorClock vectorClock, VectorClock vectorClockRangeFrom, VectorClock vectorClockRangeTo) {
 		// Determine if: versionFrom < databaseVersion
 		boolean greaterOrEqualToVersionFrom = false;
 
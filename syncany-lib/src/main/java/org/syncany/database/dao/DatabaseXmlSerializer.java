@@ -17,11 +17,16 @@
  */
 package org.syncany.database.dao;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Iterator;
@@ -40,17 +45,21 @@ import org.syncany.database.VectorClock;
 
 /**
  * Serializes a {@link MemoryDatabase} or a list of {@link DatabaseVersion}s to an 
- * XML-based file format, using a {@link Transformer} to compress/encrypt the file 
+ * XML-based or binary file format, using a {@link Transformer} to compress/encrypt the file 
  * before writing, and to decompress/decrypt it before reading.
  * 
  * <p>The class offers a variety of <code>save()</code> to serialize and store a memory
  * database to a file, and several <code>load()</code> methods to load them from disk.
  * 
- * <p>It uses a {@link DatabaseXmlWriter} to write XML files to disk and 
- * {@link DatabaseXmlParseHandler} to parse them while reading. 
+ * <p>Depending on the {@link DatabaseFormat}, it uses a {@link DatabaseXmlWriter} or a 
+ * {@link DatabaseBinaryWriter} to write files to disk. When reading, the format is detected
+ * from the file itself, and the file is parsed by the {@link DatabaseXmlParseHandler} or the
+ * {@link DatabaseBinaryReader}. That way, repositories can contain files of both formats.
  * 
  * @see DatabaseXmlParseHandler
  * @see DatabaseXmlWriter
+ * @see DatabaseBinaryReader
+ * @see DatabaseBinaryWriter
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class DatabaseXmlSerializer {
@@ -60,14 +69,40 @@ public class DatabaseXmlSerializer {
 		FULL, HEADER_ONLY
 	}
 
+	/**
+	 * Format of written database files. XML is the default and can be read by all
+	 * clients; BINARY is more compact and faster to read, but requires clients that
+	 * support it. Reading does not depend on this setting.
+	 */
+	public enum DatabaseFormat {
+		XML, BINARY
+	}
+
+	/**
+	 * Receives the {@link DatabaseVersion}s read from a database file. If a maximum part size
+	 * is given when loading, large database versions are passed to the listener in several parts.
+	 * All parts of a database version share its header, and together they contain all of its
+	 * chunks, multichunks, file contents and file histories -- in this order. A part therefore
+	 * never references entities of a later part of the same database version.
+	 */
+	public interface DatabaseVersionListener {
+		public void onDatabaseVersionRead(DatabaseVersion databaseVersionPart, boolean lastPart) throws IOException;
+	}
+
 	private Transformer transformer;
+	private DatabaseFormat format;
 
 	public DatabaseXmlSerializer() {
 		this(null);
 	}
 
 	public DatabaseXmlSerializer(Transformer transformer) {
+		this(transformer, DatabaseFormat.XML);
+	}
+
+	public DatabaseXmlSerializer(Transformer transformer, DatabaseFormat format) {
 		this.transformer = transformer;
+		this.format = format;
 	}
 
 	public void save(List<DatabaseVersion> databaseVersions, File destinationFile) throws IOException {
@@ -75,29 +110,53 @@ public class DatabaseXmlSerializer {
 	}
 
 	public void save(Iterator<DatabaseVersion> databaseVersions, File destinationFile) throws IOException {
-		try {
-			PrintWriter out;
+		OutputStream os;
 
-			if (transformer == null) {
-				out = new PrintWriter(new OutputStreamWriter(
-						new FileOutputStream(destinationFile), "UTF-8"));
-			}
-			else {
-				out = new PrintWriter(new OutputStreamWriter(
-						transformer.createOutputStream(new FileOutputStream(destinationFile)), "UTF-8"));
-			}
+		if (transformer == null) {
+			os = new FileOutputStream(destinationFile);
+		}
+		else {
+			os = transformer.createOutputStream(new FileOutputStream(destinationFile));
+		}
 
-			// Initialize XML writer
-			new DatabaseXmlWriter(databaseVersions, out).write();
+		if (format == DatabaseFormat.BINARY) {
+			File tempDir = destinationFile.getAbsoluteFile().getParentFile();
+			new DatabaseBinaryWriter(databaseVersions, new BufferedOutputStream(os), tempDir).write();
 		}
-		catch (XMLStreamException e) {
-			throw new IOException(e);
+		else {
+			try {
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(os, "UTF-8"));
+
+				// Initialize XML writer
+				new DatabaseXmlWriter(databaseVersions, out).write();
+			}
+			catch (XMLStreamException e) {
+				throw new IOException(e);
+			}
 		}
 	}
 
-	public void load(MemoryDatabase db, File databaseFile, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType)
+	public void load(final MemoryDatabase db, File databaseFile, VectorClock fromVersion, VectorClock toVersion, DatabaseReadType readType)
 			throws IOException {
-		
+
+		load(new DatabaseVersionListener() {
+			@Override
+			public void onDatabaseVersionRead(DatabaseVersion databaseVersion, boolean lastPart) {
+				db.addDatabaseVersion(databaseVersion);
+			}
+		}, databaseFile, fromVersion, toVersion, readType, 0);
+	}
+
+	/**
+	 * Reads the database versions within the given range from the given file and passes them
+	 * to the listener, instead of collecting them in a {@link MemoryDatabase}. If <code>maxPartSize</code>
+	 * is greater than zero, database versions with more entities (chunks, multichunks, file contents
+	 * and file histories) are split into parts of at most this size, so that callers can process
+	 * (and forget) a very large database version piece by piece.
+	 */
+	public void load(DatabaseVersionListener listener, File databaseFile, VectorClock fromVersion, VectorClock toVersion,
+			DatabaseReadType readType, int maxPartSize) throws IOException {
+
 		InputStream is;
 
 		if (transformer == null) {
@@ -107,17 +166,65 @@ public class DatabaseXmlSerializer {
 			is = transformer.createInputStream(new FileInputStream(databaseFile));
 		}
 
+		is = new BufferedInputStream(is);
+
 		try {
-			logger.log(Level.INFO, "- Loading database ({0}) from file {1} ...", new Object[] { readType, databaseFile });
+			if (isBinaryDatabase(is)) {
+				logger.log(Level.INFO, "- Loading binary database ({0}) from file {1} ...", new Object[] { readType, databaseFile });
+				new DatabaseBinaryReader(listener, fromVersion, toVersion, readType, maxPartSize).read(is);
+			}
+			else {
+				logger.log(Level.INFO, "- Loading database ({0}) from file {1} ...", new Object[] { readType, databaseFile });
 
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			SAXParser saxParser = factory.newSAXParser();
+				SAXParserFactory factory = SAXParserFactory.newInstance();
+				SAXParser saxParser = factory.newSAXParser();
 
-			saxParser.parse(is, new DatabaseXmlParseHandler(db, fromVersion, toVersion, readType));
+				saxParser.parse(is, new DatabaseXmlParseHandler(listener, fromVersion, toVersion, readType, maxPartSize));
+			}
 		}
 		catch (Exception e) {
 			throw new IOException(e);
 		}
+		finally {
+			closeAfterRead(is, readType);
+		}
+	}
+
+	/**
+	 * Closes the input stream of a database file after reading it. Header-only reads of binary
+	 * database files stop after the header section. If the file is encrypted, the authenticated
+	 * cipher fails to verify the unread rest of the file when the stream is closed early. Errors
+	 * are therefore ignored for header-only reads. Full reads always read (and verify) the entire file.
+	 */
+	private void closeAfterRead(InputStream is, DatabaseReadType readType) throws IOException {
+		try {
+			is.close();
+		}
+		catch (IOException e) {
+			if (readType == DatabaseReadType.FULL) {
+				throw e;
+			}
+
+			logger.log(Level.FINE, "Ignoring error when closing partially read database file.", e);
+		}
+	}
+
+	/**
+	 * Peeks at the first bytes of the given stream to determine whether it
+	 * contains a binary database file. The stream is reset afterwards.
+	 */
+	private boolean isBinaryDatabase(InputStream is) throws IOException {
+		is.mark(4);
+
+		try {
+			return new DataInputStream(is).readInt() == DatabaseBinaryWriter.MAGIC;
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		finally {
+			is.reset();
+		}
 	}
 
 }
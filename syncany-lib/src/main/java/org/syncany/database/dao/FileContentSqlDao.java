@@ -21,8 +21,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.syncany.database.ChunkEntry.ChunkChecksum;
@@ -109,6 +111,73 @@ public class FileContentSqlDao extends AbstractSqlDao {
 		removeUnreferencedFileContentsInt();
 	}
 	
+	/**
+	 * Removes the given {@link FileContent}s and their chunk references from the database,
+	 * if they are not referenced by any file version anymore. Unlike {@link #removeUnreferencedFileContents()},
+	 * this method only checks the given file contents instead of the entire tables.
+	 * 
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query.
+	 * 
+	 * @param fileChecksums Checksums of the file contents that might be unreferenced
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void removeUnreferencedFileContents(Collection<FileChecksum> fileChecksums) throws SQLException {
+		if (fileChecksums.size() > 0) {
+			String[] fileChecksumsStr = createChecksumsArray(fileChecksums);
+			
+			// Note: Chunk references (filcontent_chunk) must be removed first, because
+			//       of the foreign key constraints. 
+			
+			try (PreparedStatement preparedStatement = getStatement("filecontent.delete.all.removeUnreferencedFileContentRefsByChecksums.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", fileChecksumsStr));
+				preparedStatement.executeUpdate();
+			}
+			
+			try (PreparedStatement preparedStatement = getStatement("filecontent.delete.all.removeUnreferencedFileContentsByChecksums.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", fileChecksumsStr));
+				preparedStatement.executeUpdate();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the checksums of all chunks referenced by the given {@link FileContent}s.
+	 * 
+	 * @param fileChecksums Checksums of the file contents 
+	 * @return Returns the distinct chunk checksums of the file contents
+	 */
+	public List<ChunkChecksum> getChunkChecksums(Collection<FileChecksum> fileChecksums) {
+		List<ChunkChecksum> chunkChecksums = new ArrayList<ChunkChecksum>();
+		
+		if (fileChecksums.size() > 0) {
+			try (PreparedStatement preparedStatement = getStatement("filecontent.select.all.getChunkChecksumsForFileContents.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", createChecksumsArray(fileChecksums)));
+	
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					while (resultSet.next()) {
+						chunkChecksums.add(ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum")));
+					}
+				}
+			}
+			catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		return chunkChecksums;
+	}
+	
+	private String[] createChecksumsArray(Collection<FileChecksum> fileChecksums) {
+		String[] fileChecksumsStr = new String[fileChecksums.size()];
+		int i = 0;
+		
+		for (FileChecksum fileChecksum : fileChecksums) {
+			fileChecksumsStr[i++] = fileChecksum.toString();
+		}
+		
+		return fileChecksumsStr;
+	}
+	
 	private void removeUnreferencedFileContentsInt() throws SQLException {
 		PreparedStatement preparedStatement = getStatement("filecontent.delete.all.removeUnreferencedFileContents.sql");
 		preparedStatement.executeUpdate();	
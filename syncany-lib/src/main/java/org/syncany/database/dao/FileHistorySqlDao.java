@@ -103,6 +103,28 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 			preparedStatement.executeUpdate();
 		}
 	}
+
+	/**
+	 * Removes the given {@link PartialFileHistory}s from the database table <i>filehistory</i>,
+	 * if they are not referenced by any {@link FileVersion} anymore. Unlike
+	 * {@link #removeUnreferencedFileHistories()}, this method only checks the given
+	 * file histories instead of the entire table.
+	 *
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query.
+	 *
+	 * @param fileHistoryIds Identifiers of the file histories that might be unreferenced
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void removeUnreferencedFileHistories(Collection<FileHistoryId> fileHistoryIds) throws SQLException {
+		if (fileHistoryIds.size() > 0) {
+			String[] fileHistoryIdsStr = createFileHistoryIdsArray(new ArrayList<FileHistoryId>(fileHistoryIds));
+
+			try (PreparedStatement preparedStatement = getStatement("filehistory.delete.all.removeUnreferencedFileHistoriesByIds.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", fileHistoryIdsStr));
+				preparedStatement.executeUpdate();
+			}
+		}
+	}
 	
 	/**
 	 * Note: Also selects versions marked as {@link DatabaseVersionStatus#DIRTY DIRTY}
@@ -268,6 +290,15 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Returns the given file history with only its last file version, or <code>null</code>
+	 * if the file history does not exist. Only {@link DatabaseVersionStatus#MASTER MASTER}
+	 * database versions are considered.
+	 */
+	public PartialFileHistory getFileHistoryWithLastVersion(FileHistoryId fileHistoryId) {
+		return getLastVersionByFileHistoryId(fileHistoryId.toString());
+	}
+
 	private PartialFileHistory getLastVersionByFileHistoryId(String fileHistoryId) {
 		try (PreparedStatement preparedStatement = getStatement("filehistory.select.master.getLastVersionByFileHistoryId.sql")) {
 			preparedStatement.setString(1, fileHistoryId);
@@ -348,25 +379,52 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 	}
 
 	public List<PartialFileHistory> getFileHistoriesWithLastVersion() {
-		List<PartialFileHistory> fileHistories = new ArrayList<PartialFileHistory>();
-
 		try (PreparedStatement preparedStatement = getStatement("filehistory.select.master.getFileHistoriesWithLastVersion.sql")) {
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
-				while (resultSet.next()) {
-					FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
-					FileVersion lastFileVersion = fileVersionDao.createFileVersionFromRow(resultSet);
+				return createFileHistoriesWithLastVersionFromResult(resultSet);
+			}
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-					PartialFileHistory fileHistory = new PartialFileHistory(fileHistoryId);
-					fileHistory.addFileVersion(lastFileVersion);
+	/**
+	 * Returns the file histories with the given identifiers, each with only its last
+	 * file version. Identifiers not known to the local database are ignored.
+	 */
+	public List<PartialFileHistory> getFileHistoriesWithLastVersion(List<FileHistoryId> fileHistoryIds) {
+		if (fileHistoryIds.isEmpty()) {
+			return new ArrayList<PartialFileHistory>();
+		}
 
-					fileHistories.add(fileHistory);
-				}
-			}
+		String[] fileHistoryIdsStr = createFileHistoryIdsArray(fileHistoryIds);
+
+		try (PreparedStatement preparedStatement = getStatement("filehistory.select.master.getFileHistoriesWithLastVersionByIds.sql")) {
+			preparedStatement.setArray(1, connection.createArrayOf("varchar", fileHistoryIdsStr));
 
-			return fileHistories;
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return createFileHistoriesWithLastVersionFromResult(resultSet);
+			}
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
+
+	private List<PartialFileHistory> createFileHistoriesWithLastVersionFromResult(ResultSet resultSet) throws SQLException {
+		List<PartialFileHistory> fileHistories = new ArrayList<PartialFileHistory>();
+
+		while (resultSet.next()) {
+			FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
+			FileVersion lastFileVersion = fileVersionDao.createFileVersionFromRow(resultSet);
+
+			PartialFileHistory fileHistory = new PartialFileHistory(fileHistoryId);
+			fileHistory.addFileVersion(lastFileVersion);
+
+			fileHistories.add(fileHistory);
+		}
+
+		return fileHistories;
+	}
 }
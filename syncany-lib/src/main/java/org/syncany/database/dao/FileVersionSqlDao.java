@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -145,6 +146,33 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Returns the checksums of the file contents referenced by the given file versions
+	 * and by all of their previous versions, i.e. the file contents that might become unused
+	 * when the versions are removed with {@link #removeFileVersions(Map) removeFileVersions()}.
+	 */
+	public Set<FileChecksum> getFileContentChecksumsUpToVersion(Map<FileHistoryId, FileVersion> fileVersions) {
+		Set<FileChecksum> fileContentChecksums = new HashSet<FileChecksum>();
+
+		try (PreparedStatement preparedStatement = getStatement("fileversion.select.all.getFileContentChecksumsUpToVersion.sql")) {
+			for (Map.Entry<FileHistoryId, FileVersion> fileVersionEntry : fileVersions.entrySet()) {
+				preparedStatement.setString(1, fileVersionEntry.getKey().toString());
+				preparedStatement.setLong(2, fileVersionEntry.getValue().getVersion());
+
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					while (resultSet.next()) {
+						fileContentChecksums.add(FileChecksum.parseFileChecksum(resultSet.getString("filecontent_checksum")));
+					}
+				}
+			}
+
+			return fileContentChecksums;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public void removeSpecificFileVersions(Map<FileHistoryId, List<FileVersion>> purgeFileVersions) throws SQLException {
 		if (purgeFileVersions.size() > 0) {
 			try (PreparedStatement preparedStatement = getStatement(connection, "fileversion.delete.all.removeSpecificFileVersionsByIds.sql")) {
@@ -189,6 +217,146 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Queries the database for the last (non-deleted) file versions of the given paths. This is
+	 * a subset of {@link #getCurrentFileTree()}: Paths that are not part of the current file tree
+	 * are not contained in the returned map.
+	 *
+	 * @param paths Relative paths of the file versions to select
+	 * @return Returns a map of relative paths to {@link FileVersion} objects
+	 */
+	public Map<String, FileVersion> getCurrentFileTree(Collection<String> paths) {
+		Map<String, FileVersion> fileTree = new TreeMap<>();
+
+		if (paths.isEmpty()) {
+			return fileTree;
+		}
+
+		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getCurrentFileTreeByPaths.sql")) {
+			preparedStatement.setArray(1, connection.createArrayOf("varchar", paths.toArray(new String[0])));
+
+			for (FileVersion fileVersion : getFileTree(preparedStatement)) {
+				fileTree.put(fileVersion.getPath(), fileVersion);
+			}
+
+			return fileTree;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Queries the database for the last (non-deleted) file versions of the given path and of all
+	 * paths below it, i.e. for the current file tree of a sub-folder (including the folder itself).
+	 *
+	 * @param path Relative path of a file or folder
+	 * @return Returns a map of relative paths to {@link FileVersion} objects
+	 */
+	public Map<String, FileVersion> getCurrentFileSubtree(String path) {
+		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getCurrentFileTreeByPathPrefix.sql")) {
+			Map<String, FileVersion> fileTree = new TreeMap<>();
+
+			preparedStatement.setString(1, path);
+			preparedStatement.setString(2, path + "/");
+			preparedStatement.setString(3, path + "0");
+
+			for (FileVersion fileVersion : getFileTree(preparedStatement)) {
+				fileTree.put(fileVersion.getPath(), fileVersion);
+			}
+
+			return fileTree;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns a key identifying the current state of the (master) file versions. The key changes
+	 * whenever file versions are added or removed, and can be used to validate data derived from
+	 * the current file tree (such as the scan state index).
+	 *
+	 * @see #getPathsChangedSince(String)
+	 */
+	public String getFileTreeStateKey() {
+		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getFileTreeState.sql")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+
+				FileTreeState fileTreeState = new FileTreeState();
+
+				fileTreeState.fileVersionCount = resultSet.getLong("fileversioncount");
+				fileTreeState.maxDatabaseVersionId = resultSet.getLong("maxdatabaseversionid");
+
+				if (resultSet.wasNull()) {
+					fileTreeState.maxDatabaseVersionId = -1; // Database version IDs start at 0
+				}
+
+				fileTreeState.databaseVersionIdSum = resultSet.getLong("databaseversionidsum");
+				fileTreeState.versionSum = resultSet.getLong("versionsum");
+
+				return fileTreeState.getStateKey();
+			}
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Determines the paths that might have been affected by file versions that were added to the
+	 * database after the given state (see {@link #getFileTreeStateKey()}). For every file history
+	 * that was changed, the current and all of its previous paths are returned.
+	 *
+	 * <p>This only works if file versions have been added since the given state. If file versions
+	 * of the old state have been removed or altered (e.g. by a cleanup), <code>null</code> is returned.
+	 *
+	 * @param oldStateKey State key of a previous file tree state
+	 * @return Returns the affected paths, or <code>null</code> if they cannot be determined
+	 */
+	public Set<String> getPathsChangedSince(String oldStateKey) {
+		FileTreeState oldFileTreeState = FileTreeState.parseStateKey(oldStateKey);
+
+		if (oldFileTreeState == null) {
+			return null;
+		}
+
+		try {
+			try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getFileTreeStateUpToDatabaseVersion.sql")) {
+				preparedStatement.setLong(1, oldFileTreeState.maxDatabaseVersionId);
+
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					resultSet.next();
+
+					if (resultSet.getLong("fileversioncount") != oldFileTreeState.fileVersionCount
+							|| resultSet.getLong("databaseversionidsum") != oldFileTreeState.databaseVersionIdSum
+							|| resultSet.getLong("versionsum") != oldFileTreeState.versionSum) {
+
+						return null;
+					}
+				}
+			}
+
+			try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getPathsChangedAfterDatabaseVersion.sql")) {
+				preparedStatement.setLong(1, oldFileTreeState.maxDatabaseVersionId);
+
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					Set<String> changedPaths = new HashSet<String>();
+
+					while (resultSet.next()) {
+						changedPaths.add(resultSet.getString("path"));
+					}
+
+					return changedPaths;
+				}
+			}
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public List<FileVersion> getFileHistory(FileHistoryId fileHistoryId) {
 		try (PreparedStatement preparedStatement = getStatement("fileversion.select.master.getFileHistoryById.sql")) {
 			preparedStatement.setString(1, fileHistoryId.toString());
@@ -431,4 +599,37 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 	}
 
 
+
+	private static class FileTreeState {
+		private long fileVersionCount;
+		private long maxDatabaseVersionId;
+		private long databaseVersionIdSum;
+		private long versionSum;
+
+		public String getStateKey() {
+			return fileVersionCount + "/" + maxDatabaseVersionId + "/" + databaseVersionIdSum + "/" + versionSum;
+		}
+
+		public static FileTreeState parseStateKey(String stateKey) {
+			String[] stateKeyParts = stateKey.split("/");
+
+			if (stateKeyParts.length != 4) {
+				return null;
+			}
+
+			try {
+				FileTreeState fileTreeState = new FileTreeState();
+
+				fileTreeState.fileVersionCount = Long.parseLong(stateKeyParts[0]);
+				fileTreeState.maxDatabaseVersionId = Long.parseLong(stateKeyParts[1]);
+				fileTreeState.databaseVersionIdSum = Long.parseLong(stateKeyParts[2]);
+				fileTreeState.versionSum = Long.parseLong(stateKeyParts[3]);
+
+				return fileTreeState;
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
 }
@@ -0,0 +1,430 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.LookupStore;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.SortedKeyValueStore;
+
+/**
+ * The key-value lookup store answers lookups from two persisted {@link SortedKeyValueStore}s
+ * next to the local database, instead of querying the SQL database:
+ * 
+ * <ul>
+ *  <li>The <b>multichunk store</b> maps chunk checksums to the identifier of the multichunk
+ *      containing the chunk (see {@link #getMultiChunkId(ChunkChecksum) getMultiChunkId()}).</li>
+ *  <li>The <b>path store</b> maps the paths of the current file tree to the identifier of the file
+ *      history that {@link FileHistorySqlDao#getFileHistoryWithLastVersionByPath(String) getFileHistoryWithLastVersionByPath()}
+ *      returns for the path. Only the last version of this file history is read from the SQL database.</li>
+ * </ul>
+ * 
+ * <p>Like the chunk index of the {@link ChunkSqlDao}, each store is marked with a state key of
+ * the corresponding tables. A store is loaded on the first lookup after {@link #clearCache()}. If its
+ * state key does not match anymore, it is either updated with the entries of the database versions
+ * added since, or rebuilt from the SQL database. If a store cannot be read or written, the lookups
+ * fall back to the SQL database.
+ * 
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class KeyValueLookupStore extends AbstractSqlDao implements LookupStore {
+	private static final Logger logger = Logger.getLogger(KeyValueLookupStore.class.getSimpleName());
+
+	private static final String MULTICHUNK_STORE_DIR = "multichunks";
+	private static final String PATH_STORE_DIR = "paths";
+
+	// The persisted stores may only be modified by one instance at a time
+	private static final Object STORE_LOCK = new Object();
+
+	private File multiChunkStoreDir;
+	private File pathStoreDir;
+	private MultiChunkSqlDao multiChunkDao;
+	private FileHistorySqlDao fileHistoryDao;
+	private FileVersionSqlDao fileVersionDao;
+
+	private SortedKeyValueStore multiChunkStore;
+	private SortedKeyValueStore pathStore;
+
+	public KeyValueLookupStore(Connection connection, File storeDir, MultiChunkSqlDao multiChunkDao, FileHistorySqlDao fileHistoryDao,
+			FileVersionSqlDao fileVersionDao) {
+
+		super(connection);
+
+		this.multiChunkStoreDir = new File(storeDir, MULTICHUNK_STORE_DIR);
+		this.pathStoreDir = new File(storeDir, PATH_STORE_DIR);
+		this.multiChunkDao = multiChunkDao;
+		this.fileHistoryDao = fileHistoryDao;
+		this.fileVersionDao = fileVersionDao;
+
+		this.multiChunkStore = null;
+		this.pathStore = null;
+	}
+
+	@Override
+	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum) {
+		Map<ChunkChecksum, MultiChunkId> multiChunkIds = getMultiChunkIdsFromStore(Collections.singletonList(chunkChecksum));
+
+		if (multiChunkIds != null) {
+			return multiChunkIds.get(chunkChecksum);
+		}
+		else {
+			return multiChunkDao.getMultiChunkId(chunkChecksum);
+		}
+	}
+
+	@Override
+	public Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsByChecksums(List<ChunkChecksum> chunkChecksums) {
+		Map<ChunkChecksum, MultiChunkId> multiChunkIds = getMultiChunkIdsFromStore(chunkChecksums);
+
+		if (multiChunkIds != null) {
+			return multiChunkIds;
+		}
+		else {
+			return multiChunkDao.getMultiChunkIdsByChecksums(chunkChecksums);
+		}
+	}
+
+	@Override
+	public PartialFileHistory getFileHistoryWithLastVersionByPath(String path) {
+		FileHistoryId fileHistoryId = null;
+
+		synchronized (this) {
+			if (pathStoreDir == null) {
+				return fileHistoryDao.getFileHistoryWithLastVersionByPath(path);
+			}
+
+			try {
+				if (pathStore == null) {
+					pathStore = loadPathStore();
+				}
+
+				byte[] fileHistoryIdBytes = pathStore.get(path.getBytes(StandardCharsets.UTF_8));
+
+				if (fileHistoryIdBytes == null) {
+					return null;
+				}
+
+				fileHistoryId = new FileHistoryId(fileHistoryIdBytes);
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot use path store " + pathStoreDir + "; querying database instead.", e);
+
+				closePathStore();
+				pathStoreDir = null;
+
+				return fileHistoryDao.getFileHistoryWithLastVersionByPath(path);
+			}
+		}
+
+		return fileHistoryDao.getFileHistoryWithLastVersion(fileHistoryId);
+	}
+
+	/**
+	 * Closes the stores. They are validated and loaded again by the next lookup.
+	 */
+	@Override
+	public synchronized void clearCache() {
+		closeMultiChunkStore();
+		closePathStore();
+	}
+
+	private void closeMultiChunkStore() {
+		if (multiChunkStore != null) {
+			multiChunkStore.close();
+			multiChunkStore = null;
+		}
+	}
+
+	private void closePathStore() {
+		if (pathStore != null) {
+			pathStore.close();
+			pathStore = null;
+		}
+	}
+
+	/**
+	 * Looks up the multichunk IDs of the given chunks in the multichunk store. Returns
+	 * <code>null</code> if the store cannot be used, so that the SQL database is queried instead.
+	 */
+	private synchronized Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsFromStore(Collection<ChunkChecksum> chunkChecksums) {
+		if (multiChunkStoreDir == null) {
+			return null;
+		}
+
+		try {
+			if (multiChunkStore == null) {
+				multiChunkStore = loadMultiChunkStore();
+			}
+
+			Map<ChunkChecksum, MultiChunkId> multiChunkIds = new HashMap<ChunkChecksum, MultiChunkId>();
+
+			for (ChunkChecksum chunkChecksum : chunkChecksums) {
+				byte[] multiChunkIdBytes = multiChunkStore.get(chunkChecksum.getBytes());
+
+				if (multiChunkIdBytes != null) {
+					multiChunkIds.put(chunkChecksum, new MultiChunkId(multiChunkIdBytes));
+				}
+			}
+
+			return multiChunkIds;
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot use multichunk store " + multiChunkStoreDir + "; querying database instead.", e);
+
+			closeMultiChunkStore();
+			multiChunkStoreDir = null;
+
+			return null;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Loads the multichunk store, if it matches the current state of the multichunk tables.
+	 * If the store only lacks the multichunks of newer database versions, these are added to it.
+	 * Otherwise, the store is rebuilt from the multichunk tables.
+	 * 
+	 * <p>The state of the tables is identified by the number of chunk references and the highest
+	 * database version ID. Multichunks are only ever added with a new (higher) database version ID,
+	 * so every insert and delete changes this state key.
+	 */
+	private SortedKeyValueStore loadMultiChunkStore() throws SQLException, IOException {
+		synchronized (STORE_LOCK) {
+			MultiChunkStoreState multiChunkStoreState = getMultiChunkStoreState();
+			SortedKeyValueStore loadedMultiChunkStore = SortedKeyValueStore.open(multiChunkStoreDir, multiChunkStoreState.getStateKey());
+
+			if (loadedMultiChunkStore == null) {
+				loadedMultiChunkStore = updateMultiChunkStore(multiChunkStoreState);
+			}
+
+			if (loadedMultiChunkStore == null) {
+				loadedMultiChunkStore = buildMultiChunkStore(multiChunkStoreState);
+			}
+
+			return loadedMultiChunkStore;
+		}
+	}
+
+	private SortedKeyValueStore updateMultiChunkStore(MultiChunkStoreState multiChunkStoreState) throws SQLException, IOException {
+		SortedKeyValueStore existingMultiChunkStore = SortedKeyValueStore.open(multiChunkStoreDir);
+
+		if (existingMultiChunkStore == null) {
+			return null;
+		}
+
+		MultiChunkStoreState existingMultiChunkStoreState = MultiChunkStoreState.parseStateKey(existingMultiChunkStore.getStateKey());
+
+		if (existingMultiChunkStoreState == null || existingMultiChunkStoreState.maxDatabaseVersionId >= multiChunkStoreState.maxDatabaseVersionId
+				|| getChunkCountUpTo(existingMultiChunkStoreState.maxDatabaseVersionId) != existingMultiChunkStoreState.chunkCount) {
+
+			existingMultiChunkStore.close();
+			return null;
+		}
+
+		logger.log(Level.INFO, "Adding " + (multiChunkStoreState.chunkCount - existingMultiChunkStoreState.chunkCount)
+				+ " chunk reference(s) to multichunk store " + multiChunkStoreDir + " ...");
+
+		fillMultiChunkStore(existingMultiChunkStore, "multichunk.select.all.getMultiChunkIdsForChunksAfterDatabaseVersion.sql",
+				existingMultiChunkStoreState.maxDatabaseVersionId);
+
+		existingMultiChunkStore.commit(multiChunkStoreState.getStateKey());
+
+		return existingMultiChunkStore;
+	}
+
+	private SortedKeyValueStore buildMultiChunkStore(MultiChunkStoreState multiChunkStoreState) throws SQLException, IOException {
+		logger.log(Level.INFO, "Building multichunk store for " + multiChunkStoreState.chunkCount + " chunk reference(s) in " + multiChunkStoreDir
+				+ " ...");
+
+		SortedKeyValueStore newMultiChunkStore = SortedKeyValueStore.create(multiChunkStoreDir);
+
+		fillMultiChunkStore(newMultiChunkStore, "multichunk.select.all.loadMultiChunkIndex.sql", null);
+		newMultiChunkStore.commit(multiChunkStoreState.getStateKey());
+
+		return newMultiChunkStore;
+	}
+
+	private void fillMultiChunkStore(SortedKeyValueStore targetMultiChunkStore, String resourceId, Long afterDatabaseVersionId) throws SQLException,
+			IOException {
+
+		try (PreparedStatement preparedStatement = getStatement(resourceId)) {
+			if (afterDatabaseVersionId != null) {
+				preparedStatement.setLong(1, afterDatabaseVersionId);
+			}
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					byte[] chunkChecksumBytes = ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum")).getBytes();
+					byte[] multiChunkIdBytes = MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id")).getBytes();
+
+					targetMultiChunkStore.put(chunkChecksumBytes, multiChunkIdBytes);
+				}
+			}
+		}
+	}
+
+	private long getChunkCountUpTo(long databaseVersionId) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getMultiChunkIndexStateUpToDatabaseVersion.sql")) {
+			preparedStatement.setLong(1, databaseVersionId);
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+				return resultSet.getLong("chunkcount");
+			}
+		}
+	}
+
+	private MultiChunkStoreState getMultiChunkStoreState() throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getMultiChunkIndexState.sql")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+
+				MultiChunkStoreState multiChunkStoreState = new MultiChunkStoreState();
+
+				multiChunkStoreState.chunkCount = resultSet.getLong("chunkcount");
+				multiChunkStoreState.maxDatabaseVersionId = resultSet.getLong("maxdatabaseversionid");
+
+				return multiChunkStoreState;
+			}
+		}
+	}
+
+	/**
+	 * Loads the path store, if it matches the current file tree (see {@link FileVersionSqlDao#getFileTreeStateKey()}).
+	 * If file versions have only been added since the store was written, the entries of the affected paths are
+	 * recalculated. Otherwise, the store is rebuilt from the current file tree.
+	 */
+	private SortedKeyValueStore loadPathStore() throws IOException {
+		synchronized (STORE_LOCK) {
+			String fileTreeStateKey = fileVersionDao.getFileTreeStateKey();
+			SortedKeyValueStore loadedPathStore = SortedKeyValueStore.open(pathStoreDir, fileTreeStateKey);
+
+			if (loadedPathStore == null) {
+				loadedPathStore = updatePathStore(fileTreeStateKey);
+			}
+
+			if (loadedPathStore == null) {
+				loadedPathStore = buildPathStore(fileTreeStateKey);
+			}
+
+			return loadedPathStore;
+		}
+	}
+
+	private SortedKeyValueStore updatePathStore(String fileTreeStateKey) throws IOException {
+		SortedKeyValueStore existingPathStore = SortedKeyValueStore.open(pathStoreDir);
+
+		if (existingPathStore == null) {
+			return null;
+		}
+
+		Set<String> changedPaths = fileVersionDao.getPathsChangedSince(existingPathStore.getStateKey());
+
+		if (changedPaths == null) {
+			existingPathStore.close();
+			return null;
+		}
+
+		logger.log(Level.INFO, "Updating " + changedPaths.size() + " path(s) in path store " + pathStoreDir + " ...");
+
+		for (String changedPath : changedPaths) {
+			writePath(existingPathStore, changedPath);
+		}
+
+		existingPathStore.commit(fileTreeStateKey);
+
+		return existingPathStore;
+	}
+
+	private SortedKeyValueStore buildPathStore(String fileTreeStateKey) throws IOException {
+		Set<String> currentPaths = fileVersionDao.getCurrentFileTree().keySet();
+		logger.log(Level.INFO, "Building path store for " + currentPaths.size() + " path(s) in " + pathStoreDir + " ...");
+
+		SortedKeyValueStore newPathStore = SortedKeyValueStore.create(pathStoreDir);
+
+		// Paths outside of the current file tree never have a file history to continue
+		for (String currentPath : currentPaths) {
+			writePath(newPathStore, currentPath);
+		}
+
+		newPathStore.commit(fileTreeStateKey);
+
+		return newPathStore;
+	}
+
+	private void writePath(SortedKeyValueStore targetPathStore, String path) throws IOException {
+		PartialFileHistory fileHistory = fileHistoryDao.getFileHistoryWithLastVersionByPath(path);
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+
+		if (fileHistory != null) {
+			targetPathStore.put(pathBytes, fileHistory.getFileHistoryId().getBytes());
+		}
+		else {
+			targetPathStore.remove(pathBytes);
+		}
+	}
+
+	private static class MultiChunkStoreState {
+		private long chunkCount;
+		private long maxDatabaseVersionId;
+
+		public String getStateKey() {
+			return chunkCount + "/" + maxDatabaseVersionId;
+		}
+
+		public static MultiChunkStoreState parseStateKey(String stateKey) {
+			String[] stateKeyParts = stateKey.split("/");
+
+			if (stateKeyParts.length != 2) {
+				return null;
+			}
+
+			try {
+				MultiChunkStoreState multiChunkStoreState = new MultiChunkStoreState();
+
+				multiChunkStoreState.chunkCount = Long.parseLong(stateKeyParts[0]);
+				multiChunkStoreState.maxDatabaseVersionId = Long.parseLong(stateKeyParts[1]);
+
+				return multiChunkStoreState;
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+}
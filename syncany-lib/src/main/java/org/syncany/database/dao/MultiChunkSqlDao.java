@@ -110,6 +110,75 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		removeUnreferencedMultiChunksInt();
 	}
 	
+	/**
+	 * Removes the references to the given chunks from the <i>multichunk_chunk</i> table if
+	 * the chunks are not used by any file version anymore. Unlike {@link #removeUnreferencedMultiChunks()},
+	 * this method only checks the given chunks instead of the entire table, and it does not remove
+	 * any multichunks (see {@link #removeMultiChunks(Collection) removeMultiChunks()}).
+	 * 
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query.
+	 * 
+	 * @param chunkChecksums Checksums of the chunks that might be unreferenced
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void removeUnreferencedMultiChunkChunkRefs(Collection<ChunkChecksum> chunkChecksums) throws SQLException {
+		if (chunkChecksums.size() > 0) {
+			try (PreparedStatement preparedStatement = getStatement("multichunk.delete.all.removeUnreferencedMultiChunkChunkRefsByChecksums.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", createChunkChecksumsArray(chunkChecksums)));
+				preparedStatement.executeUpdate();
+			}
+		}
+	}
+	
+	/**
+	 * Removes the given multichunks and all of their chunk references from the database,
+	 * regardless of whether the chunks are still referenced elsewhere. This is used to remove exactly 
+	 * the multichunks that are deleted remotely, so that no local chunk points to a deleted multichunk.
+	 * 
+	 * <p><b>Note:</b> This method executes, but <b>does not commit</b> the query.
+	 * 
+	 * @param multiChunkIds Identifiers of the multichunks to be removed
+	 * @return Returns the checksums of the chunks that were contained in the removed multichunks
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public List<ChunkChecksum> removeMultiChunks(Collection<MultiChunkId> multiChunkIds) throws SQLException {
+		List<ChunkChecksum> chunkChecksums = new ArrayList<ChunkChecksum>();
+		
+		if (multiChunkIds.size() > 0) {
+			String[] multiChunkIdsStr = new String[multiChunkIds.size()];
+			int i = 0;
+			
+			for (MultiChunkId multiChunkId : multiChunkIds) {
+				multiChunkIdsStr[i++] = multiChunkId.toString();
+			}
+			
+			// Note: Chunk references (multichunk_chunk) must be removed first, because
+			//       of the foreign key constraints. 
+			
+			try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getChunkChecksumsForMultiChunks.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", multiChunkIdsStr));
+				
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					while (resultSet.next()) {
+						chunkChecksums.add(ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum")));
+					}
+				}
+			}
+			
+			try (PreparedStatement preparedStatement = getStatement("multichunk.delete.all.removeMultiChunkChunkRefsByIds.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", multiChunkIdsStr));
+				preparedStatement.executeUpdate();
+			}
+			
+			try (PreparedStatement preparedStatement = getStatement("multichunk.delete.all.removeMultiChunksByIds.sql")) {
+				preparedStatement.setArray(1, connection.createArrayOf("varchar", multiChunkIdsStr));
+				preparedStatement.executeUpdate();
+			}
+		}
+		
+		return chunkChecksums;
+	}
+	
 	private void removeUnreferencedMultiChunksInt() throws SQLException {
 		PreparedStatement preparedStatement = getStatement("multichunk.delete.all.removeUnreferencedMultiChunks.sql");
 		preparedStatement.executeUpdate();	
@@ -264,6 +333,52 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Returns the multichunks that contain chunks of the given file contents, but none of whose
+	 * chunks are used by any file version anymore. Unlike {@link #getUnusedMultiChunks()}, this method
+	 * only checks the multichunks of the given file contents instead of all multichunks.
+	 * 
+	 * <p>This is typically used after file versions have been removed: Only the multichunks
+	 * of their file contents can have become unused. 
+	 * 
+	 * @param fileChecksums Checksums of the file contents whose multichunks might be unused
+	 * @return Returns the unused multichunks (without chunk references)
+	 */
+	public Map<MultiChunkId, MultiChunkEntry> getUnusedMultiChunks(Collection<FileChecksum> fileChecksums) {
+		if (fileChecksums.size() == 0) {
+			return new HashMap<MultiChunkId, MultiChunkEntry>();
+		}
+		
+		String[] fileChecksumsStr = new String[fileChecksums.size()];
+		int i = 0;
+		
+		for (FileChecksum fileChecksum : fileChecksums) {
+			fileChecksumsStr[i++] = fileChecksum.toString();
+		}
+		
+		try (PreparedStatement preparedStatement = getStatement("multichunk.select.all.getUnusedMultiChunksForFileContents.sql")) {
+			preparedStatement.setArray(1, connection.createArrayOf("varchar", fileChecksumsStr));
+			
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return createMultiChunkEntriesWithoutChunks(resultSet);
+			}
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private String[] createChunkChecksumsArray(Collection<ChunkChecksum> chunkChecksums) {
+		String[] chunkChecksumsStr = new String[chunkChecksums.size()];
+		int i = 0;
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			chunkChecksumsStr[i++] = chunkChecksum.toString();
+		}
+
+		return chunkChecksumsStr;
+	}
+
 	private Map<MultiChunkId, MultiChunkEntry> createMultiChunkEntriesWithoutChunks(ResultSet resultSet) throws SQLException {		
 		Map<MultiChunkId, MultiChunkEntry> unusedMultiChunkIds = new HashMap<MultiChunkId, MultiChunkEntry>();		
 		
@@ -0,0 +1,63 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.util.List;
+import java.util.Map;
+
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.LookupStore;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+
+/**
+ * The SQL lookup store answers all lookups with SQL queries, using the
+ * {@link MultiChunkSqlDao} and the {@link FileHistorySqlDao}. It does not
+ * cache anything.
+ * 
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class SqlLookupStore implements LookupStore {
+	private MultiChunkSqlDao multiChunkDao;
+	private FileHistorySqlDao fileHistoryDao;
+
+	public SqlLookupStore(MultiChunkSqlDao multiChunkDao, FileHistorySqlDao fileHistoryDao) {
+		this.multiChunkDao = multiChunkDao;
+		this.fileHistoryDao = fileHistoryDao;
+	}
+
+	@Override
+	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum) {
+		return multiChunkDao.getMultiChunkId(chunkChecksum);
+	}
+
+	@Override
+	public Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsByChecksums(List<ChunkChecksum> chunkChecksums) {
+		return multiChunkDao.getMultiChunkIdsByChecksums(chunkChecksums);
+	}
+
+	@Override
+	public PartialFileHistory getFileHistoryWithLastVersionByPath(String path) {
+		return fileHistoryDao.getFileHistoryWithLastVersionByPath(path);
+	}
+
+	@Override
+	public void clearCache() {
+		// Nothing to do
+	}
+}
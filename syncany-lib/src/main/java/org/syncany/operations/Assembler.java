@@ -19,10 +19,15 @@ package org.syncany.operations;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +35,6 @@ import org.apache.commons.io.FileUtils;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.MultiChunk;
-import org.syncany.chunk.MultiChunker;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent;
@@ -38,6 +42,7 @@ import org.syncany.database.FileVersion;
 import org.syncany.database.MemoryDatabase;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.SqlDatabase;
+import org.syncany.operations.LocalChunkLocator.LocalChunkReader;
 import org.syncany.util.StringUtil;
 
 /**
@@ -46,25 +51,49 @@ import org.syncany.util.StringUtil;
  * multichunker, etc.).
  * 
  * <p>It uses the local {@link SqlDatabase} and an optional {@link MemoryDatabase}
- * to perform file checksum and chunk checksum lookups.   
+ * to perform file checksum and chunk checksum lookups. The multichunks of a file's
+ * chunks are looked up in batches, and recently used multichunks are kept open
+ * while the file is assembled.
+ * 
+ * <p>If a {@link LocalChunkLocator} is given, chunks that are available in local
+ * files are copied from these files instead of being read from the multichunk. Only
+ * if a local chunk cannot be read (or does not match its checksum), the multichunk
+ * is used. If that multichunk is not in the local cache, it is obtained through the
+ * {@link MultiChunkFetcher} (if one is set).
  * 
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class Assembler {
 	private static final Logger logger = Logger.getLogger(Assembler.class.getSimpleName());
+
+	private static final int MULTICHUNK_LOOKUP_BATCH_SIZE = 1000;
+	private static final int MAX_OPEN_MULTICHUNKS = 16;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
 	
 	private Config config;
 	private SqlDatabase localDatabase;
 	private MemoryDatabase memoryDatabase;
+	private LocalChunkLocator localChunkLocator;
+	private MultiChunkFetcher multiChunkFetcher;
 	
 	public Assembler(Config config, SqlDatabase localDatabase) {
 		this(config, localDatabase, null);
 	}
 	
 	public Assembler(Config config, SqlDatabase localDatabase, MemoryDatabase memoryDatabase) {
+		this(config, localDatabase, memoryDatabase, null);
+	}
+
+	public Assembler(Config config, SqlDatabase localDatabase, MemoryDatabase memoryDatabase, LocalChunkLocator localChunkLocator) {
 		this.config = config;
 		this.localDatabase = localDatabase;
 		this.memoryDatabase = memoryDatabase;
+		this.localChunkLocator = localChunkLocator;
+		this.multiChunkFetcher = null;
+	}
+
+	public void setMultiChunkFetcher(MultiChunkFetcher multiChunkFetcher) {
+		this.multiChunkFetcher = multiChunkFetcher;
 	}
 
 	/**
@@ -94,40 +123,74 @@ public class Assembler {
 				
 		// Create non-empty file
 		Chunker chunker = config.getChunker();
-		MultiChunker multiChunker = config.getMultiChunker();
-		
-		FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache);		
+
 		MessageDigest reconstructedFileChecksum = MessageDigest.getInstance(chunker.getChecksumAlgorithm());
-		
-		if (fileContent != null) { // File can be empty!
-			Collection<ChunkChecksum> fileChunks = fileContent.getChunks();
+		MessageDigest reconstructedChunkChecksum = (chunker.isFileChecksumFromChunks()) ? MessageDigest.getInstance(chunker.getChecksumAlgorithm())
+				: reconstructedFileChecksum;
 
-			for (ChunkChecksum chunkChecksum : fileChunks) {
-				MultiChunkId multiChunkIdForChunk = localDatabase.getMultiChunkId(chunkChecksum);
+		List<ChunkChecksum> fileChunks = new ArrayList<ChunkChecksum>(fileContent.getChunks());
+		MultiChunkReaderCache multiChunkReaderCache = new MultiChunkReaderCache(MAX_OPEN_MULTICHUNKS);
+		LocalChunkReader localChunkReader = (localChunkLocator != null) ? localChunkLocator.createReader() : null;
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
 
-				if (multiChunkIdForChunk == null && memoryDatabase != null) {
-					multiChunkIdForChunk = memoryDatabase.getMultiChunkIdForChunk(chunkChecksum);
-				}
+		try (FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache)) {
+			for (int batchStart = 0; batchStart < fileChunks.size(); batchStart += MULTICHUNK_LOOKUP_BATCH_SIZE) {
+				List<ChunkChecksum> batchChunks = fileChunks.subList(batchStart, Math.min(fileChunks.size(), batchStart + MULTICHUNK_LOOKUP_BATCH_SIZE));
+				Map<ChunkChecksum, MultiChunkId> batchMultiChunkIds = localDatabase.getMultiChunkIdsByChecksums(batchChunks);
 
-				File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkIdForChunk);
+				for (ChunkChecksum chunkChecksum : batchChunks) {
+					byte[] localChunkData = (localChunkReader != null) ? localChunkReader.readChunk(chunkChecksum) : null;
 
-				MultiChunk multiChunk = multiChunker.createMultiChunk(decryptedMultiChunkFile);
-				InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getBytes());
+					// Chunks read from local files have already been validated
+					if (localChunkData != null) {
+						reconstructedFileOutputStream.write(localChunkData);
+						reconstructedFileChecksum.update((chunker.isFileChecksumFromChunks()) ? chunkChecksum.getBytes() : localChunkData);
 
-				byte[] buffer = new byte[4096];
-				int read = 0;
+						continue;
+					}
 
-				while (-1 != (read = chunkInputStream.read(buffer))) {
-					reconstructedFileChecksum.update(buffer, 0, read);
-					reconstructedFileOutputStream.write(buffer, 0, read);
-				}
+					MultiChunkId multiChunkIdForChunk = batchMultiChunkIds.get(chunkChecksum);
 
-				chunkInputStream.close();
-				multiChunk.close();
+					if (multiChunkIdForChunk == null && memoryDatabase != null) {
+						multiChunkIdForChunk = memoryDatabase.getMultiChunkIdForChunk(chunkChecksum);
+					}
+
+					if (multiChunkIdForChunk == null) {
+						throw new Exception("Cannot determine multichunk for chunk " + chunkChecksum);
+					}
+
+					MultiChunk multiChunk = multiChunkReaderCache.get(multiChunkIdForChunk);
+
+					try (InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getBytes())) {
+						int read = 0;
+
+						while (-1 != (read = chunkInputStream.read(buffer))) {
+							reconstructedChunkChecksum.update(buffer, 0, read);
+							reconstructedFileOutputStream.write(buffer, 0, read);
+						}
+					}
+
+					// If the file checksum is derived from the chunk checksums, validate each chunk instead
+					if (chunker.isFileChecksumFromChunks()) {
+						byte[] reconstructedChunkActualChecksum = reconstructedChunkChecksum.digest();
+
+						if (!Arrays.equals(reconstructedChunkActualChecksum, chunkChecksum.getBytes())) {
+							throw new Exception("Chunk checksums do not match: expected " + chunkChecksum + " != actual "
+									+ StringUtil.toHex(reconstructedChunkActualChecksum));
+						}
+
+						reconstructedFileChecksum.update(chunkChecksum.getBytes());
+					}
+				}
 			}
 		}
+		finally {
+			multiChunkReaderCache.close();
 
-		reconstructedFileOutputStream.close();
+			if (localChunkReader != null) {
+				localChunkReader.close();
+			}
+		}
 
 		// Validate checksum
 		byte[] reconstructedFileExpectedChecksum = fileContent.getChecksum().getBytes();
@@ -140,4 +203,59 @@ public class Assembler {
 		
 		return reconstructedFileInCache;
 	}	
+
+	/**
+	 * Keeps the most recently used multichunks open while a file is assembled, so that
+	 * consecutive chunks from the same multichunk do not re-open (and re-parse) the
+	 * multichunk file for every chunk. If more than <code>maxOpenMultiChunks</code> are
+	 * needed, the least recently used multichunk is closed.
+	 */
+	private class MultiChunkReaderCache {
+		private int maxOpenMultiChunks;
+		private LinkedHashMap<MultiChunkId, MultiChunk> openMultiChunks;
+
+		public MultiChunkReaderCache(int maxOpenMultiChunks) {
+			this.maxOpenMultiChunks = maxOpenMultiChunks;
+			this.openMultiChunks = new LinkedHashMap<MultiChunkId, MultiChunk>(16, 0.75f, true);
+		}
+
+		public MultiChunk get(MultiChunkId multiChunkId) throws Exception {
+			MultiChunk multiChunk = openMultiChunks.get(multiChunkId);
+
+			if (multiChunk == null) {
+				if (openMultiChunks.size() >= maxOpenMultiChunks) {
+					Iterator<MultiChunk> leastRecentlyUsedIterator = openMultiChunks.values().iterator();
+					MultiChunk leastRecentlyUsedMultiChunk = leastRecentlyUsedIterator.next();
+
+					leastRecentlyUsedIterator.remove();
+					leastRecentlyUsedMultiChunk.close();
+				}
+
+				File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
+
+				if (!decryptedMultiChunkFile.exists() && multiChunkFetcher != null) {
+					logger.log(Level.INFO, "     - Multichunk " + multiChunkId + " not in cache, fetching it ...");
+					multiChunkFetcher.fetchMultiChunk(multiChunkId);
+				}
+
+				multiChunk = config.getMultiChunker().createMultiChunk(decryptedMultiChunkFile);
+				openMultiChunks.put(multiChunkId, multiChunk);
+			}
+
+			return multiChunk;
+		}
+
+		public void close() {
+			for (MultiChunk multiChunk : openMultiChunks.values()) {
+				try {
+					multiChunk.close();
+				}
+				catch (IOException e) {
+					logger.log(Level.FINE, "Unable to close multichunk.", e);
+				}
+			}
+
+			openMultiChunks.clear();
+		}
+	}
 }
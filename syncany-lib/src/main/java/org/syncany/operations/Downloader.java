@@ -23,7 +23,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,12 +46,24 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferManagerPool;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 
 /**
  * The downloader uses a {@link TransferManager} to download a given set of multichunks,
  * decrypt them and store them in the local cache folder. 
  * 
+ * <p>If more than one download or decryption thread is configured, the multichunks are
+ * downloaded and decrypted in a pipeline: Up to <code>downloadThreads</code> multichunks
+ * are downloaded at the same time, each download thread using its own transfer manager.
+ * Downloaded multichunks are handed to a separate pool of <code>decryptionThreads</code>,
+ * so that decryption does not block further downloads. With one thread each, the multichunks
+ * are downloaded and decrypted one after the other.
+ * 
+ * <p>Multichunks are downloaded in the iteration order of the given set. If a
+ * {@link DownloaderListener} is set, it is notified as soon as each multichunk
+ * is available, so that callers can use it before the download is complete.
+ * 
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class Downloader {
@@ -48,11 +72,25 @@ public class Downloader {
 	private Config config;
 	private TransferManager transferManager;
 	private LocalEventBus eventBus;
+	private int downloadThreads;
+	private int decryptionThreads;
+	private DownloaderListener listener;
 
 	public Downloader(Config config, TransferManager transferManager) {
+		this(config, transferManager, 1, 1);
+	}
+
+	public Downloader(Config config, TransferManager transferManager, int downloadThreads, int decryptionThreads) {
 		this.config = config;
 		this.transferManager = transferManager;
 		this.eventBus = LocalEventBus.getInstance();
+		this.downloadThreads = Math.max(1, downloadThreads);
+		this.decryptionThreads = Math.max(1, decryptionThreads);
+		this.listener = null;
+	}
+
+	public void setListener(DownloaderListener listener) {
+		this.listener = listener;
 	}
 
 	/** 
@@ -62,56 +100,252 @@ public class Downloader {
 	public void downloadAndDecryptMultiChunks(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
 		logger.log(Level.INFO, "Downloading and extracting multichunks ...");
 
+		if (downloadThreads > 1 || decryptionThreads > 1) {
+			downloadAndDecryptMultiChunksConcurrently(unknownMultiChunkIds);
+		}
+		else {
+			downloadAndDecryptMultiChunksSequentially(unknownMultiChunkIds);
+		}
+
+		transferManager.disconnect();
+	}
+
+	private void downloadAndDecryptMultiChunksSequentially(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
 		int multiChunkNumber = 0;
 
 		for (MultiChunkId multiChunkId : unknownMultiChunkIds) {
-			File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
-			File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
-			MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
-
 			multiChunkNumber++;
 
-			if (localDecryptedMultiChunkFile.exists()) {
-				logger.log(Level.INFO, "  + Decrypted multichunk exists locally " + multiChunkId + ". No need to download it!");
+			if (!isDecryptedMultiChunkAvailable(multiChunkId)) {
+				downloadMultiChunk(transferManager, multiChunkId, multiChunkNumber, unknownMultiChunkIds.size());
+				decryptMultiChunk(multiChunkId);
 			}
-			else {
-				eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", multiChunkNumber,
-						unknownMultiChunkIds.size()));
 
-				logger.log(Level.INFO, "  + Downloading multichunk " + multiChunkId + " ...");
-				transferManager.download(remoteMultiChunkFile, localEncryptedMultiChunkFile);
+			fireMultiChunkAvailable(multiChunkId);
+		}
+	}
+
+	private void downloadAndDecryptMultiChunksConcurrently(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
+		logger.log(Level.INFO, "  + Using {0} download thread(s) and {1} decryption thread(s) ...", new Object[] { downloadThreads,
+				decryptionThreads });
+
+		ExecutorService downloadExecutor = Executors.newFixedThreadPool(downloadThreads, new DownloaderThreadFactory("Download"));
+		ExecutorService decryptionExecutor = Executors.newFixedThreadPool(decryptionThreads, new DownloaderThreadFactory("Decrypt"));
 
-				try {
-					logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
-					InputStream multiChunkInputStream = config.getTransformer().createInputStream(new FileInputStream(localEncryptedMultiChunkFile));
-					OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
+		TransferManagerPool transferManagerPool = new TransferManagerPool(config, transferManager, downloadThreads);
+		Set<MultiChunkId> undecryptedMultiChunkIds = Collections.newSetFromMap(new ConcurrentHashMap<MultiChunkId, Boolean>());
 
-					IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+		List<Future<Void>> downloadFutures = new ArrayList<Future<Void>>();
+		List<Future<Void>> decryptionFutures = Collections.synchronizedList(new ArrayList<Future<Void>>());
 
-					decryptedMultiChunkOutputStream.close();
-					multiChunkInputStream.close();
+		try {
+			int multiChunkNumber = 0;
 
+			for (MultiChunkId multiChunkId : unknownMultiChunkIds) {
+				multiChunkNumber++;
+
+				if (!isDecryptedMultiChunkAvailable(multiChunkId)) {
+					DownloadTask downloadTask = new DownloadTask(multiChunkId, multiChunkNumber, unknownMultiChunkIds.size(), transferManagerPool,
+							decryptionExecutor, decryptionFutures, undecryptedMultiChunkIds);
+
+					downloadFutures.add(downloadExecutor.submit(downloadTask));
 				}
-				catch (IOException e) {
-					// Security: Deleting the multichunk if the decryption/extraction failed is important!
-					//           If it is not deleted, the partially decrypted multichunk will reside in the
-					//           local cache and the next 'down' will try to use it. If this is the only
-					//           multichunk that has been tampered with, other changes might be applied to the 
-					//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
-
-					logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
-					localDecryptedMultiChunkFile.delete();
-
-					throw new IOException("Decryption/extraction of multichunk " + multiChunkId
-							+ " failed. The multichunk might have been tampered with!", e);
+				else {
+					fireMultiChunkAvailable(multiChunkId);
 				}
-				finally {
-					logger.log(Level.FINE, "  + Locally deleting multichunk " + multiChunkId + " ...");
-					localEncryptedMultiChunkFile.delete();
+			}
+
+			// Wait for all downloads; all decryption tasks are submitted once the downloads are done
+			waitFor(downloadFutures);
+			waitFor(new ArrayList<Future<Void>>(decryptionFutures));
+		}
+		finally {
+			shutdownAndAwaitTermination(downloadExecutor);
+			shutdownAndAwaitTermination(decryptionExecutor);
+
+			// Remove encrypted multichunks whose decryption never started (due to a failure)
+			for (MultiChunkId multiChunkId : undecryptedMultiChunkIds) {
+				config.getCache().getEncryptedMultiChunkFile(multiChunkId).delete();
+			}
+
+			transferManagerPool.disconnectAll();
+		}
+	}
+
+	private boolean isDecryptedMultiChunkAvailable(MultiChunkId multiChunkId) {
+		if (config.getCache().getDecryptedMultiChunkFile(multiChunkId).exists()) {
+			logger.log(Level.INFO, "  + Decrypted multichunk exists locally " + multiChunkId + ". No need to download it!");
+			return true;
+		}
+		else {
+			return false;
+		}
+	}
+
+	private void fireMultiChunkAvailable(MultiChunkId multiChunkId) {
+		if (listener != null) {
+			listener.onMultiChunkAvailable(multiChunkId);
+		}
+	}
+
+	private void downloadMultiChunk(TransferManager transferManager, MultiChunkId multiChunkId, int multiChunkNumber, int multiChunkCount)
+			throws StorageException {
+
+		File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
+		MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
+
+		eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", multiChunkNumber, multiChunkCount));
+
+		logger.log(Level.INFO, "  + Downloading multichunk " + multiChunkId + " ...");
+		transferManager.download(remoteMultiChunkFile, localEncryptedMultiChunkFile);
+	}
+
+	private void decryptMultiChunk(MultiChunkId multiChunkId) throws IOException {
+		File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
+		File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
+
+		try {
+			logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
+			InputStream multiChunkInputStream = config.getTransformer().createInputStream(new FileInputStream(localEncryptedMultiChunkFile));
+			OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
+
+			IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+
+			decryptedMultiChunkOutputStream.close();
+			multiChunkInputStream.close();
+
+		}
+		catch (IOException e) {
+			// Security: Deleting the multichunk if the decryption/extraction failed is important!
+			//           If it is not deleted, the partially decrypted multichunk will reside in the
+			//           local cache and the next 'down' will try to use it. If this is the only
+			//           multichunk that has been tampered with, other changes might be applied to the 
+			//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
+
+			logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
+			localDecryptedMultiChunkFile.delete();
+
+			throw new IOException("Decryption/extraction of multichunk " + multiChunkId
+					+ " failed. The multichunk might have been tampered with!", e);
+		}
+		finally {
+			logger.log(Level.FINE, "  + Locally deleting multichunk " + multiChunkId + " ...");
+			localEncryptedMultiChunkFile.delete();
+		}
+	}
+
+	/**
+	 * Waits for the given tasks to finish, and rethrows the exception of the
+	 * first failed task (in the order of the list).
+	 */
+	private void waitFor(List<Future<Void>> futures) throws StorageException, IOException {
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while downloading multichunks.", e);
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof StorageException) {
+					throw (StorageException) cause;
+				}
+				else if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				else {
+					throw new IOException("Unable to download multichunks.", cause);
 				}
 			}
 		}
+	}
 
-		transferManager.disconnect();
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		executor.shutdownNow();
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.log(Level.WARNING, "Still waiting for download/decryption threads to terminate ...");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Downloads a single multichunk using a transfer manager from the pool, and then
+	 * submits its decryption to the decryption thread pool. 
+	 */
+	private class DownloadTask implements Callable<Void> {
+		private MultiChunkId multiChunkId;
+		private int multiChunkNumber;
+		private int multiChunkCount;
+		private TransferManagerPool transferManagerPool;
+		private ExecutorService decryptionExecutor;
+		private List<Future<Void>> decryptionFutures;
+		private Set<MultiChunkId> undecryptedMultiChunkIds;
+
+		public DownloadTask(MultiChunkId multiChunkId, int multiChunkNumber, int multiChunkCount, TransferManagerPool transferManagerPool,
+				ExecutorService decryptionExecutor, List<Future<Void>> decryptionFutures, Set<MultiChunkId> undecryptedMultiChunkIds) {
+
+			this.multiChunkId = multiChunkId;
+			this.multiChunkNumber = multiChunkNumber;
+			this.multiChunkCount = multiChunkCount;
+			this.transferManagerPool = transferManagerPool;
+			this.decryptionExecutor = decryptionExecutor;
+			this.decryptionFutures = decryptionFutures;
+			this.undecryptedMultiChunkIds = undecryptedMultiChunkIds;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			TransferManager downloadTransferManager = transferManagerPool.acquire();
+
+			try {
+				downloadMultiChunk(downloadTransferManager, multiChunkId, multiChunkNumber, multiChunkCount);
+			}
+			finally {
+				transferManagerPool.release(downloadTransferManager);
+			}
+
+			undecryptedMultiChunkIds.add(multiChunkId);
+
+			decryptionFutures.add(decryptionExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					undecryptedMultiChunkIds.remove(multiChunkId);
+					decryptMultiChunk(multiChunkId);
+					fireMultiChunkAvailable(multiChunkId);
+
+					return null;
+				}
+			}));
+
+			return null;
+		}
+	}
+
+	private static class DownloaderThreadFactory implements ThreadFactory {
+		private String threadNamePrefix;
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public DownloaderThreadFactory(String threadNamePrefix) {
+			this.threadNamePrefix = threadNamePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, threadNamePrefix + "/" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
 	}
 }
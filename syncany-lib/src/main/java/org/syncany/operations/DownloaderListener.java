@@ -0,0 +1,41 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * Listener interface used by the {@link Downloader} to notify the caller when
+ * a multichunk is available in the local cache, i.e. when it has been downloaded
+ * and decrypted, or when it did not have to be downloaded at all.
+ * 
+ * <p>Callers can use this to start processing multichunks while other multichunks
+ * are still being downloaded. Note that the listener may be called from the downloader's
+ * download or decryption threads.
+ * 
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public interface DownloaderListener {
+	/**
+	 * Called by the {@link Downloader} when the decrypted multichunk with the given
+	 * identifier is available in the local cache.
+	 * 
+	 * @param multiChunkId Identifier of the multichunk that is now available
+	 */
+	public void onMultiChunkAvailable(MultiChunkId multiChunkId);
+}
@@ -0,0 +1,378 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.FileVersionComparator;
+import org.syncany.database.FileVersionComparator.FileChange;
+import org.syncany.database.SqlDatabase;
+
+/**
+ * The local chunk locator maps chunk checksums to the position of these chunks in
+ * files that already exist in the local sync folder. It is used to avoid downloading
+ * multichunks for chunks that are available locally, e.g. for the unchanged parts of
+ * a large file that was only changed slightly by another client.
+ *
+ * <p>Files are added using their last known {@link FileVersion}. A file is only used as
+ * a chunk source if it still matches this version (size and last modified date). Chunk
+ * offsets are derived from the chunk list of the file's {@link FileContent} and the sizes
+ * of the chunks.
+ *
+ * <p>Since the local files are typically replaced or deleted by the very file system actions
+ * that need their chunks, the needed chunks must be copied to the local cache using
+ * {@link #copyToCache(Set) copyToCache()} before any of these actions is applied. Afterwards,
+ * chunks are only read from this cache file.
+ *
+ * <p>Since the local file might change after it has been added, chunks read via a
+ * {@link LocalChunkReader} are always verified against their checksum. Chunks that do not
+ * match are removed from the locator, so that callers can fall back to the multichunk.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class LocalChunkLocator {
+	private static final Logger logger = Logger.getLogger(LocalChunkLocator.class.getSimpleName());
+
+	private Config config;
+	private SqlDatabase localDatabase;
+	private FileVersionComparator fileVersionComparator;
+	private Map<ChunkChecksum, LocalChunk> localChunks;
+	private File cachedChunksFile;
+
+	public LocalChunkLocator(Config config, SqlDatabase localDatabase) {
+		this.config = config;
+		this.localDatabase = localDatabase;
+		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker());
+		this.localChunks = new ConcurrentHashMap<ChunkChecksum, LocalChunk>();
+		this.cachedChunksFile = null;
+	}
+
+	/**
+	 * Adds the chunks of the given local file versions to the locator. File versions
+	 * that are not regular files, that are empty, or that do not match the file on disk
+	 * anymore are ignored.
+	 */
+	public void addFileVersions(Collection<FileVersion> localFileVersions) {
+		for (FileVersion localFileVersion : localFileVersions) {
+			addFileVersion(localFileVersion);
+		}
+	}
+
+	/**
+	 * Adds the chunks of the given local file version to the locator. If the file version
+	 * is not a regular file, is empty, or does not match the file on disk anymore, it
+	 * is ignored.
+	 */
+	public void addFileVersion(FileVersion localFileVersion) {
+		if (localFileVersion.getType() != FileType.FILE || localFileVersion.getChecksum() == null) {
+			return;
+		}
+
+		File localFile = new File(config.getLocalDir(), localFileVersion.getPath());
+
+		if (!isUnchanged(localFileVersion, localFile)) {
+			logger.log(Level.FINE, "- Not using " + localFileVersion.getPath() + " as chunk source; file does not match last known version.");
+			return;
+		}
+
+		FileContent fileContent = localDatabase.getFileContent(localFileVersion.getChecksum(), true);
+
+		if (fileContent == null) {
+			return;
+		}
+
+		List<LocalChunk> fileChunks = new ArrayList<LocalChunk>();
+		long offset = 0;
+
+		for (ChunkChecksum chunkChecksum : fileContent.getChunks()) {
+			ChunkEntry chunkEntry = localDatabase.getChunk(chunkChecksum);
+
+			if (chunkEntry == null) {
+				logger.log(Level.FINE, "- Not using " + localFileVersion.getPath() + " as chunk source; unknown chunk " + chunkChecksum);
+				return;
+			}
+
+			fileChunks.add(new LocalChunk(chunkChecksum, localFile, offset, chunkEntry.getSize()));
+			offset += chunkEntry.getSize();
+		}
+
+		if (offset != fileContent.getSize()) {
+			logger.log(Level.FINE, "- Not using " + localFileVersion.getPath() + " as chunk source; chunk sizes do not add up to file size.");
+			return;
+		}
+
+		for (LocalChunk localChunk : fileChunks) {
+			if (!localChunks.containsKey(localChunk.getChecksum())) {
+				localChunks.put(localChunk.getChecksum(), localChunk);
+			}
+		}
+
+		logger.log(Level.FINE, "- Added " + fileChunks.size() + " chunk(s) of " + localFileVersion.getPath() + " as local chunk source.");
+	}
+
+	public boolean contains(ChunkChecksum chunkChecksum) {
+		return localChunks.containsKey(chunkChecksum);
+	}
+
+	public LocalChunk get(ChunkChecksum chunkChecksum) {
+		return localChunks.get(chunkChecksum);
+	}
+
+	public int size() {
+		return localChunks.size();
+	}
+
+	/**
+	 * Returns the chunks of the given list that are not available in local files,
+	 * in the same order.
+	 */
+	public List<ChunkChecksum> getMissingChunks(List<ChunkChecksum> chunkChecksums) {
+		List<ChunkChecksum> missingChunks = new ArrayList<ChunkChecksum>();
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			if (!localChunks.containsKey(chunkChecksum)) {
+				missingChunks.add(chunkChecksum);
+			}
+		}
+
+		return missingChunks;
+	}
+
+	/**
+	 * Copies the given chunks from their local files to a single file in the local cache, and
+	 * makes the locator point to this file. Chunks that are not in the given set are removed
+	 * from the locator, and so are chunks that cannot be read or do not match their checksum.
+	 *
+	 * <p>This method must be called before any file system action that uses the locator is
+	 * applied: These actions might delete or replace the local files that contain the chunks.
+	 * Files are read in order and each file only once, so copying is much cheaper than
+	 * downloading the corresponding multichunks.
+	 */
+	public void copyToCache(Set<ChunkChecksum> requiredChunks) throws IOException, NoSuchAlgorithmException {
+		localChunks.keySet().retainAll(requiredChunks);
+
+		if (localChunks.isEmpty()) {
+			return;
+		}
+
+		List<LocalChunk> sortedLocalChunks = new ArrayList<LocalChunk>(localChunks.values());
+
+		Collections.sort(sortedLocalChunks, new Comparator<LocalChunk>() {
+			@Override
+			public int compare(LocalChunk localChunk1, LocalChunk localChunk2) {
+				int fileComparison = localChunk1.getFile().compareTo(localChunk2.getFile());
+				return (fileComparison != 0) ? fileComparison : Long.compare(localChunk1.getOffset(), localChunk2.getOffset());
+			}
+		});
+
+		cachedChunksFile = config.getCache().createTempFile("localchunks");
+		long cachedChunksSize = 0;
+
+		try (LocalChunkReader localChunkReader = createReader();
+				FileOutputStream cachedChunksOutputStream = new FileOutputStream(cachedChunksFile)) {
+
+			for (LocalChunk localChunk : sortedLocalChunks) {
+				byte[] chunkData = localChunkReader.readChunk(localChunk.getChecksum());
+
+				if (chunkData != null) {
+					cachedChunksOutputStream.write(chunkData);
+					localChunks.put(localChunk.getChecksum(), new LocalChunk(localChunk.getChecksum(), cachedChunksFile, cachedChunksSize,
+							localChunk.getSize()));
+
+					cachedChunksSize += localChunk.getSize();
+				}
+			}
+		}
+
+		logger.log(Level.INFO, "- Copied " + localChunks.size() + " local chunk(s) (" + (cachedChunksSize / 1024) + " KB) to " + cachedChunksFile);
+	}
+
+	/**
+	 * Deletes the cache file created by {@link #copyToCache(Set) copyToCache()} and
+	 * empties the locator. Must be called when the locator is not used anymore.
+	 */
+	public void deleteCachedChunks() {
+		localChunks.clear();
+
+		if (cachedChunksFile != null) {
+			cachedChunksFile.delete();
+			cachedChunksFile = null;
+		}
+	}
+
+	/**
+	 * Creates a reader to read (and verify) chunks from local files. The reader
+	 * keeps the last used file open and must be closed after use.
+	 */
+	public LocalChunkReader createReader() throws NoSuchAlgorithmException {
+		return new LocalChunkReader(MessageDigest.getInstance(config.getChunker().getChecksumAlgorithm()));
+	}
+
+	private boolean isUnchanged(FileVersion localFileVersion, File localFile) {
+		Set<FileChange> fileChanges = fileVersionComparator.compare(localFileVersion, localFile, false).getFileChanges();
+
+		return !fileChanges.contains(FileChange.DELETED) && !fileChanges.contains(FileChange.NEW)
+				&& !fileChanges.contains(FileChange.CHANGED_SIZE) && !fileChanges.contains(FileChange.CHANGED_LAST_MOD_DATE)
+				&& !fileChanges.contains(FileChange.CHANGED_LINK_TARGET);
+	}
+
+	/**
+	 * Position of a chunk in a local file.
+	 */
+	public static class LocalChunk {
+		private ChunkChecksum checksum;
+		private File file;
+		private long offset;
+		private int size;
+
+		public LocalChunk(ChunkChecksum checksum, File file, long offset, int size) {
+			this.checksum = checksum;
+			this.file = file;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		public ChunkChecksum getChecksum() {
+			return checksum;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return "LocalChunk [checksum=" + checksum + ", file=" + file + ", offset=" + offset + ", size=" + size + "]";
+		}
+	}
+
+	/**
+	 * Reads chunks from local files and verifies them against their checksums. Consecutive
+	 * chunks are typically read from the same file, so the last used file is kept open.
+	 */
+	public class LocalChunkReader implements Closeable {
+		private MessageDigest chunkDigest;
+		private File openFile;
+		private RandomAccessFile openRandomAccessFile;
+
+		private LocalChunkReader(MessageDigest chunkDigest) {
+			this.chunkDigest = chunkDigest;
+			this.openFile = null;
+			this.openRandomAccessFile = null;
+		}
+
+		/**
+		 * Reads the given chunk from its local file and returns its contents. If the chunk
+		 * is not available locally, or if the local file does not contain the expected
+		 * chunk (anymore), <code>null</code> is returned and the chunk is removed from the
+		 * locator.
+		 */
+		public byte[] readChunk(ChunkChecksum chunkChecksum) {
+			LocalChunk localChunk = localChunks.get(chunkChecksum);
+
+			if (localChunk == null) {
+				return null;
+			}
+
+			try {
+				RandomAccessFile randomAccessFile = openFile(localChunk.getFile());
+
+				if (randomAccessFile.length() < localChunk.getOffset() + localChunk.getSize()) {
+					throw new IOException("Local file too short for chunk " + localChunk);
+				}
+
+				byte[] chunkData = new byte[localChunk.getSize()];
+
+				randomAccessFile.seek(localChunk.getOffset());
+				randomAccessFile.readFully(chunkData);
+
+				chunkDigest.reset();
+				byte[] actualChunkChecksum = chunkDigest.digest(chunkData);
+
+				if (!Arrays.equals(actualChunkChecksum, chunkChecksum.getBytes())) {
+					throw new IOException("Local chunk checksum does not match for " + localChunk);
+				}
+
+				return chunkData;
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "- Cannot use local chunk " + chunkChecksum + "; falling back to multichunk.", e);
+				localChunks.remove(chunkChecksum);
+
+				return null;
+			}
+		}
+
+		private RandomAccessFile openFile(File file) throws IOException {
+			if (!file.equals(openFile)) {
+				close();
+
+				openRandomAccessFile = new RandomAccessFile(file, "r");
+				openFile = file;
+			}
+
+			return openRandomAccessFile;
+		}
+
+		@Override
+		public void close() {
+			if (openRandomAccessFile != null) {
+				try {
+					openRandomAccessFile.close();
+				}
+				catch (IOException e) {
+					logger.log(Level.FINE, "Unable to close local file " + openFile, e);
+				}
+
+				openRandomAccessFile = null;
+				openFile = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * Callback interface used by the {@link Assembler} to obtain multichunks that are
+ * not in the local cache, e.g. because a chunk that was expected to be available in
+ * a local file could not be read from there.
+ * 
+ * <p>Note that the fetcher may be called from several threads at the same time.
+ * 
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public interface MultiChunkFetcher {
+	/**
+	 * Makes sure that the decrypted multichunk with the given identifier is available
+	 * in the local cache, and downloads it if necessary. The method blocks until the
+	 * multichunk is available.
+	 * 
+	 * @param multiChunkId Identifier of the multichunk to fetch
+	 * @throws Exception If the multichunk cannot be downloaded or decrypted
+	 */
+	public void fetchMultiChunk(MultiChunkId multiChunkId) throws Exception;
+}
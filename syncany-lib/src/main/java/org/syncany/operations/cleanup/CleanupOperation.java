@@ -23,11 +23,18 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +43,7 @@ import org.syncany.chunk.MultiChunk;
 import org.syncany.config.Config;
 import org.syncany.database.DatabaseVersion;
 import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion;
 import org.syncany.database.MultiChunkEntry;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
@@ -280,14 +288,35 @@ public class CleanupOperation extends AbstractTransferOperation {
 				purgeFileVersions.size(),
 				purgeBeforeFileVersions.size() });
 
+		// Local: Remember the file histories and contents of the purged versions; only these
+		//        (and their chunks and multichunks) can become unreferenced below
+		Set<FileHistoryId> purgeFileHistoryIds = new HashSet<FileHistoryId>();
+		purgeFileHistoryIds.addAll(purgeBeforeFileVersions.keySet());
+		purgeFileHistoryIds.addAll(purgeFileVersions.keySet());
+
+		Set<FileChecksum> purgeFileContentChecksums = collectPurgeFileContentChecksums(purgeFileVersions, purgeBeforeFileVersions);
+
 		// Local: First, remove file versions that are not longer needed
 		localDatabase.removeSmallerOrEqualFileVersions(purgeBeforeFileVersions);
 		localDatabase.removeFileVersions(purgeFileVersions);
 
 		// Local: Then, determine what must be changed remotely and remove it locally
-		Map<MultiChunkId, MultiChunkEntry> unusedMultiChunks = localDatabase.getUnusedMultiChunks();
+		Map<MultiChunkId, MultiChunkEntry> unusedMultiChunks = null;
+
+		if (localDatabase.isFullGarbageCollectionRequired()) {
+			// The database might contain left-overs (e.g. of removed dirty database versions)
+			logger.log(Level.INFO, "- Old version removal: Checking entire database for unreferenced entities ...");
+
+			unusedMultiChunks = localDatabase.getUnusedMultiChunks();
+
+			localDatabase.removeUnreferencedDatabaseEntities();
+			localDatabase.writeFullGarbageCollectionRequired(false);
+		}
+		else {
+			unusedMultiChunks = localDatabase.getUnusedMultiChunks(purgeFileContentChecksums);
+			localDatabase.removeUnreferencedDatabaseEntities(purgeFileHistoryIds, purgeFileContentChecksums, unusedMultiChunks.keySet());
+		}
 
-		localDatabase.removeUnreferencedDatabaseEntities();
 		deleteUnusedRemoteMultiChunks(unusedMultiChunks);
 
 		// Update stats
@@ -302,6 +331,22 @@ public class CleanupOperation extends AbstractTransferOperation {
 		result.setRemovedMultiChunksSize(unusedMultiChunkSize);
 	}
 
+	private Set<FileChecksum> collectPurgeFileContentChecksums(Map<FileHistoryId, List<FileVersion>> purgeFileVersions,
+			Map<FileHistoryId, FileVersion> purgeBeforeFileVersions) {
+		
+		Set<FileChecksum> purgeFileContentChecksums = localDatabase.getFileContentChecksumsUpToVersion(purgeBeforeFileVersions);
+
+		for (List<FileVersion> fileVersions : purgeFileVersions.values()) {
+			for (FileVersion fileVersion : fileVersions) {
+				if (fileVersion.getChecksum() != null) {
+					purgeFileContentChecksums.add(fileVersion.getChecksum());
+				}
+			}
+		}
+
+		return purgeFileContentChecksums;
+	}
+
 	private Map<FileHistoryId, FileVersion> collectPurgeBeforeFileVersions(Map<FileHistoryId, List<FileVersion>> purgeFileVersions) {
 		long deleteBeforeTimestamp = System.currentTimeMillis() - options.getMinKeepDeletedSeconds() * 1000;
 		
@@ -423,18 +468,26 @@ public class CleanupOperation extends AbstractTransferOperation {
 		List<DatabaseRemoteFile> allToDeleteDatabaseFiles = new ArrayList<DatabaseRemoteFile>();
 		Map<File, DatabaseRemoteFile> allMergedDatabaseFiles = new TreeMap<File, DatabaseRemoteFile>();
 
-		for (String client : allDatabaseFilesMap.keySet()) {
-			List<DatabaseRemoteFile> clientDatabaseFiles = allDatabaseFilesMap.get(client);
-			Collections.sort(clientDatabaseFiles);
-			logger.log(Level.INFO, "Databases: " + clientDatabaseFiles);
+		MergeFileWriter mergeFileWriter = new MergeFileWriter(options.getMergeThreads());
+
+		try {
+			for (String client : allDatabaseFilesMap.keySet()) {
+				List<DatabaseRemoteFile> clientDatabaseFiles = allDatabaseFilesMap.get(client);
+				Collections.sort(clientDatabaseFiles);
+				logger.log(Level.INFO, "Databases: " + clientDatabaseFiles);
 
-			// 1. Determine files to delete remotely
-			List<DatabaseRemoteFile> toDeleteDatabaseFiles = new ArrayList<DatabaseRemoteFile>(clientDatabaseFiles);
-			allToDeleteDatabaseFiles.addAll(toDeleteDatabaseFiles);
+				// 1. Determine files to delete remotely
+				List<DatabaseRemoteFile> toDeleteDatabaseFiles = new ArrayList<DatabaseRemoteFile>(clientDatabaseFiles);
+				allToDeleteDatabaseFiles.addAll(toDeleteDatabaseFiles);
 
-			// 2. Write new database file and save it in allMergedDatabaseFiles
-			writeMergeFile(client, allMergedDatabaseFiles);
+				// 2. Write new database files (in the background) and save them in allMergedDatabaseFiles
+				writeMergeFiles(client, allMergedDatabaseFiles, mergeFileWriter);
+			}
 
+			mergeFileWriter.waitForAll();
+		}
+		finally {
+			mergeFileWriter.shutdown();
 		}
 
 		rememberDatabases(allMergedDatabaseFiles);
@@ -488,30 +541,68 @@ public class CleanupOperation extends AbstractTransferOperation {
 	}
 
 	/**
-	 * This method writes the file with merged databases for a single client and adds it to a Map containing all merged
+	 * This method writes the files with merged databases for a single client and adds them to a Map containing all merged
 	 * database files. This is done by querying the local database for all {@link DatabaseVersion}s by this client and
 	 * serializing them.
 	 *
-	 * @param clientName for which we want to write the merged dataabse file.
-	 * @param allMergedDatabaseFiles Map where we add the merged file once it is written.
+	 * <p>The database versions are split into shards of about {@link CleanupOperationOptions#getMaxMergeFileEntities()}
+	 * entities, each of which is written to its own database file. A database version is never split across shards. To make
+	 * sure that the merged files alone never exceed the threshold in {@link #needMerge(Map) needMerge()} (which would trigger
+	 * a merge in every cleanup), at most half of {@link CleanupOperationOptions#getMaxDatabaseFiles()} shards are written per
+	 * client; the last shard holds all remaining database versions. The
+	 * database versions are read from the local database by the calling thread, but the shards are serialized in the
+	 * background by the given {@link MergeFileWriter}, i.e. this method returns before the files are written.
+	 *
+	 * @param clientName for which we want to write the merged database files.
+	 * @param allMergedDatabaseFiles Map where we add the merged files.
+	 * @param mergeFileWriter Writer to serialize the shards in the background
 	 */
-	private void writeMergeFile(String clientName, Map<File, DatabaseRemoteFile> allMergedDatabaseFiles)
+	private void writeMergeFiles(String clientName, Map<File, DatabaseRemoteFile> allMergedDatabaseFiles, MergeFileWriter mergeFileWriter)
 			throws StorageException, IOException {
 
-		// Increment the version by 1, to signal cleanup has occurred
-
+		// Increment the version by 1 (for the first shard), to signal cleanup has occurred
 		long lastClientVersion = getNewestDatabaseFileVersion(clientName, localDatabase.getKnownDatabases());
-		DatabaseRemoteFile newRemoteMergeDatabaseFile = new DatabaseRemoteFile(clientName, lastClientVersion + 1);
+		long nextClientVersion = lastClientVersion + 1;
+
+		Iterator<DatabaseVersion> lastNDatabaseVersions = localDatabase.getDatabaseVersionsTo(clientName, lastClientVersion);
+
+		List<DatabaseVersion> shardDatabaseVersions = new ArrayList<DatabaseVersion>();
+		int shardEntityCount = 0;
+		int maxShards = Math.max(1, options.getMaxDatabaseFiles() / 2);
+
+		while (lastNDatabaseVersions.hasNext()) {
+			DatabaseVersion databaseVersion = lastNDatabaseVersions.next();
+
+			shardDatabaseVersions.add(databaseVersion);
+			shardEntityCount += databaseVersion.getChunks().size() + databaseVersion.getMultiChunks().size()
+					+ databaseVersion.getFileContents().size() + databaseVersion.getFileHistories().size();
+
+			boolean lastShard = nextClientVersion - lastClientVersion >= maxShards;
+
+			if (shardEntityCount >= options.getMaxMergeFileEntities() && !lastShard) {
+				writeMergeFile(clientName, nextClientVersion++, shardDatabaseVersions, allMergedDatabaseFiles, mergeFileWriter);
 
+				shardDatabaseVersions = new ArrayList<DatabaseVersion>();
+				shardEntityCount = 0;
+			}
+		}
+
+		// Write the last shard; and one (empty) file for clients without any database versions
+		if (shardDatabaseVersions.size() > 0 || nextClientVersion == lastClientVersion + 1) {
+			writeMergeFile(clientName, nextClientVersion, shardDatabaseVersions, allMergedDatabaseFiles, mergeFileWriter);
+		}
+	}
+
+	private void writeMergeFile(String clientName, long clientVersion, List<DatabaseVersion> databaseVersions,
+			Map<File, DatabaseRemoteFile> allMergedDatabaseFiles, MergeFileWriter mergeFileWriter) throws IOException {
+
+		DatabaseRemoteFile newRemoteMergeDatabaseFile = new DatabaseRemoteFile(clientName, clientVersion);
 		File newLocalMergeDatabaseFile = config.getCache().getDatabaseFile(newRemoteMergeDatabaseFile.getName());
 
-		logger.log(Level.INFO, "   + Writing new merge file (all files up to {0}) to {1} ...", new Object[] { lastClientVersion,
+		logger.log(Level.INFO, "   + Writing new merge file ({0} database version(s)) to {1} ...", new Object[] { databaseVersions.size(),
 				newLocalMergeDatabaseFile });
 
-		Iterator<DatabaseVersion> lastNDatabaseVersions = localDatabase.getDatabaseVersionsTo(clientName, lastClientVersion);
-
-		DatabaseXmlSerializer databaseDAO = new DatabaseXmlSerializer(config.getTransformer());
-		databaseDAO.save(lastNDatabaseVersions, newLocalMergeDatabaseFile);
+		mergeFileWriter.write(databaseVersions, newLocalMergeDatabaseFile);
 		allMergedDatabaseFiles.put(newLocalMergeDatabaseFile, newRemoteMergeDatabaseFile);
 	}
 
@@ -612,4 +703,70 @@ public class CleanupOperation extends AbstractTransferOperation {
 		localDatabase.writeCleanupTime(System.currentTimeMillis() / 1000);
 		localDatabase.commit();
 	}
+
+	/**
+	 * Serializes merged database files in the background, using a fixed number of threads.
+	 * To limit the memory used by shards that are waiting to be written, {@link #write(List, File) write()}
+	 * blocks if there are more pending shards than threads.
+	 */
+	private class MergeFileWriter {
+		private ExecutorService writeExecutor;
+		private List<Future<Void>> writeFutures;
+		private int maxPendingWrites;
+		private int finishedWriteCount;
+
+		public MergeFileWriter(int writeThreads) {
+			writeThreads = Math.max(1, writeThreads);
+
+			this.writeExecutor = Executors.newFixedThreadPool(writeThreads);
+			this.writeFutures = new ArrayList<Future<Void>>();
+			this.maxPendingWrites = writeThreads;
+			this.finishedWriteCount = 0;
+		}
+
+		public void write(final List<DatabaseVersion> databaseVersions, final File databaseFile) throws IOException {
+			while (writeFutures.size() - finishedWriteCount >= maxPendingWrites) {
+				waitFor(writeFutures.get(finishedWriteCount++));
+			}
+
+			writeFutures.add(writeExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					DatabaseXmlSerializer databaseDAO = new DatabaseXmlSerializer(config.getTransformer(), config.getDatabaseFormat());
+					databaseDAO.save(databaseVersions, databaseFile);
+
+					return null;
+				}
+			}));
+		}
+
+		public void waitForAll() throws IOException {
+			while (finishedWriteCount < writeFutures.size()) {
+				waitFor(writeFutures.get(finishedWriteCount++));
+			}
+		}
+
+		public void shutdown() throws InterruptedException {
+			writeExecutor.shutdownNow();
+			writeExecutor.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.MILLISECONDS);
+		}
+
+		private void waitFor(Future<Void> writeFuture) throws IOException {
+			try {
+				writeFuture.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing merged database files.", e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				else {
+					throw new IOException("Unable to write merged database file.", e.getCause());
+				}
+			}
+		}
+	}
 }
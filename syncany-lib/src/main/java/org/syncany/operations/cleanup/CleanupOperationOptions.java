@@ -26,6 +26,12 @@ import org.syncany.operations.OperationOptions;
 import org.syncany.operations.status.StatusOperationOptions;
 
 public class CleanupOperationOptions implements OperationOptions {
+	// Merged database files are split into shards of about this many entities (chunks, multichunks,
+	// file contents and file histories). To keep merged files below the maximum number of database
+	// files, at most half that many shards are written per client (the last one taking the rest).
+	public static final int DEFAULT_MAX_MERGE_FILE_ENTITIES = 100000;
+	public static final int DEFAULT_MERGE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
 	@Element(name = "status", required = false)
 	private StatusOperationOptions statusOptions = new StatusOperationOptions();
 
@@ -50,6 +56,12 @@ public class CleanupOperationOptions implements OperationOptions {
 	@Element(required = false)
 	private long minSecondsBetweenCleanups = 3 * 60 * 60; // 3 hours
 
+	@Element(required = false)
+	private int maxMergeFileEntities = DEFAULT_MAX_MERGE_FILE_ENTITIES;
+
+	@Element(required = false)
+	private int mergeThreads = DEFAULT_MERGE_THREADS;
+
 	@ElementMap(entry = "fromTime", key = "truncateDateFormat", required = false, attribute = true, inline = true)
 	private SortedMap<Long, TimeUnit> purgeFileVersionSettings;
 
@@ -112,6 +124,22 @@ public class CleanupOperationOptions implements OperationOptions {
 	public long getMinKeepDeletedSeconds() {
 		return minKeepDeletedSeconds;
 	}
+
+	public int getMaxMergeFileEntities() {
+		return maxMergeFileEntities;
+	}
+
+	public void setMaxMergeFileEntities(int maxMergeFileEntities) {
+		this.maxMergeFileEntities = maxMergeFileEntities;
+	}
+
+	public int getMergeThreads() {
+		return mergeThreads;
+	}
+
+	public void setMergeThreads(int mergeThreads) {
+		this.mergeThreads = mergeThreads;
+	}
 	
 	public SortedMap<Long, TimeUnit> getPurgeFileVersionSettings() {
 		return purgeFileVersionSettings;
@@ -17,11 +17,22 @@
  */
 package org.syncany.operations.down;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,16 +40,25 @@ import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent;
 import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileType;
 import org.syncany.database.MemoryDatabase;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.PartialFileHistory;
 import org.syncany.database.SqlDatabase;
 import org.syncany.operations.Downloader;
+import org.syncany.operations.DownloaderListener;
+import org.syncany.operations.LocalChunkLocator;
+import org.syncany.operations.MultiChunkFetcher;
 import org.syncany.operations.Operation;
 import org.syncany.operations.OperationResult;
 import org.syncany.operations.down.actions.FileCreatingFileSystemAction;
 import org.syncany.operations.down.actions.FileSystemAction;
 import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferManagerFactory;
+import org.syncany.plugins.transfer.features.PathAware;
+import org.syncany.plugins.transfer.features.ReadAfterWriteConsistent;
+import org.syncany.plugins.transfer.features.Retriable;
+import org.syncany.plugins.transfer.features.TransactionAware;
 
 /**
  * Applies a given winners database to the local directory.
@@ -47,11 +67,15 @@ import org.syncany.plugins.transfer.TransferManager;
  * <ul>
  *  <li>Determine whether the local branch needs to be updated (new database versions); if so, determine
  *      local {@link FileSystemAction}s</li>
- *  <li>Determine, download and decrypt required multi chunks from remote storage from file actions
- *      (implemented in {@link #determineMultiChunksToDownload(FileVersion, MemoryDatabase) determineMultiChunksToDownload()},
- *      and {@link Downloader#downloadAndDecryptMultiChunks(Set) downloadAndDecryptMultiChunks()})</li>
- *  <li>Apply file system actions locally, creating conflict files where necessary if local file does
- *      not match the expected file (implemented in {@link #applyFileSystemActions(List) applyFileSystemActions()} </li>
+ *  <li>Copy the chunks of the new file versions that are available in local files to the local cache, before
+ *      any of these files is replaced (implemented in {@link LocalChunkLocator#copyToCache(Set) copyToCache()})</li>
+ *  <li>Determine required multi chunks from file actions, skipping chunks that are available in local files
+ *      (implemented in {@link #determineMultiChunksToDownload(FileVersion, MemoryDatabase, LocalChunkLocator) determineMultiChunksToDownload()})</li>
+ *  <li>Download and decrypt these multi chunks from remote storage in the background
+ *      (implemented in {@link Downloader#downloadAndDecryptMultiChunks(Set) downloadAndDecryptMultiChunks()})</li>
+ *  <li>At the same time, apply file system actions locally, creating conflict files where necessary if local file does
+ *      not match the expected file. Each action waits only for its own multichunks, and independent actions are
+ *      applied in parallel (implemented in {@link #applyFileSystemActions(List, Map, AvailableMultiChunks) applyFileSystemActions()} </li>
  * </ul>
  * 
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
@@ -61,31 +85,42 @@ public class ApplyChangesOperation extends Operation {
 
 	private SqlDatabase localDatabase;
 	private Downloader downloader;
+	private int applyThreads;
 
 	private MemoryDatabase winnersDatabase;
 	private DownOperationResult result;
 	
 	private boolean cleanupOccurred;
 	private List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion;
+	private RetainedMultiChunks retainedMultiChunks;
 
 	public ApplyChangesOperation(Config config, SqlDatabase localDatabase, TransferManager transferManager, MemoryDatabase winnersDatabase,
-			DownOperationResult result, boolean cleanupOccurred, List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion) {
+			DownOperationOptions options, DownOperationResult result, boolean cleanupOccurred, List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion,
+			RetainedMultiChunks retainedMultiChunks) {
 		
 		super(config);
 		
 		this.localDatabase = localDatabase;
-		this.downloader = new Downloader(config, transferManager);
+		this.downloader = new Downloader(config, transferManager, options.getDownloadThreads(), options.getDecryptionThreads());
+		this.applyThreads = Math.max(1, options.getApplyThreads());
 		this.winnersDatabase = winnersDatabase;
 		this.result = result;
 		this.cleanupOccurred = cleanupOccurred;
 		this.preDeleteFileHistoriesWithLastVersion = preDeleteFileHistoriesWithLastVersion;
+		this.retainedMultiChunks = retainedMultiChunks;
 	}
 
 	@Override
 	public OperationResult execute() throws Exception {
 		logger.log(Level.INFO, "Determine file system actions ...");		
 		
-		FileSystemActionReconciliator actionReconciliator = new FileSystemActionReconciliator(config, result.getChangeSet());
+		LocalChunkLocator localChunkLocator = new LocalChunkLocator(config, localDatabase);
+		OnDemandMultiChunkFetcher multiChunkFetcher = new OnDemandMultiChunkFetcher();
+
+		FileSystemActionReconciliator actionReconciliator = new FileSystemActionReconciliator(config, result.getChangeSet(), localDatabase);
+		actionReconciliator.setLocalChunkLocator(localChunkLocator);
+		actionReconciliator.setMultiChunkFetcher(multiChunkFetcher);
+
 		List<FileSystemAction> actions;
 		
 		if (cleanupOccurred) {
@@ -95,103 +130,460 @@ public class ApplyChangesOperation extends Operation {
 			actions = actionReconciliator.determineFileSystemActions(winnersDatabase);
 		}
 
-		Set<MultiChunkId> unknownMultiChunks = determineRequiredMultiChunks(actions, winnersDatabase);
-		
-		downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
-		result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
+		// Sort (first, so that multichunks are downloaded in the order they are needed)
+		FileSystemActionComparator actionComparator = new FileSystemActionComparator();
+		actionComparator.sort(actions);
+
+		try {
+			// Copy local chunks before any action deletes or replaces their files
+			addLocalChunkSources(actions, localChunkLocator);
+			localChunkLocator.copyToCache(determineRequiredChunks(actions, winnersDatabase));
+
+			Map<FileSystemAction, Set<MultiChunkId>> actionMultiChunks = determineRequiredMultiChunks(actions, winnersDatabase, localChunkLocator);
+			Set<MultiChunkId> unknownMultiChunks = new LinkedHashSet<MultiChunkId>();
+
+			for (Set<MultiChunkId> multiChunkIds : actionMultiChunks.values()) {
+				unknownMultiChunks.addAll(multiChunkIds);
+			}
+
+			// Multichunks retained by the previous batch are only kept if this batch needs them
+			retainedMultiChunks.deleteAllExcept(unknownMultiChunks);
+
+			downloadAndApplyFileSystemActions(actions, actionMultiChunks, unknownMultiChunks, multiChunkFetcher);
 
-		applyFileSystemActions(actions);
+			result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
+			result.getDownloadedMultiChunks().addAll(multiChunkFetcher.getFetchedMultiChunks());
+		}
+		finally {
+			localChunkLocator.deleteCachedChunks();
+		}
 		
 		return null;
 	}
 	
+	/**
+	 * Adds the local files that are replaced by the given file system actions (or that
+	 * are at the target paths of these actions) to the given {@link LocalChunkLocator}. The
+	 * chunks of these files do not have to be downloaded if they are part of the new versions.
+	 */
+	private void addLocalChunkSources(List<FileSystemAction> actions, LocalChunkLocator localChunkLocator) {
+		Set<String> localPaths = new HashSet<String>();
+
+		for (FileSystemAction action : actions) {
+			if (action instanceof FileCreatingFileSystemAction && action.getFile2().getType() == FileType.FILE) {
+				if (action.getFile1() != null) {
+					localPaths.add(action.getFile1().getPath());
+				}
+
+				localPaths.add(action.getFile2().getPath());
+			}
+		}
+
+		if (localPaths.size() > 0) {
+			Map<String, FileVersion> localFileVersions = localDatabase.getCurrentFileTree(localPaths);
+			localChunkLocator.addFileVersions(localFileVersions.values());
+
+			logger.log(Level.INFO, "- Found " + localChunkLocator.size() + " chunk(s) in " + localFileVersions.size() + " local file(s) that can be re-used.");
+		}
+	}
+
+	/**
+	 * Returns the chunks of the file versions created by the given file system actions, i.e. the
+	 * chunks that might be copied from local files instead of being read from multichunks.
+	 */
+	private Set<ChunkChecksum> determineRequiredChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase) {
+		Set<ChunkChecksum> requiredChunks = new HashSet<ChunkChecksum>();
+
+		for (FileSystemAction action : actions) {
+			if (action instanceof FileCreatingFileSystemAction) {
+				FileContent fileContent = getFileContent(action.getFile2(), winnersDatabase);
+
+				if (fileContent != null) {
+					requiredChunks.addAll(fileContent.getChunks());
+				}
+			}
+		}
+
+		return requiredChunks;
+	}
+
 	/**
 	 * Finds the multichunks that need to be downloaded to apply the given file system actions.
-	 * The method looks at all {@link FileCreatingFileSystemAction}s and returns their multichunks. 
+	 * The method looks at all {@link FileCreatingFileSystemAction}s and returns the multichunks
+	 * of their chunks, except for the chunks that are available in local files. The returned
+	 * map is ordered like the given actions.
 	 */
-	private Set<MultiChunkId> determineRequiredMultiChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase) {
-		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
+	private Map<FileSystemAction, Set<MultiChunkId>> determineRequiredMultiChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase,
+			LocalChunkLocator localChunkLocator) {
+		
+		Map<FileSystemAction, Set<MultiChunkId>> actionMultiChunks = new LinkedHashMap<FileSystemAction, Set<MultiChunkId>>();
 
 		for (FileSystemAction action : actions) {
-			if (action instanceof FileCreatingFileSystemAction) { // TODO [low] This adds ALL multichunks even though some might be available locally
-				multiChunksToDownload.addAll(determineMultiChunksToDownload(action.getFile2(), winnersDatabase));
+			if (action instanceof FileCreatingFileSystemAction) {
+				actionMultiChunks.put(action, determineMultiChunksToDownload(action.getFile2(), winnersDatabase, localChunkLocator));
 			}
 		}
 
-		return multiChunksToDownload;
+		return actionMultiChunks;
 	}
 	
 	/**
 	 * Finds the multichunks that need to be downloaded for the given file version -- using the local 
-	 * database and given winners database. Returns a set of multichunk identifiers.
+	 * database and given winners database. Chunks that are available in local files (as per the given
+	 * {@link LocalChunkLocator}) are skipped. Returns a set of multichunk identifiers.
 	 */
-	private Collection<MultiChunkId> determineMultiChunksToDownload(FileVersion fileVersion, MemoryDatabase winnersDatabase) {
-		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
+	private Set<MultiChunkId> determineMultiChunksToDownload(FileVersion fileVersion, MemoryDatabase winnersDatabase, LocalChunkLocator localChunkLocator) {
+		Set<MultiChunkId> multiChunksToDownload = new LinkedHashSet<MultiChunkId>();
+
+		FileContent fileContent = getFileContent(fileVersion, winnersDatabase);
+
+		if (fileContent != null) { // File can be empty!
+			List<ChunkChecksum> missingChunks = localChunkLocator.getMissingChunks(fileContent.getChunks());
+			Map<ChunkChecksum, MultiChunkId> checksumsWithMultiChunkIds = localDatabase.getMultiChunkIdsByChecksums(missingChunks);
+
+			for (ChunkChecksum chunkChecksum : missingChunks) {
+				MultiChunkId multiChunkIdForChunk = checksumsWithMultiChunkIds.get(chunkChecksum);
+
+				if (multiChunkIdForChunk == null) {
+					multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
 
-		// First: Check if we know this file locally!
-		List<MultiChunkId> multiChunkIds = localDatabase.getMultiChunkIds(fileVersion.getChecksum());
-		
-		if (multiChunkIds.size() > 0) {
-			multiChunksToDownload.addAll(multiChunkIds);
-		}
-		else {
-			// Second: We don't know it locally; must be from the winners database
-			FileContent winningFileContent = winnersDatabase.getContent(fileVersion.getChecksum());			
-			boolean winningFileHasContent = winningFileContent != null;
-
-			if (winningFileHasContent) { // File can be empty!
-				List<ChunkChecksum> fileChunks = winningFileContent.getChunks(); 
-				
-				// TODO [medium] Instead of just looking for multichunks to download here, we should look for chunks in local files as well
-				// and return the chunk positions in the local files ChunkPosition (chunk123 at file12, offset 200, size 250)
-				
-				Map<ChunkChecksum, MultiChunkId> checksumsWithMultiChunkIds = localDatabase.getMultiChunkIdsByChecksums(fileChunks);
-				
-				for (ChunkChecksum chunkChecksum : fileChunks) {
-					MultiChunkId multiChunkIdForChunk = checksumsWithMultiChunkIds.get(chunkChecksum);
 					if (multiChunkIdForChunk == null) {
-						multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
-						
-						if (multiChunkIdForChunk == null) {
-							throw new RuntimeException("Cannot find multichunk for chunk "+chunkChecksum);	
-						}
-					}
-					
-					if (!multiChunksToDownload.contains(multiChunkIdForChunk)) {
-						logger.log(Level.INFO, "  + Adding multichunk " + multiChunkIdForChunk + " to download list ...");
-						multiChunksToDownload.add(multiChunkIdForChunk);
+						throw new RuntimeException("Cannot find multichunk for chunk "+chunkChecksum);	
 					}
 				}
+
+				if (!multiChunksToDownload.contains(multiChunkIdForChunk)) {
+					logger.log(Level.INFO, "  + Adding multichunk " + multiChunkIdForChunk + " to download list ...");
+					multiChunksToDownload.add(multiChunkIdForChunk);
+				}
 			}
 		}
 		
 		return multiChunksToDownload;
 	}
+
+	/**
+	 * Returns the file content of the given file version (including its chunks), or <code>null</code>
+	 * for folders, symlinks and empty files.
+	 */
+	private FileContent getFileContent(FileVersion fileVersion, MemoryDatabase winnersDatabase) {
+		if (fileVersion.getChecksum() == null) { // Folders, symlinks and empty files
+			return null;
+		}
+
+		// First: Check if we know this file locally; if not, it must be from the winners database
+		FileContent fileContent = localDatabase.getFileContent(fileVersion.getChecksum(), true);
+
+		if (fileContent == null) {
+			fileContent = winnersDatabase.getContent(fileVersion.getChecksum());
+		}
+
+		return fileContent;
+	}
 	
 	/**
-	 * Applies the given file system actions in a sensible order. To do that, 
-	 * the given actions are first sorted using the {@link FileSystemActionComparator} and
-	 * then executed individually using {@link FileSystemAction#execute()}.
+	 * Downloads the given multichunks in the background, and applies the given (sorted) file system
+	 * actions while the download is running. Each {@link FileCreatingFileSystemAction} waits only for
+	 * its own multichunks, so that files appear as soon as their multichunks have been downloaded.
+	 * 
+	 * <p>If applying an action fails, the download is cancelled. If the download fails, the
+	 * first action waiting for a missing multichunk fails with the download's exception.
 	 */
-	private void applyFileSystemActions(List<FileSystemAction> actions) throws Exception {
-		// Sort
-		FileSystemActionComparator actionComparator = new FileSystemActionComparator();
-		actionComparator.sort(actions);
+	private void downloadAndApplyFileSystemActions(List<FileSystemAction> actions, Map<FileSystemAction, Set<MultiChunkId>> actionMultiChunks,
+			final Set<MultiChunkId> unknownMultiChunks, OnDemandMultiChunkFetcher multiChunkFetcher) throws Exception {
+
+		final AvailableMultiChunks availableMultiChunks = new AvailableMultiChunks(retainedMultiChunks, actionMultiChunks.values());
+		downloader.setListener(availableMultiChunks);
+		multiChunkFetcher.setBackgroundDownload(unknownMultiChunks, availableMultiChunks);
+
+		ExecutorService downloadExecutor = Executors.newSingleThreadExecutor();
+		boolean applySuccessful = false;
+
+		try {
+			Future<Void> downloadFuture = downloadExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
+						availableMultiChunks.onDownloadFinished(null);
+					}
+					catch (Exception e) {
+						availableMultiChunks.onDownloadFinished(e);
+						throw e;
+					}
+					
+					return null;
+				}
+			});
+
+			applyFileSystemActions(actions, actionMultiChunks, availableMultiChunks);
+			applySuccessful = true;
+
+			waitForDownload(downloadFuture);
+		}
+		finally {
+			if (!applySuccessful) {
+				downloadExecutor.shutdownNow();
+			}
+			else {
+				downloadExecutor.shutdown();
+			}
+
+			downloadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Applies the given file system actions. The actions must have been sorted using the 
+	 * {@link FileSystemActionComparator} before. If only one apply thread is configured, the
+	 * actions are executed one after the other (in the given order). Otherwise, the actions are
+	 * grouped into levels of independent actions by the {@link FileSystemActionScheduler}, and
+	 * the actions of each level are executed in parallel.
+	 */
+	private void applyFileSystemActions(List<FileSystemAction> actions, Map<FileSystemAction, Set<MultiChunkId>> actionMultiChunks,
+			AvailableMultiChunks availableMultiChunks) throws Exception {
 
 		logger.log(Level.FINER, "- Applying file system actions (sorted!) ...");
 
-		// Apply
-		for (FileSystemAction action : actions) {
-			if (logger.isLoggable(Level.FINER)) {
-				logger.log(Level.FINER, "   +  {0}", action);
+		if (applyThreads > 1) {
+			applyFileSystemActionsInParallel(actions, actionMultiChunks, availableMultiChunks);
+		}
+		else {
+			for (FileSystemAction action : actions) {
+				applyFileSystemAction(action, actionMultiChunks.get(action), availableMultiChunks);
+			}
+		}
+	}
+
+	private void applyFileSystemActionsInParallel(List<FileSystemAction> actions, final Map<FileSystemAction, Set<MultiChunkId>> actionMultiChunks,
+			final AvailableMultiChunks availableMultiChunks) throws Exception {
+
+		List<List<FileSystemAction>> levels = new FileSystemActionScheduler().determineLevels(actions);
+		ExecutorService applyExecutor = Executors.newFixedThreadPool(applyThreads);
+
+		try {
+			for (List<FileSystemAction> level : levels) {
+				if (level.size() == 1) {
+					applyFileSystemAction(level.get(0), actionMultiChunks.get(level.get(0)), availableMultiChunks);
+				}
+				else {
+					List<Future<Void>> actionFutures = new ArrayList<Future<Void>>();
+
+					for (final FileSystemAction action : level) {
+						actionFutures.add(applyExecutor.submit(new Callable<Void>() {
+							@Override
+							public Void call() throws Exception {
+								applyFileSystemAction(action, actionMultiChunks.get(action), availableMultiChunks);
+								return null;
+							}
+						}));
+					}
+
+					waitForActions(actionFutures);
+				}
+			}
+		}
+		finally {
+			applyExecutor.shutdown();
+			applyExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Waits for the multichunks of the given action to be available, and then executes the action.
+	 * Afterwards, the multichunks that no other action of this batch needs are released.
+	 */
+	private void applyFileSystemAction(FileSystemAction action, Set<MultiChunkId> multiChunkIds, AvailableMultiChunks availableMultiChunks)
+			throws Exception {
+
+		if (logger.isLoggable(Level.FINER)) {
+			logger.log(Level.FINER, "   +  {0}", action);
+		}
+
+		// Wait for the multichunks of this action (if any)
+		if (multiChunkIds != null && multiChunkIds.size() > 0) {
+			availableMultiChunks.waitFor(multiChunkIds);
+		}
+
+		// Execute the file system action
+		
+		// Note that exceptions are not caught here, to prevent 
+		// apply-failed-delete-on-up situations.
+		
+		action.execute(); 
+
+		if (multiChunkIds != null) {
+			availableMultiChunks.release(multiChunkIds);
+		}
+	}
+
+	/**
+	 * Waits for all actions of a level to finish. If an action fails, the actions that
+	 * have not been started yet are cancelled, and the exception of the first failed action
+	 * (in the order of the list) is rethrown once the running actions have finished.
+	 */
+	private void waitForActions(List<Future<Void>> actionFutures) throws Exception {
+		Exception firstException = null;
+
+		for (Future<Void> actionFuture : actionFutures) {
+			try {
+				if (!actionFuture.isCancelled()) {
+					actionFuture.get();
+				}
+			}
+			catch (ExecutionException e) {
+				if (firstException == null) {
+					firstException = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+
+					for (Future<Void> otherActionFuture : actionFutures) {
+						otherActionFuture.cancel(false);
+					}
+				}
+			}
+		}
+
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+
+	private void waitForDownload(Future<Void> downloadFuture) throws Exception {
+		try {
+			downloadFuture.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			else {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Provides multichunks that an action needs, but that were not part of its wait set -- 
+	 * e.g. because a chunk copied from a local file could not be read from the cache anymore. 
+	 * Multichunks that are part of the background download are waited for; all other multichunks
+	 * (and background multichunks that are no longer in the cache) are downloaded on demand, one
+	 * at a time, using a separate transfer manager.
+	 */
+	private class OnDemandMultiChunkFetcher implements MultiChunkFetcher {
+		private Set<MultiChunkId> backgroundMultiChunks = Collections.emptySet();
+		private AvailableMultiChunks availableMultiChunks = null;
+		private Set<MultiChunkId> fetchedMultiChunks = new HashSet<MultiChunkId>();
+
+		public void setBackgroundDownload(Set<MultiChunkId> backgroundMultiChunks, AvailableMultiChunks availableMultiChunks) {
+			this.backgroundMultiChunks = backgroundMultiChunks;
+			this.availableMultiChunks = availableMultiChunks;
+		}
+
+		@Override
+		public void fetchMultiChunk(MultiChunkId multiChunkId) throws Exception {
+			if (backgroundMultiChunks.contains(multiChunkId)) {
+				availableMultiChunks.waitFor(Collections.singleton(multiChunkId));
+
+				// Multichunk might have been removed from the cache in the mean time
+				if (config.getCache().getDecryptedMultiChunkFile(multiChunkId).exists()) {
+					return;
+				}
+			}
+
+			synchronized (this) {
+				if (!config.getCache().getDecryptedMultiChunkFile(multiChunkId).exists()) {
+					logger.log(Level.INFO, "- Downloading multichunk " + multiChunkId + " on demand ...");
+
+					TransferManager onDemandTransferManager = TransferManagerFactory
+							.build(config)
+							.withFeature(ReadAfterWriteConsistent.class)
+							.withFeature(Retriable.class)
+							.withFeature(PathAware.class)
+							.withFeature(TransactionAware.class)
+							.asDefault();
+
+					new Downloader(config, onDemandTransferManager).downloadAndDecryptMultiChunks(Collections.singleton(multiChunkId));
+				}
+
+				fetchedMultiChunks.add(multiChunkId);
 			}
+		}
+
+		public synchronized Set<MultiChunkId> getFetchedMultiChunks() {
+			return new HashSet<MultiChunkId>(fetchedMultiChunks);
+		}
+	}
+
+	/**
+	 * Keeps track of the multichunks that are available in the local cache, and allows
+	 * the applying thread to wait for the multichunks of an action.
+	 * 
+	 * <p>It also counts the actions that still need each multichunk. Once the last of these
+	 * actions has been applied, the decrypted multichunk is handed to the {@link RetainedMultiChunks},
+	 * which deletes it from the cache unless the next batch needs it as well.
+	 */
+	private static class AvailableMultiChunks implements DownloaderListener {
+		private RetainedMultiChunks retainedMultiChunks;
+		private Map<MultiChunkId, Integer> remainingActionCounts = new HashMap<MultiChunkId, Integer>();
+		private Set<MultiChunkId> availableMultiChunkIds = new HashSet<MultiChunkId>();
+		private boolean downloadFinished = false;
+		private Exception downloadException = null;
 
-			// Execute the file system action
-			
-			// Note that exceptions are not caught here, to prevent 
-			// apply-failed-delete-on-up situations.
-			
-			action.execute(); 
+		public AvailableMultiChunks(RetainedMultiChunks retainedMultiChunks, Collection<Set<MultiChunkId>> actionMultiChunks) {
+			this.retainedMultiChunks = retainedMultiChunks;
+
+			for (Set<MultiChunkId> multiChunkIds : actionMultiChunks) {
+				for (MultiChunkId multiChunkId : multiChunkIds) {
+					Integer remainingActionCount = remainingActionCounts.get(multiChunkId);
+					remainingActionCounts.put(multiChunkId, (remainingActionCount != null) ? remainingActionCount + 1 : 1);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void onMultiChunkAvailable(MultiChunkId multiChunkId) {
+			availableMultiChunkIds.add(multiChunkId);
+			notifyAll();
+		}
+
+		public synchronized void onDownloadFinished(Exception downloadException) {
+			this.downloadFinished = true;
+			this.downloadException = downloadException;
+
+			notifyAll();
+		}
+
+		public synchronized void waitFor(Set<MultiChunkId> multiChunkIds) throws Exception {
+			while (!availableMultiChunkIds.containsAll(multiChunkIds)) {
+				if (downloadException != null) {
+					throw downloadException;
+				}
+				else if (downloadFinished) {
+					throw new Exception("Multichunks not available after download: " + multiChunkIds);
+				}
+
+				wait();
+			}
+		}
+
+		/**
+		 * Called after an action has been applied successfully. Releases the decrypted multichunks
+		 * of the action that are not needed by any other action of this batch anymore.
+		 */
+		public synchronized void release(Set<MultiChunkId> multiChunkIds) {
+			for (MultiChunkId multiChunkId : multiChunkIds) {
+				Integer remainingActionCount = remainingActionCounts.get(multiChunkId);
+
+				if (remainingActionCount == null) {
+					continue;
+				}
+				else if (remainingActionCount > 1) {
+					remainingActionCounts.put(multiChunkId, remainingActionCount - 1);
+				}
+				else {
+					remainingActionCounts.remove(multiChunkId);
+					retainedMultiChunks.add(multiChunkId);
+				}
+			}
 		}
 	}
 }
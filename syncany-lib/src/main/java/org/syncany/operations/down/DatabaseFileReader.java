@@ -19,47 +19,80 @@ package org.syncany.operations.down;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.syncany.database.ChunkEntry;
 import org.syncany.database.DatabaseVersion;
 import org.syncany.database.DatabaseVersionHeader;
+import org.syncany.database.FileContent;
 import org.syncany.database.MemoryDatabase;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.PartialFileHistory;
 import org.syncany.database.VectorClock;
 import org.syncany.database.dao.DatabaseXmlSerializer;
 import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseVersionListener;
 
 /**
  * The DatabaseFileReader provides a way to read a series of database files
  * in a memory-efficient way, by converting them to a series of MemoryDatabases,
  * none of which are too large.
  * 
+ * <p>Database files are not read into memory as a whole. Instead, the database versions
+ * are read in parts of at most {@link #MAX_PART_SIZE} entities, and handed to the
+ * {@link BatchListener} in batches of about {@link DownOperationOptions#getMaxBatchFiles()} file
+ * histories (or ten times as many entities in total). A single large database version (e.g. an
+ * initial import) is therefore split across several batches. Since a part never references
+ * entities of a later part, each batch can be applied and persisted before the next batch is
+ * read.
+ * 
  * @author Pim Otte
  */
-public class DatabaseFileReader implements Iterator<MemoryDatabase> {
-	private static final int MAX_FILES = 9999;
+public class DatabaseFileReader {
+	private static final int MAX_PART_SIZE = 9999;
+
+	/**
+	 * Receives the batches read by the {@link DatabaseFileReader}. If the last database version
+	 * of a batch is incomplete, its remaining parts will be contained in the next batch.
+	 */
+	public interface BatchListener {
+		public void onBatchRead(MemoryDatabase winnersDatabase, boolean lastDatabaseVersionComplete) throws Exception;
+	}
 
 	private DatabaseXmlSerializer databaseSerializer;
 	private List<DatabaseVersionHeader> winnersApplyBranchList;
 	private Map<DatabaseVersionHeader, File> databaseVersionLocations;
-	private int branchIndex = 0;
+	private int maxBatchFiles;
+	private int maxBatchEntities;
+
+	private BatchListener batchListener;
+	private List<DatabaseVersion> batchDatabaseVersions;
+	private boolean batchLastDatabaseVersionComplete;
+	private int batchFileHistoryCount;
+	private int batchEntityCount;
 
 	public DatabaseFileReader(DatabaseXmlSerializer databaseSerializer, DatabaseBranch winnersApplyBranch,
 			Map<DatabaseVersionHeader, File> databaseVersionLocations) {
 		
+		this(databaseSerializer, winnersApplyBranch, databaseVersionLocations, DownOperationOptions.DEFAULT_MAX_BATCH_FILES);
+	}
+
+	public DatabaseFileReader(DatabaseXmlSerializer databaseSerializer, DatabaseBranch winnersApplyBranch,
+			Map<DatabaseVersionHeader, File> databaseVersionLocations, int maxBatchFiles) {
+		
 		this.winnersApplyBranchList = winnersApplyBranch.getAll();
 		this.databaseVersionLocations = databaseVersionLocations;
 		this.databaseSerializer = databaseSerializer;
-	}
-
-	public boolean hasNext() {
-		return branchIndex < winnersApplyBranchList.size();
+		this.maxBatchFiles = Math.max(1, maxBatchFiles);
+		this.maxBatchEntities = 10 * this.maxBatchFiles;
+		this.batchDatabaseVersions = new ArrayList<DatabaseVersion>();
 	}
 
 	/**
-	 * Loads the winner's database branch into the memory in a {@link MemoryDatabase} object, by using
-	 * the already downloaded list of remote database files.
+	 * Loads the winner's database branch in batches, by using the already downloaded list of remote 
+	 * database files, and passes each batch as a {@link MemoryDatabase} to the given listener.
 	 *
 	 * <p>Because database files can contain multiple {@link DatabaseVersion}s per client, a range for which
 	 * to load the database versions must be determined.
@@ -91,17 +124,15 @@ public class DatabaseFileReader implements Iterator<MemoryDatabase> {
 	 * db-A-0005 must be processed twice; each time loading separate parts of the file. In this case:
 	 * First load (A1)-(A2) from db-A-0005, then load (A2,B1) from db-B-0001, then load (A3,B1)-(A4,B1)
 	 * from db-A-0005, and ignore (A5,B1).
-	 *
-	 * @return Returns a loaded memory database containing all metadata from the winner's branch
 	 */
-	@Override
-	public MemoryDatabase next() {
-		MemoryDatabase winnerBranchDatabase = new MemoryDatabase();
+	public void read(BatchListener batchListener) throws Exception {
+		this.batchListener = batchListener;
+
 		String rangeClientName = null;
 		VectorClock rangeVersionFrom = null;
 		VectorClock rangeVersionTo = null;
 
-		while (branchIndex < winnersApplyBranchList.size() && winnerBranchDatabase.getFileHistories().size() < MAX_FILES) {
+		for (int branchIndex = 0; branchIndex < winnersApplyBranchList.size(); branchIndex++) {
 			DatabaseVersionHeader currentDatabaseVersionHeader = winnersApplyBranchList.get(branchIndex);
 			DatabaseVersionHeader nextDatabaseVersionHeader = (branchIndex + 1 < winnersApplyBranchList.size()) ? winnersApplyBranchList
 					.get(branchIndex + 1) : null;
@@ -135,24 +166,77 @@ public class DatabaseFileReader implements Iterator<MemoryDatabase> {
 			boolean rangeEnds = lastDatabaseVersionHeader || !nextDatabaseVersionInSameFile;
 
 			if (rangeEnds) {
-				try {
-					databaseSerializer.load(winnerBranchDatabase, databaseVersionFile, rangeVersionFrom, rangeVersionTo, DatabaseReadType.FULL);
-				}
-				catch (IOException e) {
-					throw new RuntimeException(e.getMessage(), e);
-				}
+				databaseSerializer.load(new DatabaseVersionListener() {
+					@Override
+					public void onDatabaseVersionRead(DatabaseVersion databaseVersionPart, boolean lastPart) throws IOException {
+						addToBatch(databaseVersionPart, lastPart);
+					}
+				}, databaseVersionFile, rangeVersionFrom, rangeVersionTo, DatabaseReadType.FULL, MAX_PART_SIZE);
+
 				rangeClientName = null;
 			}
-			branchIndex++;
 		}
 
-		return winnerBranchDatabase;
+		if (batchDatabaseVersions.size() > 0) {
+			flushBatch();
+		}
 	}
 
-	@Override
-	public void remove() {
-		throw new UnsupportedOperationException("Removing a databaseversion is not supported");
+	private void addToBatch(DatabaseVersion databaseVersionPart, boolean lastPart) throws IOException {
+		DatabaseVersion lastBatchDatabaseVersion = (batchDatabaseVersions.size() > 0) ? batchDatabaseVersions.get(batchDatabaseVersions.size() - 1) : null;
+		boolean continuesLastDatabaseVersion = lastBatchDatabaseVersion != null && lastBatchDatabaseVersion.getHeader().equals(databaseVersionPart.getHeader());
+
+		if (continuesLastDatabaseVersion) {
+			mergeDatabaseVersionPart(lastBatchDatabaseVersion, databaseVersionPart);
+		}
+		else {
+			batchDatabaseVersions.add(databaseVersionPart);
+		}
 
+		batchLastDatabaseVersionComplete = lastPart;
+		batchFileHistoryCount += databaseVersionPart.getFileHistories().size();
+		batchEntityCount += databaseVersionPart.getChunks().size() + databaseVersionPart.getMultiChunks().size()
+				+ databaseVersionPart.getFileContents().size() + databaseVersionPart.getFileHistories().size();
+
+		if (batchFileHistoryCount >= maxBatchFiles || batchEntityCount >= maxBatchEntities) {
+			try {
+				flushBatch();
+			}
+			catch (Exception e) {
+				throw new IOException("Cannot process batch of winners database.", e);
+			}
+		}
+	}
+
+	private void mergeDatabaseVersionPart(DatabaseVersion databaseVersion, DatabaseVersion databaseVersionPart) {
+		for (ChunkEntry chunk : databaseVersionPart.getChunks()) {
+			databaseVersion.addChunk(chunk);
+		}
+
+		for (MultiChunkEntry multiChunk : databaseVersionPart.getMultiChunks()) {
+			databaseVersion.addMultiChunk(multiChunk);
+		}
+
+		for (FileContent fileContent : databaseVersionPart.getFileContents()) {
+			databaseVersion.addFileContent(fileContent);
+		}
+
+		for (PartialFileHistory fileHistory : databaseVersionPart.getFileHistories()) {
+			databaseVersion.addFileHistory(fileHistory);
+		}
 	}
 
+	private void flushBatch() throws Exception {
+		MemoryDatabase winnersDatabase = new MemoryDatabase();
+
+		for (DatabaseVersion databaseVersion : batchDatabaseVersions) {
+			winnersDatabase.addDatabaseVersion(databaseVersion);
+		}
+
+		batchDatabaseVersions.clear();
+		batchFileHistoryCount = 0;
+		batchEntityCount = 0;
+
+		batchListener.onBatchRead(winnersDatabase, batchLastDatabaseVersionComplete);
+	}
 }
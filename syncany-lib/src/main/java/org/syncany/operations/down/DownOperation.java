@@ -99,6 +99,10 @@ public class DownOperation extends AbstractTransferOperation {
 	private DatabaseReconciliator databaseReconciliator;
 	private DatabaseXmlSerializer databaseSerializer;
 
+	private DatabaseVersionHeader lastPersistedDatabaseVersionHeader;
+	private long lastPersistedDatabaseVersionId;
+	private RetainedMultiChunks retainedMultiChunks;
+
 	public DownOperation(Config config) {
 		this(config, new DownOperationOptions());
 	}
@@ -111,7 +115,8 @@ public class DownOperation extends AbstractTransferOperation {
 
 		this.localDatabase = new SqlDatabase(config);
 		this.databaseReconciliator = new DatabaseReconciliator();
-		this.databaseSerializer = new DatabaseXmlSerializer(config.getTransformer());
+		this.databaseSerializer = new DatabaseXmlSerializer(config.getTransformer(), config.getDatabaseFormat());
+		this.retainedMultiChunks = new RetainedMultiChunks(config.getCache());
 	}
 
 	/**
@@ -146,61 +151,72 @@ public class DownOperation extends AbstractTransferOperation {
 		transferManager.clearResumableTransactions();
 		transferManager.clearPendingTransactions();
 
-		DatabaseBranch localBranch = localDatabase.getLocalDatabaseBranch();
-		List<DatabaseRemoteFile> newRemoteDatabases = result.getLsRemoteResult().getUnknownRemoteDatabases();
+		// Defer checkpoints while writing the winners' database versions (if enabled)
+		localDatabase.beginBulkLoad();
 
-		SortedMap<File, DatabaseRemoteFile> unknownRemoteDatabasesInCache = downloadUnknownRemoteDatabases(newRemoteDatabases);
-		SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = readUnknownDatabaseVersionHeaders(unknownRemoteDatabasesInCache);
-		Map<DatabaseVersionHeader, File> databaseVersionLocations = findDatabaseVersionLocations(remoteDatabaseHeaders, unknownRemoteDatabasesInCache);
+		try {
+			DatabaseBranch localBranch = localDatabase.getLocalDatabaseBranch();
+			List<DatabaseRemoteFile> newRemoteDatabases = result.getLsRemoteResult().getUnknownRemoteDatabases();
 
-		Map<String, CleanupRemoteFile> remoteCleanupFiles = getRemoteCleanupFiles();
-		boolean cleanupOccurred = cleanupOccurred(remoteCleanupFiles);
+			SortedMap<File, DatabaseRemoteFile> unknownRemoteDatabasesInCache = downloadUnknownRemoteDatabases(newRemoteDatabases);
+			SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> remoteDatabaseHeaders = readUnknownDatabaseVersionHeaders(unknownRemoteDatabasesInCache);
+			Map<DatabaseVersionHeader, File> databaseVersionLocations = findDatabaseVersionLocations(remoteDatabaseHeaders, unknownRemoteDatabasesInCache);
 
-		List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion = null;
+			Map<String, CleanupRemoteFile> remoteCleanupFiles = getRemoteCleanupFiles();
+			boolean cleanupOccurred = cleanupOccurred(remoteCleanupFiles);
 
-		if (cleanupOccurred) {
-			logger.log(Level.INFO, "Cleanup occurred. Capturing local file histories, then deleting entire database ...");
+			List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion = null;
 
-			// Capture file histories
-			preDeleteFileHistoriesWithLastVersion = localDatabase.getFileHistoriesWithLastVersion();
+			if (cleanupOccurred) {
+				logger.log(Level.INFO, "Cleanup occurred. Capturing local file histories, then deleting entire database ...");
 
-			// Get rid of local database
-			localDatabase.deleteAll();
+				// Capture file histories
+				preDeleteFileHistoriesWithLastVersion = localDatabase.getFileHistoriesWithLastVersion();
 
-			// Normally, we wouldn't want to commit in the middle of an operation, but unfortunately
-			// we have to, since not committing causes hanging in database operations, since UNCOMMITTED_READ
-			// does not do enough magic to proceed. The commit in itself is not a problem, since we need
-			// to redownload all remote data anyway.
-			localDatabase.commit();
+				// Get rid of local database
+				localDatabase.deleteAll();
 
-			// Set last cleanup values
-			long lastRemoteCleanupNumber = getLastRemoteCleanupNumber(remoteCleanupFiles);
+				// Normally, we wouldn't want to commit in the middle of an operation, but unfortunately
+				// we have to, since not committing causes hanging in database operations, since UNCOMMITTED_READ
+				// does not do enough magic to proceed. The commit in itself is not a problem, since we need
+				// to redownload all remote data anyway.
+				localDatabase.commit();
 
-			localDatabase.writeCleanupNumber(lastRemoteCleanupNumber);
-			localDatabase.writeCleanupTime(System.currentTimeMillis() / 1000);
+				// Set last cleanup values
+				long lastRemoteCleanupNumber = getLastRemoteCleanupNumber(remoteCleanupFiles);
 
-			localBranch = new DatabaseBranch();
-		}
+				localDatabase.writeCleanupNumber(lastRemoteCleanupNumber);
+				localDatabase.writeCleanupTime(System.currentTimeMillis() / 1000);
 
-		try {
-			DatabaseBranches allBranches = populateDatabaseBranches(localBranch, remoteDatabaseHeaders);
-			Map.Entry<String, DatabaseBranch> winnersBranch = determineWinnerBranch(allBranches);
+				localBranch = new DatabaseBranch();
+			}
 
-			purgeConflictingLocalBranch(localBranch, winnersBranch);
-			applyWinnersBranch(localBranch, winnersBranch, databaseVersionLocations, cleanupOccurred,
-					preDeleteFileHistoriesWithLastVersion);
+			try {
+				DatabaseBranches allBranches = populateDatabaseBranches(localBranch, remoteDatabaseHeaders);
+				Map.Entry<String, DatabaseBranch> winnersBranch = determineWinnerBranch(allBranches);
 
-			persistMuddyMultiChunks(winnersBranch, allBranches, databaseVersionLocations);
-			removeNonMuddyMultiChunks();
+				purgeConflictingLocalBranch(localBranch, winnersBranch);
+				applyWinnersBranch(localBranch, winnersBranch, databaseVersionLocations, cleanupOccurred,
+						preDeleteFileHistoriesWithLastVersion);
 
-			localDatabase.writeKnownRemoteDatabases(newRemoteDatabases);
-			localDatabase.commit();
+				persistMuddyMultiChunks(winnersBranch, allBranches, databaseVersionLocations);
+				removeNonMuddyMultiChunks();
+
+				localDatabase.writeKnownRemoteDatabases(newRemoteDatabases);
+				localDatabase.commit();
+			}
+			catch (Exception e) {
+				localDatabase.rollback();
+				throw e;
+			}
 		}
 		catch (Exception e) {
-			localDatabase.rollback();
+			localDatabase.abortBulkLoad();
 			throw e;
 		}
 
+		localDatabase.endBulkLoad();
+
 		finishOperation();
 		fireEndEvent();
 
@@ -308,6 +324,9 @@ public class DownOperation extends AbstractTransferOperation {
 	 *
 	 * <p>The returned database branches contain only the per-client {@link DatabaseVersionHeader}s, and not
 	 * the entire stitched branches, i.e. A's database branch will only contain database version headers from A.
+	 *
+	 * <p>Binary database files store all headers at the beginning of the file, so only this header section
+	 * is read (and decrypted). XML database files have to be parsed entirely.
 	 */
 	private SortedMap<DatabaseRemoteFile, List<DatabaseVersion>> readUnknownDatabaseVersionHeaders(SortedMap<File, DatabaseRemoteFile> remoteDatabases)
 			throws IOException,
@@ -436,12 +455,17 @@ public class DownOperation extends AbstractTransferOperation {
 	 * Applies the winner's branch locally in the local database as well as on the local file system. To
 	 * do so, it reads the winner's database, downloads newly required multichunks, determines file system actions
 	 * and applies these actions locally.
+	 *
+	 * <p>The winner's branch is read and applied in batches by the {@link DatabaseFileReader}, so that only
+	 * a bounded part of the winner's database is held in memory at a time -- even if a single database version
+	 * is very large. Decrypted multichunks that one batch shares with the next are kept in the cache
+	 * in between (see {@link RetainedMultiChunks}).
 	 * @param cleanupOccurred
 	 * @param preDeleteFileHistoriesWithLastVersion
 	 */
 	private void applyWinnersBranch(DatabaseBranch localBranch, Entry<String, DatabaseBranch> winnersBranch,
-			Map<DatabaseVersionHeader, File> databaseVersionLocations, boolean cleanupOccurred,
-			List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion) throws Exception {
+			Map<DatabaseVersionHeader, File> databaseVersionLocations, final boolean cleanupOccurred,
+			final List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion) throws Exception {
 
 		DatabaseBranch winnersApplyBranch = databaseReconciliator.findWinnersApplyBranch(localBranch, winnersBranch.getValue());
 
@@ -456,74 +480,92 @@ public class DownOperation extends AbstractTransferOperation {
 		}
 		else {
 			logger.log(Level.INFO, "Loading winners database (DEFAULT) ...");
-			DatabaseFileReader databaseFileReader = new DatabaseFileReader(databaseSerializer, winnersApplyBranch, databaseVersionLocations);
-
-			boolean noDatabaseVersions = !databaseFileReader.hasNext();
+			boolean noDatabaseVersions = winnersApplyBranch.size() == 0;
 			
-			if (noDatabaseVersions) {
-				applyChangesAndPersistDatabase(new MemoryDatabase(), cleanupOccurred, preDeleteFileHistoriesWithLastVersion);
-			} 
-			else {
-				while (databaseFileReader.hasNext()) {
-					MemoryDatabase winnersDatabase = databaseFileReader.next();
-					applyChangesAndPersistDatabase(winnersDatabase, cleanupOccurred, preDeleteFileHistoriesWithLastVersion);					
+			try {
+				if (noDatabaseVersions) {
+					applyChangesAndPersistDatabase(new MemoryDatabase(), true, cleanupOccurred, preDeleteFileHistoriesWithLastVersion);
+				} 
+				else {
+					DatabaseFileReader databaseFileReader = new DatabaseFileReader(databaseSerializer, winnersApplyBranch, databaseVersionLocations,
+							options.getMaxBatchFiles());
+
+					databaseFileReader.read(new DatabaseFileReader.BatchListener() {
+						@Override
+						public void onBatchRead(MemoryDatabase winnersDatabase, boolean lastDatabaseVersionComplete) throws Exception {
+							applyChangesAndPersistDatabase(winnersDatabase, lastDatabaseVersionComplete, cleanupOccurred, preDeleteFileHistoriesWithLastVersion);
+						}
+					});
 				}
 			}
+			finally {
+				retainedMultiChunks.deleteAll();
+			}
 
 			result.setResultCode(DownResultCode.OK_WITH_REMOTE_CHANGES);
 		}
 	}
 
-	private void applyChangesAndPersistDatabase(MemoryDatabase winnersDatabase, boolean cleanupOccurred, 
+	private void applyChangesAndPersistDatabase(MemoryDatabase winnersDatabase, boolean lastDatabaseVersionComplete, boolean cleanupOccurred, 
 			List<PartialFileHistory> preDeleteFileHistoriesWithLastVersion) throws Exception {
 		
 		if (options.isApplyChanges()) {
-			new ApplyChangesOperation(config, localDatabase, transferManager, winnersDatabase, result, cleanupOccurred,
-					preDeleteFileHistoriesWithLastVersion).execute();
+			new ApplyChangesOperation(config, localDatabase, transferManager, winnersDatabase, options, result, cleanupOccurred,
+					preDeleteFileHistoriesWithLastVersion, retainedMultiChunks).execute();
 		}
 		else {
 			logger.log(Level.INFO, "Doing nothing on the file system, because --no-apply switched on");
 		}
 
 		// We only persist the versions that we have already applied.
-		DatabaseBranch currentApplyBranch = new DatabaseBranch();
-		for (DatabaseVersion databaseVersion : winnersDatabase.getDatabaseVersions()) {
-			currentApplyBranch.add(databaseVersion.getHeader());
-		}
+		persistDatabaseVersions(winnersDatabase);
 
-		persistDatabaseVersions(currentApplyBranch, winnersDatabase);
-		localDatabase.commit();
+		// A database version that continues in the next batch is not committed before it is complete.
+		if (lastDatabaseVersionComplete) {
+			localDatabase.commit();
+		}
 	}
 
 	/**
-	 * Persists the given winners branch to the local database, i.e. for every database version
-	 * in the winners branch, all contained multichunks, chunks, etc. are added to the local SQL
+	 * Persists the given winners database to the local database, i.e. for every database version
+	 * in the winners database, all contained multichunks, chunks, etc. are added to the local SQL
 	 * database.
 	 *
+	 * <p>If a database version is split across several batches, its first part is written as a new 
+	 * database version, and the following parts are added to it. The last database version of the 
+	 * given winners database is remembered, because its next part may be in the next batch.
+	 *
 	 * <p>This method applies both regular database versions as well as purge database versions.
 	 */
-	private void persistDatabaseVersions(DatabaseBranch winnersApplyBranch, MemoryDatabase winnersDatabase)
-			throws SQLException {
-
+	private void persistDatabaseVersions(MemoryDatabase winnersDatabase) throws SQLException {
 		// Add winners database to local database
 		// Note: This must happen AFTER the file system stuff, because we compare the winners database with the local database!
 		logger.log(Level.INFO, "- Adding database versions to SQL database ...");
 
-		for (DatabaseVersionHeader currentDatabaseVersionHeader : winnersApplyBranch.getAll()) {
-			persistDatabaseVersion(winnersDatabase, currentDatabaseVersionHeader);
+		for (DatabaseVersion applyDatabaseVersion : winnersDatabase.getDatabaseVersions()) {
+			persistDatabaseVersion(applyDatabaseVersion);
 		}
 	}
 
 	/**
 	 * Persists a regular database version to the local database by using
-	 * {@link SqlDatabase#writeDatabaseVersion(DatabaseVersion)}.
+	 * {@link SqlDatabase#writeDatabaseVersion(DatabaseVersion)}, or -- if the first part of this 
+	 * database version has already been written -- {@link SqlDatabase#writeDatabaseVersionPart(long, DatabaseVersion)}.
 	 */
-	private void persistDatabaseVersion(MemoryDatabase winnersDatabase, DatabaseVersionHeader currentDatabaseVersionHeader) {
-		logger.log(Level.INFO, "  + Applying database version " + currentDatabaseVersionHeader.getVectorClock());
-
-		DatabaseVersion applyDatabaseVersion = winnersDatabase.getDatabaseVersion(currentDatabaseVersionHeader.getVectorClock());
+	private void persistDatabaseVersion(DatabaseVersion applyDatabaseVersion) {
+		DatabaseVersionHeader applyDatabaseVersionHeader = applyDatabaseVersion.getHeader();
 		logger.log(Level.FINE, "  + Contents: " + applyDatabaseVersion);
-		localDatabase.writeDatabaseVersion(applyDatabaseVersion);
+
+		if (applyDatabaseVersionHeader.equals(lastPersistedDatabaseVersionHeader)) {
+			logger.log(Level.INFO, "  + Applying next part of database version " + applyDatabaseVersionHeader.getVectorClock());
+			localDatabase.writeDatabaseVersionPart(lastPersistedDatabaseVersionId, applyDatabaseVersion);
+		}
+		else {
+			logger.log(Level.INFO, "  + Applying database version " + applyDatabaseVersionHeader.getVectorClock());
+
+			lastPersistedDatabaseVersionHeader = applyDatabaseVersionHeader;
+			lastPersistedDatabaseVersionId = localDatabase.writeDatabaseVersion(applyDatabaseVersion);
+		}
 	}
 
 	/**
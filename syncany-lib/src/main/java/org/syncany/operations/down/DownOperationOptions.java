@@ -21,6 +21,20 @@ import org.simpleframework.xml.Element;
 import org.syncany.operations.OperationOptions;
 
 public class DownOperationOptions implements OperationOptions {
+	// Multichunks are downloaded by this many threads at the same time (each with its own
+	// transfer manager), and decrypted by a separate pool of decryption threads. A value of 1
+	// for both downloads and decrypts the multichunks one after the other.
+	public static final int DEFAULT_DOWNLOAD_THREADS = 4;
+	public static final int DEFAULT_DECRYPTION_THREADS = Runtime.getRuntime().availableProcessors();
+
+	// Independent file system actions (e.g. new files in different folders) are applied by
+	// this many threads at the same time. A value of 1 applies all actions one after the other.
+	public static final int DEFAULT_APPLY_THREADS = 4;
+
+	// The winner's branch is read and applied in batches of about this many file histories,
+	// so that only a bounded part of the winner's database is held in memory at a time.
+	public static final int DEFAULT_MAX_BATCH_FILES = 9999;
+
 	public enum DownConflictStrategy {
 		RENAME, ASK
 	}
@@ -31,6 +45,18 @@ public class DownOperationOptions implements OperationOptions {
 	@Element(required = false)
 	private boolean applyChanges = true;
 
+	@Element(required = false)
+	private int downloadThreads = DEFAULT_DOWNLOAD_THREADS;
+
+	@Element(required = false)
+	private int decryptionThreads = DEFAULT_DECRYPTION_THREADS;
+
+	@Element(required = false)
+	private int applyThreads = DEFAULT_APPLY_THREADS;
+
+	@Element(required = false)
+	private int maxBatchFiles = DEFAULT_MAX_BATCH_FILES;
+
 	public DownConflictStrategy getConflictStrategy() {
 		return conflictStrategy;
 	}
@@ -45,5 +71,37 @@ public class DownOperationOptions implements OperationOptions {
 
 	public void setApplyChanges(boolean applyChanges) {
 		this.applyChanges = applyChanges;
-	}		
+	}
+
+	public int getDownloadThreads() {
+		return downloadThreads;
+	}
+
+	public void setDownloadThreads(int downloadThreads) {
+		this.downloadThreads = downloadThreads;
+	}
+
+	public int getDecryptionThreads() {
+		return decryptionThreads;
+	}
+
+	public void setDecryptionThreads(int decryptionThreads) {
+		this.decryptionThreads = decryptionThreads;
+	}
+
+	public int getApplyThreads() {
+		return applyThreads;
+	}
+
+	public void setApplyThreads(int applyThreads) {
+		this.applyThreads = applyThreads;
+	}
+
+	public int getMaxBatchFiles() {
+		return maxBatchFiles;
+	}
+
+	public void setMaxBatchFiles(int maxBatchFiles) {
+		this.maxBatchFiles = maxBatchFiles;
+	}
 }
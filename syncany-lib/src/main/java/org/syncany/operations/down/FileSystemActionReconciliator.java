@@ -37,6 +37,8 @@ import org.syncany.database.PartialFileHistory;
 import org.syncany.database.PartialFileHistory.FileHistoryId;
 import org.syncany.database.SqlDatabase;
 import org.syncany.operations.Assembler;
+import org.syncany.operations.LocalChunkLocator;
+import org.syncany.operations.MultiChunkFetcher;
 import org.syncany.operations.ChangeSet;
 import org.syncany.operations.down.actions.ChangeFileSystemAction;
 import org.syncany.operations.down.actions.DeleteFileSystemAction;
@@ -134,22 +136,65 @@ public class FileSystemActionReconciliator {
 	private SqlDatabase localDatabase;
 	private FileVersionComparator fileVersionComparator;
 	private Assembler assembler;
+	private LocalChunkLocator localChunkLocator;
+	private MultiChunkFetcher multiChunkFetcher;
 	
 	public FileSystemActionReconciliator(Config config, ChangeSet changeSet) {
+		this(config, changeSet, new SqlDatabase(config));
+	}
+
+	/**
+	 * Creates a reconciliator that uses the given local database. Sharing the connection with the
+	 * caller allows the reconciliator (and the {@link Assembler}) to see entities that the caller has 
+	 * written, but not yet committed -- e.g. the first parts of a large database version.
+	 */
+	public FileSystemActionReconciliator(Config config, ChangeSet changeSet, SqlDatabase localDatabase) {
 		this.config = config; 
 		this.changeSet = changeSet;
-		this.localDatabase = new SqlDatabase(config);
-		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
+		this.localDatabase = localDatabase;
+		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker());
+		this.localChunkLocator = null;
+		this.multiChunkFetcher = null;
+	}
+
+	/**
+	 * Sets the {@link LocalChunkLocator} passed to the {@link Assembler} of the file system
+	 * actions, so that chunks available in local files do not have to be read from multichunks.
+	 * Must be called before the file system actions are determined.
+	 */
+	public void setLocalChunkLocator(LocalChunkLocator localChunkLocator) {
+		this.localChunkLocator = localChunkLocator;
+	}
+
+	/**
+	 * Sets the {@link MultiChunkFetcher} passed to the {@link Assembler} of the file system
+	 * actions, so that multichunks that were not expected to be needed can be downloaded on demand.
+	 * Must be called before the file system actions are determined.
+	 */
+	public void setMultiChunkFetcher(MultiChunkFetcher multiChunkFetcher) {
+		this.multiChunkFetcher = multiChunkFetcher;
 	}
 	
+	/**
+	 * Determines the file system actions for the given winners database. Only the last versions of
+	 * the file histories in the winners database are loaded from the local database, instead of the
+	 * entire local file tree. 
+	 */
 	public List<FileSystemAction> determineFileSystemActions(MemoryDatabase winnersDatabase) throws Exception {
-		List<PartialFileHistory> localFileHistoriesWithLastVersion = localDatabase.getFileHistoriesWithLastVersion();
+		List<FileHistoryId> winningFileHistoryIds = new ArrayList<FileHistoryId>();
+		
+		for (PartialFileHistory winningFileHistory : winnersDatabase.getFileHistories()) {
+			winningFileHistoryIds.add(winningFileHistory.getFileHistoryId());
+		}
+		
+		List<PartialFileHistory> localFileHistoriesWithLastVersion = localDatabase.getFileHistoriesWithLastVersion(winningFileHistoryIds);
 		return determineFileSystemActions(winnersDatabase, false, localFileHistoriesWithLastVersion);
 	}
 
 	public List<FileSystemAction> determineFileSystemActions(MemoryDatabase winnersDatabase, boolean cleanupOccurred,
 			List<PartialFileHistory> localFileHistoriesWithLastVersion) throws Exception {
-		this.assembler = new Assembler(config, localDatabase, winnersDatabase);
+		this.assembler = new Assembler(config, localDatabase, winnersDatabase, localChunkLocator);
+		this.assembler.setMultiChunkFetcher(multiChunkFetcher);
 		
 		List<FileSystemAction> fileSystemActions = new ArrayList<FileSystemAction>();
 		
@@ -0,0 +1,135 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.down;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.operations.down.actions.FileSystemAction;
+
+/**
+ * Groups sorted file system actions into levels of independent actions, so
+ * that the actions of one level can be executed in parallel. The levels themselves
+ * must be executed one after the other.
+ * 
+ * <p>The given actions must have been sorted by the {@link FileSystemActionComparator}.
+ * Levels are built by walking through the sorted list: An action is added to the current
+ * level if it is independent of all actions in the level. Otherwise, a new level is started.
+ * The sort order of dependent actions is hence preserved, e.g. folders are created before
+ * the files in them, and files are deleted before a new file or folder with the same
+ * path is created.
+ * 
+ * <p>Two actions are considered dependent if any of their paths (source and target path)
+ * are equal, or if one is the parent folder of the other. Paths are compared case-insensitively,
+ * to be safe on case-insensitive file systems.
+ * 
+ * <p>Chunks that are reused from local files are copied to the cache before any action
+ * is applied (see {@link org.syncany.operations.LocalChunkLocator#copyToCache(java.util.Set) copyToCache()}),
+ * so actions never read other files in the local folder, and these files need not be
+ * considered as dependencies.
+ * 
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class FileSystemActionScheduler {
+	private static final Logger logger = Logger.getLogger(FileSystemActionScheduler.class.getSimpleName());
+
+	public List<List<FileSystemAction>> determineLevels(List<FileSystemAction> sortedActions) {
+		List<List<FileSystemAction>> levels = new ArrayList<List<FileSystemAction>>();
+
+		List<FileSystemAction> currentLevel = new ArrayList<FileSystemAction>();
+		Set<String> currentLevelPaths = new HashSet<String>();
+		Set<String> currentLevelParentPaths = new HashSet<String>();
+
+		for (FileSystemAction action : sortedActions) {
+			List<String> actionPaths = getPaths(action);
+
+			if (conflictsWithLevel(actionPaths, currentLevelPaths, currentLevelParentPaths)) {
+				levels.add(currentLevel);
+
+				currentLevel = new ArrayList<FileSystemAction>();
+				currentLevelPaths.clear();
+				currentLevelParentPaths.clear();
+			}
+
+			currentLevel.add(action);
+
+			for (String actionPath : actionPaths) {
+				currentLevelPaths.add(actionPath);
+				currentLevelParentPaths.addAll(getParentPaths(actionPath));
+			}
+		}
+
+		if (currentLevel.size() > 0) {
+			levels.add(currentLevel);
+		}
+
+		logger.log(Level.INFO, "- Grouped " + sortedActions.size() + " file system action(s) into " + levels.size() + " level(s).");
+		return levels;
+	}
+
+	private boolean conflictsWithLevel(List<String> actionPaths, Set<String> levelPaths, Set<String> levelParentPaths) {
+		for (String actionPath : actionPaths) {
+			// Same path, or action path is the parent of a path in the level
+			if (levelPaths.contains(actionPath) || levelParentPaths.contains(actionPath)) {
+				return true;
+			}
+
+			// A path in the level is the parent of the action path
+			for (String parentPath : getParentPaths(actionPath)) {
+				if (levelPaths.contains(parentPath)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private List<String> getPaths(FileSystemAction action) {
+		List<String> paths = new ArrayList<String>(2);
+
+		if (action.getFile1() != null) {
+			paths.add(action.getFile1().getPath().toLowerCase(Locale.ROOT));
+		}
+
+		if (action.getFile2() != null) {
+			paths.add(action.getFile2().getPath().toLowerCase(Locale.ROOT));
+		}
+
+		return paths;
+	}
+
+	private List<String> getParentPaths(String path) {
+		List<String> parentPaths = new ArrayList<String>();
+		int separatorIndex = path.lastIndexOf('/');
+
+		while (separatorIndex > 0) {
+			path = path.substring(0, separatorIndex);
+			parentPaths.add(path);
+
+			separatorIndex = path.lastIndexOf('/');
+		}
+
+		return parentPaths;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.down;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Cache;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * Holds the decrypted multichunks that are no longer needed by the current batch of
+ * a down operation, but that might still be needed by the next batch.
+ *
+ * <p>The winner's branch is applied in batches (one {@link ApplyChangesOperation} per batch),
+ * and adjacent batches often share multichunks, e.g. if the small files of one multichunk are
+ * split across a batch boundary. Instead of deleting such multichunks when their last action
+ * in a batch has been applied, they are retained until the next batch has determined its
+ * multichunks. Retained multichunks that the next batch needs are re-used from the cache; all
+ * others are deleted. The remaining multichunks are deleted after the last batch.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class RetainedMultiChunks {
+	private static final Logger logger = Logger.getLogger(RetainedMultiChunks.class.getSimpleName());
+
+	private Cache cache;
+	private Set<MultiChunkId> multiChunkIds;
+
+	public RetainedMultiChunks(Cache cache) {
+		this.cache = cache;
+		this.multiChunkIds = new HashSet<MultiChunkId>();
+	}
+
+	/**
+	 * Retains the given decrypted multichunk, after the last action of the
+	 * current batch that needs it has been applied.
+	 */
+	public synchronized void add(MultiChunkId multiChunkId) {
+		multiChunkIds.add(multiChunkId);
+	}
+
+	/**
+	 * Deletes the retained multichunks that are not in the given set of multichunks
+	 * needed by the current batch. The multichunks in the given set are no longer retained;
+	 * the current batch releases them again once it does not need them anymore.
+	 */
+	public synchronized void deleteAllExcept(Set<MultiChunkId> neededMultiChunkIds) {
+		Iterator<MultiChunkId> multiChunkIdIterator = multiChunkIds.iterator();
+
+		while (multiChunkIdIterator.hasNext()) {
+			MultiChunkId multiChunkId = multiChunkIdIterator.next();
+
+			if (neededMultiChunkIds.contains(multiChunkId)) {
+				logger.log(Level.FINE, "- Re-using retained multichunk " + multiChunkId + " from previous batch.");
+			}
+			else {
+				delete(multiChunkId);
+			}
+
+			multiChunkIdIterator.remove();
+		}
+	}
+
+	/**
+	 * Deletes all retained multichunks. Must be called after the last batch
+	 * of the down operation has been applied (or if it failed).
+	 */
+	public synchronized void deleteAll() {
+		for (MultiChunkId multiChunkId : multiChunkIds) {
+			delete(multiChunkId);
+		}
+
+		multiChunkIds.clear();
+	}
+
+	private void delete(MultiChunkId multiChunkId) {
+		File decryptedMultiChunkFile = cache.getDecryptedMultiChunkFile(multiChunkId);
+
+		if (decryptedMultiChunkFile.delete()) {
+			logger.log(Level.FINE, "- Released multichunk " + multiChunkId + " from cache; no remaining action needs it.");
+		}
+	}
+}
@@ -20,22 +20,41 @@ package org.syncany.operations.status;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.syncany.config.Config;
 import org.syncany.config.LocalEventBus;
 import org.syncany.database.FileVersion;
-import org.syncany.database.FileVersion.FileStatus;
 import org.syncany.database.FileVersionComparator;
 import org.syncany.database.FileVersionComparator.FileVersionComparison;
+import org.syncany.database.ScanStateIndex;
 import org.syncany.database.SqlDatabase;
 import org.syncany.operations.ChangeSet;
 import org.syncany.operations.Operation;
@@ -48,11 +67,34 @@ import org.syncany.util.FileUtil;
  * database. It uses the {@link FileVersionComparator} to determine differences and returns
  * new/changed/deleted files in form of a {@link ChangeSet}.
  *
+ * <p>The local file tree is scanned directory by directory. If more than one scan thread is
+ * configured (see {@link StatusOperationOptions#getScanThreads()}), each directory is scanned
+ * as a separate fork/join task. The file attributes of each entry are read only once while
+ * listing its directory, and are handed to the comparator. Files are only probed for locks
+ * if they are new or differ from the database, i.e. unchanged files are never opened.
+ *
+ * <p>Instead of loading the entire current file tree from the database, the operation compares
+ * the local files to the {@link ScanStateIndex} written by the previous run whenever possible.
+ * Only files whose attributes differ from the index (and files changed in the database since
+ * the index was written) are loaded from the database and compared in detail.
+ *
+ * <p>If scope paths are set (see {@link StatusOperationOptions#getScopePaths()}), only these
+ * paths (and everything below them) are examined, and only their file versions are loaded from
+ * the database. This is used by the watcher, which knows which paths have changed. Files outside
+ * of the scope paths are not reported at all, not even as unchanged files.
+ *
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class StatusOperation extends Operation {
 	private static final Logger logger = Logger.getLogger(StatusOperation.class.getSimpleName());
 
+	// Number of paths per query when loading file versions for files that differ from the scan state index
+	private static final int FILE_VERSION_LOOKUP_BATCH_SIZE = 1000;
+
+	// Files modified less than this many milliseconds before the scan are never marked as verified in the
+	// scan state index, because a later change might not alter the (coarse-grained) last modified date
+	private static final long SCAN_STATE_INDEX_MIN_MODIFIED_AGE = 2000;
+
 	private FileVersionComparator fileVersionComparator;
 	private SqlDatabase localDatabase;
 	private StatusOperationOptions options;
@@ -66,7 +108,7 @@ public class StatusOperation extends Operation {
 	public StatusOperation(Config config, StatusOperationOptions options) {
 		super(config);
 
-		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
+		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker());
 		this.localDatabase = new SqlDatabase(config);
 		this.options = options;
 
@@ -91,158 +133,657 @@ public class StatusOperation extends Operation {
 		logger.log(Level.INFO, "Querying current file tree from database ...");
 		eventBus.post(new StatusStartSyncExternalEvent(config.getLocalDir().getAbsolutePath()));
 
-		// Path to actual file version
-		final Map<String, FileVersion> filesInDatabase = localDatabase.getCurrentFileTree();
+		Set<String> scopeRoots = (options != null && options.getScopePaths() != null) ? getScopeRoots(options.getScopePaths()) : null;
+		String fileTreeStateKey = (scopeRoots == null) ? localDatabase.getFileTreeStateKey() : null;
+		StatusDirectoryScanner directoryScanner = (scopeRoots == null) ? createDirectoryScanner(fileTreeStateKey)
+				: createScopedDirectoryScanner(scopeRoots);
 
 		// Find local changes
-		logger.log(Level.INFO, "Analyzing local folder " + config.getLocalDir() + " ...");
-		ChangeSet localChanges = findLocalChanges(filesInDatabase);
+		ChangeSet localChanges;
+
+		try {
+			logger.log(Level.INFO, "Analyzing local folder " + config.getLocalDir() + " ...");
+			localChanges = findLocalChanges(directoryScanner);
 
-		if (!localChanges.hasChanges()) {
-			logger.log(Level.INFO, "- No changes to local database");
+			if (!localChanges.hasChanges()) {
+				logger.log(Level.INFO, "- No changes to local database");
+			}
+
+			if (scopeRoots == null && directoryScanner.isScanStateIndexModified(fileTreeStateKey)) {
+				writeScanStateIndex(directoryScanner, fileTreeStateKey);
+			}
+		}
+		finally {
+			directoryScanner.close();
 		}
 
 		// Return result
 		StatusOperationResult statusResult = new StatusOperationResult();
 		statusResult.setChangeSet(localChanges);
+		statusResult.setLockedFiles(new HashSet<String>(directoryScanner.getLockedFiles()));
 
 		eventBus.post(new StatusEndSyncExternalEvent(config.getLocalDir().getAbsolutePath(), localChanges.hasChanges()));
 
 		return statusResult;
 	}
 
-	private ChangeSet findLocalChanges(final Map<String, FileVersion> filesInDatabase) throws FileNotFoundException, IOException {
-		ChangeSet localChanges = findLocalChangedAndNewFiles(config.getLocalDir(), filesInDatabase);
+	private StatusDirectoryScanner createDirectoryScanner(String fileTreeStateKey) {
+		Path rootPath = Paths.get(config.getLocalDir().getAbsolutePath());
+		boolean forceChecksum = options != null && options.isForceChecksum();
+
+		// The index cannot be used if checksums must be compared
+		ScanStateIndex scanStateIndex = (forceChecksum) ? null : ScanStateIndex.open(config.getScanStateIndexFile());
+
+		if (scanStateIndex != null) {
+			Set<String> changedPaths = new HashSet<String>();
+
+			if (!fileTreeStateKey.equals(scanStateIndex.getStateKey())) {
+				changedPaths = localDatabase.getPathsChangedSince(scanStateIndex.getStateKey());
+			}
+
+			if (changedPaths != null && changedPaths.size() <= scanStateIndex.size() / 2) {
+				logger.log(Level.INFO, "Using scan state index with " + scanStateIndex.size() + " entries; " + changedPaths.size()
+						+ " path(s) changed in database ...");
+
+				return new StatusDirectoryScanner(rootPath, scanStateIndex, changedPaths, getCurrentFileTree(changedPaths));
+			}
+
+			logger.log(Level.INFO, "Scan state index is outdated. Loading full file tree ...");
+			scanStateIndex.close();
+		}
+
+		return new StatusDirectoryScanner(rootPath, null, null, localDatabase.getCurrentFileTree());
+	}
+
+	/**
+	 * Reduces the given scope paths to their topmost paths, i.e. removes all paths below another
+	 * scope path. Returns <tt>null</tt> if the local folder itself is part of the scope.
+	 */
+	private Set<String> getScopeRoots(Set<String> scopePaths) {
+		Set<String> scopeRoots = new TreeSet<String>();
+
+		for (String scopePath : scopePaths) {
+			if ("".equals(scopePath)) {
+				return null;
+			}
+
+			boolean isBelowOtherScopePath = false;
+
+			for (String ancestorPath : getAncestorPaths(scopePath)) {
+				if (scopePaths.contains(ancestorPath)) {
+					isBelowOtherScopePath = true;
+					break;
+				}
+			}
+
+			if (!isBelowOtherScopePath) {
+				scopeRoots.add(scopePath);
+			}
+		}
+
+		return scopeRoots;
+	}
+
+	private StatusDirectoryScanner createScopedDirectoryScanner(Set<String> scopeRoots) {
+		logger.log(Level.INFO, "Limiting scan to " + scopeRoots.size() + " path(s) ...");
+
+		Path rootPath = Paths.get(config.getLocalDir().getAbsolutePath());
+		Map<String, FileVersion> knownFileVersions = new ConcurrentHashMap<String, FileVersion>();
+		Set<String> ancestorPaths = new HashSet<String>();
+
+		for (String scopeRoot : scopeRoots) {
+			knownFileVersions.putAll(localDatabase.getCurrentFileSubtree(scopeRoot));
+			ancestorPaths.addAll(getAncestorPaths(scopeRoot));
+		}
+
+		StatusDirectoryScanner directoryScanner = new StatusDirectoryScanner(rootPath, null, null, knownFileVersions);
+		directoryScanner.visitScopeRoots(scopeRoots, getCurrentFileTree(ancestorPaths));
+
+		return directoryScanner;
+	}
+
+	/**
+	 * Returns the relative paths of all parent folders of the given relative path,
+	 * starting with the topmost folder.
+	 */
+	private static List<String> getAncestorPaths(String relativePath) {
+		List<String> ancestorPaths = new ArrayList<String>();
+		int separatorIndex = relativePath.indexOf('/');
+
+		while (separatorIndex > 0) {
+			ancestorPaths.add(relativePath.substring(0, separatorIndex));
+			separatorIndex = relativePath.indexOf('/', separatorIndex + 1);
+		}
+
+		return ancestorPaths;
+	}
+
+	private Map<String, FileVersion> getCurrentFileTree(Collection<String> paths) {
+		Map<String, FileVersion> fileTree = new ConcurrentHashMap<String, FileVersion>();
+		List<String> pathBatch = new ArrayList<String>();
+
+		for (String path : paths) {
+			pathBatch.add(path);
+
+			if (pathBatch.size() == FILE_VERSION_LOOKUP_BATCH_SIZE) {
+				fileTree.putAll(localDatabase.getCurrentFileTree(pathBatch));
+				pathBatch.clear();
+			}
+		}
+
+		fileTree.putAll(localDatabase.getCurrentFileTree(pathBatch));
+
+		return fileTree;
+	}
+
+	private ChangeSet findLocalChanges(StatusDirectoryScanner directoryScanner) throws FileNotFoundException, IOException {
+		findLocalChangedAndNewFiles(directoryScanner);
 
 		if (options == null || options.isDelete()) {
-			findAndAppendDeletedFiles(localChanges, filesInDatabase);
+			directoryScanner.findAndAppendDeletedFiles();
 		}
 
-		return localChanges;
+		return directoryScanner.getChangeSet();
 	}
 
-	private ChangeSet findLocalChangedAndNewFiles(final File root, Map<String, FileVersion> filesInDatabase)
-			throws FileNotFoundException, IOException {
-		Path rootPath = Paths.get(root.getAbsolutePath());
+	private void findLocalChangedAndNewFiles(StatusDirectoryScanner directoryScanner) throws FileNotFoundException, IOException {
+		int scanThreads = (options != null) ? options.getScanThreads() : 1;
 
-		StatusFileVisitor fileVisitor = new StatusFileVisitor(rootPath, filesInDatabase);
-		Files.walkFileTree(rootPath, fileVisitor);
+		if (scanThreads <= 1) {
+			directoryScanner.scanSequentially();
+		}
+		else {
+			logger.log(Level.INFO, "Scanning local folder with " + scanThreads + " threads ...");
+			directoryScanner.scanConcurrently(scanThreads);
+		}
 
-		return fileVisitor.getChangeSet();
+		directoryScanner.compareDeferredFiles();
 	}
 
-	private void findAndAppendDeletedFiles(ChangeSet localChanges, Map<String, FileVersion> filesInDatabase) {
-		for (FileVersion lastLocalVersion : filesInDatabase.values()) {
-			// Check if file exists, remove if it doesn't
-			File lastLocalVersionOnDisk = new File(config.getLocalDir() + File.separator + lastLocalVersion.getPath());
+	private void writeScanStateIndex(StatusDirectoryScanner directoryScanner, String fileTreeStateKey) {
+		File scanStateIndexFile = config.getScanStateIndexFile();
+		File tempScanStateIndexFile = null;
+		ScanStateIndex.Writer scanStateIndexWriter = null;
+
+		try {
+			logger.log(Level.INFO, "Writing scan state index to " + scanStateIndexFile + " ...");
 
-			// Ignore this file history if the last version is marked "DELETED"
-			if (lastLocalVersion.getStatus() == FileStatus.DELETED) {
-				continue;
+			tempScanStateIndexFile = File.createTempFile(scanStateIndexFile.getName() + "-", ".tmp", scanStateIndexFile.getParentFile());
+			scanStateIndexWriter = new ScanStateIndex.Writer(tempScanStateIndexFile);
+
+			directoryScanner.writeScanStateIndex(scanStateIndexWriter);
+			scanStateIndexWriter.commit(fileTreeStateKey);
+
+			// The old index file cannot be replaced while it is mapped (on Windows)
+			directoryScanner.close();
+
+			Files.move(tempScanStateIndexFile.toPath(), scanStateIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			// Not fatal; the next run loads the full file tree
+			logger.log(Level.WARNING, "Cannot write scan state index to " + scanStateIndexFile + ".", e);
+
+			if (scanStateIndexWriter != null) {
+				scanStateIndexWriter.close();
 			}
 
-			// If file has VANISHED, mark as DELETED 
-			if (!FileUtil.exists(lastLocalVersionOnDisk)) {
-				localChanges.getDeletedFiles().add(lastLocalVersion.getPath());
+			if (tempScanStateIndexFile != null) {
+				tempScanStateIndexFile.delete();
 			}
 		}
 	}
 
-	private class StatusFileVisitor implements FileVisitor<Path> {
+	/**
+	 * Scans the local file tree and compares it to the expected file tree. The expected file
+	 * tree consists of two parts: A {@link ScanStateIndex} (if available) and a map of known
+	 * file versions. Paths that are contained in the changed paths (or all paths, if there is
+	 * no index) are looked up in the map; all other paths are looked up in the index.
+	 *
+	 * <p>Scanning starts at the root folder, or at the scope roots, if
+	 * {@link #visitScopeRoots(Collection, Map)} was called.
+	 */
+	private class StatusDirectoryScanner {
 		private Path root;
+		private List<Path> startDirectories;
 		private ChangeSet changeSet;
-		private Map<String, FileVersion> currentFileTree;
+		private boolean forceChecksum;
+		private long scanStartTime;
 
-		public StatusFileVisitor(Path root, Map<String, FileVersion> currentFileTree) {
+		private ScanStateIndex scanStateIndex;
+		private Set<String> changedPaths;
+		private Map<String, FileVersion> knownFileVersions;
+
+		private BitSet seenEntries;
+		private BitSet invalidatedEntries;
+		private Set<String> seenKnownPaths;
+		private Queue<DeferredFile> deferredFiles;
+		private Map<String, BasicFileAttributes> verifiedFiles;
+		private Set<String> lockedFiles;
+
+		public StatusDirectoryScanner(Path root, ScanStateIndex scanStateIndex, Set<String> changedPaths, Map<String, FileVersion> knownFileVersions) {
 			this.root = root;
+			this.startDirectories = new ArrayList<Path>(Collections.singletonList(root));
 			this.changeSet = new ChangeSet();
-			this.currentFileTree = currentFileTree;
+			this.forceChecksum = options != null && options.isForceChecksum();
+			this.scanStartTime = System.currentTimeMillis();
+
+			this.scanStateIndex = scanStateIndex;
+			this.changedPaths = changedPaths;
+			this.knownFileVersions = knownFileVersions;
+
+			this.seenEntries = new BitSet();
+			this.invalidatedEntries = new BitSet();
+			this.seenKnownPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			this.deferredFiles = new ConcurrentLinkedQueue<DeferredFile>();
+			this.verifiedFiles = new ConcurrentHashMap<String, BasicFileAttributes>();
+			this.lockedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 		}
 
 		public ChangeSet getChangeSet() {
 			return changeSet;
 		}
 
-		@Override
-		public FileVisitResult visitFile(Path actualLocalFile, BasicFileAttributes attrs) throws IOException {
-			String relativeFilePath = FileUtil.getRelativeDatabasePath(root.toFile(), actualLocalFile.toFile()); //root.relativize(actualLocalFile).toString();
+		public Set<String> getLockedFiles() {
+			return lockedFiles;
+		}
+
+		public void scanSequentially() {
+			Deque<Path> remainingDirectories = new ArrayDeque<Path>();
 
-			// Skip Syncany root folder
-			if (actualLocalFile.toFile().equals(config.getLocalDir())) {
-				return FileVisitResult.CONTINUE;
+			for (Path startDirectory : startDirectories) {
+				remainingDirectories.push(startDirectory);
 			}
 
-			// Skip .syncany (or app related acc. to config) 		
-			boolean isAppRelatedDir = actualLocalFile.toFile().equals(config.getAppDir())
-					|| actualLocalFile.toFile().equals(config.getCache())
-					|| actualLocalFile.toFile().equals(config.getDatabaseDir())
-					|| actualLocalFile.toFile().equals(config.getLogDir());
+			while (!remainingDirectories.isEmpty()) {
+				for (Path subDirectory : scanDirectory(remainingDirectories.pop())) {
+					remainingDirectories.push(subDirectory);
+				}
+			}
+		}
 
-			if (isAppRelatedDir) {
-				logger.log(Level.FINEST, "- Ignoring file (syncany app-related): {0}", relativeFilePath);
-				return FileVisitResult.SKIP_SUBTREE;
+		public void scanConcurrently(int scanThreads) {
+			ForkJoinPool scanPool = new ForkJoinPool(scanThreads, new StatusScanThreadFactory(), null, false);
+
+			try {
+				List<ForkJoinTask<Void>> startDirectoryTasks = new ArrayList<ForkJoinTask<Void>>();
+
+				for (Path startDirectory : startDirectories) {
+					startDirectoryTasks.add(scanPool.submit(new StatusDirectoryTask(this, startDirectory)));
+				}
+
+				for (ForkJoinTask<Void> startDirectoryTask : startDirectoryTasks) {
+					startDirectoryTask.join();
+				}
 			}
+			finally {
+				scanPool.shutdownNow();
+			}
+		}
+
+		/**
+		 * Visits the given scope roots (relative paths) and replaces the start directories of the
+		 * scan with those scope roots that are folders. Scope roots inside a folder that a full
+		 * scan would not descend into (app-related or ignored folders) are skipped.
+		 *
+		 * @param scopeRoots Topmost relative paths to examine
+		 * @param ancestorFileVersions Current file versions of the parent folders of the scope roots
+		 */
+		public void visitScopeRoots(Collection<String> scopeRoots, Map<String, FileVersion> ancestorFileVersions) {
+			startDirectories.clear();
+
+			for (String scopeRoot : scopeRoots) {
+				if (!isReachableByScan(scopeRoot, ancestorFileVersions)) {
+					logger.log(Level.FINEST, "- Ignoring scope path (parent folder not scanned): {0}", scopeRoot);
+					continue;
+				}
 
-			// Check if file is locked
-			boolean fileLocked = FileUtil.isFileLocked(actualLocalFile.toFile());
+				Path scopeRootPath = root.resolve(scopeRoot);
+				BasicFileAttributes fileAttributes = null;
 
-			if (fileLocked) {
-				logger.log(Level.FINEST, "- Ignoring file (locked): {0}", relativeFilePath);
-				return FileVisitResult.CONTINUE;
+				try {
+					fileAttributes = FileVersionComparator.readFileAttributes(scopeRootPath);
+				}
+				catch (IOException e) {
+					logger.log(Level.FINEST, "- Scope path does not exist (anymore): " + scopeRoot, e);
+					continue; // Deleted files are detected by findAndAppendDeletedFiles()
+				}
+
+				if (visitFile(scopeRootPath, fileAttributes) && fileAttributes.isDirectory()) {
+					startDirectories.add(scopeRootPath);
+				}
+			}
+		}
+
+		/**
+		 * Lists the given directory, reads the attributes of each of its entries and
+		 * compares them to the database. Returns the sub-directories that need to be scanned.
+		 */
+		public List<Path> scanDirectory(Path directory) {
+			List<Path> subDirectories = new ArrayList<Path>();
+
+			try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+				for (Path actualLocalFile : directoryStream) {
+					BasicFileAttributes fileAttributes = null;
+
+					try {
+						fileAttributes = FileVersionComparator.readFileAttributes(actualLocalFile);
+					}
+					catch (IOException e) {
+						logger.log(Level.FINEST, "- Ignoring file (cannot read attributes): " + actualLocalFile, e);
+						continue;
+					}
+
+					boolean scanSubtree = visitFile(actualLocalFile, fileAttributes);
+
+					// Symlinks are never followed, because attributes are read with NOFOLLOW_LINKS
+					if (scanSubtree && fileAttributes.isDirectory()) {
+						subDirectories.add(actualLocalFile);
+					}
+				}
+			}
+			catch (IOException e) {
+				logger.log(Level.FINEST, "- Ignoring directory (cannot list contents): " + directory, e);
+			}
+
+			return subDirectories;
+		}
+
+		/**
+		 * Loads the file versions of all files that differ from the scan state index
+		 * from the database (in batches), and compares them in detail.
+		 */
+		public void compareDeferredFiles() {
+			if (deferredFiles.isEmpty()) {
+				return;
+			}
+
+			logger.log(Level.INFO, "Comparing " + deferredFiles.size() + " file(s) that differ from the scan state index ...");
+			List<DeferredFile> deferredFileBatch = new ArrayList<DeferredFile>();
+
+			while (!deferredFiles.isEmpty()) {
+				deferredFileBatch.add(deferredFiles.poll());
+
+				if (deferredFileBatch.size() == FILE_VERSION_LOOKUP_BATCH_SIZE || deferredFiles.isEmpty()) {
+					compareDeferredFiles(deferredFileBatch);
+					deferredFileBatch.clear();
+				}
 			}
+		}
 
-			// Check database by file path
-			FileVersion expectedLastFileVersion = currentFileTree.get(relativeFilePath);
+		public void findAndAppendDeletedFiles() {
+			for (String knownPath : knownFileVersions.keySet()) {
+				if (!seenKnownPaths.contains(knownPath)) {
+					appendIfDeleted(knownPath);
+				}
+			}
 
-			if (expectedLastFileVersion != null) {
-				// Compare
-				boolean forceChecksum = options != null && options.isForceChecksum();
-				FileVersionComparison fileVersionComparison = fileVersionComparator.compare(expectedLastFileVersion, actualLocalFile.toFile(),
-						forceChecksum);
+			if (scanStateIndex != null) {
+				for (int entryNumber = 0; entryNumber < scanStateIndex.size(); entryNumber++) {
+					if (!seenEntries.get(entryNumber)) {
+						String entryPath = scanStateIndex.getPath(entryNumber);
 
-				if (fileVersionComparison.areEqual()) {
-					changeSet.getUnchangedFiles().add(relativeFilePath);
+						if (!changedPaths.contains(entryPath) && appendIfDeleted(entryPath)) {
+							invalidatedEntries.set(entryNumber);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Closes the scan state index (if any), so that its file can be replaced. The
+		 * scanner must not be used afterwards.
+		 */
+		public void close() {
+			if (scanStateIndex != null) {
+				scanStateIndex.close();
+			}
+		}
+
+		public boolean isScanStateIndexModified(String fileTreeStateKey) {
+			return scanStateIndex == null || !fileTreeStateKey.equals(scanStateIndex.getStateKey()) || !verifiedFiles.isEmpty()
+					|| !invalidatedEntries.isEmpty();
+		}
+
+		/**
+		 * Writes all paths of the current file tree to the given index writer, marking
+		 * all files that were found to be equal to the database as verified.
+		 */
+		public void writeScanStateIndex(ScanStateIndex.Writer scanStateIndexWriter) throws IOException {
+			if (scanStateIndex != null) {
+				for (int entryNumber = 0; entryNumber < scanStateIndex.size(); entryNumber++) {
+					String entryPath = scanStateIndex.getPath(entryNumber);
+					BasicFileAttributes verifiedFileAttributes = verifiedFiles.get(entryPath);
+
+					if (changedPaths.contains(entryPath)) {
+						continue; // Written below, if still in database
+					}
+					else if (verifiedFileAttributes != null) {
+						scanStateIndexWriter.addVerified(entryPath, verifiedFileAttributes);
+					}
+					else if (!invalidatedEntries.get(entryNumber)) {
+						scanStateIndexWriter.addCopy(scanStateIndex, entryNumber);
+					}
+					else {
+						scanStateIndexWriter.addKnown(entryPath);
+					}
+				}
+			}
+
+			for (String knownPath : knownFileVersions.keySet()) {
+				BasicFileAttributes verifiedFileAttributes = verifiedFiles.get(knownPath);
+
+				if (verifiedFileAttributes != null) {
+					scanStateIndexWriter.addVerified(knownPath, verifiedFileAttributes);
 				}
 				else {
-					changeSet.getChangedFiles().add(relativeFilePath);
+					scanStateIndexWriter.addKnown(knownPath);
 				}
 			}
+		}
+
+		private boolean visitFile(Path actualLocalFile, BasicFileAttributes fileAttributes) {
+			File actualLocalFileAsFile = actualLocalFile.toFile();
+			String relativeFilePath = FileUtil.getRelativeDatabasePath(root.toFile(), actualLocalFileAsFile);
+
+			// Skip .syncany (or app related acc. to config) 		
+			if (isAppRelatedDir(actualLocalFileAsFile)) {
+				logger.log(Level.FINEST, "- Ignoring file (syncany app-related): {0}", relativeFilePath);
+				return false;
+			}
+
+			// Check database (or scan state index) by file path
+			if (scanStateIndex == null || changedPaths.contains(relativeFilePath)) {
+				FileVersion expectedLastFileVersion = knownFileVersions.get(relativeFilePath);
+
+				if (expectedLastFileVersion == null) {
+					return visitNewFile(actualLocalFileAsFile, relativeFilePath);
+				}
+
+				seenKnownPaths.add(relativeFilePath);
+				compareFile(expectedLastFileVersion, actualLocalFileAsFile, fileAttributes, relativeFilePath);
+			}
 			else {
-				if (!config.getIgnoredFiles().isFileIgnored(relativeFilePath, actualLocalFile.toFile().getName())) {
-					changeSet.getNewFiles().add(relativeFilePath);
-					logger.log(Level.FINEST, "- New file: " + relativeFilePath);
+				int entryNumber = scanStateIndex.find(relativeFilePath);
+
+				if (entryNumber < 0) {
+					return visitNewFile(actualLocalFileAsFile, relativeFilePath);
+				}
+
+				setEntry(seenEntries, entryNumber);
+
+				if (scanStateIndex.matches(entryNumber, fileAttributes)) {
+					addFile(changeSet.getUnchangedFiles(), relativeFilePath);
 				}
 				else {
-					logger.log(Level.FINEST, "- Ignoring file; " + relativeFilePath);
-					return FileVisitResult.SKIP_SUBTREE;
+					setEntry(invalidatedEntries, entryNumber);
+					deferredFiles.add(new DeferredFile(actualLocalFileAsFile, fileAttributes, relativeFilePath));
+				}
+			}
+
+			return true;
+		}
+
+		private boolean isAppRelatedDir(File actualLocalFile) {
+			return actualLocalFile.equals(config.getAppDir())
+					|| actualLocalFile.equals(config.getCache())
+					|| actualLocalFile.equals(config.getDatabaseDir())
+					|| actualLocalFile.equals(config.getLogDir());
+		}
+
+		private boolean isReachableByScan(String relativeFilePath, Map<String, FileVersion> ancestorFileVersions) {
+			for (String ancestorPath : getAncestorPaths(relativeFilePath)) {
+				File ancestorFile = root.resolve(ancestorPath).toFile();
+
+				if (isAppRelatedDir(ancestorFile)) {
+					return false;
+				}
+				else if (!ancestorFileVersions.containsKey(ancestorPath)
+						&& config.getIgnoredFiles().isFileIgnored(ancestorPath, ancestorFile.getName())) {
+					return false;
 				}
 			}
 
-			// Check if file is symlink directory
-			boolean isSymlinkDir = attrs.isDirectory() && attrs.isSymbolicLink();
+			return true;
+		}
 
-			if (isSymlinkDir) {
-				logger.log(Level.FINEST, "   + File is sym. directory. Skipping subtree.");
-				return FileVisitResult.SKIP_SUBTREE;
+		private boolean visitNewFile(File actualLocalFile, String relativeFilePath) {
+			if (config.getIgnoredFiles().isFileIgnored(relativeFilePath, actualLocalFile.getName())) {
+				logger.log(Level.FINEST, "- Ignoring file; " + relativeFilePath);
+				return false;
+			}
+			else if (isFileLocked(actualLocalFile, relativeFilePath)) {
+				return true;
 			}
 			else {
-				return FileVisitResult.CONTINUE;
+				addFile(changeSet.getNewFiles(), relativeFilePath);
+				logger.log(Level.FINEST, "- New file: " + relativeFilePath);
+
+				return true;
 			}
 		}
 
-		@Override
-		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-			return visitFile(dir, attrs);
+		private void compareFile(FileVersion expectedLastFileVersion, File actualLocalFile, BasicFileAttributes fileAttributes,
+				String relativeFilePath) {
+
+			// Compare (using the attributes read while scanning)
+			FileVersionComparison fileVersionComparison = fileVersionComparator.compare(expectedLastFileVersion, actualLocalFile, fileAttributes,
+					null, forceChecksum);
+
+			if (fileVersionComparison.areEqual()) {
+				addFile(changeSet.getUnchangedFiles(), relativeFilePath);
+
+				if (fileAttributes.lastModifiedTime().toMillis() < scanStartTime - SCAN_STATE_INDEX_MIN_MODIFIED_AGE) {
+					verifiedFiles.put(relativeFilePath, fileAttributes);
+				}
+			}
+			else if (!isFileLocked(actualLocalFile, relativeFilePath)) {
+				addFile(changeSet.getChangedFiles(), relativeFilePath);
+			}
+		}
+
+		private void compareDeferredFiles(List<DeferredFile> deferredFileBatch) {
+			List<String> deferredPaths = new ArrayList<String>();
+
+			for (DeferredFile deferredFile : deferredFileBatch) {
+				deferredPaths.add(deferredFile.relativeFilePath);
+			}
+
+			Map<String, FileVersion> deferredFileVersions = localDatabase.getCurrentFileTree(deferredPaths);
+
+			for (DeferredFile deferredFile : deferredFileBatch) {
+				FileVersion expectedLastFileVersion = deferredFileVersions.get(deferredFile.relativeFilePath);
+
+				if (expectedLastFileVersion != null) {
+					compareFile(expectedLastFileVersion, deferredFile.actualLocalFile, deferredFile.fileAttributes, deferredFile.relativeFilePath);
+				}
+				else {
+					visitNewFile(deferredFile.actualLocalFile, deferredFile.relativeFilePath);
+				}
+			}
+		}
+
+		private boolean appendIfDeleted(String relativeFilePath) {
+			File lastLocalVersionOnDisk = new File(config.getLocalDir() + File.separator + relativeFilePath);
+
+			// If file has VANISHED, mark as DELETED
+			if (!FileUtil.exists(lastLocalVersionOnDisk)) {
+				changeSet.getDeletedFiles().add(relativeFilePath);
+				return true;
+			}
+
+			return false;
+		}
+
+		private boolean isFileLocked(File actualLocalFile, String relativeFilePath) {
+			boolean fileLocked = FileUtil.isFileLocked(actualLocalFile);
+
+			if (fileLocked) {
+				logger.log(Level.FINEST, "- Ignoring file (locked): {0}", relativeFilePath);
+				lockedFiles.add(relativeFilePath);
+			}
+
+			return fileLocked;
+		}
+
+		private void addFile(Set<String> changeSetFiles, String relativeFilePath) {
+			synchronized (changeSet) {
+				changeSetFiles.add(relativeFilePath);
+			}
+		}
+
+		private void setEntry(BitSet entries, int entryNumber) {
+			synchronized (entries) {
+				entries.set(entryNumber);
+			}
+		}
+	}
+
+	private static class DeferredFile {
+		private File actualLocalFile;
+		private BasicFileAttributes fileAttributes;
+		private String relativeFilePath;
+
+		public DeferredFile(File actualLocalFile, BasicFileAttributes fileAttributes, String relativeFilePath) {
+			this.actualLocalFile = actualLocalFile;
+			this.fileAttributes = fileAttributes;
+			this.relativeFilePath = relativeFilePath;
+		}
+	}
+
+	private static class StatusDirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = -2806346440542049733L;
+
+		private StatusDirectoryScanner directoryScanner;
+		private Path directory;
+
+		public StatusDirectoryTask(StatusDirectoryScanner directoryScanner, Path directory) {
+			this.directoryScanner = directoryScanner;
+			this.directory = directory;
 		}
 
 		@Override
-		public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-			return FileVisitResult.CONTINUE;
+		protected void compute() {
+			List<StatusDirectoryTask> subDirectoryTasks = new ArrayList<StatusDirectoryTask>();
+
+			for (Path subDirectory : directoryScanner.scanDirectory(directory)) {
+				subDirectoryTasks.add(new StatusDirectoryTask(directoryScanner, subDirectory));
+			}
+
+			invokeAll(subDirectoryTasks);
 		}
+	}
+
+	private static class StatusScanThreadFactory implements ForkJoinWorkerThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
 
 		@Override
-		public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-			return FileVisitResult.CONTINUE;
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("StatusScan/" + threadNumber.getAndIncrement());
+
+			return thread;
 		}
 	}
 }
@@ -17,18 +17,31 @@
  */
 package org.syncany.operations.status;
 
+import java.util.Set;
+
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.Root;
 import org.syncany.operations.OperationOptions;
 
 @Root(name="status")
 public class StatusOperationOptions implements OperationOptions {
+	// Directories of the local file tree are scanned by this many threads at the same time,
+	// each directory as a separate task. A value of 1 walks the tree in the calling thread.
+	public static final int DEFAULT_SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+
 	@Element(required = false)
 	private boolean forceChecksum = false;
 
 	@Element(required = false)
 	private boolean delete = true;
 
+	@Element(required = false)
+	private int scanThreads = DEFAULT_SCAN_THREADS;
+
+	// Relative paths (files or folders) to which the scan is limited, e.g. as reported by
+	// a file watcher; null scans the entire local folder. Not persisted.
+	private Set<String> scopePaths = null;
+
 	public boolean isForceChecksum() {
 		return forceChecksum;
 	}
@@ -44,4 +57,20 @@ public class StatusOperationOptions implements OperationOptions {
 	public void setDelete(boolean delete) {
 		this.delete = delete;
 	}
-}
\ No newline at end of file
+
+	public int getScanThreads() {
+		return scanThreads;
+	}
+
+	public void setScanThreads(int scanThreads) {
+		this.scanThreads = scanThreads;
+	}
+
+	public Set<String> getScopePaths() {
+		return scopePaths;
+	}
+
+	public void setScopePaths(Set<String> scopePaths) {
+		this.scopePaths = scopePaths;
+	}
+}
@@ -17,14 +17,19 @@
  */
 package org.syncany.operations.status;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.syncany.operations.ChangeSet;
 import org.syncany.operations.OperationResult;
 
 public class StatusOperationResult implements OperationResult {
 	private ChangeSet changeSet;
+	private Set<String> lockedFiles;
 
 	public StatusOperationResult() {
 		changeSet = new ChangeSet();
+		lockedFiles = new HashSet<String>();
 	}
 	
 	public void setChangeSet(ChangeSet changeSet) {
@@ -34,4 +39,16 @@ public class StatusOperationResult implements OperationResult {
 	public ChangeSet getChangeSet() {
 		return changeSet;
 	}
+
+	public void setLockedFiles(Set<String> lockedFiles) {
+		this.lockedFiles = lockedFiles;
+	}
+
+	/**
+	 * Returns the relative paths of the files that were skipped because they
+	 * were locked, i.e. that may have changed without being part of the change set.
+	 */
+	public Set<String> getLockedFiles() {
+		return lockedFiles;
+	}
 }
\ No newline at end of file
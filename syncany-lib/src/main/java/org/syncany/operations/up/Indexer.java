@@ -244,7 +244,7 @@ public class Indexer {
 
 		public IndexerDeduperListener(DatabaseVersion newDatabaseVersion) {
 
-			this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
+			this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker());
 			this.secureRandom = new SecureRandom();
 			this.newDatabaseVersion = newDatabaseVersion;
 		}
@@ -298,7 +298,8 @@ public class Indexer {
 			boolean fileIsLocked = endFileProperties.isLocked();
 			boolean fileVanished = !endFileProperties.exists();
 			boolean fileHasChanged = startFileProperties.getSize() != endFileProperties.getSize()
-					|| startFileProperties.getLastModified() != endFileProperties.getLastModified();
+					|| startFileProperties.getLastModified() != endFileProperties.getLastModified()
+					|| (fileChecksum == null && endFileProperties.getType() == FileType.FILE && endFileProperties.getSize() > 0);
 
 			if (fileVanished || fileIsLocked || fileHasChanged) {
 				logger.log(Level.FINER, "- /File: {0}", file);
@@ -197,7 +197,7 @@ public class UpOperation extends AbstractTransferOperation {
 		
 		// Iterate over the changes, deduplicate, and feed DatabaseVersions into an iterator
 		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer(), options.getTransactionSizeLimit(),
-				options.getTransactionFileLimit());
+				options.getTransactionFileLimit(), options.getChunkerThreads());
 		
 		AsyncIndexer asyncIndexer = new AsyncIndexer(config, deduper, locallyUpdatedFiles, locallyDeletedFiles, databaseVersionQueue);
 		new Thread(asyncIndexer, "AsyncI/" + config.getLocalDir().getName()).start();
@@ -276,7 +276,7 @@ public class UpOperation extends AbstractTransferOperation {
 				databaseVersion.setTimestamp(new Date());
 				databaseVersion.setClient(config.getMachineName());
 
-				remoteTransaction = new RemoteTransaction(config, transferManager);
+				remoteTransaction = new RemoteTransaction(config, transferManager, options.getTransactionThreads());
 
 				// Add multichunks to transaction
 				logger.log(Level.INFO, "Uploading new multichunks ...");
@@ -459,7 +459,7 @@ public class UpOperation extends AbstractTransferOperation {
 		StatusOperationResult statusOperationResult = statusOperation.execute();
 		ChangeSet localChanges = statusOperationResult.getChangeSet();
 
-		result.getStatusResult().setChangeSet(localChanges);
+		result.setStatusResult(statusOperationResult);
 
 		if (!localChanges.hasChanges()) {
 			logger.log(Level.INFO, "Local database is up-to-date (change set). NOTHING TO DO!");
@@ -545,7 +545,7 @@ public class UpOperation extends AbstractTransferOperation {
 	protected void saveDeltaDatabase(MemoryDatabase db, File localDatabaseFile) throws IOException {
 		logger.log(Level.INFO, "- Saving database to " + localDatabaseFile + " ...");
 
-		DatabaseXmlSerializer dao = new DatabaseXmlSerializer(config.getTransformer());
+		DatabaseXmlSerializer dao = new DatabaseXmlSerializer(config.getTransformer(), config.getDatabaseFormat());
 		dao.save(db.getDatabaseVersions(), localDatabaseFile);
 	}
 
@@ -753,7 +753,7 @@ public class UpOperation extends AbstractTransferOperation {
 					}
 				}
 
-				remoteTransactions.add(new RemoteTransaction(config, transferManager, transactionTO));
+				remoteTransactions.add(new RemoteTransaction(config, transferManager, transactionTO, options.getTransactionThreads()));
 			}
 			
 			return remoteTransactions;
@@ -31,6 +31,17 @@ public class UpOperationOptions implements OperationOptions {
 	public static final long DEFAULT_TRANSACTION_SIZE_LIMIT = 50 * 1024 * 1024;
 	public static final long DEFAULT_TRANSACTION_FILE_LIMIT = 10000;
 
+	// The number of chunker threads determines how many files are read and chunked in parallel by the Deduper. The
+	// resulting chunks are still written to multichunks in the original file order. A value of 1 disables the
+	// parallel chunker pipeline.
+	public static final int DEFAULT_CHUNKER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	// The number of transaction threads determines how many files of a transaction are uploaded (and moved to their
+	// final location) in parallel when the transaction is committed. Each thread uses its own transfer manager. A value
+	// of 1 commits the transaction one file after the other; this is the default, because a failed parallel commit may
+	// leave more (already uploaded) temporary files behind than a sequential one. These are reused when resuming.
+	public static final int DEFAULT_TRANSACTION_THREADS = 1;
+
 	@Element(name = "status", required = false)
 	private StatusOperationOptions statusOptions = new StatusOperationOptions();
 
@@ -46,6 +57,12 @@ public class UpOperationOptions implements OperationOptions {
 	@Element(required = false)
 	private long transactionFileLimit = DEFAULT_TRANSACTION_FILE_LIMIT;
 
+	@Element(required = false)
+	private int chunkerThreads = DEFAULT_CHUNKER_THREADS;
+
+	@Element(required = false)
+	private int transactionThreads = DEFAULT_TRANSACTION_THREADS;
+
 	public StatusOperationOptions getStatusOptions() {
 		return statusOptions;
 	}
@@ -85,4 +102,20 @@ public class UpOperationOptions implements OperationOptions {
 	public void setTransactionFileLimit(long transactionFileLimit) {
 		this.transactionFileLimit = transactionFileLimit;
 	}
-}
\ No newline at end of file
+
+	public int getChunkerThreads() {
+		return chunkerThreads;
+	}
+
+	public void setChunkerThreads(int chunkerThreads) {
+		this.chunkerThreads = chunkerThreads;
+	}
+
+	public int getTransactionThreads() {
+		return transactionThreads;
+	}
+
+	public void setTransactionThreads(int transactionThreads) {
+		this.transactionThreads = transactionThreads;
+	}
+}
@@ -22,6 +22,7 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
@@ -29,14 +30,16 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 /**
@@ -44,8 +47,12 @@ import java.util.logging.Level;
  * by registering a watch on each of the sub-folders. This class is used on
  * Linux/Unix-based operating systems and uses the Java 7 {@link WatchService}.
  *
- * <p>The class walks through the file tree and registers to a watch to every sub-folder.
- * For new folders, a new watch is registered, and stale watches are removed.
+ * <p>The class walks through the file tree once and registers a watch to every sub-folder.
+ * Afterwards, watches are maintained incrementally: When a folder is created (or moved
+ * into a watched folder), only its subtree is walked and registered. When a folder is
+ * deleted (or moved away), the watches of its subtree are cancelled, and watches that
+ * become invalid are dropped. The entire tree is only walked again if the watch service
+ * reports an overflow, i.e. if events (and potentially new folders) were lost.
  *
  * <p>When a file event occurs, a timer is started to wait for the file operations
  * to settle. It is reset whenever a new event occurs. When the timer times out,
@@ -55,13 +62,15 @@ import java.util.logging.Level;
  */
 public class DefaultRecursiveWatcher extends RecursiveWatcher {
 	private WatchService watchService;
-	private Map<Path, WatchKey> watchPathKeyMap;
+	private NavigableMap<String, WatchKey> watchPathKeyMap; // Sorted by path, so that subtrees are ranges
+	private AtomicBoolean fullWalkRequired;
 
 	public DefaultRecursiveWatcher(Path root, List<Path> ignorePaths, int settleDelay, WatchListener listener) {
 		super(root, ignorePaths, settleDelay, listener);
 
 		this.watchService = null;
-		this.watchPathKeyMap = new HashMap<Path, WatchKey>();
+		this.watchPathKeyMap = new TreeMap<String, WatchKey>();
+		this.fullWalkRequired = new AtomicBoolean(false);
 	}
 
 	@Override
@@ -71,16 +80,39 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
 
 	@Override
 	protected void beforePollEventLoop() {
-		walkTreeAndSetWatches();
+		walkTreeAndSetWatches(root);
+
+		// Changes before and during registration were not seen
+		markFullRescanRequired();
 	}
 
 	@Override
 	protected boolean pollEvents() throws InterruptedException {
-		// Take events, but don't care what they are!
 		WatchKey watchKey = watchService.take();
+		Path watchedDir = (Path) watchKey.watchable();
+
+		// Remember which paths changed, and update watches for created/deleted folders
+		for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+			if (watchEvent.kind() == OVERFLOW) {
+				markFullRescanRequired();
+				fullWalkRequired.set(true);
+			}
+			else {
+				Path changedPath = watchedDir.resolve((Path) watchEvent.context());
+				addDirtyPath(changedPath);
 
-		watchKey.pollEvents();
-		watchKey.reset();
+				if (watchEvent.kind() == ENTRY_CREATE && Files.isDirectory(changedPath, LinkOption.NOFOLLOW_LINKS)) {
+					walkTreeAndSetWatches(changedPath);
+				}
+				else if (watchEvent.kind() == ENTRY_DELETE) {
+					unregisterWatches(changedPath);
+				}
+			}
+		}
+
+		if (!watchKey.reset()) {
+			unregisterInvalidWatch(watchedDir, watchKey);
+		}
 
 		// Events are always relevant; ignored paths are not monitored
 		return true;
@@ -88,8 +120,10 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
 
 	@Override
 	protected void watchEventsOccurred() {
-		walkTreeAndSetWatches();
-		unregisterStaleWatches();
+		if (fullWalkRequired.getAndSet(false)) {
+			walkTreeAndSetWatches(root);
+			unregisterStaleWatches();
+		}
 	}
 
 	@Override
@@ -97,11 +131,18 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
 		watchService.close();
 	}
 
-	private synchronized void walkTreeAndSetWatches() {
-		logger.log(Level.INFO, "Registering new folders at watch service ...");
+	/**
+	 * Returns the number of folders currently being watched.
+	 */
+	public synchronized int getWatchCount() {
+		return watchPathKeyMap.size();
+	}
+
+	private synchronized void walkTreeAndSetWatches(Path startDir) {
+		logger.log(Level.INFO, "Registering new folders at watch service (below " + startDir + ") ...");
 
 		try {
-			Files.walkFileTree(root, new FileVisitor<Path>() {
+			Files.walkFileTree(startDir, new FileVisitor<Path>() {
 				@Override
 				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
 					if (ignorePaths.contains(dir)) {
@@ -135,31 +176,42 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
 	}
 
 	private synchronized void unregisterStaleWatches() {
-		Set<Path> paths = new HashSet<Path>(watchPathKeyMap.keySet());
-		Set<Path> stalePaths = new HashSet<Path>();
+		List<String> stalePaths = new ArrayList<String>();
+
+		for (Map.Entry<String, WatchKey> watchPathKey : watchPathKeyMap.entrySet()) {
+			Path path = (Path) watchPathKey.getValue().watchable();
 
-		for (Path path : paths) {
-			if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
-				stalePaths.add(path);
+			if (!watchPathKey.getValue().isValid() || !Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+				stalePaths.add(watchPathKey.getKey());
 			}
 		}
 
 		if (stalePaths.size() > 0) {
 			logger.log(Level.INFO, "Cancelling stale path watches ...");
 
-			for (Path stalePath : stalePaths) {
-				unregisterWatch(stalePath);
+			for (String stalePath : stalePaths) {
+				watchPathKeyMap.remove(stalePath).cancel();
 			}
 		}
 	}
 
 	private synchronized void registerWatch(Path dir) {
-		if (!watchPathKeyMap.containsKey(dir)) {
-			logger.log(Level.INFO, "- Registering " + dir);
+		if (!watchPathKeyMap.containsKey(dir.toString())) {
+			logger.log(Level.FINE, "- Registering " + dir);
 
 			try {
 				WatchKey watchKey = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY, OVERFLOW);
-				watchPathKeyMap.put(dir, watchKey);
+
+				// A folder that was moved keeps its watch key (and old path). Re-register it to
+				// make sure that events are reported for the new path.
+				if (!dir.equals(watchKey.watchable())) {
+					unregisterInvalidWatch((Path) watchKey.watchable(), watchKey);
+					watchKey.cancel();
+
+					watchKey = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY, OVERFLOW);
+				}
+
+				watchPathKeyMap.put(dir.toString(), watchKey);
 			}
 			catch (IOException e) {
 				logger.log(Level.FINE, "IO Failed", e);
@@ -167,14 +219,37 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
 		}
 	}
 
-	private synchronized void unregisterWatch(Path dir) {
-		WatchKey watchKey = watchPathKeyMap.get(dir);
+	/**
+	 * Cancels the watches of the given folder and of all of its sub-folders, because the
+	 * folder was deleted or moved. If the given path is not a watched folder, nothing happens.
+	 */
+	private synchronized void unregisterWatches(Path dir) {
+		String dirPath = dir.toString();
+		WatchKey watchKey = watchPathKeyMap.remove(dirPath);
 
 		if (watchKey != null) {
-			logger.log(Level.INFO, "- Cancelling " + dir);
-
+			logger.log(Level.FINE, "- Cancelling " + dir + " (and sub-folders)");
 			watchKey.cancel();
-			watchPathKeyMap.remove(dir);
+
+			// All paths starting with "dir/" are between "dir/" and "dir0"
+			char separatorChar = File.separatorChar;
+			String subDirPathsFrom = dirPath + separatorChar;
+			String subDirPathsTo = dirPath + (char) (separatorChar + 1);
+
+			Map<String, WatchKey> subDirWatchKeys = watchPathKeyMap.subMap(subDirPathsFrom, true, subDirPathsTo, false);
+
+			for (WatchKey subDirWatchKey : subDirWatchKeys.values()) {
+				subDirWatchKey.cancel();
+			}
+
+			subDirWatchKeys.clear();
+		}
+	}
+
+	private synchronized void unregisterInvalidWatch(Path dir, WatchKey watchKey) {
+		if (watchPathKeyMap.get(dir.toString()) == watchKey) {
+			logger.log(Level.FINE, "- Dropping invalid watch " + dir);
+			watchPathKeyMap.remove(dir.toString());
 		}
 	}
 }
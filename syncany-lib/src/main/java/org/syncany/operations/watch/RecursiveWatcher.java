@@ -20,7 +20,10 @@ package org.syncany.operations.watch;
 import java.io.IOException;
 import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -36,6 +39,12 @@ import org.syncany.util.EnvironmentUtil;
  * to settle. It is reset whenever a new event occurs. When the timer times out,
  * an event is thrown through the {@link WatchListener}.
  *
+ * <p>In addition to the event, the watcher accumulates a coalesced set of dirty
+ * paths, i.e. the paths that subclasses reported as changed since the last call to
+ * {@link #takeDirtyPaths()}. If the watcher cannot guarantee that this set is complete
+ * (e.g. because of an event queue overflow, or because watches are not yet in place),
+ * it reports that a full rescan is required instead.
+ *
  * <p>This is an abstract class, using several template methods that are called
  * in different lifecycle states: {@link #beforeStart()}, {@link #beforePollEventLoop()},
  * {@link #pollEvents()}, and {@link #afterStop()}.
@@ -45,6 +54,13 @@ import org.syncany.util.EnvironmentUtil;
 public abstract class RecursiveWatcher {
 	protected static final Logger logger = Logger.getLogger(RecursiveWatcher.class.getSimpleName());
 
+	/**
+	 * Maximum number of dirty paths to accumulate. If more paths are reported
+	 * between two calls of {@link #takeDirtyPaths()}, a full rescan is cheaper than
+	 * examining the paths one by one.
+	 */
+	private static final int MAX_DIRTY_PATHS = 10000;
+
 	protected Path root;
 	protected List<Path> ignorePaths;
 	private int settleDelay;
@@ -55,6 +71,9 @@ public abstract class RecursiveWatcher {
 	private Thread watchThread;
 	private Timer timer;
 
+	private Set<Path> dirtyPaths;
+	private boolean fullRescanRequired;
+
 	public RecursiveWatcher(Path root, List<Path> ignorePaths, int settleDelay, WatchListener listener) {
 		this.root = root;
 		this.ignorePaths = ignorePaths;
@@ -62,6 +81,9 @@ public abstract class RecursiveWatcher {
 		this.listener = listener;
 
 		this.running = new AtomicBoolean(false);
+
+		this.dirtyPaths = new HashSet<Path>();
+		this.fullRescanRequired = true;
 	}
 
 	/**
@@ -149,6 +171,66 @@ public abstract class RecursiveWatcher {
 		}
 	}
 
+	/**
+	 * Returns the absolute paths that changed since the last call of this method,
+	 * and resets the dirty path set. Paths may be files or folders; for folders,
+	 * anything below the folder may have changed.
+	 *
+	 * <p>If the watcher cannot tell what changed, e.g. because the
+	 * watches are not in place yet or events were lost, this method returns
+	 * <tt>null</tt>. In this case, the caller must rescan the entire folder.
+	 */
+	public Set<Path> takeDirtyPaths() {
+		synchronized (dirtyPaths) {
+			Set<Path> takenDirtyPaths = (fullRescanRequired) ? null : new HashSet<Path>(dirtyPaths);
+
+			dirtyPaths.clear();
+			fullRescanRequired = false;
+
+			return takenDirtyPaths;
+		}
+	}
+
+	/**
+	 * Adds the given absolute paths to the dirty path set again, e.g. because they
+	 * were skipped by the last sync. They are returned by the next call of
+	 * {@link #takeDirtyPaths()}, together with the paths of new events.
+	 */
+	public void addDirtyPaths(Collection<Path> paths) {
+		for (Path path : paths) {
+			addDirtyPath(path);
+		}
+	}
+
+	/**
+	 * Adds an absolute path to the dirty path set. Subclasses must call this
+	 * method for every relevant event they receive.
+	 */
+	protected void addDirtyPath(Path path) {
+		synchronized (dirtyPaths) {
+			if (!fullRescanRequired) {
+				dirtyPaths.add(path);
+
+				if (dirtyPaths.size() > MAX_DIRTY_PATHS) {
+					logger.log(Level.INFO, "More than " + MAX_DIRTY_PATHS + " dirty paths. Requiring full rescan.");
+					markFullRescanRequired();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the dirty path set as incomplete, so that the next call to
+	 * {@link #takeDirtyPaths()} requests a full rescan. Subclasses must call this
+	 * method if events might have been lost.
+	 */
+	protected void markFullRescanRequired() {
+		synchronized (dirtyPaths) {
+			dirtyPaths.clear();
+			fullRescanRequired = true;
+		}
+	}
+
 	private synchronized void restartWaitSettlementTimer() {
 		logger.log(Level.FINE, "File system events registered. Waiting " + settleDelay + "ms for settlement ....");
 
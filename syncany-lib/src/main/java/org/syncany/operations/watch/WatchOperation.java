@@ -20,8 +20,10 @@ package org.syncany.operations.watch;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,11 +43,13 @@ import org.syncany.operations.daemon.messages.WatchStartSyncExternalEvent;
 import org.syncany.operations.down.DownOperation;
 import org.syncany.operations.down.DownOperationResult;
 import org.syncany.operations.down.DownOperationResult.DownResultCode;
+import org.syncany.operations.status.StatusOperationOptions;
 import org.syncany.operations.up.UpOperation;
 import org.syncany.operations.up.UpOperationResult;
 import org.syncany.operations.up.UpOperationResult.UpResultCode;
 import org.syncany.operations.watch.NotificationListener.NotificationListenerListener;
 import org.syncany.operations.watch.RecursiveWatcher.WatchListener;
+import org.syncany.util.FileUtil;
 import org.syncany.util.StringUtil;
 
 /**
@@ -66,6 +70,11 @@ import org.syncany.util.StringUtil;
  *      changes are synced eventually.</li>
  * </ul>
  *
+ * <p>If the file system is monitored, the {@link UpOperation} only examines the paths
+ * reported by the {@link RecursiveWatcher} instead of walking the entire local folder.
+ * The entire folder is still scanned in the first sync, whenever the watcher may have
+ * missed events, and periodically (see {@link WatchOperationOptions#getFullRescanInterval()}).
+ *
  * As of now, this operation never returns, because it runs in a loop. The user
  * has to manually abort the operation on the command line.
  *
@@ -86,6 +95,9 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 	private AtomicBoolean pauseRequested;
 	private AtomicInteger upCount;
 
+	private AtomicBoolean fullRescanRequired;
+	private long lastFullRescanTime;
+
 	private RecursiveWatcher recursiveWatcher;
 	private NotificationListener notificationListener;
 	private LocalEventBus eventBus;
@@ -107,6 +119,9 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 		this.pauseRequested = new AtomicBoolean(false);
 		this.upCount = new AtomicInteger(0);
 
+		this.fullRescanRequired = new AtomicBoolean(true);
+		this.lastFullRescanTime = 0;
+
 		this.recursiveWatcher = null;
 		this.notificationListener = null;
 		this.eventBus = LocalEventBus.getInstance();
@@ -202,6 +217,7 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 		}
 		catch (Exception e) {
 			logger.log(Level.WARNING, "Cannot initiate file watcher. Relying on regular tree walks.", e);
+			recursiveWatcher = null;
 		}
 	}
 
@@ -215,6 +231,10 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 	}
 
 	private void stopRecursiveWatcher() {
+		if (recursiveWatcher == null) {
+			return;
+		}
+
 		try {
 			logger.log(Level.INFO, "Stopping recursive watcher for " + config.getLocalDir() + " ...");
 			recursiveWatcher.stop();
@@ -251,7 +271,7 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 				}
 
 				// Run up
-				UpOperationResult upOperationResult = new UpOperation(config, options.getUpOptions()).execute();
+				UpOperationResult upOperationResult = runUp();
 
 				if (upOperationResult.getResultCode() == UpResultCode.OK_CHANGES_UPLOADED && upOperationResult.getChangeSet().hasChanges()) {
 					upCount.incrementAndGet();
@@ -284,6 +304,88 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 		}
 	}
 
+	/**
+	 * Runs the {@link UpOperation}, limiting its status scan to the paths reported by the
+	 * recursive watcher, unless a full rescan is required. If the operation does not
+	 * complete, the reported paths are lost, so the next run scans the entire folder.
+	 * Files that were skipped because they were locked are reported to the watcher
+	 * again, so that the next run picks them up.
+	 */
+	private UpOperationResult runUp() throws Exception {
+		StatusOperationOptions statusOptions = options.getUpOptions().getStatusOptions();
+		Set<String> scopePaths = takeScopePaths();
+
+		boolean upCompleted = false;
+		statusOptions.setScopePaths(scopePaths);
+
+		try {
+			UpOperationResult upOperationResult = new UpOperation(config, options.getUpOptions()).execute();
+			UpResultCode upResultCode = upOperationResult.getResultCode();
+
+			upCompleted = upResultCode == UpResultCode.OK_CHANGES_UPLOADED || upResultCode == UpResultCode.OK_NO_CHANGES;
+
+			if (upCompleted) {
+				readdLockedFiles(upOperationResult.getStatusResult().getLockedFiles());
+			}
+
+			return upOperationResult;
+		}
+		finally {
+			statusOptions.setScopePaths(null);
+
+			if (!upCompleted) {
+				fullRescanRequired.set(true);
+			}
+			else if (scopePaths == null) {
+				lastFullRescanTime = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private void readdLockedFiles(Set<String> lockedFiles) {
+		if (recursiveWatcher != null && lockedFiles.size() > 0) {
+			List<Path> lockedPaths = new ArrayList<Path>();
+
+			for (String lockedFile : lockedFiles) {
+				lockedPaths.add(Paths.get(config.getLocalDir().getAbsolutePath(), lockedFile));
+			}
+
+			logger.log(Level.INFO, "Skipped " + lockedPaths.size() + " locked file(s); marking them as changed for next sync.");
+			recursiveWatcher.addDirtyPaths(lockedPaths);
+		}
+	}
+
+	/**
+	 * Returns the relative paths that changed since the last sync, or <tt>null</tt>
+	 * if the entire local folder must be scanned.
+	 */
+	private Set<String> takeScopePaths() {
+		if (recursiveWatcher == null) {
+			return null;
+		}
+
+		// Always take the dirty paths (to reset them), even if they are not used
+		Set<Path> dirtyPaths = recursiveWatcher.takeDirtyPaths();
+
+		boolean fullRescanIntervalElapsed = System.currentTimeMillis() - lastFullRescanTime >= options.getFullRescanInterval();
+		boolean fullRescan = fullRescanRequired.getAndSet(false) || fullRescanIntervalElapsed || dirtyPaths == null;
+
+		if (fullRescan) {
+			logger.log(Level.INFO, "Full rescan of local folder required.");
+			return null;
+		}
+		else {
+			Set<String> scopePaths = new HashSet<String>();
+
+			for (Path dirtyPath : dirtyPaths) {
+				scopePaths.add(FileUtil.getRelativeDatabasePath(config.getLocalDir(), dirtyPath.toFile()));
+			}
+
+			logger.log(Level.INFO, "Watcher reported " + scopePaths.size() + " changed path(s) since last sync.");
+			return scopePaths;
+		}
+	}
+
 	@Override
 	public void pushNotificationReceived(String channel, String message) {
 		if (channel.equals(notificationChannel) && !message.equals(notificationInstanceId)) {
@@ -55,6 +55,9 @@ public class WatchOperationOptions implements OperationOptions {
 	
 	@Element(required = false)
 	private boolean watcher = true;
+
+	@Element(required = false)
+	private int fullRescanInterval = 1*60*60*1000;
 	
 	@Element(name = "up", required = false) 
 	private UpOperationOptions upOptions = new UpOperationOptions();
@@ -113,6 +116,14 @@ public class WatchOperationOptions implements OperationOptions {
 		this.watcher = watcher;
 	}
 
+	public int getFullRescanInterval() {
+		return fullRescanInterval;
+	}
+
+	public void setFullRescanInterval(int fullRescanInterval) {
+		this.fullRescanInterval = fullRescanInterval;
+	}
+
 	public int getCleanupInterval() {
 		return cleanupInterval;
 	}
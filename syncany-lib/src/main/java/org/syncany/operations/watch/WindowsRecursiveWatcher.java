@@ -83,7 +83,11 @@ public class WindowsRecursiveWatcher extends RecursiveWatcher {
 
 		// Filter ignored events
 		for (WatchEvent<?> watchEvent : watchEvents) {
-			if (watchEvent.kind() == ENTRY_CREATE || watchEvent.kind() == ENTRY_MODIFY || watchEvent.kind() == ENTRY_DELETE) {
+			if (watchEvent.kind() == OVERFLOW) {
+				markFullRescanRequired();
+				hasRelevantEvents = true;
+			}
+			else if (watchEvent.kind() == ENTRY_CREATE || watchEvent.kind() == ENTRY_MODIFY || watchEvent.kind() == ENTRY_DELETE) {
 				boolean ignoreEvent = false;
 
 				name.pachler.nio.file.Path extLibFilePath = (name.pachler.nio.file.Path) watchEvent.context();
@@ -97,8 +101,8 @@ public class WindowsRecursiveWatcher extends RecursiveWatcher {
 				}
 
 				if (!ignoreEvent) {
+					addDirtyPath(filePath);
 					hasRelevantEvents = true;
-					break;
 				}
 			}
 		}
@@ -18,6 +18,17 @@
 package org.syncany.plugins.transfer;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +49,11 @@ import org.syncany.plugins.transfer.to.TransactionTO;
  * This class represents a transaction in a remote system. It will keep track of
  * what files are to be added and ensures atomic operation.
  *
+ * <p>If more than one transaction thread is configured, the uploads to (and moves
+ * to) the temporary remote locations, as well as the moves to the final locations,
+ * are performed concurrently. The transaction file is still uploaded before and
+ * deleted after all of these actions, so the transaction remains atomic and resumable.
+ *
  * @author Pim Otte
  */
 public class RemoteTransaction {
@@ -47,16 +63,27 @@ public class RemoteTransaction {
 	private Config config;
 	private TransactionTO transactionTO;
 
+	private int transactionThreads;
+
 	private LocalEventBus eventBus;
 
 	public RemoteTransaction(Config config, TransferManager transferManager) {
-		this(config, transferManager, new TransactionTO(config.getMachineName()));
+		this(config, transferManager, 1);
+	}
+
+	public RemoteTransaction(Config config, TransferManager transferManager, int transactionThreads) {
+		this(config, transferManager, new TransactionTO(config.getMachineName()), transactionThreads);
 	}
 
 	public RemoteTransaction(Config config, TransferManager transferManager, TransactionTO transactionTO) {
+		this(config, transferManager, transactionTO, 1);
+	}
+
+	public RemoteTransaction(Config config, TransferManager transferManager, TransactionTO transactionTO, int transactionThreads) {
 		this.config = config;
 		this.transferManager = transferManager;
 		this.transactionTO = transactionTO;
+		this.transactionThreads = Math.max(1, transactionThreads);
 		this.eventBus = LocalEventBus.getInstance();
 	}
 
@@ -202,40 +229,55 @@ public class RemoteTransaction {
 	 * the most likely part to be interrupted on weak connections.
 	 */
 	private void uploadAndMoveToTempLocation() throws StorageException {
-		TransactionStats stats = gatherTransactionStats();
-		int uploadFileIndex = 0;
+		final TransactionStats stats = gatherTransactionStats();
+		final AtomicInteger uploadFileIndex = new AtomicInteger(0);
+
+		List<ActionTO> unstartedActions = new ArrayList<ActionTO>();
 
 		for (ActionTO action : transactionTO.getActions()) {
+			// If we are resuming, actions that are not UNSTARTED have already been done.
 			if (action.getStatus().equals(ActionStatus.UNSTARTED)) {
-				// If we are resuming, this has not been started yet.
-				RemoteFile tempRemoteFile = action.getTempRemoteFile();
+				unstartedActions.add(action);
+			}
+		}
 
-				if (action.getType().equals(ActionType.UPLOAD)) {
-					// The action is an UPLOAD, upload file to temporary remote location
-					File localFile = action.getLocalTempLocation();
-					long localFileSize = localFile.length();
+		performActions(unstartedActions, new ActionPerformer() {
+			@Override
+			public void perform(TransferManager actionTransferManager, ActionTO action) throws StorageException {
+				uploadOrMoveToTempLocation(actionTransferManager, action, uploadFileIndex, stats);
+			}
+		});
+	}
 
-					eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), ++uploadFileIndex,
-							stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
+	private void uploadOrMoveToTempLocation(TransferManager actionTransferManager, ActionTO action, AtomicInteger uploadFileIndex,
+			TransactionStats stats) throws StorageException {
 
-					logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
-					transferManager.upload(localFile, tempRemoteFile);
-					action.setStatus(ActionStatus.STARTED);
-				}
-				else if (action.getType().equals(ActionType.DELETE)) {
-					// The action is a DELETE, move file to temporary remote location.
-					RemoteFile remoteFile = action.getRemoteFile();
+		RemoteFile tempRemoteFile = action.getTempRemoteFile();
 
-					try {
-						logger.log(Level.INFO, "- Moving {0} to temp. file {1} ...", new Object[] { remoteFile, tempRemoteFile });
-						transferManager.move(remoteFile, tempRemoteFile);
-					}
-					catch (StorageMoveException e) {
-						logger.log(Level.INFO, "  -> FAILED (don't care!), because the remoteFile does not exist: " + remoteFile);
-					}
-					action.setStatus(ActionStatus.STARTED);
-				}
+		if (action.getType().equals(ActionType.UPLOAD)) {
+			// The action is an UPLOAD, upload file to temporary remote location
+			File localFile = action.getLocalTempLocation();
+			long localFileSize = localFile.length();
+
+			eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), uploadFileIndex.incrementAndGet(),
+					stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
+
+			logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
+			actionTransferManager.upload(localFile, tempRemoteFile);
+			action.setStatus(ActionStatus.STARTED);
+		}
+		else if (action.getType().equals(ActionType.DELETE)) {
+			// The action is a DELETE, move file to temporary remote location.
+			RemoteFile remoteFile = action.getRemoteFile();
+
+			try {
+				logger.log(Level.INFO, "- Moving {0} to temp. file {1} ...", new Object[] { remoteFile, tempRemoteFile });
+				actionTransferManager.move(remoteFile, tempRemoteFile);
+			}
+			catch (StorageMoveException e) {
+				logger.log(Level.INFO, "  -> FAILED (don't care!), because the remoteFile does not exist: " + remoteFile);
 			}
+			action.setStatus(ActionStatus.STARTED);
 		}
 	}
 
@@ -264,15 +306,144 @@ public class RemoteTransaction {
 	 * now moved to their final location.
 	 */
 	private void moveToFinalLocation() throws StorageException {
+		List<ActionTO> uploadActions = new ArrayList<ActionTO>();
+
 		for (ActionTO action : transactionTO.getActions()) {
 			if (action.getType().equals(ActionType.UPLOAD)) {
+				uploadActions.add(action);
+			}
+		}
+
+		performActions(uploadActions, new ActionPerformer() {
+			@Override
+			public void perform(TransferManager actionTransferManager, ActionTO action) throws StorageException {
 				RemoteFile tempRemoteFile = action.getTempRemoteFile();
 				RemoteFile finalRemoteFile = action.getRemoteFile();
 
 				logger.log(Level.INFO, "- Moving temp. file {0} to final location {1} ...", new Object[] { tempRemoteFile, finalRemoteFile });
-				transferManager.move(tempRemoteFile, finalRemoteFile);
+				actionTransferManager.move(tempRemoteFile, finalRemoteFile);
 				action.setStatus(ActionStatus.DONE);
 			}
+		});
+	}
+
+	/**
+	 * Performs the given actions, either one after the other using the transaction's transfer
+	 * manager, or -- if more than one transaction thread is configured -- concurrently, each thread
+	 * using its own transfer manager.
+	 *
+	 * <p>In both cases, an action's status is only changed by the {@link ActionPerformer} once the action
+	 * has succeeded. If an action fails, actions that have not started yet are skipped, and the method
+	 * waits for the running actions to finish (without interrupting them) before rethrowing the exception.
+	 * That way, the {@link TransactionTO} reflects exactly which actions have been done when it is
+	 * serialized for a later resume.
+	 */
+	private void performActions(List<ActionTO> actions, final ActionPerformer actionPerformer) throws StorageException {
+		if (transactionThreads <= 1 || actions.size() <= 1) {
+			for (ActionTO action : actions) {
+				actionPerformer.perform(transferManager, action);
+			}
+
+			return;
+		}
+
+		logger.log(Level.INFO, "- Performing {0} action(s) using {1} thread(s) ...", new Object[] { actions.size(), transactionThreads });
+
+		ExecutorService executor = Executors.newFixedThreadPool(transactionThreads, new RemoteTransactionThreadFactory());
+		final TransferManagerPool transferManagerPool = new TransferManagerPool(config, transferManager, transactionThreads);
+
+		final AtomicBoolean actionFailed = new AtomicBoolean(false);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+		try {
+			for (final ActionTO action : actions) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						if (actionFailed.get()) {
+							logger.log(Level.INFO, "- Skipping action {0}, because another action failed.", action.getRemoteFile());
+							return null;
+						}
+
+						TransferManager actionTransferManager = null;
+
+						try {
+							actionTransferManager = transferManagerPool.acquire();
+							actionPerformer.perform(actionTransferManager, action);
+						}
+						catch (Exception e) {
+							actionFailed.set(true);
+							throw e;
+						}
+						finally {
+							if (actionTransferManager != null) {
+								transferManagerPool.release(actionTransferManager);
+							}
+						}
+
+						return null;
+					}
+				}));
+			}
+
+			waitFor(futures);
+		}
+		finally {
+			// Skip queued actions if we are leaving early, e.g. when interrupted
+			actionFailed.set(true);
+
+			shutdownAndAwaitTermination(executor);
+			transferManagerPool.disconnectAll();
+		}
+	}
+
+	/**
+	 * Waits for all of the given tasks to finish (or to be skipped), and then rethrows
+	 * the exception of the first failed task (in the order of the list).
+	 */
+	private void waitFor(List<Future<Void>> futures) throws StorageException {
+		Throwable firstFailure = null;
+
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new StorageException("Interrupted while committing transaction.", e);
+			}
+			catch (ExecutionException e) {
+				if (firstFailure == null) {
+					firstFailure = e.getCause();
+				}
+			}
+		}
+
+		if (firstFailure instanceof StorageException) {
+			throw (StorageException) firstFailure;
+		}
+		else if (firstFailure instanceof RuntimeException) {
+			throw (RuntimeException) firstFailure;
+		}
+		else if (firstFailure != null) {
+			throw new StorageException("Unable to commit transaction.", firstFailure);
+		}
+	}
+
+	/**
+	 * Shuts down the given executor and waits for the running actions to finish. Running
+	 * actions are not interrupted, so that no upload or move is left half-done.
+	 */
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		executor.shutdown();
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.log(Level.WARNING, "Still waiting for transaction threads to terminate ...");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -327,8 +498,24 @@ public class RemoteTransaction {
 		}
 	}
 
+	private static interface ActionPerformer {
+		public void perform(TransferManager actionTransferManager, ActionTO action) throws StorageException;
+	}
+
 	private static class TransactionStats {
 		private long totalUploadSize;
 		private int totalUploadFileCount;
 	}
+
+	private static class RemoteTransactionThreadFactory implements ThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TxCommit/" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
 }
@@ -0,0 +1,113 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.plugins.transfer.features.PathAware;
+import org.syncany.plugins.transfer.features.ReadAfterWriteConsistent;
+import org.syncany.plugins.transfer.features.Retriable;
+import org.syncany.plugins.transfer.features.TransactionAware;
+
+/**
+ * Pool of transfer managers for concurrent transfers. Transfer managers are not
+ * thread-safe, so every transfer thread needs its own. The pool hands out the
+ * given transfer manager first, and creates up to <code>maxTransferManagers - 1</code>
+ * additional ones (with the same features as the transfer managers of the transfer
+ * operations) on demand.
+ *
+ * <p>Only the additional transfer managers are disconnected by {@link #disconnectAll()};
+ * the original transfer manager remains in the hands of the caller.
+ *
+ * @author Philipp C. Heckel (philipp.heckel@gmail.com)
+ */
+public class TransferManagerPool {
+	private static final Logger logger = Logger.getLogger(TransferManagerPool.class.getSimpleName());
+
+	private Config config;
+	private int maxTransferManagers;
+	private BlockingQueue<TransferManager> idleTransferManagers;
+	private List<TransferManager> additionalTransferManagers;
+
+	public TransferManagerPool(Config config, TransferManager transferManager, int maxTransferManagers) {
+		this.config = config;
+		this.maxTransferManagers = Math.max(1, maxTransferManagers);
+		this.idleTransferManagers = new LinkedBlockingQueue<TransferManager>();
+		this.additionalTransferManagers = new ArrayList<TransferManager>();
+
+		idleTransferManagers.add(transferManager);
+	}
+
+	/**
+	 * Returns an idle transfer manager, creates a new one if the pool is not exhausted,
+	 * or waits until another thread releases one.
+	 */
+	public TransferManager acquire() throws StorageException {
+		TransferManager idleTransferManager = idleTransferManagers.poll();
+
+		if (idleTransferManager != null) {
+			return idleTransferManager;
+		}
+
+		synchronized (additionalTransferManagers) {
+			if (additionalTransferManagers.size() + 1 < maxTransferManagers) {
+				TransferManager newTransferManager = TransferManagerFactory
+						.build(config)
+						.withFeature(ReadAfterWriteConsistent.class)
+						.withFeature(Retriable.class)
+						.withFeature(PathAware.class)
+						.withFeature(TransactionAware.class)
+						.asDefault();
+
+				additionalTransferManagers.add(newTransferManager);
+				return newTransferManager;
+			}
+		}
+
+		try {
+			return idleTransferManagers.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while waiting for a transfer manager.", e);
+		}
+	}
+
+	public void release(TransferManager releasedTransferManager) {
+		idleTransferManagers.add(releasedTransferManager);
+	}
+
+	public void disconnectAll() {
+		synchronized (additionalTransferManagers) {
+			for (TransferManager additionalTransferManager : additionalTransferManagers) {
+				try {
+					additionalTransferManager.disconnect();
+				}
+				catch (StorageException e) {
+					logger.log(Level.FINE, "Unable to disconnect additional transfer manager.", e);
+				}
+			}
+		}
+	}
+}
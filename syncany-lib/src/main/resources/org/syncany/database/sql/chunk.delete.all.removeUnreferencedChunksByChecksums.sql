@@ -0,0 +1,7 @@
+-- Remove the given chunks if they are not referenced by any 
+-- file content or multichunk anymore
+
+delete from chunk
+where checksum in ( unnest(?) )
+and not exists (select 1 from multichunk_chunk mcc where mcc.chunk_checksum=chunk.checksum)
+and not exists (select 1 from filecontent_chunk fcc where fcc.chunk_checksum=chunk.checksum)
@@ -0,0 +1,4 @@
+-- Determine the state of the chunk table, used to validate the persisted chunk index
+
+select count(*) as chunkcount, max(databaseversion_id) as maxdatabaseversionid, sum(size) as totalsize, max(char_length(checksum)) as maxchecksumlength
+from chunk
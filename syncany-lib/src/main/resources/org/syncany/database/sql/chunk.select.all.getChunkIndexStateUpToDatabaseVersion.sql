@@ -0,0 +1,5 @@
+-- Determine the state of the chunk table up to (and including) a database version ID
+
+select count(*) as chunkcount, sum(size) as totalsize
+from chunk
+where databaseversion_id<=?
@@ -0,0 +1,5 @@
+-- Select all chunks added after a database version ID
+
+select checksum, size
+from chunk
+where databaseversion_id>?
@@ -1,27 +1,12 @@
 -- We delete a databaseversion if it contains nothing. 
--- This is checked by joining on all relevent tables and filtering 
--- the ids that appear there. The only table that has a foreign key
--- on databaseversion_id is fileversion, since fileversions are always
--- contained in a filehistory. All other elements can be
--- left in a databaseversion by themselves.
+-- This is checked by looking up the id in all relevent tables. 
+-- The only table that has a foreign key on databaseversion_id 
+-- is fileversion, since fileversions are always contained in a 
+-- filehistory. All other elements can be left in a databaseversion 
+-- by themselves. The lookups use the foreign key indices, so they 
+-- do not scan the (large) chunk and multichunk tables.
 delete from databaseversion_vectorclock
-where databaseversion_id not in (
-	select dbv.id
-	from databaseversion dbv
-	join filehistory fh on dbv.id=fh.databaseversion_id
-)
-and databaseversion_id not in (
-	select dbv.id
-	from databaseversion dbv
-	join chunk on dbv.id=chunk.databaseversion_id
-)
-and databaseversion_id not in (
-	select dbv.id
-	from databaseversion dbv
-	join multichunk on dbv.id=multichunk.databaseversion_id
-)
-and databaseversion_id not in (
-    select dbv.id
-	from databaseversion dbv
-	join filecontent on dbv.id=filecontent.databaseversion_id
-)
\ No newline at end of file
+where not exists (select 1 from filehistory fh where fh.databaseversion_id=databaseversion_vectorclock.databaseversion_id)
+and not exists (select 1 from chunk where chunk.databaseversion_id=databaseversion_vectorclock.databaseversion_id)
+and not exists (select 1 from multichunk where multichunk.databaseversion_id=databaseversion_vectorclock.databaseversion_id)
+and not exists (select 1 from filecontent where filecontent.databaseversion_id=databaseversion_vectorclock.databaseversion_id)
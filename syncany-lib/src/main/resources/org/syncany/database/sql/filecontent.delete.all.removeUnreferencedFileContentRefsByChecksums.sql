@@ -0,0 +1,10 @@
+-- Remove file content / chunk references for the given file contents
+-- if they are not used by any file versions anymore
+
+delete from filecontent_chunk
+where filecontent_checksum in ( unnest(?) )
+and not exists (
+	select 1
+	from fileversion fv
+	where fv.filecontent_checksum=filecontent_chunk.filecontent_checksum
+)
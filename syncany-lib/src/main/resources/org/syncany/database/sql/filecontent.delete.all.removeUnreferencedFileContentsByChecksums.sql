@@ -0,0 +1,9 @@
+-- Remove the given file contents if they are not used by any file versions anymore
+
+delete from filecontent
+where checksum in ( unnest(?) )
+and not exists (
+	select 1
+	from fileversion fv
+	where fv.filecontent_checksum=filecontent.checksum
+)
@@ -0,0 +1,3 @@
+select distinct chunk_checksum
+from filecontent_chunk
+where filecontent_checksum in ( unnest(?) )
@@ -0,0 +1,9 @@
+-- Remove the given file histories if they are not used by any file versions anymore
+
+delete from filehistory
+where id in ( unnest(?) )
+and not exists (
+	select 1
+	from fileversion fv
+	where fv.filehistory_id=filehistory.id and fv.databaseversion_id=filehistory.databaseversion_id
+)
@@ -0,0 +1,4 @@
+select *
+from fileversion_master_last
+where filehistory_id in (unnest(?))
+order by filehistory_id asc, version asc
@@ -0,0 +1,3 @@
+select distinct filecontent_checksum
+from fileversion 
+where filehistory_id = ? and version <= ? and filecontent_checksum is not null
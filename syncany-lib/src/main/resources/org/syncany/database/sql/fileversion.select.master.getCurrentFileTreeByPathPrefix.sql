@@ -0,0 +1,10 @@
+-- Select the last (non-deleted) file versions of the given path and all paths below it
+-- (same as 'fileversion_master_last', but filtered by path; '0' is the character following '/')
+
+select fv.*
+from fileversion_master fv
+join fileversion_master_maxversion fvmax
+	on fvmax.filehistory_id=fv.filehistory_id
+		and fvmax.version=fv.version
+where (fv.path=? or (fv.path>? and fv.path<?))
+	and fv.status<>'DELETED'
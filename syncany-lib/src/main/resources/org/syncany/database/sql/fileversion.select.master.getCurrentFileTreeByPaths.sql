@@ -0,0 +1,9 @@
+-- Select the last (non-deleted) file versions for the given paths (same as 'fileversion_master_last', but filtered by path)
+
+select fv.*
+from fileversion_master fv
+join fileversion_master_maxversion fvmax
+	on fvmax.filehistory_id=fv.filehistory_id
+		and fvmax.version=fv.version
+where fv.path in ( unnest(?) )
+	and fv.status<>'DELETED'
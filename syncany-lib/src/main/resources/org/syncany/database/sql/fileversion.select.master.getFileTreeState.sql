@@ -0,0 +1,4 @@
+-- Determine the state of the (master) file versions, used to validate the persisted scan state index
+
+select count(*) as fileversioncount, max(databaseversion_id) as maxdatabaseversionid, sum(databaseversion_id) as databaseversionidsum, sum(version) as versionsum
+from fileversion_master
@@ -0,0 +1,5 @@
+-- Determine the state of the (master) file versions up to (and including) a database version ID
+
+select count(*) as fileversioncount, sum(databaseversion_id) as databaseversionidsum, sum(version) as versionsum
+from fileversion_master
+where databaseversion_id<=?
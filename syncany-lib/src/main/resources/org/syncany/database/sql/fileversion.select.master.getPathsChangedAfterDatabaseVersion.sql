@@ -0,0 +1,9 @@
+-- Select all paths (current and previous) of all file histories that were changed after a database version ID
+
+select distinct fv.path
+from fileversion_master fv
+where fv.filehistory_id in (
+	select filehistory_id
+	from fileversion_master
+	where databaseversion_id>?
+)
@@ -0,0 +1,11 @@
+-- Remove multichunk / chunk references for the given chunks
+-- if they are not used by any file versions anymore
+
+delete from multichunk_chunk
+where chunk_checksum in ( unnest(?) )
+and not exists (
+	select 1
+	from filecontent_chunk fcc
+	join fileversion fv on fcc.filecontent_checksum=fv.filecontent_checksum
+	where fcc.chunk_checksum=multichunk_chunk.chunk_checksum
+)
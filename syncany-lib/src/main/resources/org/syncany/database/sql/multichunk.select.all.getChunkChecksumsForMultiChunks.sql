@@ -0,0 +1,3 @@
+select chunk_checksum
+from multichunk_chunk
+where multichunk_id in ( unnest(?) )
@@ -0,0 +1,6 @@
+-- Select all chunk checksums and their multichunk IDs of multichunks added after a database version ID
+
+select mcc.chunk_checksum, mcc.multichunk_id
+from multichunk_chunk mcc
+join multichunk mc on mc.id=mcc.multichunk_id
+where mc.databaseversion_id>?
@@ -0,0 +1,5 @@
+-- Determine the state of the multichunk references, used to validate the persisted multichunk index
+
+select count(*) as chunkcount, max(mc.databaseversion_id) as maxdatabaseversionid
+from multichunk_chunk mcc
+join multichunk mc on mc.id=mcc.multichunk_id
@@ -0,0 +1,6 @@
+-- Determine the state of the multichunk references up to (and including) a database version ID
+
+select count(*) as chunkcount
+from multichunk_chunk mcc
+join multichunk mc on mc.id=mcc.multichunk_id
+where mc.databaseversion_id<=?
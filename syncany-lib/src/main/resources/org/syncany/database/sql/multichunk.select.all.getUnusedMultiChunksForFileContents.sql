@@ -0,0 +1,15 @@
+-- Selects the multichunks that contain chunks of the given file contents, 
+-- but none of whose chunks are used by any file version anymore
+
+select distinct mc.id, mc.size
+from filecontent_chunk fcc1
+join multichunk_chunk mcc1 on fcc1.chunk_checksum=mcc1.chunk_checksum
+join multichunk mc on mcc1.multichunk_id=mc.id
+where fcc1.filecontent_checksum in ( unnest(?) )
+and not exists (
+	select 1
+	from multichunk_chunk mcc
+	join filecontent_chunk fcc on mcc.chunk_checksum=fcc.chunk_checksum
+	join fileversion fv on fcc.filecontent_checksum=fv.filecontent_checksum
+	where mcc.multichunk_id=mc.id
+)
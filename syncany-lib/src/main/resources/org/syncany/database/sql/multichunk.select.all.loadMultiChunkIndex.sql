@@ -0,0 +1,5 @@
+-- Select all chunk checksums and their multichunk IDs (incl. DIRTY)
+
+select mcc.chunk_checksum, mcc.multichunk_id
+from multichunk_chunk mcc
+join multichunk mc on mc.id=mcc.multichunk_id
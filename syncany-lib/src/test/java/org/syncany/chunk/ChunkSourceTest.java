@@ -0,0 +1,193 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class ChunkSourceTest {
+	private static final int SMALL_MAPPING_SIZE = 100 * 1024;
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testStreamAndMappedSourceReturnSameWindows() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024 * 1024 + 17);
+
+		ChunkSource streamSource = new StreamChunkSource(new FileInputStream(inputFile));
+		ChunkSource mappedSource = new MappedChunkSource(inputFile, SMALL_MAPPING_SIZE);
+
+		ByteArrayOutputStream streamContent = new ByteArrayOutputStream();
+		ByteArrayOutputStream mappedContent = new ByteArrayOutputStream();
+
+		int[] windowLengths = new int[] { 1, 4096, 70 * 1024, 33, 128 * 1024 };
+		int i = 0;
+
+		while (!streamSource.isEndOfFile()) {
+			assertFalse(mappedSource.isEndOfFile());
+
+			int windowLength = windowLengths[i++ % windowLengths.length];
+			int consumeLength = Math.max(1, windowLength / 2);
+
+			ByteBuffer streamWindow = streamSource.read(windowLength);
+			ByteBuffer mappedWindow = mappedSource.read(windowLength);
+
+			assertEquals(streamWindow, mappedWindow);
+			assertTrue(streamWindow.remaining() <= windowLength);
+
+			consumeLength = Math.min(consumeLength, streamWindow.remaining());
+
+			streamContent.write(toByteArray(streamWindow, consumeLength));
+			mappedContent.write(toByteArray(mappedWindow, consumeLength));
+
+			streamSource.consume(consumeLength);
+			mappedSource.consume(consumeLength);
+		}
+
+		assertTrue(mappedSource.isEndOfFile());
+		assertEquals(0, streamSource.read(10).remaining());
+		assertEquals(0, mappedSource.read(10).remaining());
+
+		streamSource.close();
+		mappedSource.close();
+
+		assertArrayEquals(Files.readAllBytes(inputFile.toPath()), streamContent.toByteArray());
+		assertArrayEquals(Files.readAllBytes(inputFile.toPath()), mappedContent.toByteArray());
+	}
+
+	@Test
+	public void testStreamAndMappedSourceCreateSameChunks() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 2 * 1024 * 1024 + 5);
+		byte[] inputFileChecksum = FileUtil.createChecksum(inputFile, "SHA1");
+
+		FixedChunker fixedChunker = new FixedChunker(64 * 1024);
+		TttdChunker tttdChunker = new TttdChunker(16 * 1024);
+
+		List<String> fixedStreamChunks = getChunks(fixedChunker.new FixedChunkEnumeration(new FileInputStream(inputFile)), inputFileChecksum);
+		List<String> fixedMappedChunks = getChunks(fixedChunker.new FixedChunkEnumeration(new MappedChunkSource(inputFile, SMALL_MAPPING_SIZE)), inputFileChecksum);
+
+		List<String> tttdStreamChunks = getChunks(tttdChunker.new TTTDEnumeration(new FileInputStream(inputFile)), inputFileChecksum);
+		List<String> tttdMappedChunks = getChunks(tttdChunker.new TTTDEnumeration(new MappedChunkSource(inputFile, SMALL_MAPPING_SIZE)), inputFileChecksum);
+
+		assertEquals(33, fixedStreamChunks.size());
+		assertEquals(fixedStreamChunks, fixedMappedChunks);
+		assertEquals(tttdStreamChunks, tttdMappedChunks);
+	}
+
+	@Test
+	public void testMappedChunkContentStaysValid() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 500 * 1024);
+		ChunkEnumeration chunkEnumeration = new FixedChunker(64 * 1024).new FixedChunkEnumeration(new MappedChunkSource(inputFile, SMALL_MAPPING_SIZE));
+
+		List<Chunk> chunks = new ArrayList<Chunk>();
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunks.add(chunkEnumeration.nextElement());
+		}
+
+		chunkEnumeration.close();
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		for (Chunk chunk : chunks) {
+			Chunk detachedChunk = chunk.detach();
+
+			assertEquals(chunk.getSize(), chunk.getContent().length);
+			assertFalse(chunk == detachedChunk);
+			assertArrayEquals(chunk.getContent(), detachedChunk.getContent());
+
+			content.write(chunk.getContent());
+		}
+
+		assertArrayEquals(Files.readAllBytes(inputFile.toPath()), content.toByteArray());
+	}
+
+	@Test
+	public void testMappedSourceTruncatedWhileChunking() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 500 * 1024);
+
+		MappedChunkSource mappedSource = new MappedChunkSource(inputFile, 1024 * 1024);
+		ChunkEnumeration chunkEnumeration = new FixedChunker(64 * 1024).new FixedChunkEnumeration(mappedSource);
+
+		assertTrue(chunkEnumeration.hasMoreElements());
+		assertEquals(64 * 1024, chunkEnumeration.nextElement().getSize());
+		assertFalse(mappedSource.isTruncationError(new InternalError()));
+
+		RandomAccessFile truncatedFile = new RandomAccessFile(inputFile, "rw");
+		truncatedFile.setLength(10 * 1024);
+		truncatedFile.close();
+
+		assertTrue(mappedSource.isTruncationError(new InternalError()));
+
+		// Accessing the truncated pages must not fail, but end the enumeration
+		assertNull(chunkEnumeration.nextElement());
+		assertFalse(chunkEnumeration.hasMoreElements());
+	}
+
+	private List<String> getChunks(ChunkEnumeration chunkEnumeration, byte[] expectedFileChecksum) {
+		List<String> chunks = new ArrayList<String>();
+		Chunk lastChunk = null;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+			chunks.add(StringUtil.toHex(lastChunk.getChecksum()) + "/" + lastChunk.getSize());
+		}
+
+		chunkEnumeration.close();
+
+		assertArrayEquals(expectedFileChecksum, lastChunk.getFileChecksum());
+		return chunks;
+	}
+
+	private byte[] toByteArray(ByteBuffer window, int length) {
+		byte[] bytes = new byte[length];
+		window.duplicate().get(bytes);
+
+		return bytes;
+	}
+}
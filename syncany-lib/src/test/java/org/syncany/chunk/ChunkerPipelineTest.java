@@ -0,0 +1,185 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class ChunkerPipelineTest {
+	private static final int CHUNK_SIZE = 1024;
+	private static final int FAIL_AFTER_CHUNK_COUNT = 2;
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testWorkerFailureWithUnchangedFile() throws Exception {
+		File file = new File(tempDir, "file");
+		TestFileUtil.createRandomFile(file, 10 * CHUNK_SIZE);
+
+		List<String> expectedChunks = getChunks(new FixedChunker(CHUNK_SIZE).createChunks(file));
+
+		FailingChunker chunker = new FailingChunker(CHUNK_SIZE);
+		ChunkerPipeline chunkerPipeline = new ChunkerPipeline(chunker, 1);
+
+		chunkerPipeline.prefetch(Arrays.asList(file));
+
+		ChunkEnumeration chunksEnum = chunkerPipeline.createChunks(file);
+		chunker.failLatch.countDown();
+
+		assertEquals(expectedChunks, getChunks(chunksEnum));
+
+		chunksEnum.close();
+		chunkerPipeline.close();
+	}
+
+	@Test
+	public void testWorkerFailureWithChangedFile() throws Exception {
+		File file = new File(tempDir, "file");
+		TestFileUtil.createRandomFile(file, 10 * CHUNK_SIZE);
+
+		long lastModified = file.lastModified();
+
+		FailingChunker chunker = new FailingChunker(CHUNK_SIZE);
+		ChunkerPipeline chunkerPipeline = new ChunkerPipeline(chunker, 1);
+
+		chunkerPipeline.prefetch(Arrays.asList(file));
+
+		ChunkEnumeration chunksEnum = chunkerPipeline.createChunks(file);
+
+		for (int i = 0; i < FAIL_AFTER_CHUNK_COUNT; i++) {
+			assertTrue(chunksEnum.hasMoreElements());
+			assertNotNull(chunksEnum.nextElement());
+		}
+
+		// Change the consumed chunks, but not size and last modified date
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.write(new byte[CHUNK_SIZE]);
+		}
+
+		file.setLastModified(lastModified);
+		chunker.failLatch.countDown();
+
+		// Consumed chunks do not match re-read chunks; file is reported as truncated
+		assertTrue(chunksEnum.hasMoreElements());
+		assertNull(chunksEnum.nextElement());
+		assertFalse(chunksEnum.hasMoreElements());
+
+		chunksEnum.close();
+		chunkerPipeline.close();
+	}
+
+	private List<String> getChunks(ChunkEnumeration chunksEnum) {
+		List<String> chunks = new ArrayList<String>();
+		Chunk chunk = null;
+
+		while (chunksEnum.hasMoreElements()) {
+			chunk = chunksEnum.nextElement();
+
+			assertNotNull(chunk);
+			chunks.add(StringUtil.toHex(chunk.getChecksum()));
+		}
+
+		assertNotNull(chunk);
+		chunks.add(StringUtil.toHex(chunk.getFileChecksum()));
+
+		chunksEnum.close();
+
+		return chunks;
+	}
+
+	/**
+	 * Fixed chunker that fails in the worker threads of the pipeline after the first
+	 * few chunks, as soon as the test releases the latch.
+	 */
+	private static class FailingChunker extends FixedChunker {
+		private CountDownLatch failLatch;
+
+		public FailingChunker(int chunkSize) {
+			super(chunkSize);
+			this.failLatch = new CountDownLatch(1);
+		}
+
+		@Override
+		public ChunkEnumeration createChunks(File file) throws IOException {
+			final ChunkEnumeration chunksEnum = super.createChunks(file);
+
+			if (!Thread.currentThread().getName().startsWith("Chunker/")) {
+				return chunksEnum;
+			}
+
+			return new ChunkEnumeration() {
+				private int chunkCount = 0;
+
+				@Override
+				public boolean hasMoreElements() {
+					if (chunkCount == FAIL_AFTER_CHUNK_COUNT) {
+						try {
+							failLatch.await();
+						}
+						catch (InterruptedException e) {
+							// Fail anyway
+						}
+
+						throw new RuntimeException("Simulated chunker failure");
+					}
+
+					return chunksEnum.hasMoreElements();
+				}
+
+				@Override
+				public Chunk nextElement() {
+					chunkCount++;
+					return chunksEnum.nextElement();
+				}
+
+				@Override
+				public void close() {
+					chunksEnum.close();
+				}
+			};
+		}
+	}
+}
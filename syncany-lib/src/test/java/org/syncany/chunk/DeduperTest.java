@@ -0,0 +1,177 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class DeduperTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testParallelDeduplicationEqualsSerialDeduplication() throws Exception {
+		List<File> inputFiles = createInputFiles();
+
+		List<String> serialEvents = deduplicate(new ArrayList<File>(inputFiles), 1, Long.MAX_VALUE);
+		List<String> parallelEvents = deduplicate(new ArrayList<File>(inputFiles), 4, Long.MAX_VALUE);
+
+		assertEquals(serialEvents, parallelEvents);
+	}
+
+	@Test
+	public void testParallelDeduplicationWithFileLimit() throws Exception {
+		List<File> inputFiles = createInputFiles();
+
+		List<File> serialRemainingFiles = new ArrayList<File>(inputFiles);
+		List<File> parallelRemainingFiles = new ArrayList<File>(inputFiles);
+		List<String> serialEvents = new ArrayList<String>();
+		List<String> parallelEvents = new ArrayList<String>();
+
+		while (!serialRemainingFiles.isEmpty()) {
+			serialEvents.addAll(deduplicate(serialRemainingFiles, 1, 7));
+			parallelEvents.addAll(deduplicate(parallelRemainingFiles, 3, 7));
+
+			assertEquals(serialRemainingFiles, parallelRemainingFiles);
+		}
+
+		assertTrue(parallelRemainingFiles.isEmpty());
+		assertEquals(serialEvents, parallelEvents);
+	}
+
+	private List<File> createInputFiles() throws IOException {
+		List<File> inputFiles = new ArrayList<File>();
+
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 0));
+		inputFiles.add(new File(tempDir, "folder"));
+		inputFiles.get(1).mkdir();
+
+		for (int i = 0; i < 20; i++) {
+			inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, (i % 5) * 70 * 1024 + i));
+		}
+
+		// Duplicate content in a later file
+		File duplicateFile = new File(tempDir, "duplicate");
+		TestFileUtil.copyFile(inputFiles.get(5), duplicateFile);
+		inputFiles.add(duplicateFile);
+
+		return inputFiles;
+	}
+
+	private List<String> deduplicate(List<File> files, int chunkerThreads, long maxNumberOfFiles) throws IOException {
+		final List<String> events = new ArrayList<String>();
+		final Set<String> chunkIndex = new HashSet<String>();
+		final File multiChunkDir = new File(tempDir, "multichunks-" + chunkerThreads);
+
+		multiChunkDir.mkdir();
+
+		Chunker chunker = new FixedChunker(64 * 1024);
+		MultiChunker multiChunker = new ZipMultiChunker(100);
+		Deduper deduper = new Deduper(chunker, multiChunker, new NoTransformer(), Long.MAX_VALUE, maxNumberOfFiles, chunkerThreads);
+
+		deduper.deduplicate(files, new DeduperListener() {
+			private int multiChunkCount = 0;
+
+			@Override
+			public boolean onFileFilter(File file) {
+				return true;
+			}
+
+			@Override
+			public boolean onFileStart(File file) {
+				events.add("start " + file.getName());
+				return file.isFile();
+			}
+
+			@Override
+			public void onFileAddChunk(File file, Chunk chunk) {
+				events.add("add " + file.getName() + " " + StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onFileEnd(File file, byte[] checksum) {
+				events.add("end " + file.getName() + " " + ((checksum != null) ? StringUtil.toHex(checksum) : null));
+			}
+
+			@Override
+			public boolean onChunk(Chunk chunk) {
+				return chunkIndex.add(StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onMultiChunkOpen(MultiChunk multiChunk) {
+				events.add("open multichunk");
+			}
+
+			@Override
+			public MultiChunkId createNewMultiChunkId(Chunk firstChunk) {
+				return new MultiChunkId(new byte[] { (byte) multiChunkCount++ });
+			}
+
+			@Override
+			public File getMultiChunkFile(MultiChunkId multiChunkId) {
+				return new File(multiChunkDir, multiChunkId.toString());
+			}
+
+			@Override
+			public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) {
+				events.add("write " + StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onMultiChunkClose(MultiChunk multiChunk) {
+				events.add("close multichunk");
+			}
+
+			@Override
+			public void onStart(int fileCount) {
+				// Not relevant
+			}
+
+			@Override
+			public void onFinish() {
+				events.add("finish");
+			}
+		});
+
+		return events;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class FastCdcChunkerTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testStringSerialization() {
+		final int CHUNK_SIZE = 512*1024;
+
+		Chunker chunker = new FastCdcChunker(CHUNK_SIZE);
+		assertEquals("Other toString() result expected.", "FastCDC-"+CHUNK_SIZE+"-"+FastCdcChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+
+	@Test
+	public void testCreateChunksFrom5MBFileAndTestChunkSize() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5*1024*1024;
+		final int AVG_CHUNK_SIZE = 64*1024;
+
+		// Setup
+		File inputRandom5MBFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+
+		File outputCopyOfRandom5MBFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		FileOutputStream outputCopyOfRandom5MBFileOutputStream = new FileOutputStream(outputCopyOfRandom5MBFile);
+
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+
+		// Create chunks
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputRandom5MBFile);
+		Chunk lastChunk = null;
+		int chunkCount = 0;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+			chunkCount++;
+
+			// Checksum & size
+			assertNotNull("Chunk checksum should not be null.", lastChunk.getChecksum());
+			assertTrue("Chunk must not be larger than max. chunk size.", lastChunk.getSize() <= 8 * AVG_CHUNK_SIZE);
+
+			if (chunkEnumeration.hasMoreElements()) {
+				assertTrue("Chunk must not be smaller than min. chunk size.", lastChunk.getSize() > AVG_CHUNK_SIZE / 4);
+			}
+
+			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), 0, lastChunk.getSize());
+		}
+
+		outputCopyOfRandom5MBFileOutputStream.close();
+
+		// Number of chunks (normalized chunking keeps chunk sizes close to the average)
+		int expectedChunkCount = TOTAL_FILE_SIZE / AVG_CHUNK_SIZE;
+		assertTrue("Unexpected number of chunks: " + chunkCount, chunkCount > expectedChunkCount / 2 && chunkCount < expectedChunkCount * 2);
+
+		// Checksums
+		byte[] inputFileChecksum = FileUtil.createChecksum(inputRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		byte[] outputFileChecksum = FileUtil.createChecksum(outputCopyOfRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+
+		assertArrayEquals("Checksums of input and output file do not match.", inputFileChecksum, outputFileChecksum);
+		assertArrayEquals("Last chunk's getFileChecksum() should be the file checksum.", inputFileChecksum, lastChunk.getFileChecksum());
+	}
+
+	@Test
+	public void testNextChunkEvenIfThereAreNone() throws IOException {
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 5*1024);
+		Chunker chunker = new FastCdcChunker(512*1024);
+
+		// Create chunks
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkEnumeration.nextElement();
+		}
+
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
+	}
+
+	@Test
+	public void testChunkBoundariesAfterInsertedByte() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 4 * 1024 * 1024;
+		final int AVG_CHUNK_SIZE = 16 * 1024;
+
+		// Setup
+		byte[] originalContent = TestFileUtil.createRandomArray(TOTAL_FILE_SIZE);
+		byte[] shiftedContent = new byte[TOTAL_FILE_SIZE + 1];
+
+		shiftedContent[0] = 0x42;
+		System.arraycopy(originalContent, 0, shiftedContent, 1, TOTAL_FILE_SIZE);
+
+		File originalFile = new File(tempDir, "original");
+		File shiftedFile = new File(tempDir, "shifted");
+
+		TestFileUtil.writeByteArrayToFile(originalContent, originalFile);
+		TestFileUtil.writeByteArrayToFile(shiftedContent, shiftedFile);
+
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+
+		// Create chunks
+		List<String> originalChunks = getChunkChecksums(chunker, originalFile);
+		List<String> shiftedChunks = getChunkChecksums(chunker, shiftedFile);
+
+		Set<String> sharedChunks = new HashSet<String>(originalChunks);
+		sharedChunks.retainAll(shiftedChunks);
+
+		// Only the first chunk(s) are expected to differ
+		assertTrue("Expected at least 90% shared chunks, but only " + sharedChunks.size() + "/" + originalChunks.size() + " are shared.",
+				sharedChunks.size() >= originalChunks.size() * 0.9);
+	}
+
+	@Test
+	public void testEmptyFileHasNoChunks() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);
+		Enumeration<Chunk> chunkEnumeration = new FastCdcChunker(16 * 1024).createChunks(inputFile);
+
+		assertFalse("Empty file should not have any chunks.", chunkEnumeration.hasMoreElements());
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+	}
+
+	@Test
+	public void testInitFromSettings() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+
+		Chunker chunker = Chunker.getInstance(FastCdcChunker.TYPE);
+		chunker.init(settings);
+
+		assertEquals("FastCDC-8192-" + FastCdcChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+
+	@Test
+	public void testInitWithDigestFromSettings() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+		settings.put(Chunker.PROPERTY_DIGEST, "SHA-256");
+
+		Chunker chunker = Chunker.getInstance(FastCdcChunker.TYPE);
+		chunker.init(settings);
+
+		assertEquals("FastCDC-8192-SHA-256", chunker.toString());
+		assertEquals("SHA-256", chunker.getChecksumAlgorithm());
+
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 100 * 1024);
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			assertEquals(32, chunkEnumeration.nextElement().getChecksum().length);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInitWithUnknownDigest() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+		settings.put(Chunker.PROPERTY_DIGEST, "NO-SUCH-DIGEST");
+
+		new FastCdcChunker().init(settings);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInitWithTooSmallChunkSize() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "100");
+
+		new FastCdcChunker().init(settings);
+	}
+
+	private List<String> getChunkChecksums(Chunker chunker, File file) throws IOException {
+		List<String> chunkChecksums = new ArrayList<String>();
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(file);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkChecksums.add(StringUtil.toHex(chunkEnumeration.nextElement().getChecksum()));
+		}
+
+		return chunkChecksums;
+	}
+}
@@ -26,9 +26,16 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -131,6 +138,65 @@ public class FixedOffsetChunkerTest {
 		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
 	}
 
+	@Test
+	public void testChunkBoundariesIndependentOfShortReads() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 1024 * 1024;
+		final int EXACT_CHUNK_SIZE = 64 * 1024;
+
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		FixedChunker chunker = new FixedChunker(EXACT_CHUNK_SIZE);
+
+		// Create chunks from a stream that returns at most 1000 bytes per read
+		InputStream shortReadInputStream = new FilterInputStream(new FileInputStream(inputFile)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 1000));
+			}
+
+			@Override
+			public int available() throws IOException {
+				return 0;
+			}
+		};
+
+		Enumeration<Chunk> chunkEnumeration = chunker.new FixedChunkEnumeration(shortReadInputStream);
+		int actualChunkCount = 0;
+		Chunk lastChunk = null;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			actualChunkCount++;
+			lastChunk = chunkEnumeration.nextElement();
+
+			assertEquals("Chunk does not have the expected size.", EXACT_CHUNK_SIZE, lastChunk.getSize());
+		}
+
+		assertEquals("Unexpected number of chunks when chunking", TOTAL_FILE_SIZE / EXACT_CHUNK_SIZE, actualChunkCount);
+		assertArrayEquals("Last chunk's getFileChecksum() should be the file checksum.",
+				FileUtil.createChecksum(inputFile, FixedChunker.DEFAULT_DIGEST_ALG), lastChunk.getFileChecksum());
+	}
+
+	@Test
+	public void testEmptyFileHasNoChunks() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);
+		Enumeration<Chunk> chunkEnumeration = new FixedChunker(1024).createChunks(inputFile);
+
+		assertFalse("Empty file should not have any chunks.", chunkEnumeration.hasMoreElements());
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+	}
+
+	@Test
+	public void testInitFromSettings() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+
+		Chunker chunker = Chunker.getInstance(FixedChunker.TYPE);
+		chunker.init(settings);
+
+		assertEquals("Fixed-8192-" + FixedChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+
 	@Test
 	public void testExceptionInvalidDigestAlgorithm() {
 		boolean exceptionThrown = false;
@@ -145,4 +211,62 @@ public class FixedOffsetChunkerTest {
 		assertTrue("Exception expected.", exceptionThrown);
 	}
 
+	@Test
+	public void testFileChecksumFromChunks() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 100 * 1024 + 17);
+
+		Chunker chunker = new FixedChunker(16 * 1024);
+		chunker.setFileChecksumFromChunks(true);
+
+		MessageDigest expectedFileDigest = MessageDigest.getInstance(FixedChunker.DEFAULT_DIGEST_ALG);
+		byte[] actualFileChecksum = null;
+
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+
+			expectedFileDigest.update(chunk.getChecksum());
+			actualFileChecksum = chunk.getFileChecksum();
+		}
+
+		// File checksum is the checksum over the list of chunk checksums
+		byte[] expectedFileChecksum = expectedFileDigest.digest();
+
+		assertArrayEquals(expectedFileChecksum, actualFileChecksum);
+		assertArrayEquals(expectedFileChecksum, chunker.createFileChecksum(inputFile));
+		assertFalse(Arrays.equals(FileUtil.createChecksum(inputFile, FixedChunker.DEFAULT_DIGEST_ALG), actualFileChecksum));
+	}
+
+	@Test
+	public void testFileChecksumFromContent() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 100 * 1024 + 17);
+
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "16384");
+		settings.put(Chunker.PROPERTY_FILE_CHECKSUM, Chunker.FILE_CHECKSUM_CONTENT);
+
+		Chunker chunker = new FixedChunker();
+		chunker.init(settings);
+
+		byte[] actualFileChecksum = null;
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			actualFileChecksum = chunkEnumeration.nextElement().getFileChecksum();
+		}
+
+		assertFalse(chunker.isFileChecksumFromChunks());
+		assertArrayEquals(FileUtil.createChecksum(inputFile, FixedChunker.DEFAULT_DIGEST_ALG), actualFileChecksum);
+		assertArrayEquals(actualFileChecksum, chunker.createFileChecksum(inputFile));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInitWithInvalidFileChecksumMode() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+		settings.put(Chunker.PROPERTY_FILE_CHECKSUM, "invalid");
+
+		new FixedChunker().init(settings);
+	}
 }
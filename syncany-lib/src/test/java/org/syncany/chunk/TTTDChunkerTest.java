@@ -22,12 +22,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +42,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.syncany.tests.util.TestFileUtil;
 import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
 
 public class TTTDChunkerTest {
 	private File tempDir;
@@ -124,4 +132,68 @@ public class TTTDChunkerTest {
 		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
 		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
 	}
+
+	@Test
+	public void testChunkBoundariesAfterInsertedByte() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 4 * 1024 * 1024;
+		final int AVG_CHUNK_SIZE = 16 * 1024;
+
+		// Setup
+		byte[] originalContent = TestFileUtil.createRandomArray(TOTAL_FILE_SIZE);
+		byte[] shiftedContent = new byte[TOTAL_FILE_SIZE + 1];
+
+		shiftedContent[0] = 0x42;
+		System.arraycopy(originalContent, 0, shiftedContent, 1, TOTAL_FILE_SIZE);
+
+		File originalFile = new File(tempDir, "original");
+		File shiftedFile = new File(tempDir, "shifted");
+
+		TestFileUtil.writeByteArrayToFile(originalContent, originalFile);
+		TestFileUtil.writeByteArrayToFile(shiftedContent, shiftedFile);
+
+		Chunker chunker = new TttdChunker(AVG_CHUNK_SIZE);
+
+		// Create chunks
+		List<String> originalChunks = getChunkChecksums(chunker, originalFile);
+		List<String> shiftedChunks = getChunkChecksums(chunker, shiftedFile);
+
+		Set<String> sharedChunks = new HashSet<String>(originalChunks);
+		sharedChunks.retainAll(shiftedChunks);
+
+		// Only the first chunk is expected to differ
+		assertTrue("Expected at least 90% shared chunks, but only " + sharedChunks.size() + "/" + originalChunks.size() + " are shared.",
+				sharedChunks.size() >= originalChunks.size() * 0.9);
+	}
+
+	@Test
+	public void testEmptyFileHasNoChunks() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);
+		Enumeration<Chunk> chunkEnumeration = new TttdChunker(16 * 1024).createChunks(inputFile);
+
+		assertFalse("Empty file should not have any chunks.", chunkEnumeration.hasMoreElements());
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+	}
+
+	@Test
+	public void testInitFromSettings() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+
+		Chunker chunker = Chunker.getInstance(TttdChunker.TYPE);
+		chunker.init(settings);
+
+		assertEquals("TTTD-8192-" + TttdChunker.DEFAULT_DIGEST_ALG + "-" + TttdChunker.DEFAULT_FINGERPRINT_ALG, chunker.toString());
+	}
+
+	private List<String> getChunkChecksums(Chunker chunker, File file) throws IOException {
+		List<String> chunkChecksums = new ArrayList<String>();
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(file);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkChecksums.add(StringUtil.toHex(chunkEnumeration.nextElement().getChecksum()));
+		}
+
+		return chunkChecksums;
+	}
 }
@@ -28,10 +28,10 @@ import java.util.List;
 
 import javax.crypto.spec.SecretKeySpec;
 
-import org.junit.Ignore;
 import org.junit.Test;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.tests.util.TestAssertUtil;
@@ -164,8 +164,6 @@ public class ConfigTest {
 	}
 
 	@Test
-	@Ignore
-	// TODO [low] ChunkerTO is not used yet; so no test for it.
 	public void testConfigChunkerNull() throws Exception {
 		// Setup
 		File localDir = new File("/some/folder");
@@ -186,7 +184,159 @@ public class ConfigTest {
 			fail("Config should not been have initialized.");
 		}
 		catch (ConfigException e) {
-			TestAssertUtil.assertErrorStackTraceContains("No multichunker", e);
+			TestAssertUtil.assertErrorStackTraceContains("No chunker", e);
+		}
+	}
+
+	@Test
+	public void testConfigChunkerTttd() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(TestConfigUtil.createTttdChunkerTO()); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertNotNull(config.getChunker());
+		assertEquals("TttdChunker", config.getChunker().getClass().getSimpleName());
+		assertEquals("TTTD-65536-SHA1-Adler32", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerFastCdc() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(TestConfigUtil.createFastCdcChunkerTO()); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertNotNull(config.getChunker());
+		assertEquals("FastCdcChunker", config.getChunker().getClass().getSimpleName());
+		assertEquals("FastCDC-65536-SHA1", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerWithDigest() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		ChunkerTO chunkerTO = TestConfigUtil.createTttdChunkerTO();
+		chunkerTO.getSettings().put("digest", "SHA-256");
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(chunkerTO); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertEquals("SHA-256", config.getChunker().getChecksumAlgorithm());
+		assertEquals("TTTD-65536-SHA-256-Adler32", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerWithInvalidDigest() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		ChunkerTO chunkerTO = TestConfigUtil.createFixedChunkerTO();
+		chunkerTO.getSettings().put("digest", "NO-SUCH-DIGEST"); // <<< INVALID !!
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(chunkerTO);
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);
+			fail("Config should not been have initialized.");
+		}
+		catch (ConfigException e) {
+			TestAssertUtil.assertErrorStackTraceContains("NO-SUCH-DIGEST", e);
+		}
+	}
+
+	@Test
+	public void testConfigChunkerLegacyFixedSize() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		ChunkerTO legacyChunkerTO = new ChunkerTO();
+		legacyChunkerTO.setType("fixed");
+		legacyChunkerTO.setSettings(new HashMap<String, String>());
+		legacyChunkerTO.getSettings().put("size", "16");
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(legacyChunkerTO); // <<< valid, but never applied in old versions
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertEquals("Fixed-524288-SHA1", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerInvalidType() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		ChunkerTO invalidChunkerTO = new ChunkerTO();
+		invalidChunkerTO.setType("invalid-typeXXX");
+		invalidChunkerTO.setSettings(new HashMap<String, String>());
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(invalidChunkerTO); // <<< INVALID !!
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid
+
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);
+			fail("Chunker should NOT have been found.");
+		}
+		catch (ConfigException e) {
+			TestAssertUtil.assertErrorStackTraceContains("invalid-typeXXX", e);
 		}
 	}
 
@@ -0,0 +1,229 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ChunkIndexTest {
+	@Test
+	public void testInMemoryIndexPutAndGet() {
+		List<byte[]> checksums = createRandomChecksums(10000, 20);
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(20, checksums.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		assertEquals(checksums.size(), chunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			ChunkEntry chunkEntry = chunkIndex.get(new ChunkChecksum(checksums.get(i)));
+
+			assertNotNull(chunkEntry);
+			assertEquals(i, chunkEntry.getSize());
+		}
+
+		assertNull(chunkIndex.get(new ChunkChecksum(ObjectId.secureRandomBytes(20))));
+		assertNull(chunkIndex.get(new ChunkChecksum(ObjectId.secureRandomBytes(32))));
+	}
+
+	@Test
+	public void testIndexWithDifferentChecksumLengths() {
+		byte[] shortChecksum = new byte[] { 1, 2, 3 };
+		byte[] longChecksum = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(10, 2);
+
+		chunkIndex.put(shortChecksum, 3);
+		chunkIndex.put(longChecksum, 10);
+
+		assertEquals(3, chunkIndex.get(new ChunkChecksum(shortChecksum)).getSize());
+		assertEquals(10, chunkIndex.get(new ChunkChecksum(longChecksum)).getSize());
+		assertNull(chunkIndex.get(new ChunkChecksum(new byte[] { 1, 2, 3, 4 })));
+	}
+
+	@Test
+	public void testInMemoryIndexGrowsWhenFull() {
+		List<byte[]> checksums = createRandomChecksums(1000, 20);
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(20, 10);
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		assertEquals(checksums.size(), chunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertEquals(i, chunkIndex.get(new ChunkChecksum(checksums.get(i))).getSize());
+		}
+
+		chunkIndex.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testGetAfterClose() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(20, 10);
+
+		chunkIndex.put(ObjectId.secureRandomBytes(20), 1);
+		chunkIndex.close();
+
+		chunkIndex.get(new ChunkChecksum(ObjectId.secureRandomBytes(20)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutChecksumTooLong() {
+		ChunkIndex.createInMemory(20, 1).put(new byte[21], 1);
+	}
+
+	@Test
+	public void testPersistedIndex() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunks.idx");
+
+		List<byte[]> checksums = createRandomChecksums(5000, 32);
+		ChunkIndex chunkIndex = ChunkIndex.create(indexFile, 32, checksums.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		// Not committed yet
+		assertNull(ChunkIndex.open(indexFile, "state-1"));
+
+		chunkIndex.commit("state-1");
+
+		// Wrong state key
+		assertNull(ChunkIndex.open(indexFile, "state-2"));
+
+		// Correct state key
+		ChunkIndex reopenedChunkIndex = ChunkIndex.open(indexFile, "state-1");
+
+		assertNotNull(reopenedChunkIndex);
+		assertEquals(checksums.size(), reopenedChunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertEquals(i, reopenedChunkIndex.get(new ChunkChecksum(checksums.get(i))).getSize());
+		}
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPersistedIndexUpdate() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunks.idx");
+
+		byte[] checksum1 = ObjectId.secureRandomBytes(20);
+		byte[] checksum2 = ObjectId.secureRandomBytes(20);
+
+		ChunkIndex chunkIndex = ChunkIndex.create(indexFile, 20, 10);
+		chunkIndex.put(checksum1, 1);
+		chunkIndex.commit("state-1");
+
+		ChunkIndex writableChunkIndex = ChunkIndex.open(indexFile, true);
+
+		assertEquals("state-1", writableChunkIndex.getStateKey());
+		assertEquals(1, writableChunkIndex.size());
+		assertTrue(writableChunkIndex.getRemainingCapacity() >= 1);
+
+		writableChunkIndex.beginUpdate();
+		writableChunkIndex.put(checksum2, 2);
+
+		// Incomplete while updating
+		assertNull(ChunkIndex.open(indexFile, "state-1"));
+
+		writableChunkIndex.commit("state-2");
+
+		ChunkIndex reopenedChunkIndex = ChunkIndex.open(indexFile, "state-2");
+
+		assertEquals(2, reopenedChunkIndex.size());
+		assertEquals(1, reopenedChunkIndex.get(new ChunkChecksum(checksum1)).getSize());
+		assertEquals(2, reopenedChunkIndex.get(new ChunkChecksum(checksum2)).getSize());
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPersistedIndexGrowsWhenFull() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunks.idx");
+
+		List<byte[]> checksums = createRandomChecksums(1000, 20);
+		ChunkIndex chunkIndex = ChunkIndex.create(indexFile, 20, 10);
+
+		for (int i = 0; i < checksums.size(); i++) {
+			chunkIndex.put(checksums.get(i), i);
+		}
+
+		chunkIndex.commit("state-1");
+		chunkIndex.close();
+
+		ChunkIndex reopenedChunkIndex = ChunkIndex.open(indexFile, "state-1");
+
+		assertNotNull(reopenedChunkIndex);
+		assertEquals(checksums.size(), reopenedChunkIndex.size());
+
+		for (int i = 0; i < checksums.size(); i++) {
+			assertEquals(i, reopenedChunkIndex.get(new ChunkChecksum(checksums.get(i))).getSize());
+		}
+
+		reopenedChunkIndex.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPersistedIndexCorrupt() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "chunks.idx");
+
+		ChunkIndex chunkIndex = ChunkIndex.create(indexFile, 20, 10);
+		chunkIndex.put(ObjectId.secureRandomBytes(20), 1);
+		chunkIndex.commit("state-1");
+
+		try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+			indexRandomAccessFile.setLength(indexRandomAccessFile.length() - 1);
+		}
+
+		assertNull(ChunkIndex.open(indexFile, "state-1"));
+		assertNull(ChunkIndex.open(new File(tempDir, "does-not-exist"), "state-1"));
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	private List<byte[]> createRandomChecksums(int count, int checksumLength) {
+		List<byte[]> checksums = new ArrayList<byte[]>();
+
+		for (int i = 0; i < count; i++) {
+			checksums.add(ObjectId.secureRandomBytes(checksumLength));
+		}
+
+		return checksums;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Test;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ScanStateIndexTest {
+	@Test
+	public void testWriteAndOpenIndex() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "scanstate.idx");
+		File someFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024);
+		BasicFileAttributes someFileAttributes = FileVersionComparator.readFileAttributes(someFile.toPath());
+
+		ScanStateIndex.Writer indexWriter = new ScanStateIndex.Writer(indexFile);
+
+		for (int i = 0; i < 5000; i++) {
+			indexWriter.addKnown("folder" + (i % 10) + "/file" + i);
+		}
+
+		indexWriter.addVerified("some/verified/file", someFileAttributes);
+		indexWriter.addKnown("some/ünicode/fïle");
+		indexWriter.commit("state-1");
+
+		ScanStateIndex scanStateIndex = ScanStateIndex.open(indexFile);
+
+		assertNotNull(scanStateIndex);
+		assertEquals("state-1", scanStateIndex.getStateKey());
+		assertEquals(5002, scanStateIndex.size());
+
+		for (int i = 0; i < 5000; i++) {
+			int entryNumber = scanStateIndex.find("folder" + (i % 10) + "/file" + i);
+
+			assertEquals(i, entryNumber);
+			assertEquals("folder" + (i % 10) + "/file" + i, scanStateIndex.getPath(entryNumber));
+			assertFalse(scanStateIndex.isVerified(entryNumber));
+			assertFalse(scanStateIndex.matches(entryNumber, someFileAttributes));
+		}
+
+		int verifiedEntryNumber = scanStateIndex.find("some/verified/file");
+
+		assertTrue(scanStateIndex.isVerified(verifiedEntryNumber));
+		assertTrue(scanStateIndex.matches(verifiedEntryNumber, someFileAttributes));
+		assertEquals(5001, scanStateIndex.find("some/ünicode/fïle"));
+		assertEquals(-1, scanStateIndex.find("does/not/exist"));
+
+		// Change file, attributes must not match anymore
+		TestFileUtil.deleteFile(someFile);
+		TestFileUtil.createRandomFile(someFile, 2048);
+		BasicFileAttributes changedFileAttributes = FileVersionComparator.readFileAttributes(someFile.toPath());
+
+		assertFalse(scanStateIndex.matches(verifiedEntryNumber, changedFileAttributes));
+
+		scanStateIndex.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testCopyEntries() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "scanstate.idx");
+		File copiedIndexFile = new File(tempDir, "scanstate-copy.idx");
+		File someFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024);
+		BasicFileAttributes someFileAttributes = FileVersionComparator.readFileAttributes(someFile.toPath());
+
+		ScanStateIndex.Writer indexWriter = new ScanStateIndex.Writer(indexFile);
+		indexWriter.addVerified("file1", someFileAttributes);
+		indexWriter.addKnown("file2");
+		indexWriter.commit("state-1");
+
+		ScanStateIndex scanStateIndex = ScanStateIndex.open(indexFile);
+		ScanStateIndex.Writer copyIndexWriter = new ScanStateIndex.Writer(copiedIndexFile);
+
+		for (int entryNumber = 0; entryNumber < scanStateIndex.size(); entryNumber++) {
+			copyIndexWriter.addCopy(scanStateIndex, entryNumber);
+		}
+
+		copyIndexWriter.commit("state-2");
+
+		ScanStateIndex copiedScanStateIndex = ScanStateIndex.open(copiedIndexFile);
+
+		assertEquals("state-2", copiedScanStateIndex.getStateKey());
+		assertTrue(copiedScanStateIndex.matches(copiedScanStateIndex.find("file1"), someFileAttributes));
+		assertFalse(copiedScanStateIndex.isVerified(copiedScanStateIndex.find("file2")));
+
+		scanStateIndex.close();
+		copiedScanStateIndex.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testReplaceFileWithSameSizeAndDate() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "scanstate.idx");
+		File someFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024);
+		File otherFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024);
+		BasicFileAttributes someFileAttributes = FileVersionComparator.readFileAttributes(someFile.toPath());
+
+		ScanStateIndex.Writer indexWriter = new ScanStateIndex.Writer(indexFile);
+		indexWriter.addVerified("file1", someFileAttributes);
+		indexWriter.commit("state-1");
+
+		// Replace file with a different file (new inode), but same size and last modified date
+		otherFile.setLastModified(someFile.lastModified());
+		Files.move(otherFile.toPath(), someFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		BasicFileAttributes replacedFileAttributes = FileVersionComparator.readFileAttributes(someFile.toPath());
+		ScanStateIndex scanStateIndex = ScanStateIndex.open(indexFile);
+
+		assertEquals(someFileAttributes.size(), replacedFileAttributes.size());
+		assertEquals(someFileAttributes.lastModifiedTime().toMillis(), replacedFileAttributes.lastModifiedTime().toMillis());
+
+		// No file key on Windows; cannot be detected there
+		if (someFileAttributes.fileKey() != null) {
+			assertFalse(scanStateIndex.matches(scanStateIndex.find("file1"), replacedFileAttributes));
+		}
+
+		scanStateIndex.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testReplaceIndexAfterClose() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "scanstate.idx");
+		File newIndexFile = new File(tempDir, "scanstate-new.idx");
+
+		ScanStateIndex.Writer indexWriter = new ScanStateIndex.Writer(indexFile);
+		indexWriter.addKnown("file1");
+		indexWriter.commit("state-1");
+
+		ScanStateIndex scanStateIndex = ScanStateIndex.open(indexFile);
+		ScanStateIndex.Writer newIndexWriter = new ScanStateIndex.Writer(newIndexFile);
+
+		newIndexWriter.addCopy(scanStateIndex, scanStateIndex.find("file1"));
+		newIndexWriter.addKnown("file2");
+		newIndexWriter.commit("state-2");
+
+		// Mapped files cannot be replaced on Windows, so the old index must be unmapped first
+		scanStateIndex.close();
+		Files.move(newIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		ScanStateIndex replacedScanStateIndex = ScanStateIndex.open(indexFile);
+
+		assertEquals("state-2", replacedScanStateIndex.getStateKey());
+		assertEquals(2, replacedScanStateIndex.size());
+		assertEquals(1, replacedScanStateIndex.find("file2"));
+
+		replacedScanStateIndex.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testUncommittedOrCorruptIndex() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File indexFile = new File(tempDir, "scanstate.idx");
+
+		ScanStateIndex.Writer indexWriter = new ScanStateIndex.Writer(indexFile);
+		indexWriter.addKnown("file1");
+		indexWriter.close();
+
+		// Not committed
+		assertNull(ScanStateIndex.open(indexFile));
+
+		indexWriter = new ScanStateIndex.Writer(indexFile);
+		indexWriter.addKnown("file1");
+		indexWriter.commit("state-1");
+
+		ScanStateIndex scanStateIndex = ScanStateIndex.open(indexFile);
+
+		assertNotNull(scanStateIndex);
+		scanStateIndex.close();
+
+		try (RandomAccessFile indexRandomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+			indexRandomAccessFile.setLength(indexRandomAccessFile.length() - 1);
+		}
+
+		// Corrupt
+		assertNull(ScanStateIndex.open(indexFile));
+		assertNull(ScanStateIndex.open(new File(tempDir, "does-not-exist")));
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2016 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.syncany.tests.util.TestFileUtil;
+
+public class SortedKeyValueStoreTest {
+	@Test
+	public void testPutGetAndRemove() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		SortedKeyValueStore store = SortedKeyValueStore.create(new File(tempDir, "store"));
+
+		List<byte[]> keys = createRandomKeys(1000, 20);
+
+		for (int i = 0; i < keys.size(); i++) {
+			store.put(keys.get(i), toValue(i));
+		}
+
+		// Some in memory, some in segments
+		store.commit("state-1");
+
+		store.put(keys.get(0), toValue(-1));
+		store.remove(keys.get(1));
+
+		assertArrayEquals(toValue(-1), store.get(keys.get(0)));
+		assertNull(store.get(keys.get(1)));
+
+		for (int i = 2; i < keys.size(); i++) {
+			assertArrayEquals(toValue(i), store.get(keys.get(i)));
+		}
+
+		assertNull(store.get(ObjectId.secureRandomBytes(20)));
+		assertNull(store.get(new byte[0]));
+
+		store.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPersistedStore() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File storeDir = new File(tempDir, "store");
+
+		List<byte[]> keys = createRandomKeys(5000, 32);
+		SortedKeyValueStore store = SortedKeyValueStore.create(storeDir);
+
+		for (int i = 0; i < keys.size(); i++) {
+			store.put(keys.get(i), toValue(i));
+		}
+
+		// Not committed yet
+		assertNull(SortedKeyValueStore.open(storeDir, "state-1"));
+
+		store.commit("state-1");
+		store.close();
+
+		// Wrong state key
+		assertNull(SortedKeyValueStore.open(storeDir, "state-2"));
+
+		// Correct state key
+		SortedKeyValueStore reopenedStore = SortedKeyValueStore.open(storeDir, "state-1");
+		assertNotNull(reopenedStore);
+
+		for (int i = 0; i < keys.size(); i++) {
+			assertArrayEquals(toValue(i), reopenedStore.get(keys.get(i)));
+		}
+
+		// Update and commit again
+		reopenedStore.remove(keys.get(0));
+		reopenedStore.commit("state-2");
+		reopenedStore.close();
+
+		SortedKeyValueStore updatedStore = SortedKeyValueStore.open(storeDir, "state-2");
+
+		assertNotNull(updatedStore);
+		assertNull(updatedStore.get(keys.get(0)));
+		assertArrayEquals(toValue(1), updatedStore.get(keys.get(1)));
+
+		updatedStore.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File storeDir = new File(tempDir, "store");
+
+		List<byte[]> keys = createRandomKeys(2000, 20);
+		SortedKeyValueStore store = SortedKeyValueStore.create(storeDir);
+
+		// One segment per commit; older values are overwritten by newer segments
+		for (int commit = 0; commit < 20; commit++) {
+			for (int i = commit * 100; i < keys.size(); i++) {
+				store.put(keys.get(i), toValue(commit));
+			}
+
+			store.remove(keys.get(commit));
+			store.commit("state-" + commit);
+		}
+
+		assertTrue(store.getSegmentCount() <= 8);
+
+		store.compact();
+		store.commit("state-compacted");
+		store.close();
+
+		assertEquals(2, storeDir.list().length); // Manifest and one segment
+
+		SortedKeyValueStore compactedStore = SortedKeyValueStore.open(storeDir, "state-compacted");
+
+		for (int i = 0; i < keys.size(); i++) {
+			if (i < 20) {
+				assertNull(compactedStore.get(keys.get(i)));
+			}
+			else {
+				assertArrayEquals(toValue(Math.min(19, i / 100)), compactedStore.get(keys.get(i)));
+			}
+		}
+
+		compactedStore.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testLargeStore() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File storeDir = new File(tempDir, "store");
+
+		List<byte[]> keys = createRandomKeys(600000, 20);
+		SortedKeyValueStore store = SortedKeyValueStore.create(storeDir);
+
+		for (int i = 0; i < keys.size(); i++) {
+			store.put(keys.get(i), toValue(i));
+		}
+
+		// In-memory table was written to segments before commit
+		assertTrue(store.getSegmentCount() >= 2);
+
+		store.commit("state-1");
+		store.close();
+
+		SortedKeyValueStore reopenedStore = SortedKeyValueStore.open(storeDir, "state-1");
+
+		for (int i = 0; i < keys.size(); i += 7) {
+			assertArrayEquals(toValue(i), reopenedStore.get(keys.get(i)));
+		}
+
+		reopenedStore.close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testCorruptStore() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File storeDir = new File(tempDir, "store");
+
+		SortedKeyValueStore store = SortedKeyValueStore.create(storeDir);
+		store.put(ObjectId.secureRandomBytes(20), toValue(1));
+		store.commit("state-1");
+		store.close();
+
+		for (File file : storeDir.listFiles()) {
+			if (!file.getName().equals("MANIFEST")) {
+				TestFileUtil.createRandomFile(file, 10);
+			}
+		}
+
+		assertNull(SortedKeyValueStore.open(storeDir, "state-1"));
+		assertNull(SortedKeyValueStore.open(new File(tempDir, "does-not-exist"), "state-1"));
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	private List<byte[]> createRandomKeys(int count, int keyLength) {
+		List<byte[]> keys = new ArrayList<byte[]>();
+
+		for (int i = 0; i < count; i++) {
+			keys.add(ObjectId.secureRandomBytes(keyLength));
+		}
+
+		return keys;
+	}
+
+	private byte[] toValue(int i) {
+		return Integer.toString(i).getBytes();
+	}
+}
@@ -37,29 +37,31 @@ public class UnreliableLocalTransferManager extends LocalTransferManager {
 	}
 
 	private boolean isNextOperationSuccessful(String operationType, String operationDescription) {
-		// Increase absolute/overall operation counter
-		connection.increaseTotalOperationCounter();
-
-		// Increase type-relative operation counter
-		Integer typeOperationCounter = connection.getTypeOperationCounters().get(operationType);
-
-		typeOperationCounter = (typeOperationCounter != null) ? typeOperationCounter + 1 : 1;
-		connection.getTypeOperationCounters().put(operationType, typeOperationCounter);
-
-		// Construct operation line
-		String operationLine = String.format("abs=%d rel=%d op=%s %s", connection.getTotalOperationCounter(), typeOperationCounter, operationType,
-				operationDescription);
-
-		// Check if it fails
-		for (String failingOperationPattern : connection.getFailingOperationPatterns()) {
-			if (operationLine.matches(".*" + failingOperationPattern + ".*")) {
-				logger.log(Level.INFO, "Operation NOT successful: " + operationLine);
-				return false;
+		synchronized (connection) { // Transfer managers may be used concurrently (e.g. by the downloader)
+			// Increase absolute/overall operation counter
+			connection.increaseTotalOperationCounter();
+
+			// Increase type-relative operation counter
+			Integer typeOperationCounter = connection.getTypeOperationCounters().get(operationType);
+
+			typeOperationCounter = (typeOperationCounter != null) ? typeOperationCounter + 1 : 1;
+			connection.getTypeOperationCounters().put(operationType, typeOperationCounter);
+
+			// Construct operation line
+			String operationLine = String.format("abs=%d rel=%d op=%s %s", connection.getTotalOperationCounter(), typeOperationCounter, operationType,
+					operationDescription);
+
+			// Check if it fails
+			for (String failingOperationPattern : connection.getFailingOperationPatterns()) {
+				if (operationLine.matches(".*" + failingOperationPattern + ".*")) {
+					logger.log(Level.INFO, "Operation NOT successful: " + operationLine);
+					return false;
+				}
 			}
-		}
 
-		logger.log(Level.INFO, "Operation successful:     " + operationLine);
-		return true;
+			logger.log(Level.INFO, "Operation successful:     " + operationLine);
+			return true;
+		}
 	}
 
 	@Override
@@ -95,7 +95,7 @@ public class TestConfigUtil {
 
 	public static ChunkerTO createFixedChunkerTO() {
 		Map<String, String> settings = new HashMap<String, String>();
-		settings.put(Chunker.PROPERTY_SIZE, "32768");
+		settings.put(Chunker.PROPERTY_SIZE, "524288");
 
 		ChunkerTO chunkerTO = new ChunkerTO();
 		chunkerTO.setType("fixed");
@@ -104,6 +104,28 @@ public class TestConfigUtil {
 		return chunkerTO;
 	}
 
+	public static ChunkerTO createTttdChunkerTO() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "65536");
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType("tttd");
+		chunkerTO.setSettings(settings);
+
+		return chunkerTO;
+	}
+
+	public static ChunkerTO createFastCdcChunkerTO() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "65536");
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType("fast-cdc");
+		chunkerTO.setSettings(settings);
+
+		return chunkerTO;
+	}
+
 	public static RepoTO createRepoTO() {
 		// Create Repo TO
 		RepoTO repoTO = new RepoTO();
@@ -112,7 +134,7 @@ public class TestConfigUtil {
 		// Create ChunkerTO and MultiChunkerTO
 		MultiChunkerTO multiChunkerTO = createZipMultiChunkerTO();
 		ChunkerTO chunkerTO = createFixedChunkerTO();
-		repoTO.setChunkerTO(chunkerTO); // TODO [low] Chunker not configurable right now. Not used.
+		repoTO.setChunkerTO(chunkerTO);
 		repoTO.setMultiChunker(multiChunkerTO);
 
 		// Create TransformerTO
@@ -21,6 +21,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
@@ -31,6 +34,8 @@ import java.nio.file.attribute.DosFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A file utility class
@@ -38,6 +43,8 @@ import java.text.DecimalFormat;
  * @author Philipp C. Heckel (philipp.heckel@gmail.com)
  */
 public class FileUtil {
+	private static final Logger logger = Logger.getLogger(FileUtil.class.getSimpleName());
+
 	public static String getRelativePath(File base, File file) {
 		return removeTrailingSlash(base.toURI().relativize(file.toURI()).getPath());
 	}
@@ -224,4 +231,43 @@ public class FileUtil {
 
 		return new DecimalFormat("#,##0.#").format(size / Math.pow(1024, digitGroups)) + " " + units[digitGroups];
 	}
+
+	/**
+	 * Releases a direct or mapped buffer right away instead of waiting for the garbage
+	 * collector, so that the underlying file can be replaced or deleted (which fails on
+	 * Windows while it is mapped). The buffer must not be accessed afterwards. If the JVM
+	 * does not allow this, the buffer is left to the garbage collector.
+	 */
+	public static void unmap(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+			try {
+				// Java 9+
+				Method invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+
+				theUnsafeField.setAccessible(true);
+				invokeCleanerMethod.invoke(theUnsafeField.get(null), buffer);
+			}
+			catch (NoSuchMethodException e) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+
+				Object cleaner = cleanerMethod.invoke(buffer);
+
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			logger.log(Level.FINE, "Cannot unmap buffer; leaving it to the garbage collector.", e);
+		}
+	}
 }